@@ -1,8 +1,11 @@
 package org.biofid.gazetteer;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.MetaDataStringField;
 import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -24,10 +27,28 @@ import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.Annotation;
 import org.apache.uima.resource.ResourceInitializationException;
+import org.biofid.gazetteer.matcher.AbbreviationResolver;
+import org.biofid.gazetteer.matcher.DictionaryAutomaton;
+import org.biofid.gazetteer.matcher.GazetteerMatcher;
+import org.biofid.gazetteer.matcher.Match;
+import org.biofid.gazetteer.matcher.MatchBudget;
+import org.biofid.gazetteer.matcher.MatchBuffer;
+import org.biofid.gazetteer.matcher.MatchCache;
+import org.biofid.gazetteer.matcher.OverlapPolicy;
+import org.biofid.gazetteer.metrics.GazetteerMetrics;
+import org.biofid.gazetteer.metrics.Phase;
+import org.biofid.gazetteer.models.IGazetteerModel;
 import org.biofid.gazetteer.models.ITreeGazetteerModel;
+import org.biofid.gazetteer.models.CompiledGazetteerModel;
+import org.biofid.gazetteer.models.ExternalModelBuilder;
+import org.biofid.gazetteer.models.FstGazetteerModel;
+import org.biofid.gazetteer.models.OffHeapTreeGazetteerModel;
 import org.biofid.gazetteer.models.TreeGazetteerModel;
 import org.biofid.gazetteer.tree.ITreeNode;
+import org.biofid.gazetteer.util.AnnotationWindow;
+import org.biofid.gazetteer.util.Dehyphenator;
 import org.biofid.gazetteer.util.UnicodeRegexSegmenter;
+import org.biofid.gazetteer.util.WarmUpDocuments;
 import org.dkpro.core.api.parameter.ComponentParameters;
 import org.dkpro.core.api.resources.MappingProvider;
 import org.dkpro.core.api.segmentation.SegmenterBase;
@@ -35,13 +56,24 @@ import org.dkpro.core.api.segmentation.SegmenterBase;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public abstract class BaseTreeGazetteer extends SegmenterBase {
 	public static final String PARAM_ADD_ABBREVIATED_TAXA = "pAddAbbreviatedTaxa";
+	/**
+	 * Boolean, if true, collect per-phase latency histograms as well as token and match counts, see {@link Phase}. The
+	 * metrics of all instances of the same engine class are aggregated and exposed via JMX as
+	 * {@code org.biofid.gazetteer:type=GazetteerMetrics,name="<class name>"}. Default: false.
+	 */
+	public static final String PARAM_COLLECT_METRICS = "pCollectMetrics";
 	/**
 	 * File location for a single text file of words to be filtered out.
 	 */
@@ -54,6 +86,11 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	 * Text and model language. Default is "de".
 	 */
 	public static final String PARAM_LANGUAGE = ComponentParameters.PARAM_LANGUAGE;
+	/**
+	 * Interval in seconds at which a metrics summary is logged, if {@link #PARAM_COLLECT_METRICS} is set. Values
+	 * smaller than 1 disable the summary. Default: 60.
+	 */
+	public static final String PARAM_METRICS_LOG_INTERVAL = "pMetricsLogInterval";
 	/**
 	 * Minimum skip-gram string length
 	 */
@@ -62,7 +99,115 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	 * Minimum word count to create skips.
 	 */
 	public static final String PARAM_MIN_WORD_COUNT = "pMinWordCount";
+	/**
+	 * Boolean, if true, move the model into direct buffers outside of the Java heap once it is built, see
+	 * {@link OffHeapTreeGazetteerModel}. Use this for large gazetteers in JVMs with large heaps, so garbage collection
+	 * does not have to trace the model. Default: false.
+	 */
+	public static final String PARAM_OFF_HEAP_MODEL = "pOffHeapModel";
+	/**
+	 * Boolean, if true, compile the skip-grams into a minimal acyclic transducer instead of a tree, see
+	 * {@link FstGazetteerModel}. The transducer shares common suffixes of the skip-grams and needs a fraction of the
+	 * memory of the tree. Takes precedence over {@link #PARAM_OFF_HEAP_MODEL}. Default: false.
+	 */
+	public static final String PARAM_USE_FST_MODEL = "pUseFstModel";
+	/**
+	 * String, optional. If set, build the model with an {@link ExternalModelBuilder} in a subdirectory of this location,
+	 * unless it was built before with the same parameters and sources, and load it as a {@link CompiledGazetteerModel}.
+	 * The build spills sorted runs to disk, so its heap does not depend on the size of the source lists. Use this for
+	 * very large lists like the GBIF backbone. Takes precedence over {@link #PARAM_USE_FST_MODEL} and
+	 * {@link #PARAM_OFF_HEAP_MODEL}. Default: none.
+	 */
+	public static final String PARAM_COMPILED_MODEL_LOCATION = "pCompiledModelLocation";
 	public static final String PARAM_RETOKENIZE = "pRetokenize";
+	/**
+	 * Boolean, if true, share the model between all instances of this engine in the same JVM that are configured with
+	 * the same model parameters. Use this to run several instances of this engine in parallel without building the
+	 * model more than once. Default: false.
+	 */
+	public static final String PARAM_SHARE_MODEL = "pShareModel";
+	/**
+	 * Processing time in milliseconds above which a document is logged as slow, if {@link #PARAM_COLLECT_METRICS} is
+	 * set. Values smaller than 1 disable the check. Default: 0.
+	 */
+	public static final String PARAM_SLOW_DOCUMENT_THRESHOLD = "pSlowDocumentThreshold";
+	/**
+	 * Time in milliseconds a single document may take from the start of {@link #process(JCas)} until the end of
+	 * matching. If it is exceeded, the rest of the document is matched with the {@link #PARAM_BUDGET_STRATEGY} and the
+	 * CAS is marked with a {@link MetaDataStringField} with the key {@link #BUDGET_EXCEEDED_KEY}. Creating the
+	 * annotations of the matches found is not budgeted, so a document may take longer in total. Values smaller than 1
+	 * disable the budget. Default: 0.
+	 */
+	public static final String PARAM_TIME_BUDGET = "pTimeBudget";
+	/**
+	 * Number of tokens of a single document that are matched in full, see {@link #PARAM_TIME_BUDGET}. Values smaller
+	 * than 1 disable the budget. Default: 0.
+	 */
+	public static final String PARAM_TOKEN_BUDGET = "pTokenBudget";
+	/**
+	 * String, the {@link MatchBudget.Strategy} for the rest of a document once its budget is exceeded: STOP to keep
+	 * the partial result or FULL_NAMES to only tag full taxon names and no skip-grams. Default: STOP.
+	 */
+	public static final String PARAM_BUDGET_STRATEGY = "pBudgetStrategy";
+	/**
+	 * Number of synthetic documents to run through {@link #process(JCas)} at the end of {@link #initialize(UimaContext)},
+	 * so the matching and annotation paths are compiled by the JIT before the first real document arrives, see
+	 * {@link WarmUpDocuments}. Values smaller than 1 disable the limit. Default: 0.
+	 */
+	public static final String PARAM_WARM_UP_ITERATIONS = "pWarmUpIterations";
+	/**
+	 * Time in milliseconds to spend on warm-up documents, see {@link #PARAM_WARM_UP_ITERATIONS}. If both are set, the
+	 * warm-up ends at the first limit reached. Values smaller than 1 disable the limit. Default: 0.
+	 */
+	public static final String PARAM_WARM_UP_TIME = "pWarmUpTime";
+	/**
+	 * The key of the {@link MetaDataStringField} that marks a document whose budget was exceeded.
+	 */
+	public static final String BUDGET_EXCEEDED_KEY = "org.biofid.gazetteer.budgetExceeded";
+	/**
+	 * String, the {@link OverlapPolicy} used to resolve overlapping matches before the annotations of a document are
+	 * created: LONGEST, LEFTMOST or ALL. Matches with identical spans are always kept. Default: ALL.
+	 */
+	public static final String PARAM_OVERLAP_POLICY = "pOverlapPolicy";
+	/**
+	 * Boolean, if true, find every match in a single pass with a {@link DictionaryAutomaton}, including taxa nested in
+	 * or overlapping with longer matches, instead of greedily taking the longest match and skipping the tokens covered
+	 * by it. Use {@link #PARAM_OVERLAP_POLICY} to filter the result, LEFTMOST reproduces the greedy matches. The
+	 * automaton is built once per model, so engines with a shared model also share it. Default: false.
+	 */
+	public static final String PARAM_FIND_OVERLAPPING_MATCHES = "pFindOverlappingMatches";
+	/**
+	 * Boolean, if true, match each {@link Token} with all of its forms at once: the covered text, the value of the
+	 * {@link Lemma} with the same begin offset and the lower cased covered text. A taxon is found if any combination of
+	 * these forms matches, so a single pass finds the taxa of tagging both with and without {@link #PARAM_USE_LEMMATA},
+	 * which is ignored. Streaming tagging is not supported and falls back to document level tagging. Default: false.
+	 */
+	public static final String PARAM_USE_TOKEN_LATTICE = "pUseTokenLattice";
+	/**
+	 * Integer, the maximum number of paths through the token lattice that are followed at the same time, see
+	 * {@link #PARAM_USE_TOKEN_LATTICE}. Default: 8.
+	 */
+	public static final String PARAM_MAX_LATTICE_BRANCHING = "pMaxLatticeBranching";
+	/**
+	 * Boolean, if true, join words that are hyphenated across a line break, eg. "Quer-\ncus robur", while the query is
+	 * built, see {@link Dehyphenator}. The annotations of matches span the original characters of both parts. Not
+	 * applied to the token lattice. Default: false.
+	 */
+	public static final String PARAM_DEHYPHENATE = "pDehyphenate";
+	/**
+	 * Boolean, if true, resolve abbreviated genera like "Q. robur" at match time with an {@link AbbreviationResolver}
+	 * instead of adding an abbreviated copy of every taxon to the model. The model is built as if
+	 * {@link #PARAM_ADD_ABBREVIATED_TAXA} was false, and each abbreviation is replaced by the genus with the same
+	 * initial that was last seen in the current document and is continued by the next token. Default: false.
+	 */
+	public static final String PARAM_RESOLVE_ABBREVIATED_GENERA = "pResolveAbbreviatedGenera";
+	/**
+	 * Integer, the maximum size of a {@link MatchCache} in megabytes, which memoizes the matches of repeated sentences
+	 * like running heads or captions across documents, if sentence level tagging is used. The cache is not used while
+	 * a {@link #PARAM_TIME_BUDGET time or token budget} applies, as the matches of a sentence then depend on its
+	 * position and timing. Values smaller than 1 disable it. Default: 0.
+	 */
+	public static final String PARAM_MATCH_CACHE_SIZE = "pMatchCacheSize";
 	/**
 	 * Location from which the taxon data is read.
 	 */
@@ -91,11 +236,23 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	 * Default: false.
 	 */
 	public static final String PARAM_USE_SENTECE_LEVEL_TAGGING = "pUseSentenceLevelTagging";
+	/**
+	 * Boolean, if true, tag the entire document text in a single pass over the {@link Lemma}/{@link Token} index
+	 * instead of copying all tokens into a query list first. Only a look-ahead window of the size of the tree depth and
+	 * the buffered matches are kept in memory. Has no effect if sentence level tagging or
+	 * {@link #PARAM_USE_TOKEN_LATTICE} is used.
+	 * <p>
+	 * Default: false.
+	 */
+	public static final String PARAM_USE_STREAMING_TAGGING = "pUseStreamingTagging";
 	/**
 	 * Boolean, if true, use StringTree implementation. Default: true.
 	 */
 	public static final String PARAM_USE_STRING_TREE = "pUseStringTree";
-	protected static AnalysisEngine regexSegmenter;
+	private static final HashMap<String, ITreeGazetteerModel> sharedModels = new HashMap<>();
+	private static final long WARM_UP_SEED = 42L;
+	private static final int WARM_UP_DOCUMENT_TOKENS = 2000;
+	protected AnalysisEngine regexSegmenter;
 	@ConfigurationParameter(name = PARAM_LANGUAGE, mandatory = false, defaultValue = "de")
 	protected String language;
 	@ConfigurationParameter(name = PARAM_SOURCE_LOCATION, mandatory = false, defaultValue = "https://www.texttechnologylab.org/files/BIOfidTaxa.zip")
@@ -123,17 +280,72 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	protected String tokenBoundaryRegex;
 	@ConfigurationParameter(name = PARAM_USE_SENTECE_LEVEL_TAGGING, mandatory = false, defaultValue = "false")
 	protected boolean pUseSentenceLevelTagging;
+	@ConfigurationParameter(name = PARAM_USE_STREAMING_TAGGING, mandatory = false, defaultValue = "false")
+	protected boolean pUseStreamingTagging;
 	@ConfigurationParameter(name = PARAM_ADD_ABBREVIATED_TAXA, mandatory = false, defaultValue = "true")
 	protected boolean pAddAbbreviatedTaxa;
 	@ConfigurationParameter(name = PARAM_RETOKENIZE, mandatory = false, defaultValue = "false")
 	protected boolean pRetokenize;
+	@ConfigurationParameter(name = PARAM_SHARE_MODEL, mandatory = false, defaultValue = "false")
+	protected boolean pShareModel;
+	@ConfigurationParameter(name = PARAM_OFF_HEAP_MODEL, mandatory = false, defaultValue = "false")
+	protected boolean pOffHeapModel;
+	@ConfigurationParameter(name = PARAM_USE_FST_MODEL, mandatory = false, defaultValue = "false")
+	protected boolean pUseFstModel;
+	@ConfigurationParameter(name = PARAM_COMPILED_MODEL_LOCATION, mandatory = false)
+	protected String pCompiledModelLocation;
+	@ConfigurationParameter(name = PARAM_COLLECT_METRICS, mandatory = false, defaultValue = "false")
+	protected boolean pCollectMetrics;
+	@ConfigurationParameter(name = PARAM_METRICS_LOG_INTERVAL, mandatory = false, defaultValue = "60")
+	protected int pMetricsLogInterval;
+	@ConfigurationParameter(name = PARAM_SLOW_DOCUMENT_THRESHOLD, mandatory = false, defaultValue = "0")
+	protected int pSlowDocumentThreshold;
+	@ConfigurationParameter(name = PARAM_TIME_BUDGET, mandatory = false, defaultValue = "0")
+	protected int pTimeBudget;
+	@ConfigurationParameter(name = PARAM_TOKEN_BUDGET, mandatory = false, defaultValue = "0")
+	protected int pTokenBudget;
+	@ConfigurationParameter(name = PARAM_BUDGET_STRATEGY, mandatory = false, defaultValue = "STOP")
+	protected String pBudgetStrategy;
+	@ConfigurationParameter(name = PARAM_WARM_UP_ITERATIONS, mandatory = false, defaultValue = "0")
+	protected int pWarmUpIterations;
+	@ConfigurationParameter(name = PARAM_WARM_UP_TIME, mandatory = false, defaultValue = "0")
+	protected int pWarmUpTime;
+	@ConfigurationParameter(name = PARAM_OVERLAP_POLICY, mandatory = false, defaultValue = "ALL")
+	protected String pOverlapPolicy;
+	@ConfigurationParameter(name = PARAM_FIND_OVERLAPPING_MATCHES, mandatory = false, defaultValue = "false")
+	protected boolean pFindOverlappingMatches;
+	@ConfigurationParameter(name = PARAM_USE_TOKEN_LATTICE, mandatory = false, defaultValue = "false")
+	protected boolean pUseTokenLattice;
+	@ConfigurationParameter(name = PARAM_MAX_LATTICE_BRANCHING, mandatory = false, defaultValue = "8")
+	protected int pMaxLatticeBranching;
+	@ConfigurationParameter(name = PARAM_DEHYPHENATE, mandatory = false, defaultValue = "false")
+	protected boolean pDehyphenate;
+	@ConfigurationParameter(name = PARAM_RESOLVE_ABBREVIATED_GENERA, mandatory = false, defaultValue = "false")
+	protected boolean pResolveAbbreviatedGenera;
+	@ConfigurationParameter(name = PARAM_MATCH_CACHE_SIZE, mandatory = false, defaultValue = "0")
+	protected int pMatchCacheSize;
 	protected ArrayList<Annotation> tokens;
 	protected ConcurrentHashMap<Integer, Integer> tokenBeginIndex;
+	protected HashMap<Integer, Integer> joinedTokenEnds = new HashMap<>();
+	/**
+	 * The query of the entire document, if sentences are tagged on a dehyphenated or resolved query, see
+	 * {@link #getSentenceList(Map, Sentence)}.
+	 */
+	protected ArrayList<String> documentQuery;
+	protected ArrayList<List<String>> documentLattice;
 	protected Type taggingType;
 	protected int skipGramTreeDepth;
 	protected ITreeNode skipGramTreeRoot;
 	protected JCas localJCas;
 	protected ITreeGazetteerModel stringTreeGazetteerModel;
+	protected GazetteerMatcher matcher;
+	protected AbbreviationResolver abbreviationResolver;
+	protected MatchBudget budget = MatchBudget.UNLIMITED;
+	protected MatchCache matchCache;
+	protected GazetteerMetrics metrics = GazetteerMetrics.DISABLED;
+	protected int documentMatches;
+	protected OverlapPolicy overlapPolicy;
+	protected final MatchBuffer matchBuffer = new MatchBuffer();
 	MappingProvider namedEntityMappingProvider;
 	
 	@Override
@@ -144,6 +356,18 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 		namedEntityMappingProvider.setDefault(MappingProvider.BASE_TYPE, NamedEntity.class.getName());
 		namedEntityMappingProvider.setOverride(MappingProvider.LANGUAGE, language);
 		
+		try {
+			overlapPolicy = OverlapPolicy.valueOf(pOverlapPolicy.toUpperCase());
+			budget = new MatchBudget(pTimeBudget, pTokenBudget, MatchBudget.Strategy.valueOf(pBudgetStrategy.toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			throw new ResourceInitializationException(e);
+		}
+		
+		if (pResolveAbbreviatedGenera && pAddAbbreviatedTaxa) {
+			getLogger().info("Resolving abbreviated genera at match time, building the model without abbreviated taxa.");
+			pAddAbbreviatedTaxa = false;
+		}
+		
 		try {
 			if (pRetokenize) {
 				getLogger().info("Initializing UnicodeRegexSegmenter");
@@ -154,30 +378,213 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 						UnicodeRegexSegmenter.PARAM_WRITE_SENTENCE, false);
 			}
 			
-			createTreeModel();
+			if (pShareModel) {
+				createOrGetSharedTreeModel();
+			} else {
+				createTreeModel();
+			}
+			matcher = new GazetteerMatcher(stringTreeGazetteerModel, skipGramTreeDepth, pUseLowercase, GazetteerMatcher.DEFAULT_TOKEN_REGEX);
+			if (pFindOverlappingMatches) {
+				matcher.getAutomaton();
+			}
+			if (pResolveAbbreviatedGenera) {
+				abbreviationResolver = new AbbreviationResolver(stringTreeGazetteerModel);
+			}
+			if (pMatchCacheSize > 0) {
+				matchCache = new MatchCache(pMatchCacheSize * 1024L * 1024L);
+			}
+			if (pCollectMetrics) {
+				metrics = GazetteerMetrics.register(getClass().getSimpleName());
+				metrics.setModelBuildMillis(stringTreeGazetteerModel.getBuildMillis());
+				if (matchCache != null) {
+					metrics.addMatchCache(matchCache);
+				}
+			}
 			
 			localJCas = JCasFactory.createJCas();
 		} catch (IOException | ClassNotFoundException | UIMAException e) {
 			throw new ResourceInitializationException(e);
 		}
+		
+		initializeTagging();
+		
+		if (pWarmUpIterations > 0 || pWarmUpTime > 0) {
+			try {
+				warmUp();
+			} catch (UIMAException e) {
+				throw new ResourceInitializationException(e);
+			}
+			if (matchCache != null) {
+				// Do not keep the synthetic sentences
+				matchCache.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Set up the state subclasses need to tag documents, eg. their tagging types. Called at the end of
+	 * {@link #initialize(UimaContext)} after the model was created, but before the warm-up documents are processed.
+	 */
+	protected void initializeTagging() throws ResourceInitializationException {
+	}
+	
+	/**
+	 * Run synthetic documents through {@link #process(JCas)} until {@link #PARAM_WARM_UP_ITERATIONS} documents were
+	 * processed or {@link #PARAM_WARM_UP_TIME} has passed. Neither metrics nor budgets apply to warm-up documents.
+	 */
+	protected void warmUp() throws UIMAException {
+		GazetteerMetrics documentMetrics = metrics;
+		MatchBudget documentBudget = budget;
+		metrics = GazetteerMetrics.DISABLED;
+		budget = MatchBudget.UNLIMITED;
+		try {
+			WarmUpDocuments documents = new WarmUpDocuments(skipGramTreeRoot, WARM_UP_SEED);
+			JCas jCas = JCasFactory.createJCas();
+			long start = System.nanoTime();
+			long deadline = pWarmUpTime > 0 ? start + TimeUnit.MILLISECONDS.toNanos(pWarmUpTime) : Long.MAX_VALUE;
+			long firstNanos = 0L, lastNanos = 0L, tokenCount = 0L;
+			int iterations = 0;
+			while ((pWarmUpIterations < 1 || iterations < pWarmUpIterations) && System.nanoTime() < deadline) {
+				jCas.reset();
+				jCas.setDocumentLanguage(language);
+				tokenCount += documents.fill(jCas, WARM_UP_DOCUMENT_TOKENS, 0.3, 25, pUseLemmata);
+				long documentStart = System.nanoTime();
+				process(jCas);
+				lastNanos = System.nanoTime() - documentStart;
+				if (iterations++ == 0)
+					firstNanos = lastNanos;
+			}
+			getLogger().info(String.format("Warm-up finished after %d documents with %d tokens in %dms. The first document took %.2fms, the last %.2fms.",
+					iterations, tokenCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), firstNanos / 1e6, lastNanos / 1e6));
+		} finally {
+			metrics = documentMetrics;
+			budget = documentBudget;
+		}
 	}
 	
 	protected void createTreeModel() throws IOException, ClassNotFoundException {
 		getLogger().info("Initializing StringTreeGazetteerModel");
-		stringTreeGazetteerModel = new TreeGazetteerModel(
+		stringTreeGazetteerModel = createTreeGazetteerModel(
 				sourceLocation,
 				pUseLowercase,
-				language,
 				pMinLength,
 				pGetAllSkips,
-				pSplitHyphen,
 				pAddAbbreviatedTaxa,
-				pMinWordCount,
-				tokenBoundaryRegex,
 				getFilterSet()
 		);
 		skipGramTreeRoot = stringTreeGazetteerModel.getTree();
-		skipGramTreeDepth = skipGramTreeRoot.depth();
+		skipGramTreeDepth = stringTreeGazetteerModel.getStats().getMaxDepth();
+	}
+	
+	/**
+	 * Load or build a {@link CompiledGazetteerModel}, if {@link #PARAM_COMPILED_MODEL_LOCATION} is set. Otherwise
+	 * create a {@link FstGazetteerModel}, if {@link #PARAM_USE_FST_MODEL} is set, or a {@link TreeGazetteerModel},
+	 * which is {@link #offHeapIfConfigured(TreeGazetteerModel) moved off-heap} if configured. All other model
+	 * parameters are taken from this engine.
+	 */
+	protected ITreeGazetteerModel createTreeGazetteerModel(String[] sourceLocations, boolean useLowercase, double minLength,
+	                                                       boolean getAllSkips, boolean addAbbreviatedTaxa,
+	                                                       HashSet<String> filterSet) throws IOException {
+		if (StringUtils.isNotEmpty(pCompiledModelLocation)) {
+			Path modelDirectory = new ExternalModelBuilder(sourceLocations, useLowercase, language, minLength, getAllSkips,
+					pSplitHyphen, addAbbreviatedTaxa, pMinWordCount, tokenBoundaryRegex, filterSet)
+					.build(Paths.get(pCompiledModelLocation));
+			return new CompiledGazetteerModel(modelDirectory, useLowercase, tokenBoundaryRegex);
+		}
+		if (pUseFstModel) {
+			if (pOffHeapModel)
+				getLogger().warn("The transducer model is kept on-heap, ignoring PARAM_OFF_HEAP_MODEL.");
+			return new FstGazetteerModel(sourceLocations, useLowercase, language, minLength, getAllSkips, pSplitHyphen,
+					addAbbreviatedTaxa, pMinWordCount, tokenBoundaryRegex, filterSet);
+		}
+		return offHeapIfConfigured(new TreeGazetteerModel(sourceLocations, useLowercase, language, minLength, getAllSkips,
+				pSplitHyphen, addAbbreviatedTaxa, pMinWordCount, tokenBoundaryRegex, filterSet));
+	}
+	
+	/**
+	 * @return An {@link OffHeapTreeGazetteerModel off-heap copy} of the given model, if {@link #PARAM_OFF_HEAP_MODEL}
+	 * is set, or the given model otherwise.
+	 */
+	protected ITreeGazetteerModel offHeapIfConfigured(TreeGazetteerModel model) {
+		return pOffHeapModel ? new OffHeapTreeGazetteerModel(model) : model;
+	}
+	
+	/**
+	 * Reuse the model of another instance with the same model parameters or create the model, if there is no such
+	 * instance yet.
+	 */
+	protected void createOrGetSharedTreeModel() throws IOException, ClassNotFoundException {
+		String modelKey = getModelKey();
+		synchronized (sharedModels) {
+			ITreeGazetteerModel sharedModel = sharedModels.get(modelKey);
+			if (sharedModel == null) {
+				createTreeModel();
+				sharedModels.put(modelKey, stringTreeGazetteerModel);
+			} else {
+				getLogger().info("Using shared model");
+				stringTreeGazetteerModel = sharedModel;
+				skipGramTreeRoot = sharedModel.getTree();
+				skipGramTreeDepth = stringTreeGazetteerModel.getStats().getMaxDepth();
+			}
+		}
+	}
+	
+	/**
+	 * Get the shared model with the given key or create it with the given factory, if there is no such model yet.
+	 *
+	 * @param modelKey     A key that identifies the model and all parameters it was created with.
+	 * @param modelFactory Creates the model, if necessary.
+	 * @return The shared model.
+	 */
+	protected static ITreeGazetteerModel getOrCreateSharedModel(String modelKey, ModelFactory modelFactory) throws IOException {
+		synchronized (sharedModels) {
+			ITreeGazetteerModel sharedModel = sharedModels.get(modelKey);
+			if (sharedModel == null) {
+				sharedModel = modelFactory.create();
+				sharedModels.put(modelKey, sharedModel);
+			}
+			return sharedModel;
+		}
+	}
+	
+	/**
+	 * @return A key that identifies the model created by {@link #createTreeModel()} with the current parameters.
+	 */
+	protected String getModelKey() {
+		return getModelKey(getClass().getName(), sourceLocation, pUseLowercase, language, pMinLength, pGetAllSkips,
+				pSplitHyphen, pAddAbbreviatedTaxa, pMinWordCount, tokenBoundaryRegex, pFilterLocation, pOffHeapModel,
+				pUseFstModel, pCompiledModelLocation);
+	}
+	
+	/**
+	 * Build a key that identifies a model and all parameters it is created with, see
+	 * {@link #getOrCreateSharedModel(String, ModelFactory)}. Parameters that affect the model must be added here, so
+	 * all engines that share models build their keys alike.
+	 *
+	 * @param owner The name of the class the model is shared within.
+	 * @return The key.
+	 */
+	protected static String getModelKey(String owner, String[] sourceLocations, boolean useLowercase, String language,
+	                                    int minLength, boolean getAllSkips, boolean splitHyphen,
+	                                    boolean addAbbreviatedTaxa, int minWordCount, String tokenBoundaryRegex,
+	                                    String filterLocation, boolean offHeapModel, boolean useFstModel,
+	                                    String compiledModelLocation) {
+		return String.join("|",
+				owner,
+				String.join(",", sourceLocations),
+				String.valueOf(useLowercase),
+				language,
+				String.valueOf(minLength),
+				String.valueOf(getAllSkips),
+				String.valueOf(splitHyphen),
+				String.valueOf(addAbbreviatedTaxa),
+				String.valueOf(minWordCount),
+				tokenBoundaryRegex,
+				String.valueOf(filterLocation),
+				String.valueOf(offHeapModel),
+				String.valueOf(useFstModel),
+				String.valueOf(compiledModelLocation)
+		);
 	}
 	
 	protected HashSet<String> getFilterSet() throws IOException {
@@ -198,9 +605,17 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	
 	@Override
 	protected void process(JCas originalJCas, String text, int zoneBegin) throws AnalysisEngineProcessException {
+		long documentStart = metrics.start();
+		budget.start();
+		documentMatches = 0;
+		matchBuffer.clear();
+		if (abbreviationResolver != null) {
+			abbreviationResolver.reset();
+		}
 		namedEntityMappingProvider.configure(originalJCas.getCas());
 		inferTaggingType(originalJCas.getTypeSystem());
 		tokenBeginIndex = new ConcurrentHashMap<>();
+		joinedTokenEnds.clear();
 		
 		if (originalJCas.getDocumentText().trim().length() == 0) {
 			getLogger().debug("Skipping empty JCas");
@@ -210,14 +625,20 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 		getLogger().debug("Tagging");
 		try {
 			if (pRetokenize) {
+				long start = metrics.start();
 				localJCas = processLocalJCas(originalJCas);
+				metrics.stop(Phase.RETOKENIZE, start);
 			} else {
 				localJCas = originalJCas;
 			}
 			
 			Collection<Sentence> sentences = JCasUtil.select(localJCas, Sentence.class);
 			if (!pUseSentenceLevelTagging || sentences.isEmpty()) {
-				tagEntireDocumentText(originalJCas, localJCas);
+				if (pUseStreamingTagging && !pUseTokenLattice) {
+					tagEntireDocumentTextStreaming(originalJCas, localJCas);
+				} else {
+					tagEntireDocumentText(originalJCas, localJCas);
+				}
 			} else {
 				int sentencesLength = sentences.stream().map(Sentence::getCoveredText).collect(Collectors.joining(" ")).length();
 				getLogger().debug(String.format("Tagging sentences. Coverage: %d/%d", sentencesLength, localJCas.getDocumentText().length()));
@@ -226,6 +647,63 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 		} catch (UIMAException e) {
 			throw new AnalysisEngineProcessException(e);
 		}
+		
+		if (budget.isExceeded()) {
+			markBudgetExceeded(originalJCas);
+		}
+		
+		long start = metrics.start();
+		addBufferedAnnotations(originalJCas);
+		metrics.stop(Phase.ANNOTATE, start);
+		
+		if (metrics.isEnabled()) {
+			recordDocumentMetrics(originalJCas, documentStart);
+		}
+	}
+	
+	/**
+	 * Record the token and match counts and the total processing time of the current document, log it if it exceeds
+	 * {@link #PARAM_SLOW_DOCUMENT_THRESHOLD} and log the metrics summary if it is due.
+	 */
+	protected void recordDocumentMetrics(JCas originalJCas, long documentStart) {
+		long elapsed = metrics.stop(Phase.DOCUMENT, documentStart);
+		int documentTokens = localJCas.getAnnotationIndex(Token.type).size();
+		metrics.recordDocument(documentTokens, documentMatches);
+		
+		if (pSlowDocumentThreshold > 0 && TimeUnit.NANOSECONDS.toMillis(elapsed) > pSlowDocumentThreshold) {
+			metrics.recordSlowDocument();
+			getLogger().warn(String.format("Slow document '%s': %dms for %d tokens and %d matches.",
+					getDocumentId(originalJCas), TimeUnit.NANOSECONDS.toMillis(elapsed), documentTokens, documentMatches));
+		}
+		metrics.logSummaryIfDue(TimeUnit.SECONDS.toMillis(pMetricsLogInterval));
+	}
+	
+	/**
+	 * Log that the {@link MatchBudget} of the current document was exceeded, count it and mark the document with a
+	 * {@link MetaDataStringField} with the key {@link #BUDGET_EXCEEDED_KEY} that spans the entire document.
+	 */
+	protected void markBudgetExceeded(JCas originalJCas) {
+		String description = String.format("reason=%s strategy=%s token=%d millis=%d",
+				budget.getReason(), budget.getStrategy(), budget.getExceededIndex(), budget.getElapsedMillis());
+		getLogger().warn(String.format("Budget exceeded for document '%s': %s", getDocumentId(originalJCas), description));
+		metrics.recordDegradedDocument();
+		
+		MetaDataStringField field = new MetaDataStringField(originalJCas, 0, originalJCas.getDocumentText().length());
+		field.setKey(BUDGET_EXCEEDED_KEY);
+		field.setValue(description);
+		field.addToIndexes();
+	}
+	
+	private static String getDocumentId(JCas aJCas) {
+		return JCasUtil.exists(aJCas, DocumentMetaData.class) ? DocumentMetaData.get(aJCas).getDocumentId() : null;
+	}
+	
+	@Override
+	public void collectionProcessComplete() throws AnalysisEngineProcessException {
+		super.collectionProcessComplete();
+		if (metrics.isEnabled() && pMetricsLogInterval > 0) {
+			getLogger().info(metrics.getSummary());
+		}
 	}
 	
 	protected abstract void inferTaggingType(TypeSystem typeSystem);
@@ -253,8 +731,142 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 				)
 		);
 		
-		ArrayList<String> query = getDocumentLevelQuery(localJCas);
-		findAllMatches(skipGramTreeRoot, query, 0).forEach(m -> addAnnotation(originalJCas, m));
+		long start = metrics.start();
+		ArrayList<Match> matches;
+		if (pUseTokenLattice) {
+			ArrayList<List<String>> lattice = getDocumentLevelLattice(localJCas);
+			resolveLatticeAbbreviations(lattice);
+			start = recordAndRestart(Phase.QUERY, start);
+			matches = findAllLatticeMatches(lattice, 0);
+		} else {
+			ArrayList<String> query = getDocumentLevelQuery(localJCas);
+			resolveAbbreviations(query);
+			start = recordAndRestart(Phase.QUERY, start);
+			matches = findAllMatches(query, 0);
+		}
+		matches.forEach(this::bufferMatch);
+		metrics.stop(Phase.MATCH, start);
+	}
+	
+	protected long recordAndRestart(Phase phase, long start) {
+		if (!metrics.isEnabled())
+			return 0L;
+		metrics.stop(phase, start);
+		return metrics.start();
+	}
+	
+	/**
+	 * Tag the entire document text by streaming over the {@link Lemma} or {@link Token} index. The tree is traversed on
+	 * an {@link AnnotationWindow} of at most {@link #skipGramTreeDepth} annotations, so the memory footprint does not
+	 * depend on the document length.
+	 *
+	 * @param originalJCas The JCas to add the annotations to.
+	 * @param localJCas    The JCas containing the tokens.
+	 */
+	protected void tagEntireDocumentTextStreaming(JCas originalJCas, JCas localJCas) {
+		getLogger().debug("Streaming tagging of entire document text.");
+		
+		Iterator<? extends Annotation> iterator;
+		if (pUseLemmata && localJCas.getAnnotationIndex(Lemma.type).size() > 0) {
+			iterator = JCasUtil.iterator(localJCas, Lemma.class);
+		} else {
+			iterator = JCasUtil.iterator(localJCas, Token.class);
+		}
+		
+		PeekingIterator<Dehyphenator.JoinedToken> tokenStream = Iterators.peekingIterator(
+				new Dehyphenator(iterator, this::getAnnotationText, localJCas.getDocumentText(), pDehyphenate));
+		if (pFindOverlappingMatches) {
+			tagOverlappingMatchesStreaming(tokenStream);
+			return;
+		}
+		
+		long queryNanos = 0L, matchNanos = 0L;
+		AnnotationWindow window = new AnnotationWindow(skipGramTreeDepth);
+		int index = 0;
+		do {
+			long start = metrics.start();
+			while (!window.isFull() && tokenStream.hasNext()) {
+				Dehyphenator.JoinedToken token = tokenStream.next();
+				window.append(token.first, token.end, resolveAbbreviation(token.text, tokenStream));
+			}
+			queryNanos += metrics.elapsed(start);
+			if (window.isEmpty() || !budget.proceed(index)) {
+				break;
+			}
+			
+			start = metrics.start();
+			Match match = matcher.longestMatchAt(window, 0);
+			if (match != null && budget.isDegraded(index) && !matcher.isFullName(match)) {
+				match = null;
+			}
+			if (match != null) {
+				bufferMatch(window.getAnnotation(0).getBegin(), window.getEnd(match.end), match.value);
+				window.advance(match.end + 1);
+				index += match.end + 1;
+			} else {
+				window.advance(1);
+				index++;
+			}
+			matchNanos += metrics.elapsed(start);
+		} while (true);
+		metrics.record(Phase.QUERY, queryNanos);
+		metrics.record(Phase.MATCH, matchNanos);
+	}
+	
+	/**
+	 * Feed the tokens to the {@link DictionaryAutomaton} one at a time and buffer every match ending at each token.
+	 * Only the begin offsets of the last {@link #skipGramTreeDepth} tokens are kept in memory.
+	 */
+	protected void tagOverlappingMatchesStreaming(PeekingIterator<Dehyphenator.JoinedToken> tokenStream) {
+		DictionaryAutomaton automaton = matcher.getAutomaton();
+		int[] begins = new int[Math.max(1, skipGramTreeDepth)];
+		long queryNanos = 0L, matchNanos = 0L;
+		int state = DictionaryAutomaton.ROOT;
+		for (int i = 0; tokenStream.hasNext() && budget.proceed(i); i++) {
+			long start = metrics.start();
+			Dehyphenator.JoinedToken token = tokenStream.next();
+			String text = resolveAbbreviation(token.text, tokenStream);
+			queryNanos += metrics.elapsed(start);
+			
+			start = metrics.start();
+			begins[i % begins.length] = token.first.getBegin();
+			int end = token.end;
+			state = automaton.next(state, text);
+			automaton.forEachMatch(state, i, (first, last, value) -> {
+				if (!budget.isDegraded(first) || matcher.isFullName(new Match(first, last, value)))
+					bufferMatch(begins[first % begins.length], end, value);
+			});
+			matchNanos += metrics.elapsed(start);
+		}
+		metrics.record(Phase.QUERY, queryNanos);
+		metrics.record(Phase.MATCH, matchNanos);
+	}
+	
+	/**
+	 * Resolve the abbreviated genera of the given document query in place, if {@link #PARAM_RESOLVE_ABBREVIATED_GENERA}
+	 * is set.
+	 */
+	protected void resolveAbbreviations(List<String> query) {
+		if (abbreviationResolver != null)
+			abbreviationResolver.resolve(query);
+	}
+	
+	/**
+	 * Resolve the abbreviated genera of the given document lattice in place, see {@link #resolveAbbreviations(List)}.
+	 */
+	protected void resolveLatticeAbbreviations(List<? extends List<String>> lattice) {
+		if (abbreviationResolver != null)
+			abbreviationResolver.resolveLattice(lattice);
+	}
+	
+	/**
+	 * @param tokenStream The remaining tokens, the next one decides whether an abbreviation is resolved.
+	 * @return The genus of the given token, if it is a resolvable abbreviation, or the token otherwise.
+	 */
+	protected String resolveAbbreviation(String token, PeekingIterator<Dehyphenator.JoinedToken> tokenStream) {
+		if (abbreviationResolver == null)
+			return token;
+		return abbreviationResolver.next(token, tokenStream.hasNext() ? tokenStream.peek().text : null);
 	}
 	
 	protected ArrayList<String> getDocumentLevelQuery(JCas aJCas) {
@@ -263,6 +875,9 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 		if (!pUseLemmata || tokens.isEmpty()) {
 			tokens = Lists.newArrayList(JCasUtil.select(aJCas, Token.class));
 		}
+		if (pDehyphenate) {
+			return dehyphenate(aJCas.getDocumentText(), pUseLowercase);
+		}
 		for (Annotation token : tokens) {
 			String qText = getAnnotationText(token);
 			query.add(qText);
@@ -270,34 +885,165 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 		return query;
 	}
 	
+	/**
+	 * Replace the {@link #tokens} with the first annotation of each token of the joined token stream, see
+	 * {@link Dehyphenator}, and record the end offsets of joined tokens for {@link #getTokenEnd(int)}.
+	 *
+	 * @return The query texts of the joined token stream.
+	 */
+	protected ArrayList<String> dehyphenate(String documentText, boolean lowercase) {
+		Dehyphenator tokenStream = new Dehyphenator(tokens.iterator(), token -> getAnnotationText(token, lowercase), documentText, true);
+		ArrayList<Annotation> joinedTokens = new ArrayList<>(tokens.size());
+		ArrayList<String> query = new ArrayList<>(tokens.size());
+		joinedTokenEnds.clear();
+		while (tokenStream.hasNext()) {
+			Dehyphenator.JoinedToken token = tokenStream.next();
+			if (token.isJoined())
+				joinedTokenEnds.put(joinedTokens.size(), token.end);
+			joinedTokens.add(token.first);
+			query.add(token.text);
+		}
+		tokens = joinedTokens;
+		return query;
+	}
+	
+	/**
+	 * @return The end offset of the token at the given index of {@link #tokens}, which is the end of the last part of a
+	 * joined token.
+	 */
+	protected int getTokenEnd(int index) {
+		Integer end = joinedTokenEnds.get(index);
+		return end != null ? end : tokens.get(index).getEnd();
+	}
+	
+	/**
+	 * @return The index of the first of the {@link #tokens} that begins at or after the given offset.
+	 */
+	protected int getFirstTokenIndexAt(int offset) {
+		int low = 0;
+		int high = tokens.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (tokens.get(mid).getBegin() < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Get the token lattice of the entire document, see {@link #getLattice(Collection, Map, boolean)}.
+	 */
+	protected ArrayList<List<String>> getDocumentLevelLattice(JCas aJCas) {
+		tokens = Lists.newArrayList(JCasUtil.select(aJCas, Token.class));
+		return getLattice(tokens, getLemmaIndex(aJCas), pUseLowercase);
+	}
+	
+	/**
+	 * @return The text of each {@link Lemma} by its begin offset.
+	 */
+	protected HashMap<Integer, String> getLemmaIndex(JCas aJCas) {
+		HashMap<Integer, String> lemmata = new HashMap<>();
+		for (Lemma lemma : JCasUtil.select(aJCas, Lemma.class)) {
+			lemmata.put(lemma.getBegin(), getAnnotationText(lemma, false));
+		}
+		return lemmata;
+	}
+	
+	/**
+	 * Get the distinct forms of each token: the covered text, the lemma and the lower cased covered text. If
+	 * lowercase is set, the first two forms are lower cased, too.
+	 *
+	 * @param tokens    The tokens.
+	 * @param lemmata   The lemma text by begin offset, see {@link #getLemmaIndex(JCas)}.
+	 * @param lowercase If true, lower case all forms.
+	 * @return One list of alternative forms per token, in order of preference.
+	 */
+	protected ArrayList<List<String>> getLattice(Collection<? extends Annotation> tokens, Map<Integer, String> lemmata, boolean lowercase) {
+		ArrayList<List<String>> lattice = new ArrayList<>(tokens.size());
+		for (Annotation token : tokens) {
+			ArrayList<String> forms = new ArrayList<>(3);
+			String surface = token.getCoveredText();
+			String lemma = lemmata.get(token.getBegin());
+			forms.add(lowercase ? surface.toLowerCase() : surface);
+			if (lemma != null)
+				addForm(forms, lowercase ? lemma.toLowerCase() : lemma);
+			addForm(forms, surface.toLowerCase());
+			lattice.add(forms);
+		}
+		return lattice;
+	}
+	
+	private static void addForm(ArrayList<String> forms, String form) {
+		if (!forms.contains(form))
+			forms.add(form);
+	}
+	
 	protected void tagSentences(JCas originalJCas, JCas localJCas, Collection<Sentence> sentences) {
 		tokens = Lists.newArrayList(JCasUtil.select(localJCas, Lemma.class));
 		final ConcurrentHashMap<Sentence, Collection<Annotation>> sentenceIndex;
-		if (pUseLemmata && !tokens.isEmpty()) {
+		final Map<Integer, String> lemmata = pUseTokenLattice ? getLemmaIndex(localJCas) : null;
+		if (pUseLemmata && !pUseTokenLattice && !tokens.isEmpty()) {
 			sentenceIndex = new ConcurrentHashMap<>(JCasUtil.indexCovered(localJCas, Sentence.class, Lemma.class));
-			for (int i = 0; i < tokens.size(); i++) {
-				tokenBeginIndex.put(tokens.get(i).getBegin(), i);
-			}
 		} else {
 			sentenceIndex = new ConcurrentHashMap<>(JCasUtil.indexCovered(localJCas, Sentence.class, Token.class));
 			tokens = Lists.newArrayList(JCasUtil.select(localJCas, Token.class));
-			for (int i = 0; i < tokens.size(); i++) {
-				tokenBeginIndex.put(tokens.get(i).getBegin(), i);
+		}
+		documentQuery = null;
+		documentLattice = null;
+		// Abbreviations are resolved in document order before the sentences are tagged in parallel
+		if (pUseTokenLattice) {
+			if (abbreviationResolver != null) {
+				documentLattice = getLattice(tokens, lemmata, pUseLowercase);
+				resolveLatticeAbbreviations(documentLattice);
 			}
+		} else if (pDehyphenate) {
+			documentQuery = dehyphenate(localJCas.getDocumentText(), pUseLowercase);
+			resolveAbbreviations(documentQuery);
+		} else if (abbreviationResolver != null) {
+			documentQuery = new ArrayList<>(tokens.size());
+			tokens.forEach(token -> documentQuery.add(getAnnotationText(token)));
+			resolveAbbreviations(documentQuery);
+		}
+		for (int i = 0; i < tokens.size(); i++) {
+			tokenBeginIndex.put(tokens.get(i).getBegin(), i);
 		}
-		sentences.stream()
+		final LongAdder queryNanos = new LongAdder();
+		final LongAdder matchNanos = new LongAdder();
+		List<Match> matches = sentences.stream()
 				.parallel()
 				.flatMap(sentence -> {
-					ImmutablePair<Integer, ArrayList<String>> pair = getSentenceList(sentenceIndex, sentence);
-					Integer sentenceOffset = pair.left;
-					ArrayList<String> query = pair.right;
-					if (sentenceOffset < 0 || query.size() == 0) {
-						return Stream.empty();
+					long start = metrics.start();
+					ArrayList<Match> sentenceMatches;
+					if (pUseTokenLattice) {
+						ImmutablePair<Integer, ArrayList<List<String>>> pair = getSentenceLattice(sentenceIndex, sentence, lemmata);
+						queryNanos.add(metrics.elapsed(start));
+						if (pair.left < 0 || pair.right.isEmpty()) {
+							return Stream.empty();
+						}
+						start = metrics.start();
+						sentenceMatches = findAllSentenceMatches(pair.right, pair.left, () -> findAllLatticeMatches(pair.right, pair.left));
+					} else {
+						ImmutablePair<Integer, ArrayList<String>> pair = getSentenceList(sentenceIndex, sentence);
+						queryNanos.add(metrics.elapsed(start));
+						Integer sentenceOffset = pair.left;
+						ArrayList<String> query = pair.right;
+						if (sentenceOffset < 0 || query.size() == 0) {
+							return Stream.empty();
+						}
+						start = metrics.start();
+						sentenceMatches = findAllSentenceMatches(query, sentenceOffset, () -> findAllMatches(query, sentenceOffset));
 					}
-					return findAllMatches(skipGramTreeRoot, query, sentenceOffset).stream();
+					matchNanos.add(metrics.elapsed(start));
+					return sentenceMatches.stream();
 				})
-				.collect(Collectors.toList())
-				.forEach(m -> addAnnotation(originalJCas, m));
+				.collect(Collectors.toList());
+		long start = metrics.start();
+		matches.forEach(this::bufferMatch);
+		matchNanos.add(metrics.elapsed(start));
+		metrics.record(Phase.QUERY, queryNanos.sum());
+		metrics.record(Phase.MATCH, matchNanos.sum());
 	}
 	
 	/**
@@ -308,6 +1054,13 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	 * @return A list of token or lemma values.
 	 */
 	protected ImmutablePair<Integer, ArrayList<String>> getSentenceList(Map<Sentence, Collection<Annotation>> sentenceIndex, Sentence sentence) {
+		if (documentQuery != null) {
+			// Joined tokens belong to the sentence of their first part
+			int from = getFirstTokenIndexAt(sentence.getBegin());
+			int to = getFirstTokenIndexAt(sentence.getEnd());
+			return ImmutablePair.of(from < to ? from : -1, new ArrayList<>(documentQuery.subList(from, to)));
+		}
+		
 		ArrayList<String> arrayList = new ArrayList<>();
 		ArrayList<Annotation> annotations = new ArrayList<>(sentenceIndex.get(sentence));
 		
@@ -321,6 +1074,22 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 		return ImmutablePair.of(sentenceBeginIndex, arrayList);
 	}
 	
+	/**
+	 * Get the token lattice of this sentence, see {@link #getLattice(Collection, Map, boolean)}.
+	 *
+	 * @return The index of the first token of the sentence or -1, if it is empty, and the lattice.
+	 */
+	protected ImmutablePair<Integer, ArrayList<List<String>>> getSentenceLattice(Map<Sentence, Collection<Annotation>> sentenceIndex, Sentence sentence, Map<Integer, String> lemmata) {
+		if (documentLattice != null) {
+			int from = getFirstTokenIndexAt(sentence.getBegin());
+			int to = getFirstTokenIndexAt(sentence.getEnd());
+			return ImmutablePair.of(from < to ? from : -1, new ArrayList<>(documentLattice.subList(from, to)));
+		}
+		ArrayList<Annotation> annotations = new ArrayList<>(sentenceIndex.get(sentence));
+		int sentenceBeginIndex = annotations.isEmpty() ? -1 : tokenBeginIndex.get(annotations.get(0).getBegin());
+		return ImmutablePair.of(sentenceBeginIndex, getLattice(annotations, lemmata, pUseLowercase));
+	}
+	
 	/**
 	 * Get the text for this annotation. Returns the lemma value if the annotation is a {@link Lemma} and its value is
 	 * not empty or null. Defaults to {@link Annotation#getCoveredText()} otherwise.
@@ -329,68 +1098,135 @@ public abstract class BaseTreeGazetteer extends SegmenterBase {
 	 * @return The text for this annotation.
 	 */
 	protected String getAnnotationText(Annotation annotation) {
+		return getAnnotationText(annotation, pUseLowercase);
+	}
+	
+	/**
+	 * @param annotation The annotation to get the text for.
+	 * @param lowercase  If true, lower case the text.
+	 * @return The text for this annotation, see {@link #getAnnotationText(Annotation)}.
+	 */
+	protected String getAnnotationText(Annotation annotation, boolean lowercase) {
 		if (annotation instanceof Lemma) {
 			String text = ((Lemma) annotation).getValue();
 			if (text == null || text.isEmpty() || text.equals("--") || text.equals("_")) {
 				text = annotation.getCoveredText();
 			}
-			return pUseLowercase ? text.toLowerCase() : text;
+			return lowercase ? text.toLowerCase() : text;
 		} else {
-			return pUseLowercase ? annotation.getCoveredText().toLowerCase() : annotation.getCoveredText();
+			return lowercase ? annotation.getCoveredText().toLowerCase() : annotation.getCoveredText();
 		}
 	}
 	
-	protected ArrayList<Match> findAllMatches(ITreeNode root, final ArrayList<String> query, int globalOffset) {
-		ArrayList<Match> matches = new ArrayList<>();
-		int offset = 0;
-		do {
-			List<String> subList = query.subList(offset, Math.min(query.size(), offset + skipGramTreeDepth));
-			ImmutablePair<String, Integer> matchedString = root.traverse(subList);
-			if (!Strings.isNullOrEmpty(matchedString.left) && matchedString.right > -1) {
-				int start = offset;
-				int end = offset + matchedString.right;
-				matches.add(new Match(start + globalOffset, end + globalOffset, matchedString.left));
-				offset += matchedString.right;
-			}
-			offset += 1;
-		} while (offset < (query.size() - skipGramTreeDepth) && offset > -1);
-		return matches;
+	/**
+	 * Find the matches of a sentence with the given matcher or get them from the {@link MatchCache}, if
+	 * {@link #PARAM_MATCH_CACHE_SIZE} is set and no budget applies.
+	 *
+	 * @param query        The tokens or token lattice of the sentence.
+	 * @param globalOffset The index of the first token of the sentence.
+	 */
+	protected ArrayList<Match> findAllSentenceMatches(final List<?> query, int globalOffset, Supplier<ArrayList<Match>> sentenceMatcher) {
+		if (matchCache == null || budget.isLimited())
+			return sentenceMatcher.get();
+		return matchCache.findAll(query, globalOffset, sentenceMatcher);
 	}
 	
-	protected void addAnnotation(JCas aJCas, Match match) {
-		try {
-			Annotation fromToken = tokens.get(match.start);
-			Annotation toToken = tokens.get(match.end);
-			
-			String taxon = stringTreeGazetteerModel.getSkipGramTaxonLookup().get(match.value);
-			NamedEntity annotation = (NamedEntity) aJCas.getCas().createAnnotation(getTaggingType(taxon), fromToken.getBegin(), toToken.getEnd());
-			
-			String uris = stringTreeGazetteerModel.getTaxonUriMap().get(taxon).stream()
-					.map(URI::toString)
-					.collect(Collectors.joining(", "));
+	protected ArrayList<Match> findAllLatticeMatches(final List<? extends List<String>> lattice, int globalOffset) {
+		return pFindOverlappingMatches
+				? matcher.findAllOverlappingLatticeMatches(lattice, globalOffset, pMaxLatticeBranching, budget)
+				: matcher.findAllLatticeMatches(lattice, globalOffset, pMaxLatticeBranching, budget);
+	}
+	
+	protected ArrayList<Match> findAllMatches(final ArrayList<String> query, int globalOffset) {
+		return pFindOverlappingMatches
+				? matcher.findAllOverlappingMatches(query, globalOffset, budget)
+				: matcher.findAllMatches(query, globalOffset, budget);
+	}
+	
+	protected void bufferMatch(Match match) {
+		bufferMatch(tokens.get(match.start).getBegin(), getTokenEnd(match.end), match.value);
+	}
+	
+	/**
+	 * Buffer a match of the taxon the given skip-gram belongs to, see {@link #addBufferedAnnotations(JCas)}. Skip-grams
+	 * without a taxon are logged and ignored.
+	 */
+	protected void bufferMatch(int begin, int end, String skipGram) {
+		int taxonId = getTaxonId(stringTreeGazetteerModel, skipGram);
+		if (taxonId >= 0) {
+			matchBuffer.add(begin, end, 0, taxonId);
+		}
+	}
+	
+	/**
+	 * Resolve the buffered matches with the configured {@link OverlapPolicy} and add one annotation per tagging type
+	 * of each remaining match, in begin offset order. Clears the buffer.
+	 */
+	protected void addBufferedAnnotations(JCas aJCas) {
+		for (MatchBuffer.Entry entry : matchBuffer.resolve(overlapPolicy)) {
+			addAnnotations(aJCas, entry.begin, entry.end, getUris(getModel(entry.source), entry.taxonId),
+					getTaggingTypes(entry.source, entry.taxonId));
+		}
+		matchBuffer.clear();
+	}
+	
+	/**
+	 * @param source The index of a gazetteer, see {@link MatchBuffer#add(int, int, int, int)}.
+	 * @return The model of the given gazetteer.
+	 */
+	protected IGazetteerModel getModel(int source) {
+		return stringTreeGazetteerModel;
+	}
+	
+	/**
+	 * @return The ID of the taxon the given skip-gram belongs to or -1, if there is none.
+	 */
+	protected int getTaxonId(IGazetteerModel model, String skipGram) {
+		int taxonId = model.getSkipGramTaxonId(skipGram);
+		if (taxonId < 0) {
+			getLogger().warn(String.format("No taxon found for skip-gram '%s'!", skipGram));
+		}
+		return taxonId;
+	}
+	
+	/**
+	 * @return The URI payload of the given taxon.
+	 */
+	protected String getUris(IGazetteerModel model, int taxonId) {
+		long start = metrics.start();
+		String uris = model.getTaxonUris(taxonId).stream()
+				.map(URI::toString)
+				.collect(Collectors.joining(", "));
+		metrics.stop(Phase.URIS, start);
+		return uris;
+	}
+	
+	protected void addAnnotations(JCas aJCas, int begin, int end, String uris, Type[] types) {
+		for (Type type : types) {
+			NamedEntity annotation = (NamedEntity) aJCas.getCas().createAnnotation(type, begin, end);
 			annotation.setValue(uris);
-			
 			aJCas.addFsToIndexes(annotation);
-		} catch (NullPointerException e) {
-			// FIXME: Remove this
-			System.err.println(e.getMessage());
-			System.err.println(match.value);
-			e.printStackTrace();
+			documentMatches++;
 		}
 	}
 	
-	protected abstract Type getTaggingType(String taxon);
+	/**
+	 * @param taxonId The ID of the matched taxon, see {@link ITreeGazetteerModel#getTaxonId(String)}.
+	 * @return The types to tag the taxon with. Must not be modified.
+	 */
+	protected abstract Type[] getTaggingTypes(int taxonId);
 	
-	protected static class Match {
-		
-		final int start;
-		final int end;
-		final String value;
-		
-		public Match(int start, int end, String value) {
-			this.start = start;
-			this.end = end;
-			this.value = value;
-		}
+	/**
+	 * @param source  The index of the gazetteer that matched the taxon.
+	 * @param taxonId The ID of the matched taxon in the model of that gazetteer.
+	 * @return The types to tag the taxon with, see {@link #getTaggingTypes(int)}.
+	 */
+	protected Type[] getTaggingTypes(int source, int taxonId) {
+		return getTaggingTypes(taxonId);
+	}
+	
+	@FunctionalInterface
+	protected interface ModelFactory {
+		ITreeGazetteerModel create() throws IOException;
 	}
 }
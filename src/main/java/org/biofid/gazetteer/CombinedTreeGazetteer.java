@@ -0,0 +1,335 @@
+package org.biofid.gazetteer;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import com.google.common.collect.Lists;
+import org.apache.uima.UimaContext;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.fit.descriptor.ConfigurationParameter;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.biofid.gazetteer.matcher.AbbreviationResolver;
+import org.biofid.gazetteer.matcher.GazetteerMatcher;
+import org.biofid.gazetteer.matcher.Match;
+import org.biofid.gazetteer.metrics.Phase;
+import org.biofid.gazetteer.models.IGazetteerModel;
+import org.biofid.gazetteer.models.ITreeGazetteerModel;
+import org.biofid.gazetteer.models.TreeGazetteerModel;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UIMA Engine that hosts several independently configured gazetteers, eg. for taxa, habitats and localities, and tags
+ * all of them in a single pass over the tokens. Each entry of {@link #PARAM_SOURCE_LOCATION} is a separate gazetteer
+ * (a file, directory or zip archive), which is tagged with the type at the same index of
+ * {@link #PARAM_TAGGING_TYPE_NAMES}.
+ * <p>
+ * The tokens are collected and normalized once per document. At each position, every gazetteer's matcher is probed
+ * independently, so the result is the same as running one {@link SingleClassTreeGazetteer} per gazetteer, while the
+ * cost of token collection is paid only once and most probes are rejected by the start token filters.
+ * <p>
+ * This engine always tags the entire document text, sentence level and streaming tagging are not supported.
+ */
+public class CombinedTreeGazetteer extends BaseTreeGazetteer {
+	
+	/**
+	 * The fully qualified class names of the types to tag, one per {@link #PARAM_SOURCE_LOCATION} entry. Must
+	 * subclass {@link NamedEntity}.
+	 */
+	public static final String PARAM_TAGGING_TYPE_NAMES = "pTaggingTypeNames";
+	/**
+	 * Optional per-gazetteer override of {@link #PARAM_USE_LOWERCASE}.
+	 */
+	public static final String PARAM_GAZETTEER_USE_LOWERCASE = "pGazetteerUseLowercase";
+	/**
+	 * Optional per-gazetteer override of {@link #PARAM_MIN_LENGTH}.
+	 */
+	public static final String PARAM_GAZETTEER_MIN_LENGTH = "pGazetteerMinLength";
+	/**
+	 * Optional per-gazetteer override of {@link #PARAM_GET_ALL_SKIPS}.
+	 */
+	public static final String PARAM_GAZETTEER_GET_ALL_SKIPS = "pGazetteerGetAllSkips";
+	/**
+	 * Optional per-gazetteer override of {@link #PARAM_ADD_ABBREVIATED_TAXA}.
+	 */
+	public static final String PARAM_GAZETTEER_ADD_ABBREVIATED_TAXA = "pGazetteerAddAbbreviatedTaxa";
+	
+	@ConfigurationParameter(name = PARAM_TAGGING_TYPE_NAMES)
+	protected String[] pTaggingTypeNames;
+	@ConfigurationParameter(name = PARAM_GAZETTEER_USE_LOWERCASE, mandatory = false)
+	protected Boolean[] pGazetteerUseLowercase;
+	@ConfigurationParameter(name = PARAM_GAZETTEER_MIN_LENGTH, mandatory = false)
+	protected Integer[] pGazetteerMinLength;
+	@ConfigurationParameter(name = PARAM_GAZETTEER_GET_ALL_SKIPS, mandatory = false)
+	protected Boolean[] pGazetteerGetAllSkips;
+	@ConfigurationParameter(name = PARAM_GAZETTEER_ADD_ABBREVIATED_TAXA, mandatory = false)
+	protected Boolean[] pGazetteerAddAbbreviatedTaxa;
+	
+	protected ITreeGazetteerModel[] models;
+	protected GazetteerMatcher[] matchers;
+	protected AbbreviationResolver[] abbreviationResolvers;
+	protected boolean[] useLowercase;
+	protected Type[][] taggingTypes;
+	protected LinkedHashMap<String, Long> modelBuildMillis;
+	
+	@Override
+	public void initialize(UimaContext aContext) throws ResourceInitializationException {
+		// The models are created by super.initialize(), so the parameters have to be checked first
+		String[] sources = (String[]) aContext.getConfigParameterValue(PARAM_SOURCE_LOCATION);
+		String[] typeNames = (String[]) aContext.getConfigParameterValue(PARAM_TAGGING_TYPE_NAMES);
+		if (sources == null || typeNames == null || sources.length != typeNames.length)
+			throw new ResourceInitializationException(
+					new InvalidParameterException(String.format(
+							"Array lengths do not match!\n PARAM_SOURCE_LOCATION:%d <> PARAM_TAGGING_TYPE_NAMES:%d",
+							sources == null ? 0 : sources.length, typeNames == null ? 0 : typeNames.length)
+					)
+			);
+		super.initialize(aContext);
+	}
+	
+	@Override
+	protected void initializeTagging() {
+		matchers = new GazetteerMatcher[models.length];
+		abbreviationResolvers = pResolveAbbreviatedGenera ? new AbbreviationResolver[models.length] : null;
+		for (int i = 0; i < models.length; i++) {
+			matchers[i] = new GazetteerMatcher(models[i], models[i].getStats().getMaxDepth(), useLowercase[i], GazetteerMatcher.DEFAULT_TOKEN_REGEX);
+			if (pFindOverlappingMatches) {
+				matchers[i].getAutomaton();
+			}
+			if (abbreviationResolvers != null) {
+				abbreviationResolvers[i] = new AbbreviationResolver(models[i]);
+			}
+		}
+		taggingTypes = new Type[models.length][1];
+		metrics.setModelBuildMillis(modelBuildMillis);
+	}
+	
+	@Override
+	protected void createTreeModel() throws IOException {
+		createModels(false);
+	}
+	
+	@Override
+	protected void createOrGetSharedTreeModel() throws IOException {
+		createModels(true);
+	}
+	
+	protected void createModels(boolean shareModels) throws IOException {
+		models = new ITreeGazetteerModel[sourceLocation.length];
+		useLowercase = new boolean[sourceLocation.length];
+		HashSet<String> filterSet = getFilterSet();
+		modelBuildMillis = new LinkedHashMap<>();
+		for (int i = 0; i < sourceLocation.length; i++) {
+			final String[] gazetteerSourceLocation = new String[]{sourceLocation[i]};
+			final boolean gazetteerUseLowercase = get(pGazetteerUseLowercase, i, pUseLowercase);
+			final int gazetteerMinLength = get(pGazetteerMinLength, i, pMinLength);
+			final boolean gazetteerGetAllSkips = get(pGazetteerGetAllSkips, i, pGetAllSkips);
+			final boolean gazetteerAddAbbreviatedTaxa = get(pGazetteerAddAbbreviatedTaxa, i, pAddAbbreviatedTaxa) && !pResolveAbbreviatedGenera;
+			final String taggingTypeName = pTaggingTypeNames[i];
+			useLowercase[i] = gazetteerUseLowercase;
+			
+			ModelFactory modelFactory = () -> {
+				getLogger().info(String.format("Initializing StringTreeGazetteerModel for %s", taggingTypeName));
+				return createTreeGazetteerModel(
+						gazetteerSourceLocation,
+						gazetteerUseLowercase,
+						gazetteerMinLength,
+						gazetteerGetAllSkips,
+						gazetteerAddAbbreviatedTaxa,
+						filterSet
+				);
+			};
+			if (shareModels) {
+				String modelKey = getModelKey(TreeGazetteerModel.class.getName(), gazetteerSourceLocation,
+						gazetteerUseLowercase, language, gazetteerMinLength, gazetteerGetAllSkips, pSplitHyphen,
+						gazetteerAddAbbreviatedTaxa, pMinWordCount, tokenBoundaryRegex, pFilterLocation, pOffHeapModel,
+						pUseFstModel, pCompiledModelLocation);
+				models[i] = getOrCreateSharedModel(modelKey, modelFactory);
+			} else {
+				models[i] = modelFactory.create();
+			}
+			for (Map.Entry<String, Long> entry : models[i].getBuildMillis().entrySet()) {
+				modelBuildMillis.put(String.format("%s.%s", taggingTypeName, entry.getKey()), entry.getValue());
+			}
+			skipGramTreeDepth = Math.max(skipGramTreeDepth, models[i].getStats().getMaxDepth());
+		}
+		
+		// The first model is used wherever BaseTreeGazetteer expects a single model
+		stringTreeGazetteerModel = models[0];
+		skipGramTreeRoot = models[0].getTree();
+	}
+	
+	private static <T> T get(T[] overrides, int index, T defaultValue) {
+		return overrides != null && index < overrides.length && overrides[index] != null ? overrides[index] : defaultValue;
+	}
+	
+	@Override
+	protected void inferTaggingType(TypeSystem typeSystem) {
+		for (int i = 0; i < pTaggingTypeNames.length; i++) {
+			taggingTypes[i][0] = typeSystem.getType(pTaggingTypeNames[i]);
+		}
+	}
+	
+	/**
+	 * Only used for matches of the first gazetteer, see {@link #bufferMatch(int, int, String)}.
+	 */
+	@Override
+	protected Type[] getTaggingTypes(int taxonId) {
+		return taggingTypes[0];
+	}
+	
+	@Override
+	protected Type[] getTaggingTypes(int source, int taxonId) {
+		return taggingTypes[source];
+	}
+	
+	@Override
+	protected IGazetteerModel getModel(int source) {
+		return models[source];
+	}
+	
+	@Override
+	protected void tagEntireDocumentText(JCas originalJCas, JCas localJCas) {
+		tagAllGazetteers(originalJCas, localJCas);
+	}
+	
+	@Override
+	protected void tagEntireDocumentTextStreaming(JCas originalJCas, JCas localJCas) {
+		tagAllGazetteers(originalJCas, localJCas);
+	}
+	
+	@Override
+	protected void tagSentences(JCas originalJCas, JCas localJCas, Collection<Sentence> sentences) {
+		tagAllGazetteers(originalJCas, localJCas);
+	}
+	
+	/**
+	 * Collect the tokens once, then probe every gazetteer at every position. Each gazetteer greedily takes the longest
+	 * match at a position and skips the positions covered by it, independently of the other gazetteers. If
+	 * {@link #PARAM_FIND_OVERLAPPING_MATCHES} is set, each gazetteer finds all of its matches in a single pass instead.
+	 */
+	protected void tagAllGazetteers(JCas originalJCas, JCas localJCas) {
+		long start = metrics.start();
+		tokens = Lists.newArrayList(JCasUtil.select(localJCas, Lemma.class));
+		if (!pUseLemmata || pUseTokenLattice || tokens.isEmpty()) {
+			tokens = Lists.newArrayList(JCasUtil.select(localJCas, Token.class));
+		}
+		ArrayList<ArrayList<String>> queries = new ArrayList<>(models.length);
+		ArrayList<ArrayList<List<String>>> lattices = new ArrayList<>(models.length);
+		if (pUseTokenLattice) {
+			HashMap<Integer, String> lemmata = getLemmaIndex(localJCas);
+			ArrayList<List<String>> casedLattice = null;
+			ArrayList<List<String>> lowercaseLattice = null;
+			for (boolean lowercase : useLowercase) {
+				if (lowercase && lowercaseLattice == null)
+					lowercaseLattice = getLattice(tokens, lemmata, true);
+				if (!lowercase && casedLattice == null)
+					casedLattice = getLattice(tokens, lemmata, false);
+				lattices.add(lowercase ? lowercaseLattice : casedLattice);
+			}
+		} else {
+			ArrayList<String> casedQuery = pDehyphenate ? dehyphenate(localJCas.getDocumentText(), false) : null;
+			ArrayList<String> lowercaseQuery = null;
+			for (boolean lowercase : useLowercase) {
+				if (lowercase && lowercaseQuery == null)
+					lowercaseQuery = pDehyphenate ? lowercase(casedQuery) : getQuery(true);
+				if (!lowercase && casedQuery == null)
+					casedQuery = getQuery(false);
+				queries.add(lowercase ? lowercaseQuery : casedQuery);
+			}
+		}
+		if (abbreviationResolvers != null) {
+			resolveAbbreviations(queries, lattices);
+		}
+		start = recordAndRestart(Phase.QUERY, start);
+		
+		ArrayList<ArrayList<Match>> matches = new ArrayList<>(models.length);
+		for (int g = 0; g < models.length; g++) {
+			matches.add(new ArrayList<>());
+		}
+		if (pFindOverlappingMatches) {
+			for (int g = 0; g < models.length; g++) {
+				matches.set(g, pUseTokenLattice
+						? matchers[g].findAllOverlappingLatticeMatches(lattices.get(g), 0, pMaxLatticeBranching, budget)
+						: matchers[g].findAllOverlappingMatches(queries.get(g), 0, budget));
+			}
+		} else {
+			int[] nextOffsets = new int[models.length];
+			for (int offset = 0; offset < tokens.size() && budget.proceed(offset); offset++) {
+				for (int g = 0; g < models.length; g++) {
+					if (offset < nextOffsets[g])
+						continue;
+					Match match = pUseTokenLattice
+							? matchers[g].longestLatticeMatchAt(lattices.get(g), offset, pMaxLatticeBranching)
+							: matchers[g].longestMatchAt(queries.get(g), offset);
+					if (match != null && budget.isDegraded(offset) && !matchers[g].isFullName(match))
+						match = null;
+					if (match != null) {
+						matches.get(g).add(match);
+						nextOffsets[g] = match.end + 1;
+					}
+				}
+			}
+		}
+		
+		for (int g = 0; g < models.length; g++) {
+			for (Match match : matches.get(g)) {
+				int taxonId = getTaxonId(models[g], match.value);
+				if (taxonId >= 0) {
+					matchBuffer.add(tokens.get(match.start).getBegin(), getTokenEnd(match.end), g, taxonId);
+				}
+			}
+		}
+		metrics.stop(Phase.MATCH, start);
+	}
+	
+	/**
+	 * Resolve the abbreviated genera of each gazetteer with its own {@link AbbreviationResolver}. The queries and
+	 * lattices are shared by gazetteers with the same case, so each gazetteer gets a resolved copy.
+	 */
+	protected void resolveAbbreviations(ArrayList<ArrayList<String>> queries, ArrayList<ArrayList<List<String>>> lattices) {
+		for (int g = 0; g < models.length; g++) {
+			AbbreviationResolver resolver = abbreviationResolvers[g];
+			resolver.reset();
+			if (pUseTokenLattice) {
+				ArrayList<List<String>> lattice = new ArrayList<>(lattices.get(g).size());
+				lattices.get(g).forEach(forms -> lattice.add(new ArrayList<>(forms)));
+				resolver.resolveLattice(lattice);
+				lattices.set(g, lattice);
+			} else {
+				ArrayList<String> query = new ArrayList<>(queries.get(g));
+				resolver.resolve(query);
+				queries.set(g, query);
+			}
+		}
+	}
+	
+	private static ArrayList<String> lowercase(ArrayList<String> query) {
+		ArrayList<String> lowercaseQuery = new ArrayList<>(query.size());
+		for (String text : query) {
+			lowercaseQuery.add(text.toLowerCase());
+		}
+		return lowercaseQuery;
+	}
+	
+	private ArrayList<String> getQuery(boolean lowercase) {
+		ArrayList<String> query = new ArrayList<>(tokens.size());
+		for (Annotation token : tokens) {
+			query.add(getAnnotationText(token, lowercase));
+		}
+		return query;
+	}
+}
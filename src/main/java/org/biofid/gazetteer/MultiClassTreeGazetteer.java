@@ -1,6 +1,6 @@
 package org.biofid.gazetteer;
 
-import org.apache.uima.UimaContext;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
@@ -24,10 +24,10 @@ public class MultiClassTreeGazetteer extends BaseTreeGazetteer {
 	@ConfigurationParameter(name = PARAM_CLASS_MAPPING)
 	protected String[] pClassMapping;
 	protected Type[] taggingTypes;
+	protected Type[][] singleTaggingTypes;
 	
 	@Override
-	public void initialize(UimaContext aContext) throws ResourceInitializationException {
-		super.initialize(aContext);
+	protected void initializeTagging() throws ResourceInitializationException {
 		if (sourceLocation.length != pClassMapping.length)
 			throw new ResourceInitializationException(
 					new InvalidParameterException(String.format(
@@ -36,11 +36,18 @@ public class MultiClassTreeGazetteer extends BaseTreeGazetteer {
 					)
 			);
 		taggingTypes = new Type[pClassMapping.length];
+		singleTaggingTypes = new Type[pClassMapping.length][1];
 	}
 	
 	@Override
 	protected void createTreeModel() throws IOException, ClassNotFoundException {
 		getLogger().info("Initializing MultiClassTreeGazetteerModel");
+		if (pOffHeapModel)
+			getLogger().warn("The multi-class model is kept on-heap, ignoring PARAM_OFF_HEAP_MODEL.");
+		if (pUseFstModel)
+			getLogger().warn("The multi-class model is always a tree, ignoring PARAM_USE_FST_MODEL.");
+		if (StringUtils.isNotEmpty(pCompiledModelLocation))
+			getLogger().warn("The multi-class model is always built in memory, ignoring PARAM_COMPILED_MODEL_LOCATION.");
 		stringTreeGazetteerModel = new MultiClassTreeGazetteerModel(
 				sourceLocation,
 				pUseLowercase,
@@ -54,18 +61,31 @@ public class MultiClassTreeGazetteer extends BaseTreeGazetteer {
 				getFilterSet()
 		);
 		skipGramTreeRoot = ((ITreeGazetteerModel) stringTreeGazetteerModel).getTree();
-		skipGramTreeDepth = skipGramTreeRoot.depth();
+		skipGramTreeDepth = stringTreeGazetteerModel.getStats().getMaxDepth();
 	}
 	
 	@Override
 	protected void inferTaggingType(TypeSystem typeSystem) {
 		for (int i = 0; i < pClassMapping.length; i++) {
 			taggingTypes[i] = typeSystem.getType(pClassMapping[i]);
+			singleTaggingTypes[i][0] = taggingTypes[i];
 		}
 	}
 	
+	/**
+	 * Taxa of a single class are resolved with two array reads. Taxa that occur in several sources are tagged with the
+	 * types of all their classes.
+	 */
 	@Override
-	protected Type getTaggingType(String taxon) {
-		return taggingTypes[((MultiClassTreeGazetteerModel) stringTreeGazetteerModel).getClassIdFromTaxon(taxon)];
+	protected Type[] getTaggingTypes(int taxonId) {
+		int[] classIds = ((MultiClassTreeGazetteerModel) stringTreeGazetteerModel).getClassIds(taxonId);
+		if (classIds.length == 1)
+			return singleTaggingTypes[classIds[0]];
+		
+		Type[] types = new Type[classIds.length];
+		for (int i = 0; i < classIds.length; i++) {
+			types[i] = taggingTypes[classIds[i]];
+		}
+		return types;
 	}
 }
@@ -4,7 +4,6 @@ import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
-import org.biofid.gazetteer.models.TreeGazetteerModel;
 
 import java.io.IOException;
 
@@ -21,34 +20,33 @@ public class SingleClassTreeGazetteer extends BaseTreeGazetteer {
 			name = PARAM_TAGGING_TYPE_NAME
 	)
 	protected String pTaggingTypeName;
+	protected Type[] taggingTypes;
 	
 	
 	protected void createTreeModel() throws IOException, ClassNotFoundException {
 		getLogger().info(String.format("Initializing StringTreeGazetteerModel for %s", Class.forName(pTaggingTypeName).getSimpleName()));
-		stringTreeGazetteerModel = new TreeGazetteerModel(
+		stringTreeGazetteerModel = createTreeGazetteerModel(
 				sourceLocation,
 				pUseLowercase,
-				language,
 				pMinLength,
 				pGetAllSkips,
-				pSplitHyphen,
 				pAddAbbreviatedTaxa,
-				pMinWordCount,
-				tokenBoundaryRegex,
 				getFilterSet()
 		);
 		skipGramTreeRoot = stringTreeGazetteerModel.getTree();
-		skipGramTreeDepth = skipGramTreeRoot.depth();
+		skipGramTreeDepth = stringTreeGazetteerModel.getStats().getMaxDepth();
 	}
 	
 	@Override
 	protected void inferTaggingType(TypeSystem typeSystem) {
 		taggingType = typeSystem.getType(pTaggingTypeName);
+		if (taggingTypes == null || taggingTypes[0] != taggingType)
+			taggingTypes = new Type[]{taggingType};
 	}
 	
 	@Override
-	protected Type getTaggingType(String taxon) {
-		return this.taggingType;
+	protected Type[] getTaggingTypes(int taxonId) {
+		return this.taggingTypes;
 	}
 	
 }
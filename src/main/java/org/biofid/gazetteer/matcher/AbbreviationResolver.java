@@ -0,0 +1,177 @@
+package org.biofid.gazetteer.matcher;
+
+import org.biofid.gazetteer.models.ITreeGazetteerModel;
+import org.biofid.gazetteer.tree.ITreeNode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves abbreviated genera like "Q." in "Q. robur" at match time, so the model does not have to contain an
+ * abbreviated copy of every multi-word taxon. The genera of the model are bucketed by their initial. An abbreviation
+ * is replaced by the most recently seen genus of its bucket that is continued by the next token in the tree, eg.
+ * "Quercus" for "Q. robur" after "Quercus robur" was seen in the current document. A genus is seen, if it is followed
+ * by a token that continues it in the tree.
+ * <p>
+ * Genera are the first tokens of the multi-token taxa of the model. Other tokens that start a path in the tree, like
+ * the epithet "alba" of the skip-gram "alba alpina" of "Salix alba alpina", are never considered.
+ * Abbreviations that can not be resolved are kept, like the author "L." in "Fagus sylvatica L." or a "Q." without an
+ * epithet. The tokens are replaced in place, so the indices of all matches and thus their offsets are the same as
+ * without resolution.
+ * <p>
+ * Instances hold the context of a single document and must not be shared between threads. Call {@link #reset()}
+ * before each document.
+ */
+public class AbbreviationResolver {
+	
+	/**
+	 * A single letter followed by a period.
+	 */
+	public static final Pattern ABBREVIATION_PATTERN = Pattern.compile("\\p{L}\\.", Pattern.UNICODE_CHARACTER_CLASS);
+	
+	private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+	
+	private final ITreeNode root;
+	/**
+	 * The first tokens of all multi-token taxa that start a path in the tree.
+	 */
+	private final HashSet<String> genera = new HashSet<>();
+	/**
+	 * The genera of each initial that were seen in the current document, the most recent one last.
+	 */
+	private final HashMap<String, ArrayList<String>> context = new HashMap<>();
+	private String previous;
+	private List<String> previousForms;
+	
+	/**
+	 * @param model The model to resolve abbreviations for. It should be built without abbreviated taxa.
+	 */
+	public AbbreviationResolver(@Nonnull ITreeGazetteerModel model) {
+		this.root = model.getTree();
+		for (int taxonId = 0; taxonId < model.getTaxonCount(); taxonId++) {
+			String[] words = WHITESPACE_PATTERN.split(model.getTaxon(taxonId).trim(), 2);
+			if (words.length < 2 || isAbbreviation(words[0]))
+				continue;
+			ITreeNode node = root.getChild(words[0]);
+			if (node != null && !node.isLeaf())
+				genera.add(words[0]);
+		}
+	}
+	
+	/**
+	 * Forget all genera seen so far.
+	 */
+	public void reset() {
+		context.clear();
+		previous = null;
+		previousForms = null;
+	}
+	
+	/**
+	 * Resolve the next token of the document.
+	 *
+	 * @param token     The normalized token.
+	 * @param following The normalized token after it, or null at the end of the document.
+	 * @return The genus, if the token is a resolvable abbreviation, or the token otherwise.
+	 */
+	public String next(@Nonnull String token, @Nullable String following) {
+		String resolved = resolve(token, following == null ? Collections.emptyList() : Collections.singletonList(following));
+		if (previous != null)
+			learn(previous, resolved);
+		previous = resolved;
+		return resolved;
+	}
+	
+	/**
+	 * Resolve all tokens of the given query in place, continuing the context of the previous calls.
+	 */
+	public void resolve(@Nonnull List<String> query) {
+		for (int i = 0; i < query.size(); i++) {
+			String token = query.get(i);
+			String resolved = next(token, i + 1 < query.size() ? query.get(i + 1) : null);
+			if (!resolved.equals(token))
+				query.set(i, resolved);
+		}
+	}
+	
+	/**
+	 * Resolve the abbreviated forms of all positions of the given token lattice in place. An abbreviation is resolved,
+	 * if any form of the next position continues the genus, and a genus is learned, if any of its forms is continued
+	 * by any form of the next position.
+	 *
+	 * @param lattice One mutable list of alternative forms per token.
+	 */
+	public void resolveLattice(@Nonnull List<? extends List<String>> lattice) {
+		for (int i = 0; i < lattice.size(); i++) {
+			List<String> forms = lattice.get(i);
+			List<String> followingForms = i + 1 < lattice.size() ? lattice.get(i + 1) : Collections.emptyList();
+			ArrayList<String> resolvedForms = new ArrayList<>(forms.size());
+			for (String form : forms) {
+				String resolved = resolve(form, followingForms);
+				if (!resolvedForms.contains(resolved))
+					resolvedForms.add(resolved);
+			}
+			if (previousForms != null) {
+				for (String genus : previousForms) {
+					for (String form : resolvedForms) {
+						learn(genus, form);
+					}
+				}
+			}
+			if (!resolvedForms.equals(forms)) {
+				forms.clear();
+				forms.addAll(resolvedForms);
+			}
+			previousForms = resolvedForms;
+		}
+	}
+	
+	/**
+	 * @return The number of genera in the tree.
+	 */
+	public int getGenusCount() {
+		return genera.size();
+	}
+	
+	private String resolve(String token, List<String> followingForms) {
+		if (!isAbbreviation(token))
+			return token;
+		ArrayList<String> candidates = context.get(getInitial(token));
+		if (candidates == null)
+			return token;
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			String genus = candidates.get(i);
+			ITreeNode node = root.getChild(genus);
+			for (String following : followingForms) {
+				if (node.getChild(following) != null)
+					return genus;
+			}
+		}
+		return token;
+	}
+	
+	private void learn(String genus, String next) {
+		if (!genera.contains(genus))
+			return;
+		ITreeNode node = root.getChild(genus);
+		if (node != null && node.getChild(next) != null) {
+			ArrayList<String> candidates = context.computeIfAbsent(getInitial(genus), initial -> new ArrayList<>(1));
+			candidates.remove(genus);
+			candidates.add(genus);
+		}
+	}
+	
+	public static boolean isAbbreviation(String token) {
+		return token.length() <= 3 && ABBREVIATION_PATTERN.matcher(token).matches();
+	}
+	
+	private static String getInitial(String token) {
+		return token.substring(0, Character.charCount(token.codePointAt(0)));
+	}
+}
@@ -0,0 +1,264 @@
+package org.biofid.gazetteer.matcher;
+
+import org.apache.log4j.Logger;
+import org.biofid.gazetteer.tree.ITreeNode;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton over the tokens of a skip-gram tree. Each state corresponds to a node of the tree and
+ * has a suffix link to the state of the longest proper suffix of its token path that is also a path in the tree, and a
+ * dictionary suffix link to the nearest state along the suffix links that has a value. This allows to find every
+ * match ending at each token in a single pass, in time proportional to the number of tokens plus the number of
+ * matches.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public class DictionaryAutomaton {
+	
+	protected static final Logger logger = Logger.getLogger(DictionaryAutomaton.class);
+	
+	public static final int ROOT = 0;
+	private static final long EMPTY = -1L;
+	
+	private final HashMap<String, Integer> tokenIds = new HashMap<>();
+	private final String[] values;
+	private final int[] depths;
+	private final int[] suffixLinks;
+	private final int[] dictionaryLinks;
+	
+	// Open addressing transition table from (state, token ID) to state
+	private final long[] transitionKeys;
+	private final int[] transitionTargets;
+	private final int shift;
+	
+	/**
+	 * Build the automaton for the tree with the given root node.
+	 *
+	 * @param root The root of the tree. The tree must not be modified afterwards.
+	 */
+	public DictionaryAutomaton(@Nonnull ITreeNode root) {
+		long startTime = System.currentTimeMillis();
+		
+		// Number the nodes in breadth-first order, so the suffix links of all shallower states are known
+		ArrayList<String> stateValues = new ArrayList<>();
+		ArrayList<Integer> stateDepths = new ArrayList<>();
+		ArrayList<int[]> edges = new ArrayList<>();
+		ArrayDeque<ITreeNode> queue = new ArrayDeque<>();
+		queue.add(root);
+		stateValues.add(root.getValue());
+		stateDepths.add(0);
+		int state = 0;
+		while (!queue.isEmpty()) {
+			final int parent = state++;
+			final int depth = stateDepths.get(parent) + 1;
+			queue.poll().forEachChild((token, child) -> {
+				int tokenId = tokenIds.computeIfAbsent(token, t -> tokenIds.size());
+				edges.add(new int[]{parent, tokenId, stateValues.size()});
+				stateValues.add(child.getValue());
+				stateDepths.add(depth);
+				queue.add(child);
+			});
+		}
+		
+		int size = stateValues.size();
+		this.values = stateValues.toArray(new String[0]);
+		this.depths = stateDepths.stream().mapToInt(Integer::intValue).toArray();
+		
+		int capacity = Integer.highestOneBit(Math.max(2, edges.size()) - 1) << 2;
+		this.shift = Long.numberOfLeadingZeros(capacity - 1);
+		this.transitionKeys = new long[capacity];
+		this.transitionTargets = new int[capacity];
+		Arrays.fill(transitionKeys, EMPTY);
+		for (int[] edge : edges) {
+			long key = key(edge[0], edge[1]);
+			int slot = slot(key);
+			while (transitionKeys[slot] != EMPTY) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			transitionKeys[slot] = key;
+			transitionTargets[slot] = edge[2];
+		}
+		
+		// The edges are in breadth-first order of their target
+		this.suffixLinks = new int[size];
+		this.dictionaryLinks = new int[size];
+		dictionaryLinks[ROOT] = -1;
+		for (int[] edge : edges) {
+			int parent = edge[0];
+			int tokenId = edge[1];
+			int child = edge[2];
+			int link = ROOT;
+			if (parent != ROOT) {
+				int candidate = suffixLinks[parent];
+				while ((link = transition(candidate, tokenId)) < 0 && candidate != ROOT) {
+					candidate = suffixLinks[candidate];
+				}
+				if (link < 0)
+					link = ROOT;
+			}
+			suffixLinks[child] = link;
+			dictionaryLinks[child] = values[link] != null ? link : dictionaryLinks[link];
+		}
+		
+		logger.info(String.format("Built dictionary automaton with %d states and %d tokens in %dms.",
+				size, tokenIds.size(), System.currentTimeMillis() - startTime));
+	}
+	
+	private static long key(int state, int tokenId) {
+		return ((long) state << 32) | tokenId;
+	}
+	
+	private int slot(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+	
+	private int transition(int state, int tokenId) {
+		long key = key(state, tokenId);
+		int mask = transitionKeys.length - 1;
+		for (int slot = slot(key); transitionKeys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (transitionKeys[slot] == key)
+				return transitionTargets[slot];
+		}
+		return -1;
+	}
+	
+	/**
+	 * Advance the automaton by one token.
+	 *
+	 * @param state The current state, {@link #ROOT} before the first token.
+	 * @param token The next token.
+	 * @return The state after the given token.
+	 */
+	public int next(int state, String token) {
+		Integer tokenId = tokenIds.get(token);
+		if (tokenId == null)
+			return ROOT;
+		int next;
+		while ((next = transition(state, tokenId)) < 0 && state != ROOT) {
+			state = suffixLinks[state];
+		}
+		return next < 0 ? ROOT : next;
+	}
+	
+	/**
+	 * Call the given consumer for every match that ends with the token that led to the given state, longest first.
+	 *
+	 * @param state    A state returned by {@link #next(int, String)}.
+	 * @param end      The index of the token that led to the given state.
+	 * @param consumer Receives the indices of the first and last token and the value of each match.
+	 */
+	public void forEachMatch(int state, int end, MatchConsumer consumer) {
+		int current = values[state] != null ? state : dictionaryLinks[state];
+		while (current > ROOT) {
+			consumer.accept(end - depths[current] + 1, end, values[current]);
+			current = dictionaryLinks[current];
+		}
+	}
+	
+	/**
+	 * Find every match in the query, including matches that overlap or are nested in other matches.
+	 *
+	 * @param query        The normalized tokens.
+	 * @param globalOffset An offset added to the indices of all returned matches.
+	 * @return A list of matches ordered by their last token, longer matches first.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull List<String> query, int globalOffset) {
+		return findAllMatches(query, globalOffset, MatchBudget.UNLIMITED);
+	}
+	
+	/**
+	 * Find every match in the query until the given budget is exceeded with {@link MatchBudget.Strategy#STOP}.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull List<String> query, int globalOffset, @Nonnull MatchBudget budget) {
+		ArrayList<Match> matches = new ArrayList<>();
+		int state = ROOT;
+		for (int i = 0; i < query.size() && budget.proceed(i + globalOffset); i++) {
+			state = next(state, query.get(i));
+			forEachMatch(state, i + globalOffset, (start, end, value) -> matches.add(new Match(start, end, value)));
+		}
+		return matches;
+	}
+	
+	/**
+	 * Find every match in a token lattice with several alternative forms per token. The automaton is run on all paths
+	 * through the lattice at once by keeping one state per path, where paths that reach the same state are merged.
+	 *
+	 * @param lattice      The normalized alternative forms of each token.
+	 * @param globalOffset An offset added to the indices of all returned matches.
+	 * @param maxBranching The maximum number of states kept per token.
+	 * @return A list of matches ordered by their last token, without duplicates.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull List<? extends List<String>> lattice, int globalOffset, int maxBranching) {
+		return findAllMatches(lattice, globalOffset, maxBranching, MatchBudget.UNLIMITED);
+	}
+	
+	/**
+	 * Find every match in a token lattice until the given budget is exceeded with {@link MatchBudget.Strategy#STOP}.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull List<? extends List<String>> lattice, int globalOffset, int maxBranching, @Nonnull MatchBudget budget) {
+		ArrayList<Match> matches = new ArrayList<>();
+		int[] states = {ROOT};
+		int stateCount = 1;
+		int[] nextStates = new int[Math.max(1, maxBranching)];
+		HashSet<Integer> emitted = new HashSet<>();
+		for (int i = 0; i < lattice.size() && budget.proceed(i + globalOffset); i++) {
+			int nextCount = 0;
+			for (int s = 0; s < stateCount; s++) {
+				for (String form : lattice.get(i)) {
+					int next = next(states[s], form);
+					if (next != ROOT && nextCount < nextStates.length && !contains(nextStates, nextCount, next))
+						nextStates[nextCount++] = next;
+				}
+			}
+			
+			// Different paths may share the same suffixes, so each dictionary state is only reported once per token
+			emitted.clear();
+			for (int s = 0; s < nextCount; s++) {
+				int current = values[nextStates[s]] != null ? nextStates[s] : dictionaryLinks[nextStates[s]];
+				while (current > ROOT && emitted.add(current)) {
+					int end = i + globalOffset;
+					matches.add(new Match(end - depths[current] + 1, end, values[current]));
+					current = dictionaryLinks[current];
+				}
+			}
+			
+			if (nextCount == 0) {
+				states[0] = ROOT;
+				stateCount = 1;
+			} else {
+				int[] swap = states.length == nextStates.length ? states : new int[nextStates.length];
+				states = nextStates;
+				nextStates = swap;
+				stateCount = nextCount;
+			}
+		}
+		return matches;
+	}
+	
+	private static boolean contains(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return The number of states, ie. the number of nodes of the tree.
+	 */
+	public int size() {
+		return values.length;
+	}
+	
+	@FunctionalInterface
+	public interface MatchConsumer {
+		void accept(int start, int end, String value);
+	}
+}
@@ -0,0 +1,374 @@
+package org.biofid.gazetteer.matcher;
+
+import org.biofid.gazetteer.models.ITreeGazetteerModel;
+import org.biofid.gazetteer.models.StartTokenFilter;
+import org.biofid.gazetteer.tree.ITreeNode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Skip-gram matcher over an {@link ITreeGazetteerModel} that does not depend on UIMA. Accepts plain text or
+ * pre-tokenized input and returns {@link Match Matches} or resolved {@link MatchSpan MatchSpans}.
+ * <p>
+ * Instances may be shared between threads, as long as the model is not modified. The only mutable state is the
+ * {@link DictionaryAutomaton} for overlapping matches, which is built once per model on first use and shared by all
+ * matchers of that model.
+ */
+public class GazetteerMatcher {
+	
+	/**
+	 * The default pattern used to tokenize plain text: single letters followed by a period (abbreviations) or runs of
+	 * letters, digits and hyphens.
+	 */
+	public static final String DEFAULT_TOKEN_REGEX = "\\p{L}\\.|[\\p{L}\\p{N}][\\p{L}\\p{M}\\p{N}\\-]*";
+	
+	protected final ITreeGazetteerModel model;
+	protected final ITreeNode root;
+	protected final StartTokenFilter startTokenFilter;
+	protected final int maxDepth;
+	protected final boolean useLowercase;
+	protected final Pattern tokenPattern;
+	private volatile DictionaryAutomaton automaton;
+	
+	/**
+	 * The automata of all models, so engines that share a model also share its automaton. The automaton does not
+	 * reference the model, so an entry is dropped once its model is no longer used.
+	 */
+	private static final Map<ITreeGazetteerModel, DictionaryAutomaton> automata = new WeakHashMap<>();
+	
+	public GazetteerMatcher(ITreeGazetteerModel model, boolean useLowercase) {
+		this(model, model.getStats().getMaxDepth(), useLowercase, DEFAULT_TOKEN_REGEX);
+	}
+	
+	/**
+	 * @param model        The model to match against.
+	 * @param maxDepth     The maximum number of tokens to look ahead for a single match.
+	 * @param useLowercase If true, lower case all tokens given to the public matching methods.
+	 * @param tokenRegex   The pattern used to find tokens in plain text input.
+	 */
+	public GazetteerMatcher(ITreeGazetteerModel model, int maxDepth, boolean useLowercase, String tokenRegex) {
+		this.model = model;
+		this.root = model.getTree();
+		this.startTokenFilter = model.getStartTokenFilter();
+		this.maxDepth = maxDepth;
+		this.useLowercase = useLowercase;
+		this.tokenPattern = Pattern.compile(tokenRegex, Pattern.UNICODE_CHARACTER_CLASS);
+	}
+	
+	/**
+	 * Find the longest match starting at the given offset. Offsets whose token is rejected by the
+	 * {@link StartTokenFilter} of the model are skipped without any tree lookup.
+	 *
+	 * @param query  The normalized tokens.
+	 * @param offset The index of the first token of the match.
+	 * @return The match with indices relative to the query or null, if there is no match at this offset.
+	 */
+	@Nullable
+	public Match longestMatchAt(@Nonnull List<String> query, int offset) {
+		if (offset >= query.size() || !startTokenFilter.mightContain(query.get(offset)))
+			return null;
+		
+		ITreeNode node = root;
+		String value = null;
+		int end = -1;
+		int limit = Math.min(query.size(), offset + maxDepth);
+		for (int i = offset; i < limit; i++) {
+			node = node.getChild(query.get(i));
+			if (node == null)
+				break;
+			if (node.hasValue()) {
+				value = node.getValue();
+				end = i;
+			}
+		}
+		return value == null ? null : new Match(offset, end, value);
+	}
+	
+	/**
+	 * Find the longest match starting at the given offset of a token lattice, which holds several alternative forms
+	 * per token, eg. the surface form and the lemma. The tree is walked along all combinations of alternatives at once.
+	 *
+	 * @param lattice      The normalized alternative forms of each token, without duplicates per token. Earlier forms
+	 *                     are preferred if matches of the same length end in different nodes.
+	 * @param offset       The index of the first token of the match.
+	 * @param maxBranching The maximum number of paths through the lattice that are followed at the same time.
+	 * @return The match with indices relative to the lattice or null, if there is no match at this offset.
+	 */
+	@Nullable
+	public Match longestLatticeMatchAt(@Nonnull List<? extends List<String>> lattice, int offset, int maxBranching) {
+		if (offset >= lattice.size() || lattice.get(offset).stream().noneMatch(startTokenFilter::mightContain))
+			return null;
+		
+		ArrayList<ITreeNode> frontier = new ArrayList<>();
+		frontier.add(root);
+		String value = null;
+		int end = -1;
+		int limit = Math.min(lattice.size(), offset + maxDepth);
+		for (int i = offset; i < limit && !frontier.isEmpty(); i++) {
+			ArrayList<ITreeNode> next = new ArrayList<>();
+			for (ITreeNode node : frontier) {
+				for (String form : lattice.get(i)) {
+					ITreeNode child = node.getChild(form);
+					if (child != null && next.size() < maxBranching)
+						next.add(child);
+				}
+			}
+			for (ITreeNode node : next) {
+				if (node.hasValue()) {
+					value = node.getValue();
+					end = i;
+					break;
+				}
+			}
+			frontier = next;
+		}
+		return value == null ? null : new Match(offset, end, value);
+	}
+	
+	/**
+	 * Greedily find all non-overlapping matches in a token lattice, see {@link #longestLatticeMatchAt(List, int, int)}.
+	 *
+	 * @param lattice      The normalized alternative forms of each token.
+	 * @param globalOffset An offset added to the indices of all returned matches.
+	 * @param maxBranching The maximum number of paths through the lattice that are followed at the same time.
+	 * @return A list of matches in order of occurrence.
+	 */
+	public ArrayList<Match> findAllLatticeMatches(@Nonnull List<? extends List<String>> lattice, int globalOffset, int maxBranching) {
+		return findAllLatticeMatches(lattice, globalOffset, maxBranching, MatchBudget.UNLIMITED);
+	}
+	
+	/**
+	 * Greedily find all non-overlapping matches in a token lattice within the given budget, see
+	 * {@link #findAllMatches(List, int, MatchBudget)}.
+	 */
+	public ArrayList<Match> findAllLatticeMatches(@Nonnull List<? extends List<String>> lattice, int globalOffset, int maxBranching, @Nonnull MatchBudget budget) {
+		ArrayList<Match> matches = new ArrayList<>();
+		int offset = 0;
+		while (offset < lattice.size() && budget.proceed(offset + globalOffset)) {
+			Match match = longestLatticeMatchAt(lattice, offset, maxBranching);
+			if (match != null && budget.isDegraded(offset + globalOffset) && !isFullName(match))
+				match = null;
+			if (match != null) {
+				matches.add(new Match(match.start + globalOffset, match.end + globalOffset, match.value));
+				offset = match.end + 1;
+			} else {
+				offset++;
+			}
+		}
+		return matches;
+	}
+	
+	/**
+	 * Greedily find all non-overlapping matches in the query, preferring the longest match at each offset.
+	 *
+	 * @param query        The normalized tokens.
+	 * @param globalOffset An offset added to the indices of all returned matches.
+	 * @return A list of matches in order of occurrence.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull List<String> query, int globalOffset) {
+		return findAllMatches(query, globalOffset, MatchBudget.UNLIMITED);
+	}
+	
+	/**
+	 * Greedily find all non-overlapping matches in the query within the given budget. Once the budget is exceeded,
+	 * matching either stops or only accepts {@link #isFullName(Match) full names}, see {@link MatchBudget.Strategy}.
+	 *
+	 * @param query        The normalized tokens.
+	 * @param globalOffset An offset added to the indices of all returned matches, which is also the index of the first
+	 *                     token in the document.
+	 * @param budget       The budget of the document.
+	 * @return A list of matches in order of occurrence.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull List<String> query, int globalOffset, @Nonnull MatchBudget budget) {
+		ArrayList<Match> matches = new ArrayList<>();
+		int offset = 0;
+		while (offset < query.size() && budget.proceed(offset + globalOffset)) {
+			Match match = longestMatchAt(query, offset);
+			if (match != null && budget.isDegraded(offset + globalOffset) && !isFullName(match))
+				match = null;
+			if (match != null) {
+				matches.add(globalOffset == 0 ? match : new Match(match.start + globalOffset, match.end + globalOffset, match.value));
+				offset = match.end + 1;
+			} else {
+				offset++;
+			}
+		}
+		return matches;
+	}
+	
+	/**
+	 * Find every match in the query, including shorter matches nested in longer ones and overlapping matches, in a
+	 * single pass over the query. See {@link DictionaryAutomaton}.
+	 *
+	 * @param query        The normalized tokens.
+	 * @param globalOffset An offset added to the indices of all returned matches.
+	 * @return A list of matches ordered by their last token, longer matches first.
+	 */
+	public ArrayList<Match> findAllOverlappingMatches(@Nonnull List<String> query, int globalOffset) {
+		return getAutomaton().findAllMatches(query, globalOffset);
+	}
+	
+	/**
+	 * Find every match in the query within the given budget, see {@link #findAllOverlappingMatches(List, int)} and
+	 * {@link #findAllMatches(List, int, MatchBudget)}.
+	 */
+	public ArrayList<Match> findAllOverlappingMatches(@Nonnull List<String> query, int globalOffset, @Nonnull MatchBudget budget) {
+		return removeDegraded(getAutomaton().findAllMatches(query, globalOffset, budget), budget);
+	}
+	
+	/**
+	 * Find every match in a token lattice, including nested and overlapping matches, in a single pass. See
+	 * {@link DictionaryAutomaton#findAllMatches(List, int, int)}.
+	 */
+	public ArrayList<Match> findAllOverlappingLatticeMatches(@Nonnull List<? extends List<String>> lattice, int globalOffset, int maxBranching) {
+		return getAutomaton().findAllMatches(lattice, globalOffset, maxBranching);
+	}
+	
+	/**
+	 * Find every match in a token lattice within the given budget, see
+	 * {@link #findAllOverlappingLatticeMatches(List, int, int)}.
+	 */
+	public ArrayList<Match> findAllOverlappingLatticeMatches(@Nonnull List<? extends List<String>> lattice, int globalOffset, int maxBranching, @Nonnull MatchBudget budget) {
+		return removeDegraded(getAutomaton().findAllMatches(lattice, globalOffset, maxBranching, budget), budget);
+	}
+	
+	private ArrayList<Match> removeDegraded(ArrayList<Match> matches, MatchBudget budget) {
+		if (budget.isExceeded())
+			matches.removeIf(match -> budget.isDegraded(match.start) && !isFullName(match));
+		return matches;
+	}
+	
+	/**
+	 * @return The automaton for overlapping matches over the tree of the model. Built on the first call for the model
+	 * and shared with all other matchers of the same model.
+	 */
+	public DictionaryAutomaton getAutomaton() {
+		DictionaryAutomaton result = automaton;
+		if (result == null) {
+			synchronized (automata) {
+				result = automata.computeIfAbsent(model, key -> new DictionaryAutomaton(root));
+			}
+			automaton = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Find all matches in a sequence of tokens. The tokens are normalized according to the settings of this matcher.
+	 *
+	 * @param tokens The tokens.
+	 * @return A list of matches in order of occurrence.
+	 */
+	public ArrayList<Match> findAllMatches(@Nonnull String[] tokens) {
+		return findAllMatches(normalize(tokens), 0);
+	}
+	
+	/**
+	 * Find all matches in a sequence of tokens with the given character offsets.
+	 *
+	 * @param tokens The tokens.
+	 * @param begins The begin offset of each token.
+	 * @param ends   The (exclusive) end offset of each token.
+	 * @return A list of resolved matches in order of occurrence.
+	 */
+	public ArrayList<MatchSpan> match(@Nonnull String[] tokens, @Nonnull int[] begins, @Nonnull int[] ends) {
+		if (tokens.length != begins.length || tokens.length != ends.length)
+			throw new IllegalArgumentException(String.format(
+					"Array lengths do not match! tokens:%d, begins:%d, ends:%d", tokens.length, begins.length, ends.length));
+		
+		ArrayList<Match> matches = findAllMatches(tokens);
+		ArrayList<MatchSpan> spans = new ArrayList<>(matches.size());
+		for (Match match : matches) {
+			MatchSpan span = resolve(match, begins[match.start], ends[match.end]);
+			if (span != null)
+				spans.add(span);
+		}
+		return spans;
+	}
+	
+	/**
+	 * Tokenize the given text and find all matches.
+	 *
+	 * @param text The text.
+	 * @return A list of resolved matches in order of occurrence.
+	 */
+	public ArrayList<MatchSpan> match(@Nonnull CharSequence text) {
+		ArrayList<String> tokens = new ArrayList<>();
+		int[] begins = new int[16];
+		int[] ends = new int[16];
+		Matcher tokenMatcher = tokenPattern.matcher(text);
+		while (tokenMatcher.find()) {
+			int i = tokens.size();
+			if (i == begins.length) {
+				begins = Arrays.copyOf(begins, i * 2);
+				ends = Arrays.copyOf(ends, i * 2);
+			}
+			tokens.add(tokenMatcher.group());
+			begins[i] = tokenMatcher.start();
+			ends[i] = tokenMatcher.end();
+		}
+		return match(tokens.toArray(new String[0]), Arrays.copyOf(begins, tokens.size()), Arrays.copyOf(ends, tokens.size()));
+	}
+	
+	/**
+	 * Resolve the taxon and URIs of the given match.
+	 *
+	 * @return A new span or null, if the matched skip-gram can not be mapped onto a taxon.
+	 */
+	@Nullable
+	public MatchSpan resolve(@Nonnull Match match, int begin, int end) {
+		int taxonId = getTaxonId(match);
+		if (taxonId < 0)
+			return null;
+		return new MatchSpan(begin, end, taxonId, model.getTaxon(taxonId), model.getTaxonUris(taxonId));
+	}
+	
+	/**
+	 * @return True, if the match is the full name of its taxon rather than one of its skip-grams.
+	 */
+	public boolean isFullName(@Nonnull Match match) {
+		int taxonId = getTaxonId(match);
+		if (taxonId < 0)
+			return false;
+		String taxon = model.getTaxon(taxonId);
+		return match.value.equalsIgnoreCase(taxon) || match.value.equalsIgnoreCase(taxon.replace('-', ' '));
+	}
+	
+	public int getTaxonId(@Nonnull Match match) {
+		return model.getSkipGramTaxonId(match.value);
+	}
+	
+	@Nullable
+	public Set<URI> getUris(@Nonnull Match match) {
+		int taxonId = getTaxonId(match);
+		return taxonId < 0 ? null : model.getTaxonUris(taxonId);
+	}
+	
+	protected List<String> normalize(String[] tokens) {
+		if (!useLowercase)
+			return Arrays.asList(tokens);
+		String[] normalized = new String[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			normalized[i] = tokens[i].toLowerCase();
+		}
+		return Arrays.asList(normalized);
+	}
+	
+	public ITreeGazetteerModel getModel() {
+		return model;
+	}
+	
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+}
@@ -0,0 +1,18 @@
+package org.biofid.gazetteer.matcher;
+
+/**
+ * A match of a skip-gram in a token sequence. {@link #start} and {@link #end} are the (inclusive) indices of the first
+ * and last matched token.
+ */
+public class Match {
+	
+	public final int start;
+	public final int end;
+	public final String value;
+	
+	public Match(int start, int end, String value) {
+		this.start = start;
+		this.end = end;
+		this.value = value;
+	}
+}
@@ -0,0 +1,146 @@
+package org.biofid.gazetteer.matcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A time and token budget for matching a single document. The matching loops ask the budget before each token whether
+ * to {@link #proceed(int) proceed}. Once the budget is exceeded, the rest of the document is matched according to the
+ * {@link Strategy}, so a single pathological document can not stall a whole batch.
+ * <p>
+ * Tokens are counted by their index in the document, so the token budget gives the same result whether the document
+ * is matched as a whole or sentence by sentence. The clock is only read every {@value #TIME_CHECK_INTERVAL} tokens,
+ * counted over all threads. Instances may be shared by the threads matching the sentences of the same document.
+ * <p>
+ * Only matching is budgeted. The annotations of the matches found are always created in full, their number is bounded
+ * by the tokens matched within the budget.
+ */
+public class MatchBudget {
+	
+	/**
+	 * What to do with the rest of the document once the budget is exceeded.
+	 */
+	public enum Strategy {
+		/**
+		 * Stop matching and keep the matches found so far.
+		 */
+		STOP,
+		/**
+		 * Keep matching, but only accept matches of full taxon names and drop all other skip-grams.
+		 */
+		FULL_NAMES
+	}
+	
+	/**
+	 * The budget that was exceeded.
+	 */
+	public enum Reason {
+		TIME,
+		TOKENS
+	}
+	
+	/**
+	 * A budget that is never exceeded.
+	 */
+	public static final MatchBudget UNLIMITED = new MatchBudget(0, 0, Strategy.STOP);
+	
+	static final int TIME_CHECK_INTERVAL = 64;
+	
+	private final long timeBudgetNanos;
+	private final int tokenBudget;
+	private final Strategy strategy;
+	private final boolean limited;
+	private final AtomicInteger exceededIndex = new AtomicInteger(Integer.MAX_VALUE);
+	private volatile Reason reason;
+	private final AtomicInteger checks = new AtomicInteger();
+	private volatile long startNanos;
+	
+	/**
+	 * @param timeBudgetMillis The time budget per document in milliseconds. Values smaller than 1 disable it.
+	 * @param tokenBudget      The number of tokens per document. Values smaller than 1 disable it.
+	 * @param strategy         The strategy for the rest of the document.
+	 */
+	public MatchBudget(long timeBudgetMillis, int tokenBudget, Strategy strategy) {
+		this.timeBudgetNanos = Math.max(0L, TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis));
+		this.tokenBudget = Math.max(0, tokenBudget);
+		this.strategy = strategy;
+		this.limited = this.timeBudgetNanos > 0 || this.tokenBudget > 0;
+	}
+	
+	/**
+	 * Start the budget of the next document.
+	 */
+	public void start() {
+		if (!limited)
+			return;
+		startNanos = System.nanoTime();
+		checks.set(0);
+		reason = null;
+		exceededIndex.set(Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Check the budget before matching the token with the given index.
+	 *
+	 * @param index The index of the token in the document.
+	 * @return False, if the budget is exceeded and the strategy is {@link Strategy#STOP}.
+	 */
+	public boolean proceed(int index) {
+		if (!limited)
+			return true;
+		if (tokenBudget > 0 && index >= tokenBudget) {
+			if (exceededIndex.get() > tokenBudget)
+				exceed(Reason.TOKENS, tokenBudget);
+		} else if (reason == null && timeBudgetNanos > 0 && checks.incrementAndGet() % TIME_CHECK_INTERVAL == 0
+				&& System.nanoTime() - startNanos > timeBudgetNanos) {
+			exceed(Reason.TIME, index);
+		}
+		return reason == null || strategy != Strategy.STOP;
+	}
+	
+	private void exceed(Reason reason, int index) {
+		exceededIndex.accumulateAndGet(index, Math::min);
+		if (this.reason == null)
+			this.reason = reason;
+	}
+	
+	/**
+	 * @return True, if a match starting at the given token index has to be a full taxon name.
+	 */
+	public boolean isDegraded(int index) {
+		return reason != null && strategy == Strategy.FULL_NAMES && index >= exceededIndex.get();
+	}
+	
+	public boolean isLimited() {
+		return limited;
+	}
+	
+	public boolean isExceeded() {
+		return reason != null;
+	}
+	
+	/**
+	 * @return The budget that was exceeded first or null, if it was not exceeded.
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+	
+	/**
+	 * @return The index of the first token the budget was exceeded at or -1, if it was not exceeded.
+	 */
+	public int getExceededIndex() {
+		return reason == null ? -1 : exceededIndex.get();
+	}
+	
+	public Strategy getStrategy() {
+		return strategy;
+	}
+	
+	/**
+	 * @return The time since {@link #start()} in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return limited ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) : 0L;
+	}
+}
@@ -0,0 +1,149 @@
+package org.biofid.gazetteer.matcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the matches of a document with their character offsets, so they can be sorted, deduplicated and resolved
+ * according to an {@link OverlapPolicy} before any annotation is created. The result does not depend on the order the
+ * matches were added in.
+ */
+public class MatchBuffer {
+	
+	/**
+	 * Begin ascending, end descending, then source and taxon ID ascending.
+	 */
+	private static final Comparator<Entry> BEGIN_ORDER = Comparator.<Entry>comparingInt(e -> e.begin)
+			.thenComparing(Comparator.<Entry>comparingInt(e -> e.end).reversed())
+			.thenComparingInt(e -> e.source)
+			.thenComparingInt(e -> e.taxonId);
+	
+	/**
+	 * Length descending, then {@link #BEGIN_ORDER}.
+	 */
+	private static final Comparator<Entry> LENGTH_ORDER = Comparator.<Entry>comparingInt(e -> e.end - e.begin)
+			.reversed()
+			.thenComparing(BEGIN_ORDER);
+	
+	private final ArrayList<Entry> entries = new ArrayList<>();
+	
+	/**
+	 * @param begin   The inclusive begin offset.
+	 * @param end     The exclusive end offset.
+	 * @param source  The index of the gazetteer that produced the match.
+	 * @param taxonId The ID of the matched taxon in the model of that gazetteer.
+	 */
+	public void add(int begin, int end, int source, int taxonId) {
+		entries.add(new Entry(begin, end, source, taxonId));
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	public void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * Sort and deduplicate the buffered matches and resolve overlaps with the given policy. The buffer is not modified.
+	 *
+	 * @return The remaining matches ordered by begin offset, longer matches first.
+	 */
+	public List<Entry> resolve(OverlapPolicy policy) {
+		ArrayList<Entry> sorted = new ArrayList<>(entries);
+		sorted.sort(BEGIN_ORDER);
+		ArrayList<Entry> unique = new ArrayList<>(sorted.size());
+		for (Entry entry : sorted) {
+			if (unique.isEmpty() || !unique.get(unique.size() - 1).equals(entry))
+				unique.add(entry);
+		}
+		
+		switch (policy) {
+			case LEFTMOST:
+				return resolveLeftmost(unique);
+			case LONGEST:
+				return resolveLongest(unique);
+			case ALL:
+			default:
+				return unique;
+		}
+	}
+	
+	private static ArrayList<Entry> resolveLeftmost(ArrayList<Entry> unique) {
+		ArrayList<Entry> result = new ArrayList<>(unique.size());
+		Entry last = null;
+		for (Entry entry : unique) {
+			if (last == null || entry.begin >= last.end || entry.hasSpan(last)) {
+				result.add(entry);
+				last = entry;
+			}
+		}
+		return result;
+	}
+	
+	private static ArrayList<Entry> resolveLongest(ArrayList<Entry> unique) {
+		ArrayList<Entry> candidates = new ArrayList<>(unique);
+		candidates.sort(LENGTH_ORDER);
+		
+		// The accepted spans are disjoint, so only the one beginning last before the end of a candidate can overlap it
+		TreeMap<Integer, Integer> accepted = new TreeMap<>();
+		ArrayList<Entry> result = new ArrayList<>(candidates.size());
+		for (Entry entry : candidates) {
+			Map.Entry<Integer, Integer> previous = accepted.floorEntry(entry.end - 1);
+			if (previous == null || previous.getValue() <= entry.begin) {
+				accepted.put(entry.begin, entry.end);
+				result.add(entry);
+			} else if (previous.getKey() == entry.begin && previous.getValue() == entry.end) {
+				result.add(entry);
+			}
+		}
+		result.sort(BEGIN_ORDER);
+		return result;
+	}
+	
+	/**
+	 * A buffered match. {@link #begin} is inclusive, {@link #end} is exclusive.
+	 */
+	public static class Entry {
+		
+		public final int begin;
+		public final int end;
+		public final int source;
+		public final int taxonId;
+		
+		public Entry(int begin, int end, int source, int taxonId) {
+			this.begin = begin;
+			this.end = end;
+			this.source = source;
+			this.taxonId = taxonId;
+		}
+		
+		boolean hasSpan(Entry other) {
+			return begin == other.begin && end == other.end;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Entry))
+				return false;
+			Entry other = (Entry) o;
+			return hasSpan(other) && source == other.source && taxonId == other.taxonId;
+		}
+		
+		@Override
+		public int hashCode() {
+			return ((begin * 31 + end) * 31 + source) * 31 + taxonId;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("(%d, %d): %d/%d", begin, end, source, taxonId);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package org.biofid.gazetteer.matcher;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Throwables;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded LRU cache of the matches of whole sentences, keyed by their normalized token sequence, so sentences that
+ * repeat within and across documents, like running heads, captions or index lines of scanned books, are only matched
+ * once. The matches are stored relative to the first token of the sentence and share their skip-gram strings with the
+ * model.
+ * <p>
+ * The cache is capped by the estimated retained bytes of its keys and matches and evicts the least recently used
+ * sentences first. Instances are thread-safe, so the sentences of a document may be looked up in parallel, a sentence
+ * that is looked up by several threads at once is only matched by one of them.
+ */
+public class MatchCache {
+	
+	private static final int ENTRY_OVERHEAD_BYTES = 96;
+	private static final int REFERENCE_BYTES = 8;
+	private static final int ARRAY_OVERHEAD_BYTES = 16;
+	private static final int STRING_OVERHEAD_BYTES = 40;
+	
+	private final Cache<Key, CachedMatches> cache;
+	private final long maxBytes;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * @param maxBytes The maximum estimated size of all cached sentences and their matches in bytes.
+	 */
+	public MatchCache(long maxBytes) {
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("The match cache size must be positive, but is " + maxBytes);
+		this.maxBytes = maxBytes;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher((Key key, CachedMatches matches) -> key.bytes + matches.bytes)
+				.removalListener((RemovalNotification<Key, CachedMatches> notification) -> {
+					if (notification.wasEvicted())
+						evictions.increment();
+				})
+				.build();
+	}
+	
+	/**
+	 * Get the matches of the given sentence from the cache or find them with the given matcher and cache them.
+	 *
+	 * @param query        The normalized tokens of the sentence or its token lattice.
+	 * @param globalOffset The index of the first token of the sentence in the document.
+	 * @param matcher      Finds the matches of the query with indices offset by {@code globalOffset}.
+	 * @return The matches with indices offset by {@code globalOffset}.
+	 */
+	public ArrayList<Match> findAll(@Nonnull List<?> query, int globalOffset, @Nonnull Supplier<ArrayList<Match>> matcher) {
+		Key key = new Key(query);
+		// Concurrent lookups of the same sentence wait for a single match instead of all missing
+		AtomicReference<ArrayList<Match>> loaded = new AtomicReference<>();
+		CachedMatches cached;
+		try {
+			cached = cache.get(key, () -> {
+				misses.increment();
+				ArrayList<Match> matches = matcher.get();
+				loaded.set(matches);
+				return new CachedMatches(matches, globalOffset);
+			});
+		} catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new IllegalStateException(e.getCause());
+		}
+		if (loaded.get() != null)
+			return loaded.get();
+		hits.increment();
+		return cached.toMatches(globalOffset);
+	}
+	
+	/**
+	 * Remove all cached sentences and reset the counters.
+	 */
+	public void clear() {
+		cache.invalidateAll();
+		resetStats();
+	}
+	
+	public void resetStats() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+	
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+	
+	public long size() {
+		return cache.size();
+	}
+	
+	/**
+	 * @return The estimated size of all cached sentences and their matches in bytes.
+	 */
+	public long getEstimatedBytes() {
+		long bytes = 0L;
+		for (Key key : cache.asMap().keySet()) {
+			bytes += key.bytes;
+		}
+		for (CachedMatches matches : cache.asMap().values()) {
+			bytes += matches.bytes;
+		}
+		return bytes;
+	}
+	
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * An immutable copy of a token sequence or lattice with its precomputed hash.
+	 */
+	private static final class Key {
+		final ImmutableList<?> tokens;
+		final int hash;
+		final int bytes;
+		
+		Key(List<?> query) {
+			tokens = copy(query);
+			hash = tokens.hashCode();
+			bytes = estimateBytes(tokens);
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			return this == other || other instanceof Key && hash == ((Key) other).hash && tokens.equals(((Key) other).tokens);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		private static ImmutableList<?> copy(List<?> list) {
+			ImmutableList.Builder<Object> builder = ImmutableList.builderWithExpectedSize(list.size());
+			for (Object element : list) {
+				// The forms of a lattice position may be changed after matching
+				builder.add(element instanceof List ? copy((List<?>) element) : element);
+			}
+			return builder.build();
+		}
+		
+		private static int estimateBytes(List<?> list) {
+			int bytes = ARRAY_OVERHEAD_BYTES + REFERENCE_BYTES * list.size();
+			for (Object element : list) {
+				bytes += element instanceof List ? estimateBytes((List<?>) element)
+						: STRING_OVERHEAD_BYTES + 2 * element.toString().length();
+			}
+			return bytes;
+		}
+	}
+	
+	/**
+	 * The matches of a sentence relative to its first token.
+	 */
+	private static final class CachedMatches {
+		final int[] starts;
+		final int[] ends;
+		final String[] values;
+		final int bytes;
+		
+		CachedMatches(List<Match> matches, int globalOffset) {
+			int size = matches.size();
+			starts = new int[size];
+			ends = new int[size];
+			values = new String[size];
+			for (int i = 0; i < size; i++) {
+				Match match = matches.get(i);
+				starts[i] = match.start - globalOffset;
+				ends[i] = match.end - globalOffset;
+				values[i] = match.value;
+			}
+			bytes = ENTRY_OVERHEAD_BYTES + 3 * ARRAY_OVERHEAD_BYTES + (4 + 4 + REFERENCE_BYTES) * size;
+		}
+		
+		ArrayList<Match> toMatches(int globalOffset) {
+			ArrayList<Match> matches = new ArrayList<>(starts.length);
+			for (int i = 0; i < starts.length; i++) {
+				matches.add(new Match(starts[i] + globalOffset, ends[i] + globalOffset, values[i]));
+			}
+			return matches;
+		}
+	}
+}
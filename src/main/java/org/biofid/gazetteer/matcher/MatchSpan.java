@@ -0,0 +1,29 @@
+package org.biofid.gazetteer.matcher;
+
+import java.net.URI;
+import java.util.Set;
+
+/**
+ * A resolved match with character offsets. {@link #begin} is inclusive, {@link #end} is exclusive.
+ */
+public class MatchSpan {
+	
+	public final int begin;
+	public final int end;
+	public final int taxonId;
+	public final String taxon;
+	public final Set<URI> uris;
+	
+	public MatchSpan(int begin, int end, int taxonId, String taxon, Set<URI> uris) {
+		this.begin = begin;
+		this.end = end;
+		this.taxonId = taxonId;
+		this.taxon = taxon;
+		this.uris = uris;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s@(%d, %d): %s", taxon, begin, end, uris);
+	}
+}
@@ -0,0 +1,20 @@
+package org.biofid.gazetteer.matcher;
+
+/**
+ * How a {@link MatchBuffer} resolves matches with overlapping character spans. Matches with identical spans never
+ * conflict, so a span tagged with several types or by several gazetteers is always kept in full.
+ */
+public enum OverlapPolicy {
+	/**
+	 * Prefer the longest match; of two equally long matches, prefer the one that begins first.
+	 */
+	LONGEST,
+	/**
+	 * Prefer the match that begins first; of two matches beginning at the same offset, prefer the longer one.
+	 */
+	LEFTMOST,
+	/**
+	 * Keep all matches.
+	 */
+	ALL
+}
@@ -0,0 +1,330 @@
+package org.biofid.gazetteer.metrics;
+
+import org.apache.log4j.Logger;
+import org.biofid.gazetteer.matcher.MatchCache;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counters and {@link LatencyHistogram latency histograms} for the {@link Phase phases} of a gazetteer. Instances are
+ * thread-safe and shared by all engines registered under the same name, see {@link #register(String)}.
+ * <p>
+ * The {@link #DISABLED} instance does not record anything: {@link #start()} and {@link #stop(Phase, long)} return
+ * immediately without reading the clock, so instrumented code paths cost a single branch if metrics are turned off.
+ */
+public class GazetteerMetrics implements GazetteerMetricsMXBean {
+	
+	protected static final Logger logger = Logger.getLogger(GazetteerMetrics.class);
+	
+	public static final GazetteerMetrics DISABLED = new GazetteerMetrics(false);
+	
+	public static final String JMX_DOMAIN = "org.biofid.gazetteer";
+	
+	private static final HashMap<String, GazetteerMetrics> registry = new HashMap<>();
+	
+	private final boolean enabled;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder matches = new LongAdder();
+	private final LongAdder slowDocuments = new LongAdder();
+	private final LongAdder degradedDocuments = new LongAdder();
+	private final CopyOnWriteArrayList<MatchCache> matchCaches = new CopyOnWriteArrayList<>();
+	private final AtomicLong lastSummary = new AtomicLong(System.currentTimeMillis());
+	private volatile Map<String, Long> modelBuildMillis = Collections.emptyMap();
+	
+	public GazetteerMetrics() {
+		this(true);
+	}
+	
+	private GazetteerMetrics(boolean enabled) {
+		this.enabled = enabled;
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+	
+	/**
+	 * Get the metrics registered under the given name or create them and register them with the platform MBean server
+	 * as {@code org.biofid.gazetteer:type=GazetteerMetrics,name=<name>}. Failure to register the MBean is logged, but
+	 * the metrics are still collected.
+	 *
+	 * @param name The name of the metrics, usually the engine name.
+	 * @return The metrics registered under the given name.
+	 */
+	public static GazetteerMetrics register(String name) {
+		synchronized (registry) {
+			GazetteerMetrics metrics = registry.get(name);
+			if (metrics == null) {
+				metrics = new GazetteerMetrics();
+				registry.put(name, metrics);
+				try {
+					MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+					ObjectName objectName = new ObjectName(String.format("%s:type=%s,name=%s",
+							JMX_DOMAIN, GazetteerMetrics.class.getSimpleName(), ObjectName.quote(name)));
+					if (!mBeanServer.isRegistered(objectName))
+						mBeanServer.registerMBean(metrics, objectName);
+				} catch (JMException | SecurityException e) {
+					logger.warn(String.format("Could not register metrics '%s' via JMX: %s", name, e.getMessage()));
+				}
+			}
+			return metrics;
+		}
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * @return The current {@link System#nanoTime()} or 0, if disabled.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+	
+	/**
+	 * Record the time elapsed since {@code start} for the given phase.
+	 *
+	 * @param phase The phase.
+	 * @param start The value returned by {@link #start()}.
+	 * @return The elapsed time in nanoseconds or 0, if disabled.
+	 */
+	public long stop(Phase phase, long start) {
+		if (!enabled)
+			return 0L;
+		long elapsed = System.nanoTime() - start;
+		histograms[phase.ordinal()].record(elapsed);
+		return elapsed;
+	}
+	
+	/**
+	 * @param start The value returned by {@link #start()}.
+	 * @return The time elapsed since {@code start} in nanoseconds or 0, if disabled.
+	 */
+	public long elapsed(long start) {
+		return enabled ? System.nanoTime() - start : 0L;
+	}
+	
+	/**
+	 * Record a duration for the given phase, eg. the sum of several {@link #elapsed(long)} values.
+	 *
+	 * @param phase The phase.
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void record(Phase phase, long nanos) {
+		if (enabled)
+			histograms[phase.ordinal()].record(nanos);
+	}
+	
+	/**
+	 * Count a processed document.
+	 *
+	 * @param documentTokens  The number of tokens of the document.
+	 * @param documentMatches The number of matches in the document.
+	 */
+	public void recordDocument(long documentTokens, long documentMatches) {
+		if (!enabled)
+			return;
+		documents.increment();
+		tokens.add(documentTokens);
+		matches.add(documentMatches);
+	}
+	
+	public void recordSlowDocument() {
+		if (enabled)
+			slowDocuments.increment();
+	}
+	
+	/**
+	 * Count a document whose match budget was exceeded.
+	 */
+	public void recordDegradedDocument() {
+		if (enabled)
+			degradedDocuments.increment();
+	}
+	
+	public void setModelBuildMillis(Map<String, Long> modelBuildMillis) {
+		if (enabled)
+			this.modelBuildMillis = Collections.unmodifiableMap(new LinkedHashMap<>(modelBuildMillis));
+	}
+	
+	/**
+	 * Include the counters of the given cache in these metrics. The caches of all engines registered under the same
+	 * name are summed up.
+	 */
+	public void addMatchCache(MatchCache matchCache) {
+		if (enabled && !matchCaches.contains(matchCache))
+			matchCaches.add(matchCache);
+	}
+	
+	/**
+	 * Log the {@link #getSummary() summary} if at least {@code intervalMillis} have passed since the last summary. Only
+	 * one of several concurrent callers logs.
+	 *
+	 * @param intervalMillis The minimum interval between two summaries. Values smaller than 1 disable the summary.
+	 */
+	public void logSummaryIfDue(long intervalMillis) {
+		if (!enabled || intervalMillis < 1)
+			return;
+		long now = System.currentTimeMillis();
+		long last = lastSummary.get();
+		if (now - last >= intervalMillis && lastSummary.compareAndSet(last, now))
+			logger.info(getSummary());
+	}
+	
+	public LatencyHistogram getHistogram(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+	
+	@Override
+	public long getDocumentCount() {
+		return documents.sum();
+	}
+	
+	@Override
+	public long getTokenCount() {
+		return tokens.sum();
+	}
+	
+	@Override
+	public long getMatchCount() {
+		return matches.sum();
+	}
+	
+	@Override
+	public long getSlowDocumentCount() {
+		return slowDocuments.sum();
+	}
+	
+	@Override
+	public long getDegradedDocumentCount() {
+		return degradedDocuments.sum();
+	}
+	
+	@Override
+	public long getMatchCacheHitCount() {
+		return sumMatchCaches(MatchCache::getHitCount);
+	}
+	
+	@Override
+	public long getMatchCacheMissCount() {
+		return sumMatchCaches(MatchCache::getMissCount);
+	}
+	
+	@Override
+	public long getMatchCacheEvictionCount() {
+		return sumMatchCaches(MatchCache::getEvictionCount);
+	}
+	
+	@Override
+	public long getMatchCacheBytes() {
+		return sumMatchCaches(MatchCache::getEstimatedBytes);
+	}
+	
+	@Override
+	public Map<String, Long> getPhaseCounts() {
+		return collectLong(LatencyHistogram::getCount);
+	}
+	
+	@Override
+	public Map<String, Double> getPhaseTotalMillis() {
+		return collectMillis(LatencyHistogram::getTotalNanos);
+	}
+	
+	@Override
+	public Map<String, Double> getPhaseMeanMillis() {
+		return collectMillis(LatencyHistogram::getMeanNanos);
+	}
+	
+	@Override
+	public Map<String, Double> getPhaseP50Millis() {
+		return collectMillis(histogram -> histogram.getPercentileNanos(50));
+	}
+	
+	@Override
+	public Map<String, Double> getPhaseP99Millis() {
+		return collectMillis(histogram -> histogram.getPercentileNanos(99));
+	}
+	
+	@Override
+	public Map<String, Double> getPhaseMaxMillis() {
+		return collectMillis(LatencyHistogram::getMaxNanos);
+	}
+	
+	@Override
+	public Map<String, Long> getModelBuildMillis() {
+		return modelBuildMillis;
+	}
+	
+	@Override
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder(String.format("Tagged %d documents, %d tokens, %d matches (%d slow documents, %d over budget).",
+				getDocumentCount(), getTokenCount(), getMatchCount(), getSlowDocumentCount(), getDegradedDocumentCount()));
+		if (!matchCaches.isEmpty()) {
+			long hits = getMatchCacheHitCount();
+			long lookups = hits + getMatchCacheMissCount();
+			summary.append(String.format(Locale.ROOT, " Match cache: %d hits of %d sentences (%.1f%%), %d evictions, %.1fMB;",
+					hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups, getMatchCacheEvictionCount(), getMatchCacheBytes() / 1e6));
+		}
+		for (Phase phase : Phase.values()) {
+			LatencyHistogram histogram = getHistogram(phase);
+			if (histogram.getCount() == 0)
+				continue;
+			summary.append(String.format(Locale.ROOT, " %s: n=%d, total=%.1fms, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms;",
+					phase, histogram.getCount(), toMillis(histogram.getTotalNanos()), toMillis(histogram.getMeanNanos()),
+					toMillis(histogram.getPercentileNanos(50)), toMillis(histogram.getPercentileNanos(99)), toMillis(histogram.getMaxNanos())));
+		}
+		return summary.toString();
+	}
+	
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+		documents.reset();
+		tokens.reset();
+		matches.reset();
+		slowDocuments.reset();
+		degradedDocuments.reset();
+		matchCaches.forEach(MatchCache::resetStats);
+	}
+	
+	private long sumMatchCaches(ToLongFunction<MatchCache> function) {
+		long sum = 0L;
+		for (MatchCache matchCache : matchCaches) {
+			sum += function.applyAsLong(matchCache);
+		}
+		return sum;
+	}
+	
+	private Map<String, Long> collectLong(ToLongFunction<LatencyHistogram> function) {
+		LinkedHashMap<String, Long> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			map.put(phase.name(), function.applyAsLong(getHistogram(phase)));
+		}
+		return map;
+	}
+	
+	private Map<String, Double> collectMillis(ToDoubleFunction<LatencyHistogram> nanos) {
+		LinkedHashMap<String, Double> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			map.put(phase.name(), toMillis(nanos.applyAsDouble(getHistogram(phase))));
+		}
+		return map;
+	}
+	
+	private static double toMillis(double nanos) {
+		return nanos / 1_000_000.0;
+	}
+}
@@ -0,0 +1,58 @@
+package org.biofid.gazetteer.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link GazetteerMetrics}. All latencies are given in milliseconds, all maps are keyed by
+ * {@link Phase} name.
+ */
+public interface GazetteerMetricsMXBean {
+	
+	long getDocumentCount();
+	
+	long getTokenCount();
+	
+	long getMatchCount();
+	
+	long getSlowDocumentCount();
+	
+	/**
+	 * @return The number of documents whose match budget was exceeded.
+	 */
+	long getDegradedDocumentCount();
+	
+	/**
+	 * @return The number of sentences whose matches were found in the match cache.
+	 */
+	long getMatchCacheHitCount();
+	
+	long getMatchCacheMissCount();
+	
+	long getMatchCacheEvictionCount();
+	
+	/**
+	 * @return The estimated size of all match caches in bytes.
+	 */
+	long getMatchCacheBytes();
+	
+	Map<String, Long> getPhaseCounts();
+	
+	Map<String, Double> getPhaseTotalMillis();
+	
+	Map<String, Double> getPhaseMeanMillis();
+	
+	Map<String, Double> getPhaseP50Millis();
+	
+	Map<String, Double> getPhaseP99Millis();
+	
+	Map<String, Double> getPhaseMaxMillis();
+	
+	/**
+	 * @return The build phase timings of the model in milliseconds.
+	 */
+	Map<String, Long> getModelBuildMillis();
+	
+	String getSummary();
+	
+	void reset();
+}
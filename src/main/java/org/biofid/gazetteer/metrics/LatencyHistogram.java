@@ -0,0 +1,78 @@
+package org.biofid.gazetteer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power-of-two nanosecond buckets. Bucket {@code i} counts all values in
+ * {@code [2^(i-1), 2^i)}, so percentiles are accurate up to a factor of two, which is sufficient to spot slow phases and
+ * regressions at a constant cost of a few atomic increments per recorded value.
+ */
+public class LatencyHistogram {
+	
+	private static final int BUCKETS = 65;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+	
+	/**
+	 * @param nanos The latency to record in nanoseconds. Negative values are recorded as zero.
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0L, nanos);
+		buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+		count.increment();
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public long getTotalNanos() {
+		return sum.sum();
+	}
+	
+	public long getMaxNanos() {
+		return max.get();
+	}
+	
+	public double getMeanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0.0 : sum.sum() / (double) n;
+	}
+	
+	/**
+	 * @param percentile The percentile in (0, 100].
+	 * @return The upper bound of the bucket containing the given percentile in nanoseconds, capped at the maximum
+	 * recorded value. Zero if nothing was recorded yet.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long n = count.sum();
+		if (n == 0)
+			return 0L;
+		long rank = (long) Math.ceil(n * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				long upperBound = i == 0 ? 0L : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+				return Math.min(upperBound, max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0L);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+}
@@ -0,0 +1,34 @@
+package org.biofid.gazetteer.metrics;
+
+/**
+ * The instrumented phases of a gazetteer's {@code process()} call. All phases but {@link #URIS} are recorded once per
+ * document; if a phase is interleaved with others, eg. in streaming or sentence level tagging, the durations of its
+ * parts are summed up.
+ */
+public enum Phase {
+	/**
+	 * Re-tokenization of the document text, if enabled.
+	 */
+	RETOKENIZE,
+	/**
+	 * Collection of the token or lemma strings that are matched against the tree.
+	 */
+	QUERY,
+	/**
+	 * Traversal of the tree and buffering of the matches.
+	 */
+	MATCH,
+	/**
+	 * Overlap resolution of the buffered matches and creation and indexing of the annotations, including the URI
+	 * payload.
+	 */
+	ANNOTATE,
+	/**
+	 * Lookup and concatenation of the URI payload, recorded once per annotation.
+	 */
+	URIS,
+	/**
+	 * The entire {@code process()} call.
+	 */
+	DOCUMENT
+}
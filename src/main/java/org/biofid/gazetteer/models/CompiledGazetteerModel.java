@@ -0,0 +1,140 @@
+package org.biofid.gazetteer.models;
+
+import org.apache.log4j.Logger;
+import org.apache.uima.util.UriUtils;
+import org.biofid.gazetteer.tree.ITreeNode;
+import org.biofid.gazetteer.tree.TokenFst;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A model built by an {@link ExternalModelBuilder} and loaded from its directory. The skip-grams are kept in a
+ * {@link TokenFst} on the heap, whose outputs are the taxon IDs. The taxa and their URIs are memory-mapped tables, so
+ * only the pages that are actually used are read and they are not part of the Java heap.
+ * <p>
+ * Taxa are numbered in sorted order, so their IDs differ from those of a {@link TreeGazetteerModel} built from the same
+ * sources.
+ */
+public class CompiledGazetteerModel implements ITreeGazetteerModel {
+	
+	protected static final Logger logger = Logger.getLogger(CompiledGazetteerModel.class);
+	
+	static final String BUILD_MILLIS_PREFIX = "millis.";
+	
+	private final TokenFst fst;
+	private final OffHeapStringTable taxa;
+	private final OffHeapStringTable uris;
+	private final Pattern tokenBoundaryPattern;
+	private final boolean useLowercase;
+	private final TreeModelStats stats;
+	private final StartTokenFilter startTokenFilter;
+	private final LinkedHashMap<String, Long> buildMillis = new LinkedHashMap<>();
+	private final Properties properties = new Properties();
+	private final FstSkipGramTaxonLookup skipGramTaxonLookup;
+	
+	/**
+	 * Load the model from the given directory.
+	 *
+	 * @param directory          A directory returned by {@link ExternalModelBuilder#build(Path)}.
+	 * @param bUseLowercase      If true, lower case skip-grams before they are looked up.
+	 * @param tokenBoundaryRegex The token boundary the model was built with.
+	 * @throws IOException If the model can not be read.
+	 */
+	public CompiledGazetteerModel(Path directory, boolean bUseLowercase, String tokenBoundaryRegex) throws IOException {
+		long startTime = System.currentTimeMillis();
+		try (Reader reader = Files.newBufferedReader(directory.resolve(ExternalModelBuilder.PROPERTIES_FILE), StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		fst = TokenFst.read(directory.resolve(ExternalModelBuilder.FST_FILE));
+		taxa = OffHeapStringTable.map(directory.resolve(ExternalModelBuilder.TAXA_FILE));
+		uris = OffHeapStringTable.map(directory.resolve(ExternalModelBuilder.URIS_FILE));
+		useLowercase = bUseLowercase;
+		tokenBoundaryPattern = Pattern.compile(tokenBoundaryRegex, Pattern.UNICODE_CHARACTER_CLASS);
+		stats = TreeModelStats.collect(fst);
+		startTokenFilter = new StartTokenFilter(fst.getStartTokens());
+		skipGramTaxonLookup = new FstSkipGramTaxonLookup(fst, this);
+		
+		for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+			if (name.startsWith(BUILD_MILLIS_PREFIX))
+				buildMillis.put(name.substring(BUILD_MILLIS_PREFIX.length()), Long.valueOf(properties.getProperty(name)));
+		}
+		buildMillis.put("load", System.currentTimeMillis() - startTime);
+		
+		logger.info(String.format("Loaded compiled model with %d taxa and %d skip-grams in %dms.",
+				taxa.size(), fst.getSequenceCount(), buildMillis.get("load")));
+		logger.info(String.format("Transducer statistics: %s", stats));
+	}
+	
+	/**
+	 * @return The properties the model was built with, eg. the number of skip-gram collisions.
+	 */
+	public Properties getProperties() {
+		return properties;
+	}
+	
+	public TokenFst getFst() {
+		return fst;
+	}
+	
+	@Override
+	public ITreeNode getTree() {
+		return fst.getRoot();
+	}
+	
+	@Override
+	public TreeModelStats getStats() {
+		return stats;
+	}
+	
+	@Override
+	public StartTokenFilter getStartTokenFilter() {
+		return startTokenFilter;
+	}
+	
+	@Override
+	public Map<String, String> getSkipGramTaxonLookup() {
+		return skipGramTaxonLookup;
+	}
+	
+	@Override
+	public int getSkipGramTaxonId(String skipGram) {
+		return skipGram == null ? -1 : fst.get(Arrays.asList(FstGazetteerModel.tokenize(skipGram, tokenBoundaryPattern, useLowercase)));
+	}
+	
+	@Override
+	public Map<String, Long> getBuildMillis() {
+		return Collections.unmodifiableMap(buildMillis);
+	}
+	
+	@Override
+	public int getTaxonId(String taxon) {
+		return taxon == null ? -1 : taxa.binarySearch(taxon);
+	}
+	
+	@Override
+	public String getTaxon(int taxonId) {
+		return taxa.get(taxonId);
+	}
+	
+	@Override
+	public int getTaxonCount() {
+		return taxa.size();
+	}
+	
+	@Override
+	public Set<URI> getTaxonUris(int taxonId) {
+		LinkedHashSet<URI> taxonUris = new LinkedHashSet<>();
+		for (String uri : uris.get(taxonId).split(" ")) {
+			if (!uri.isEmpty())
+				taxonUris.add(UriUtils.create(uri));
+		}
+		return taxonUris;
+	}
+}
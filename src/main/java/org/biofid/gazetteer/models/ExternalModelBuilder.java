@@ -0,0 +1,320 @@
+package org.biofid.gazetteer.models;
+
+import com.google.common.base.Strings;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.biofid.gazetteer.tree.TokenFst;
+import org.biofid.gazetteer.util.ExternalSorter;
+import org.biofid.gazetteer.util.SourceCache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a {@link CompiledGazetteerModel} for name lists that are too large to hold in memory, like the GBIF backbone.
+ * The build does not keep the taxa or skip-grams in memory. Instead they pass through two {@link ExternalSorter
+ * external sorts}:
+ * <ol>
+ * <li>All lines of all sources are normalized like in {@link StringGazetteerModel} and sorted by taxon. The merged
+ * order joins the URIs of duplicate taxa, numbers the taxa in sorted order and streams them into the taxa and URI
+ * tables. The skip-grams of each taxon are added to the second sort.</li>
+ * <li>The skip-grams are sorted by their tokens. Equal skip-grams are adjacent in the merged order: a skip-gram that is
+ * a taxon itself maps to that taxon, a skip-gram of a single taxon maps to that taxon, and a skip-gram of several
+ * taxa is a collision and dropped. The remaining skip-grams are already in the order a {@link TokenFst.Builder}
+ * expects and are streamed into it.</li>
+ * </ol>
+ * The heap used by the build is bounded by the run size of the sorts, the token dictionary and the minimized
+ * transducer, independent of the number of names and skip-grams.
+ * <p>
+ * Models are written to a subdirectory of the given location named after a checksum of all model parameters and the
+ * source files, so models built with different parameters can share a location and an existing model is reused.
+ */
+public class ExternalModelBuilder {
+	
+	protected static final Logger logger = Logger.getLogger(ExternalModelBuilder.class);
+	
+	static final String FST_FILE = "skipgrams.fst";
+	static final String TAXA_FILE = "taxa.table";
+	static final String URIS_FILE = "uris.table";
+	static final String PROPERTIES_FILE = "model.properties";
+	
+	// Token separator and key terminator, which sort before all characters of a token
+	private static final char KEY_END = '\u0000';
+	private static final char TOKEN_SEPARATOR = '\u0001';
+	private static final char SELF = '0';
+	private static final char OTHER = '1';
+	
+	private final String[] sourceLocations;
+	private final boolean useLowercase;
+	private final String language;
+	private final double minLength;
+	private final boolean getAllSkips;
+	private final boolean splitHyphen;
+	private final boolean addAbbreviatedTaxa;
+	private final int minWordCountForSkipGrams;
+	private final String tokenBoundaryRegex;
+	private final Pattern tokenBoundaryPattern;
+	private final HashSet<String> filterSet;
+	private int runSize = ExternalSorter.DEFAULT_RUN_SIZE;
+	private Path tempDirectory = null;
+	
+	/**
+	 * @param aSourceLocations          An array of UTF-8 file locations containing a list of one taxon and any number
+	 *                                  of URIs (comma or space separated) per line.
+	 * @param bUseLowercase             If true, use lower cased skip-grams.
+	 * @param sLanguage                 The language to be used as locale for lower casing.
+	 * @param dMinLength                The minimum skip-gram length. All skip-grams (and taxa) with a length lower than
+	 *                                  this will be omitted.
+	 * @param bAllSkips                 If true, get all m-skip-n-grams of length n > 2.
+	 * @param bSplitHyphen              If true, taxon tokens will be split at hyphens.
+	 * @param bAddAbbreviatedTaxa       If true, additionally add taxa with the first token abbreviated.
+	 * @param iMinWordCountForSkipGrams The lower bound token count for the skip-gram creation.
+	 * @param tokenBoundaryRegex
+	 * @param pFilterSet
+	 */
+	public ExternalModelBuilder(
+			String[] aSourceLocations,
+			boolean bUseLowercase,
+			String sLanguage,
+			double dMinLength,
+			boolean bAllSkips,
+			boolean bSplitHyphen,
+			boolean bAddAbbreviatedTaxa,
+			int iMinWordCountForSkipGrams,
+			String tokenBoundaryRegex,
+			HashSet<String> pFilterSet
+	) {
+		this.sourceLocations = aSourceLocations;
+		this.useLowercase = bUseLowercase;
+		this.language = sLanguage;
+		this.minLength = dMinLength;
+		this.getAllSkips = bAllSkips;
+		this.splitHyphen = bSplitHyphen;
+		this.addAbbreviatedTaxa = bAddAbbreviatedTaxa;
+		this.minWordCountForSkipGrams = iMinWordCountForSkipGrams;
+		this.tokenBoundaryRegex = tokenBoundaryRegex;
+		this.tokenBoundaryPattern = Pattern.compile(tokenBoundaryRegex, Pattern.UNICODE_CHARACTER_CLASS);
+		this.filterSet = pFilterSet;
+	}
+	
+	/**
+	 * @param runSize The maximum number of records each external sort holds in memory. Default:
+	 *                {@link ExternalSorter#DEFAULT_RUN_SIZE}.
+	 */
+	public ExternalModelBuilder setRunSize(int runSize) {
+		this.runSize = runSize;
+		return this;
+	}
+	
+	/**
+	 * @param tempDirectory The directory for the sort runs. Default: a temporary directory next to the model.
+	 */
+	public ExternalModelBuilder setTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+		return this;
+	}
+	
+	/**
+	 * Build the model in a subdirectory of the given location, unless it exists already.
+	 *
+	 * @param location The directory of all compiled models.
+	 * @return The directory of the model, to be loaded with {@link CompiledGazetteerModel#CompiledGazetteerModel(Path, boolean, String)}.
+	 */
+	public Path build(Path location) throws IOException {
+		ArrayList<String> taxaFiles = StringGazetteerModel.resolveTaxaFiles(StringGazetteerModel.getSourceCache().fetchAll(sourceLocations));
+		String modelKey = getModelKey(taxaFiles);
+		Path modelDirectory = location.resolve(SourceCache.sha256(modelKey.getBytes(StandardCharsets.UTF_8)));
+		if (Files.isRegularFile(modelDirectory.resolve(PROPERTIES_FILE))) {
+			logger.info(String.format("Using compiled model %s", modelDirectory));
+			return modelDirectory;
+		}
+		
+		Files.createDirectories(location);
+		Path buildDirectory = Files.createTempDirectory(location, ".build-");
+		try {
+			Properties properties = build(taxaFiles, buildDirectory);
+			properties.setProperty("key", modelKey);
+			try (Writer writer = Files.newBufferedWriter(buildDirectory.resolve(PROPERTIES_FILE), StandardCharsets.UTF_8)) {
+				properties.store(writer, null);
+			}
+			try {
+				Files.move(buildDirectory, modelDirectory, StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+				// Another process built the same model concurrently
+				logger.info(String.format("Model %s was built concurrently, discarding this build.", modelDirectory));
+			}
+		} finally {
+			FileUtils.deleteQuietly(buildDirectory.toFile());
+		}
+		return modelDirectory;
+	}
+	
+	/**
+	 * @return A key of all parameters that affect the model and the path, size and modification time of each source.
+	 */
+	private String getModelKey(List<String> taxaFiles) throws IOException {
+		StringJoiner key = new StringJoiner("|");
+		key.add(String.valueOf(useLowercase)).add(language).add(String.valueOf(minLength))
+				.add(String.valueOf(getAllSkips)).add(String.valueOf(splitHyphen)).add(String.valueOf(addAbbreviatedTaxa))
+				.add(String.valueOf(minWordCountForSkipGrams)).add(tokenBoundaryRegex);
+		key.add(String.join(",", new TreeSet<>(filterSet)));
+		for (String taxaFile : taxaFiles) {
+			Path path = Paths.get(taxaFile).toAbsolutePath();
+			key.add(String.format("%s:%d:%d", path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+		}
+		return key.toString();
+	}
+	
+	private Properties build(List<String> taxaFiles, Path buildDirectory) throws IOException {
+		long startTime = System.currentTimeMillis();
+		LinkedHashMap<String, Long> buildMillis = new LinkedHashMap<>();
+		Path sortDirectory = Files.createTempDirectory(tempDirectory != null ? tempDirectory : buildDirectory, "sort");
+		try (ExternalSorter taxonSorter = new ExternalSorter(sortDirectory, runSize);
+		     ExternalSorter skipGramSorter = new ExternalSorter(sortDirectory, runSize)) {
+			
+			// Sort all lines by taxon: "taxon\turi uri .."
+			logger.info(String.format("Sorting entries from %d files..", taxaFiles.size()));
+			for (String taxaFile : taxaFiles) {
+				try (BufferedReader reader = Files.newBufferedReader(Paths.get(taxaFile), StandardCharsets.UTF_8)) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (Strings.isNullOrEmpty(line))
+							continue;
+						String[] split = line.split("\t", 2);
+						String taxon = StringGazetteerModel.normalizeTaxon(split[0], useLowercase, language);
+						String uris = split.length > 1 ? String.join(" ", split[1].trim().split("[ ,]+")) : "";
+						taxonSorter.add(taxon + '\t' + uris);
+					}
+				}
+			}
+			long phaseStart = System.currentTimeMillis();
+			buildMillis.put("sortTaxa", phaseStart - startTime);
+			
+			// Merge duplicate taxa, write the taxa tables and collect the skip-grams: "tokens\0flag taxonId"
+			HashSet<String> dictionary = new HashSet<>();
+			int taxonCount;
+			try (OffHeapStringTable.Writer taxa = new OffHeapStringTable.Writer(buildDirectory.resolve(TAXA_FILE));
+			     OffHeapStringTable.Writer uris = new OffHeapStringTable.Writer(buildDirectory.resolve(URIS_FILE))) {
+				String taxon = null;
+				LinkedHashSet<String> taxonUris = new LinkedHashSet<>();
+				for (String record : taxonSorter) {
+					int tab = record.indexOf('\t');
+					String nextTaxon = record.substring(0, tab);
+					if (!nextTaxon.equals(taxon)) {
+						if (taxon != null)
+							addTaxon(taxon, taxonUris, taxa, uris, skipGramSorter, dictionary);
+						taxon = nextTaxon;
+						taxonUris.clear();
+					}
+					for (String uri : record.substring(tab + 1).split(" ")) {
+						if (!uri.isEmpty())
+							taxonUris.add(uri);
+					}
+				}
+				if (taxon != null)
+					addTaxon(taxon, taxonUris, taxa, uris, skipGramSorter, dictionary);
+				taxonCount = taxa.size();
+			}
+			logger.info(String.format("Sorted %d entries into %d taxa with %d skip-grams in %d and %d runs.",
+					taxonSorter.size(), taxonCount, skipGramSorter.size(), taxonSorter.getRunCount(), skipGramSorter.getRunCount()));
+			taxonSorter.close();
+			long fstStart = System.currentTimeMillis();
+			buildMillis.put("taxa", fstStart - phaseStart);
+			
+			// Stream the merged skip-grams into the transducer
+			TokenFst.Builder builder = new TokenFst.Builder(dictionary);
+			dictionary.clear();
+			int collisions = 0;
+			String key = null;
+			int taxonId = -1;
+			boolean self = false;
+			boolean collision = false;
+			for (String record : skipGramSorter) {
+				int end = record.indexOf(KEY_END);
+				String nextKey = record.substring(0, end);
+				int nextTaxonId = Integer.parseInt(record.substring(end + 2));
+				if (nextKey.equals(key)) {
+					// A skip-gram that is a taxon itself sorts first and always maps to that taxon
+					collision |= !self && nextTaxonId != taxonId;
+					continue;
+				}
+				collisions += addMergedSkipGram(builder, key, taxonId, collision);
+				key = nextKey;
+				taxonId = nextTaxonId;
+				self = record.charAt(end + 1) == SELF;
+				collision = false;
+			}
+			collisions += addMergedSkipGram(builder, key, taxonId, collision);
+			if (collisions > 0)
+				logger.info(String.format("Ignoring %d skip-grams of more than one taxon!", collisions));
+			
+			TokenFst fst = builder.build();
+			fst.write(buildDirectory.resolve(FST_FILE));
+			buildMillis.put("fst", System.currentTimeMillis() - fstStart);
+			logger.info(String.format("Finished building transducer with %d states and %d arcs from %d skip-grams in %dms.",
+					fst.getStateCount(), fst.getArcCount(), fst.getSequenceCount(), System.currentTimeMillis() - startTime));
+			
+			Properties properties = new Properties();
+			properties.setProperty("taxa", String.valueOf(taxonCount));
+			properties.setProperty("skipGrams", String.valueOf(fst.getSequenceCount()));
+			properties.setProperty("collisions", String.valueOf(collisions));
+			properties.setProperty("duplicateTokenSequences", String.valueOf(builder.getDuplicateCount()));
+			properties.setProperty("states", String.valueOf(fst.getStateCount()));
+			properties.setProperty("arcs", String.valueOf(fst.getArcCount()));
+			for (Map.Entry<String, Long> entry : buildMillis.entrySet()) {
+				properties.setProperty(CompiledGazetteerModel.BUILD_MILLIS_PREFIX + entry.getKey(), String.valueOf(entry.getValue()));
+			}
+			return properties;
+		} finally {
+			FileUtils.deleteQuietly(sortDirectory.toFile());
+		}
+	}
+	
+	/**
+	 * Write a merged taxon to the tables and add its skip-grams to the skip-gram sort.
+	 */
+	private void addTaxon(String taxon, Collection<String> taxonUris, OffHeapStringTable.Writer taxa,
+	                      OffHeapStringTable.Writer uris, ExternalSorter skipGramSorter, HashSet<String> dictionary) throws IOException {
+		int taxonId = taxa.add(taxon);
+		uris.add(String.join(" ", taxonUris));
+		
+		if (StringGazetteerModel.isTreeEntry(taxon, minLength, filterSet))
+			addSkipGram(taxon, SELF, taxonId, skipGramSorter, dictionary);
+		for (String skipGram : StringGazetteerModel.getSkipGramsFromTaxon(taxon, addAbbreviatedTaxa, minWordCountForSkipGrams, getAllSkips, splitHyphen)) {
+			if (!skipGram.equals(taxon) && StringGazetteerModel.isTreeEntry(skipGram, minLength, filterSet))
+				addSkipGram(skipGram, OTHER, taxonId, skipGramSorter, dictionary);
+		}
+	}
+	
+	private void addSkipGram(String skipGram, char flag, int taxonId, ExternalSorter skipGramSorter, HashSet<String> dictionary) throws IOException {
+		String[] tokens = FstGazetteerModel.tokenize(skipGram, tokenBoundaryPattern, useLowercase);
+		Collections.addAll(dictionary, tokens);
+		skipGramSorter.add(String.join(String.valueOf(TOKEN_SEPARATOR), tokens) + KEY_END + flag + taxonId);
+	}
+	
+	/**
+	 * Add the last skip-gram of the merged order to the transducer, unless it is a collision.
+	 *
+	 * @return 1, if the skip-gram is a collision, and 0 otherwise.
+	 */
+	private static int addMergedSkipGram(TokenFst.Builder builder, String key, int taxonId, boolean collision) {
+		if (key == null)
+			return 0;
+		if (collision)
+			return 1;
+		builder.add(toTokenIds(builder, key), taxonId);
+		return 0;
+	}
+	
+	private static int[] toTokenIds(TokenFst.Builder builder, String key) {
+		String[] tokens = key.split(String.valueOf(TOKEN_SEPARATOR));
+		int[] tokenIds = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			tokenIds[i] = builder.getTokenId(tokens[i]);
+		}
+		return tokenIds;
+	}
+}
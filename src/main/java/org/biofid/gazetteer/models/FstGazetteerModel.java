@@ -0,0 +1,172 @@
+package org.biofid.gazetteer.models;
+
+import org.biofid.gazetteer.tree.ITreeNode;
+import org.biofid.gazetteer.tree.StringTreeNode;
+import org.biofid.gazetteer.tree.TokenFst;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A model that compiles the skip-grams into a minimal acyclic {@link TokenFst} instead of a prefix tree. The output of
+ * each token sequence is the ID of its taxon, so the taxon of a match is found by walking the transducer once. Most
+ * skip-grams of a taxon end in the same tokens, eg. the species epithet, so the transducer shares these suffixes and
+ * has far fewer states than the tree has nodes.
+ * <p>
+ * {@link #getTree()} returns the root of the transducer, which implements the same {@link ITreeNode} traversal as the
+ * tree, so the matchers work with either model. The skip-gram lookup is released once the transducer is built,
+ * {@link #getSkipGramTaxonLookup()} is a view backed by the transducer.
+ */
+public class FstGazetteerModel extends StringGazetteerModel implements ITreeGazetteerModel {
+	
+	private final Pattern tokenBoundaryPattern;
+	private final TokenFst fst;
+	private final TreeModelStats stats;
+	private final StartTokenFilter startTokenFilter;
+	private final FstSkipGramTaxonLookup skipGramTaxonLookupView;
+	
+	/**
+	 * Create 1-skip-n-grams from each taxon in a file from a given list of files and compile them into a transducer.
+	 *
+	 * @param aSourceLocations          An array of UTF-8 file locations containing a list of one taxon and any number
+	 *                                  of URIs (comma or space separated) per line.
+	 * @param bUseLowercase             If true, use lower cased skip-grams.
+	 * @param sLanguage                 The language to be used as locale for lower casing.
+	 * @param dMinLength                The minimum skip-gram length. All skip-grams (and taxa) with a length lower than
+	 *                                  this will be omitted.
+	 * @param bAllSkips                 If true, get all m-skip-n-grams of length n > 2.
+	 * @param bSplitHyphen              If true, taxon tokens will be split at hyphens.
+	 * @param bAddAbbreviatedTaxa       If true, additionally add taxa with the first token abbreviated.
+	 * @param iMinWordCountForSkipGrams The lower bound token count for the skip-gram creation.
+	 * @param tokenBoundaryRegex
+	 * @param pFilterSet
+	 * @throws IOException
+	 */
+	public FstGazetteerModel(
+			String[] aSourceLocations,
+			Boolean bUseLowercase,
+			String sLanguage,
+			double dMinLength,
+			boolean bAllSkips,
+			boolean bSplitHyphen,
+			boolean bAddAbbreviatedTaxa,
+			int iMinWordCountForSkipGrams,
+			String tokenBoundaryRegex,
+			HashSet<String> pFilterSet
+	) throws IOException {
+		super(aSourceLocations, bUseLowercase, sLanguage, dMinLength, bAllSkips, bSplitHyphen, bAddAbbreviatedTaxa, iMinWordCountForSkipGrams, tokenBoundaryRegex, pFilterSet);
+		tokenBoundaryPattern = Pattern.compile(tokenBoundaryRegex, Pattern.UNICODE_CHARACTER_CLASS);
+		long startTime = System.currentTimeMillis();
+		fst = buildFst();
+		long statsStartTime = recordBuildPhase("fst", startTime);
+		stats = TreeModelStats.collect(fst);
+		startTokenFilter = new StartTokenFilter(fst.getStartTokens());
+		recordBuildPhase("stats", statsStartTime);
+		// The skip-grams and their taxon IDs are both in the transducer now
+		skipGramTaxonLookup = null;
+		skipGramTaxonLookupView = new FstSkipGramTaxonLookup(fst, this);
+		trimToSize();
+		
+		logger.info(String.format("Finished building transducer with %d states and %d arcs from %d skip-grams in %dms.",
+				fst.getStateCount(), fst.getArcCount(), fst.getSequenceCount(), System.currentTimeMillis() - startTime
+		));
+		logger.info(String.format("Transducer statistics: %s", stats));
+	}
+	
+	/**
+	 * Split the skip-grams of the lookup into tokens, sort the token sequences and add them to a
+	 * {@link TokenFst.Builder} with the ID of their taxon as output. Skip-grams with the same tokens are only added
+	 * once.
+	 */
+	protected TokenFst buildFst() {
+		logger.info("Building transducer..");
+		ArrayList<String[]> skipGramTokens = new ArrayList<>(skipGramTaxonLookup.size());
+		ArrayList<Integer> outputs = new ArrayList<>(skipGramTaxonLookup.size());
+		HashSet<String> dictionary = new HashSet<>();
+		for (Map.Entry<String, String> entry : skipGramTaxonLookup.entrySet()) {
+			String[] tokens = tokenize(entry.getKey());
+			Collections.addAll(dictionary, tokens);
+			skipGramTokens.add(tokens);
+			outputs.add(taxonIds.get(entry.getValue()));
+		}
+		
+		TokenFst.Builder builder = new TokenFst.Builder(dictionary);
+		int[][] sequences = new int[skipGramTokens.size()][];
+		Integer[] order = new Integer[sequences.length];
+		for (int i = 0; i < sequences.length; i++) {
+			String[] tokens = skipGramTokens.get(i);
+			sequences[i] = new int[tokens.length];
+			for (int j = 0; j < tokens.length; j++) {
+				sequences[i][j] = builder.getTokenId(tokens[j]);
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> compare(sequences[a], sequences[b]));
+		
+		for (Integer i : order) {
+			builder.add(sequences[i], outputs.get(i));
+		}
+		if (builder.getDuplicateCount() > 0)
+			logger.warn(String.format("Ignoring %d skip-grams with the same tokens as another skip-gram!", builder.getDuplicateCount()));
+		return builder.build();
+	}
+	
+	private static int compare(int[] a, int[] b) {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			if (a[i] != b[i])
+				return Integer.compare(a[i], b[i]);
+		}
+		return Integer.compare(a.length, b.length);
+	}
+	
+	/**
+	 * Split a skip-gram like {@link StringTreeNode#insert(String)} does.
+	 */
+	private String[] tokenize(String skipGram) {
+		return tokenize(skipGram, tokenBoundaryPattern, useLowercase);
+	}
+	
+	static String[] tokenize(String skipGram, Pattern tokenBoundaryPattern, boolean useLowercase) {
+		if (useLowercase)
+			skipGram = skipGram.toLowerCase();
+		return StringTreeNode.split(tokenBoundaryPattern, skipGram.trim());
+	}
+	
+	/**
+	 * @return The output of the transducer for the tokens of the given skip-gram, ie. the ID of its taxon, or -1.
+	 */
+	@Override
+	public int getSkipGramTaxonId(String skipGram) {
+		return skipGram == null ? -1 : fst.get(Arrays.asList(tokenize(skipGram)));
+	}
+	
+	/**
+	 * @return A read-only view of the skip-gram lookup backed by the transducer, the lookup itself is released once the
+	 * transducer is built.
+	 */
+	@Override
+	public Map<String, String> getSkipGramTaxonLookup() {
+		return skipGramTaxonLookupView;
+	}
+	
+	public TokenFst getFst() {
+		return fst;
+	}
+	
+	@Override
+	public ITreeNode getTree() {
+		return fst.getRoot();
+	}
+	
+	@Override
+	public TreeModelStats getStats() {
+		return stats;
+	}
+	
+	@Override
+	public StartTokenFilter getStartTokenFilter() {
+		return startTokenFilter;
+	}
+}
@@ -0,0 +1,49 @@
+package org.biofid.gazetteer.models;
+
+import org.biofid.gazetteer.tree.TokenFst;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A read-only view of the skip-gram to taxon mapping of a model whose skip-grams are kept in a {@link TokenFst} with the
+ * taxon IDs as outputs. The keys are the tokens of each skip-gram joined by single spaces. Iterating over the entries
+ * creates all of them at once.
+ */
+class FstSkipGramTaxonLookup extends AbstractMap<String, String> {
+	
+	private final TokenFst fst;
+	private final ITreeGazetteerModel model;
+	
+	FstSkipGramTaxonLookup(TokenFst fst, ITreeGazetteerModel model) {
+		this.fst = fst;
+		this.model = model;
+	}
+	
+	@Override
+	public String get(Object key) {
+		if (!(key instanceof String))
+			return null;
+		int taxonId = model.getSkipGramTaxonId((String) key);
+		return taxonId < 0 ? null : model.getTaxon(taxonId);
+	}
+	
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+	
+	@Override
+	public int size() {
+		return fst.getSequenceCount();
+	}
+	
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		LinkedHashSet<Entry<String, String>> entries = new LinkedHashSet<>();
+		fst.forEach((tokens, taxonId) -> entries.add(new SimpleImmutableEntry<>(String.join(" ", tokens), model.getTaxon(taxonId))));
+		return Collections.unmodifiableSet(entries);
+	}
+}
@@ -1,14 +1,39 @@
 package org.biofid.gazetteer.models;
 
 import java.net.URI;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 public interface IGazetteerModel {
+	/**
+	 * @return A map from every skip-gram of the model to its taxon.
+	 */
 	Map<String, String> getSkipGramTaxonLookup();
 	
-	Set<String> getSortedSkipGramSet();
+	/**
+	 * @return The ID of the taxon the given skip-gram belongs to or -1, if there is none.
+	 */
+	default int getSkipGramTaxonId(String skipGram) {
+		String taxon = getSkipGramTaxonLookup().get(skipGram);
+		return taxon == null ? -1 : getTaxonId(taxon);
+	}
 	
-	Map<String, HashSet<URI>> getTaxonUriMap();
+	/**
+	 * @return The duration of each model build phase in milliseconds, in the order of execution.
+	 */
+	Map<String, Long> getBuildMillis();
+	
+	/**
+	 * @return The numeric ID of the given taxon or -1, if the taxon is not part of this model.
+	 */
+	int getTaxonId(String taxon);
+	
+	String getTaxon(int taxonId);
+	
+	/**
+	 * @return The number of taxa, ie. the upper bound of all taxon IDs.
+	 */
+	int getTaxonCount();
+	
+	Set<URI> getTaxonUris(int taxonId);
 }
@@ -5,4 +5,14 @@ import org.biofid.gazetteer.tree.ITreeNode;
 public interface ITreeGazetteerModel extends IGazetteerModel {
 	
 	ITreeNode getTree();
+	
+	/**
+	 * @return The statistics of the tree, collected when the model was built.
+	 */
+	TreeModelStats getStats();
+	
+	/**
+	 * @return A filter for the tokens that can start a match, built with the model.
+	 */
+	StartTokenFilter getStartTokenFilter();
 }
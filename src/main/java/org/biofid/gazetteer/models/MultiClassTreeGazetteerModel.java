@@ -1,18 +1,20 @@
 package org.biofid.gazetteer.models;
 
-import org.apache.commons.collections4.SetUtils;
-
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * A {@link TreeGazetteerModel} that assigns each taxon to the classes of the source locations it was loaded from. A
+ * taxon that occurs in several sources, eg. a plant and a fungus homonym, belongs to all of their classes.
+ */
 public class MultiClassTreeGazetteerModel extends TreeGazetteerModel {
 	private HashMap<String, Integer> fileLocationSourceMapping;
-	private HashMap<String, Integer> taxonSourceMapping;
+	private ArrayList<BitSet> taxonClasses;
+	private int[][] classIdsByTaxonId;
 	
 	/**
 	 * Create 1-skip-n-grams from each taxon in a file from a given list of files.
@@ -38,16 +40,19 @@ public class MultiClassTreeGazetteerModel extends TreeGazetteerModel {
 	@Override
 	protected ArrayList<String> getTaxaFiles(String[] aSourceLocations) throws IOException {
 		fileLocationSourceMapping = new HashMap<>(10, 1);
-		taxonSourceMapping = new HashMap<>();
+		taxonClasses = new ArrayList<>();
 		ArrayList<String> fileLocations = new ArrayList<>();
-		for (int i = 0; i < aSourceLocations.length; i++) {
-			String sourcePath = aSourceLocations[i];
-			// If sourcePath is a valid URL, download the given file
-			sourcePath = downloadTaxaFiles(sourcePath);
+		// Download all source locations that are valid URLs
+		String[] sourcePaths = downloadTaxaFiles(aSourceLocations);
+		for (int i = 0; i < sourcePaths.length; i++) {
+			String sourcePath = sourcePaths[i];
 			
 			// If zipped extract taxa files to temp folder
 			if (sourcePath.endsWith(".zip")) {
-				fileLocations.addAll(extractTaxaFiles(sourcePath));
+				for (String extractedFile : extractTaxaFiles(sourcePath)) {
+					fileLocations.add(extractedFile);
+					fileLocationSourceMapping.put(extractedFile, i);
+				}
 			} else {
 				File sourceLocationFile = new File(sourcePath);
 				if (sourceLocationFile.isDirectory()) {
@@ -71,33 +76,48 @@ public class MultiClassTreeGazetteerModel extends TreeGazetteerModel {
 	}
 	
 	@Override
-	protected LinkedHashMap<String, HashSet<URI>> buildTaxaUriMap() throws IOException {
-		final AtomicInteger duplicateKeys = new AtomicInteger(0);
-		final LinkedHashMap<String, HashSet<URI>> lTaxonUriMap = new LinkedHashMap<>();
-		
-		logger.info(String.format("Loading entries from %d files", sourceLocations.size()));
-		for (int i = 0; i < sourceLocations.size(); i++) {
-			String sourceLocation = sourceLocations.get(i);
-			logger.info(String.format("[%d/%d] Loading file %s", i + 1, sourceLocations.size(), sourceLocation));
-			TreeGazetteerModel.loadTaxaMap(sourceLocation, useLowercase, language).forEach((taxon, uri) ->
-					{
-						lTaxonUriMap.merge(taxon, uri, (uUri, vUri) -> {
-							duplicateKeys.incrementAndGet();
-							return new HashSet<>(SetUtils.union(uUri, vUri));
-						});
-						taxonSourceMapping.put(taxon, fileLocationSourceMapping.get(sourceLocation));
-					}
-			);
+	protected int addTaxon(String taxon, HashSet<URI> uris, String sourceLocation) {
+		int taxonId = super.addTaxon(taxon, uris, sourceLocation);
+		if (taxonId == taxonClasses.size())
+			taxonClasses.add(new BitSet());
+		taxonClasses.get(taxonId).set(fileLocationSourceMapping.get(sourceLocation));
+		return taxonId;
+	}
+	
+	/**
+	 * Convert the class sets of all taxa into int arrays indexed by taxon ID. Taxa of a single class share the same
+	 * array instance.
+	 */
+	@Override
+	protected void loadTaxa() throws IOException {
+		super.loadTaxa();
+		int[][] singletons = new int[fileLocationSourceMapping.values().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1][];
+		for (int classId = 0; classId < singletons.length; classId++) {
+			singletons[classId] = new int[]{classId};
 		}
-		logger.info(String.format("Loaded %d entries from %d files.", lTaxonUriMap.size(), sourceLocations.size()));
 		
-		if (duplicateKeys.get() > 0)
-			logger.warn(String.format("Merged %d duplicate entries!", duplicateKeys.get()));
-		
-		return lTaxonUriMap;
+		classIdsByTaxonId = new int[taxa.size()][];
+		for (int taxonId = 0; taxonId < taxa.size(); taxonId++) {
+			BitSet classes = taxonClasses.get(taxonId);
+			classIdsByTaxonId[taxonId] = classes.cardinality() == 1 ? singletons[classes.nextSetBit(0)] : classes.stream().toArray();
+		}
+		taxonClasses = null;
+	}
+	
+	/**
+	 * @param taxonId The ID of the taxon, see {@link #getTaxonId(String)}.
+	 * @return The IDs of all classes of the given taxon in ascending order. Must not be modified.
+	 */
+	public int[] getClassIds(int taxonId) {
+		return classIdsByTaxonId[taxonId];
 	}
 	
+	/**
+	 * @return The lowest class ID of the given taxon or null, if the taxon is not part of this model.
+	 * @see #getClassIds(int)
+	 */
 	public Integer getClassIdFromTaxon(String taxon) {
-		return this.taxonSourceMapping.get(taxon);
+		int taxonId = getTaxonId(taxon);
+		return taxonId < 0 ? null : classIdsByTaxonId[taxonId][0];
 	}
 }
@@ -0,0 +1,266 @@
+package org.biofid.gazetteer.models;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * An immutable table of strings stored in direct buffers, ie. outside of the Java heap. Each string is identified by
+ * its index in the list the table was created from. If the table is indexed, strings can also be looked up by value
+ * with an open addressing hash index, without creating any objects.
+ * <p>
+ * Tables can also be written to a file with a {@link Writer}, one string at a time, and {@link #map(Path) mapped}
+ * into memory. Mapped tables are not indexed; if their strings were written in sorted order, they can be searched
+ * with {@link #binarySearch(String)}.
+ */
+public class OffHeapStringTable {
+	
+	private final CharBuffer chars;
+	private final IntBuffer offsets;
+	private final IntBuffer index;
+	private final int mask;
+	private final int shift;
+	private final int size;
+	
+	/**
+	 * @param strings The strings to store. Must not contain duplicates, if indexed.
+	 * @param indexed If true, create a hash index for {@link #indexOf(String)}.
+	 */
+	public OffHeapStringTable(List<String> strings, boolean indexed) {
+		this.size = strings.size();
+		
+		long length = 0L;
+		for (String string : strings) {
+			length += string.length();
+		}
+		if (length > Integer.MAX_VALUE / 2)
+			throw new IllegalArgumentException(String.format("Too many characters for a single table: %d", length));
+		
+		this.chars = allocate((int) length * 2).asCharBuffer();
+		this.offsets = allocate((size + 1) * 4).asIntBuffer();
+		int offset = 0;
+		for (int i = 0; i < size; i++) {
+			String string = strings.get(i);
+			offsets.put(i, offset);
+			chars.put(string);
+			offset += string.length();
+		}
+		offsets.put(size, offset);
+		
+		if (indexed) {
+			// Load factor of at most 0.5 for short probe sequences
+			int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 2;
+			this.mask = capacity - 1;
+			this.shift = Integer.numberOfLeadingZeros(mask);
+			this.index = allocate(capacity * 4).asIntBuffer();
+			for (int i = 0; i < size; i++) {
+				int slot = slot(strings.get(i));
+				while (index.get(slot) != 0) {
+					slot = (slot + 1) & mask;
+				}
+				index.put(slot, i + 1);
+			}
+		} else {
+			this.mask = 0;
+			this.shift = 0;
+			this.index = null;
+		}
+	}
+	
+	private OffHeapStringTable(CharBuffer chars, IntBuffer offsets, int size) {
+		this.chars = chars;
+		this.offsets = offsets;
+		this.size = size;
+		this.index = null;
+		this.mask = 0;
+		this.shift = 0;
+	}
+	
+	/**
+	 * Map a table written by a {@link Writer} into memory. The file must not be modified while the table is in use.
+	 *
+	 * @param file The table file.
+	 * @return The mapped table.
+	 */
+	public static OffHeapStringTable map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(String.format("Table file exceeds 2 GB: %s", file));
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			int size = buffer.getInt(0);
+			int charsBegin = 4 + (size + 1) * 4;
+			buffer.position(4).limit(charsBegin);
+			IntBuffer offsets = buffer.slice().asIntBuffer();
+			buffer.limit(buffer.capacity()).position(charsBegin);
+			CharBuffer chars = buffer.slice().asCharBuffer();
+			return new OffHeapStringTable(chars, offsets, size);
+		}
+	}
+	
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+	
+	private int slot(String string) {
+		return (string.hashCode() * 0x9E3779B9) >>> shift;
+	}
+	
+	/**
+	 * @param string The string to look up.
+	 * @return The index of the given string or -1, if it is not part of this table.
+	 * @throws IllegalStateException If this table is not indexed.
+	 */
+	public int indexOf(String string) {
+		if (index == null)
+			throw new IllegalStateException("Table is not indexed");
+		int slot = slot(string);
+		int entry;
+		while ((entry = index.get(slot)) != 0) {
+			if (equals(entry - 1, string))
+				return entry - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return True, if the string at the given index equals the given string.
+	 */
+	public boolean equals(int i, String string) {
+		int begin = offsets.get(i);
+		int length = offsets.get(i + 1) - begin;
+		if (length != string.length())
+			return false;
+		for (int c = 0; c < length; c++) {
+			if (chars.get(begin + c) != string.charAt(c))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Find a string in a table of sorted strings.
+	 *
+	 * @param string The string to look up.
+	 * @return The index of the given string or -1, if it is not part of this table.
+	 */
+	public int binarySearch(String string) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = compare(mid, string);
+			if (comparison < 0)
+				low = mid + 1;
+			else if (comparison > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compare the string at the given index to the given string like {@link String#compareTo(String)}.
+	 */
+	private int compare(int i, String string) {
+		int begin = offsets.get(i);
+		int length = offsets.get(i + 1) - begin;
+		int common = Math.min(length, string.length());
+		for (int c = 0; c < common; c++) {
+			char tableChar = chars.get(begin + c);
+			if (tableChar != string.charAt(c))
+				return tableChar - string.charAt(c);
+		}
+		return length - string.length();
+	}
+	
+	/**
+	 * @return A new on-heap copy of the string at the given index.
+	 */
+	public String get(int i) {
+		int begin = offsets.get(i);
+		char[] value = new char[offsets.get(i + 1) - begin];
+		for (int c = 0; c < value.length; c++) {
+			value[c] = chars.get(begin + c);
+		}
+		return new String(value);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The number of off-heap bytes used by this table.
+	 */
+	public long byteSize() {
+		return chars.capacity() * 2L + offsets.capacity() * 4L + (index == null ? 0L : index.capacity() * 4L);
+	}
+	
+	/**
+	 * Writes a table file for {@link #map(Path)} one string at a time. Only the characters of the current string are
+	 * held in memory: the offsets and the characters are written to separate temporary files, which are joined when
+	 * the writer is closed.
+	 */
+	public static class Writer implements Closeable {
+		
+		private final Path file;
+		private final Path offsetsFile;
+		private final Path charsFile;
+		private final DataOutputStream offsetsOut;
+		private final DataOutputStream charsOut;
+		private int size = 0;
+		private int offset = 0;
+		
+		public Writer(Path file) throws IOException {
+			this.file = file;
+			this.offsetsFile = file.resolveSibling(file.getFileName() + ".offsets");
+			this.charsFile = file.resolveSibling(file.getFileName() + ".chars");
+			this.offsetsOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(offsetsFile)));
+			this.charsOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(charsFile)));
+		}
+		
+		/**
+		 * Append a string to the table.
+		 *
+		 * @return The index of the string.
+		 */
+		public int add(String string) throws IOException {
+			if ((long) offset + string.length() > Integer.MAX_VALUE / 2)
+				throw new IOException(String.format("Too many characters for a single table: %s", file));
+			offsetsOut.writeInt(offset);
+			charsOut.writeChars(string);
+			offset += string.length();
+			return size++;
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			offsetsOut.writeInt(offset);
+			offsetsOut.close();
+			charsOut.close();
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+				new DataOutputStream(out).writeInt(size);
+				Files.copy(offsetsFile, out);
+				Files.copy(charsFile, out);
+			} finally {
+				Files.deleteIfExists(offsetsFile);
+				Files.deleteIfExists(charsFile);
+			}
+		}
+	}
+}
@@ -0,0 +1,441 @@
+package org.biofid.gazetteer.models;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.log4j.Logger;
+import org.biofid.gazetteer.tree.ITreeNode;
+import org.biofid.gazetteer.tree.StringTreeNode;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable copy of a {@link TreeGazetteerModel} that keeps the tree, the token dictionary, the skip-grams, the taxa
+ * and their URIs in direct buffers. The model consists of a handful of objects on the Java heap, so garbage collection
+ * times do not depend on the size of the gazetteer.
+ * <p>
+ * The tree is stored as an array of nodes, each with its value and a sorted range of (token ID, child node) edges.
+ * {@link #getTree()} returns a flyweight cursor: {@link ITreeNode#getChild(String) getChild} looks up the token ID in
+ * the token dictionary and binary searches the edges of the node without creating any objects but the new cursor.
+ * Strings are only created for values, taxa and URIs that are actually requested.
+ * <p>
+ * The {@link #getStats() statistics} are those of the copied model. The direct memory is limited by
+ * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+public class OffHeapTreeGazetteerModel implements ITreeGazetteerModel {
+	
+	protected static final Logger logger = Logger.getLogger(OffHeapTreeGazetteerModel.class);
+	
+	private static final int NODE_INTS = 3;
+	private static final int VALUE = 0;
+	private static final int FIRST_EDGE = 1;
+	private static final int EDGE_COUNT = 2;
+	
+	/**
+	 * Per node: value ID or -1, index of the first edge, number of edges.
+	 */
+	private final IntBuffer nodes;
+	/**
+	 * Per edge: token ID, child node. The edges of a node are sorted by token ID.
+	 */
+	private final IntBuffer edges;
+	private final OffHeapStringTable tokens;
+	private final OffHeapStringTable values;
+	/**
+	 * Per value: the ID of its taxon or -1.
+	 */
+	private final IntBuffer valueTaxonIds;
+	private final OffHeapStringTable taxa;
+	private final OffHeapStringTable uris;
+	/**
+	 * Per taxon: the index of its first URI, followed by the end index of the last taxon.
+	 */
+	private final IntBuffer taxonUriOffsets;
+	private final TreeModelStats stats;
+	private final StartTokenFilter startTokenFilter;
+	private final LinkedHashMap<String, Long> buildMillis;
+	private final Cursor root;
+	private final SkipGramTaxonLookup skipGramTaxonLookup = new SkipGramTaxonLookup();
+	
+	/**
+	 * Copy the given model. The given model is not modified and can be discarded afterwards.
+	 *
+	 * @param model The model to copy.
+	 */
+	public OffHeapTreeGazetteerModel(TreeGazetteerModel model) {
+		long startTime = System.currentTimeMillis();
+		StringTreeNode tree = (StringTreeNode) model.getTree();
+		Map<String, String> lookup = model.getSkipGramTaxonLookup();
+		
+		// Number the nodes in breadth-first order and collect the token dictionary and the values
+		ArrayList<StringTreeNode> nodeList = new ArrayList<>(model.getStats().getNodeCount());
+		LinkedHashMap<String, Integer> tokenIds = new LinkedHashMap<>();
+		ArrayList<String> valueList = new ArrayList<>(model.getStats().getTerminalCount());
+		nodeList.add(tree);
+		for (int i = 0; i < nodeList.size(); i++) {
+			StringTreeNode node = nodeList.get(i);
+			if (node.hasValue())
+				valueList.add(node.getValue());
+			for (Map.Entry<String, StringTreeNode> entry : node.children.entrySet()) {
+				tokenIds.putIfAbsent(entry.getKey(), tokenIds.size());
+				nodeList.add(entry.getValue());
+			}
+		}
+		
+		nodes = allocate(nodeList.size() * NODE_INTS);
+		edges = allocate((nodeList.size() - 1) * 2);
+		int nextChild = 1;
+		int nextEdge = 0;
+		int nextValue = 0;
+		for (int i = 0; i < nodeList.size(); i++) {
+			StringTreeNode node = nodeList.get(i);
+			nodes.put(i * NODE_INTS + VALUE, node.hasValue() ? nextValue++ : -1);
+			nodes.put(i * NODE_INTS + FIRST_EDGE, nextEdge);
+			nodes.put(i * NODE_INTS + EDGE_COUNT, node.children.size());
+			
+			// Children were numbered in the iteration order of the map above
+			long[] sortedEdges = new long[node.children.size()];
+			int e = 0;
+			for (String token : node.children.keySet()) {
+				sortedEdges[e] = (long) tokenIds.get(token) << 32 | nextChild++;
+				e++;
+			}
+			Arrays.sort(sortedEdges);
+			for (long edge : sortedEdges) {
+				edges.put(nextEdge * 2, (int) (edge >>> 32));
+				edges.put(nextEdge * 2 + 1, (int) edge);
+				nextEdge++;
+			}
+		}
+		
+		tokens = new OffHeapStringTable(new ArrayList<>(tokenIds.keySet()), true);
+		values = new OffHeapStringTable(valueList, true);
+		
+		int taxonCount = model.getTaxonCount();
+		ArrayList<String> taxonList = new ArrayList<>(taxonCount);
+		ArrayList<String> uriList = new ArrayList<>();
+		taxonUriOffsets = allocate(taxonCount + 1);
+		for (int taxonId = 0; taxonId < taxonCount; taxonId++) {
+			taxonList.add(model.getTaxon(taxonId));
+			taxonUriOffsets.put(taxonId, uriList.size());
+			for (URI uri : model.getTaxonUris(taxonId)) {
+				uriList.add(uri.toString());
+			}
+		}
+		taxonUriOffsets.put(taxonCount, uriList.size());
+		taxa = new OffHeapStringTable(taxonList, true);
+		uris = new OffHeapStringTable(uriList, false);
+		
+		valueTaxonIds = allocate(valueList.size());
+		for (int i = 0; i < valueList.size(); i++) {
+			String taxon = lookup.get(valueList.get(i));
+			valueTaxonIds.put(i, taxon == null ? -1 : model.getTaxonId(taxon));
+		}
+		
+		stats = model.getStats();
+		startTokenFilter = model.getStartTokenFilter();
+		buildMillis = new LinkedHashMap<>(model.getBuildMillis());
+		buildMillis.put("offHeap", System.currentTimeMillis() - startTime);
+		root = new Cursor(0);
+		
+		logger.info(String.format("Moved model with %d nodes, %d tokens, %d skip-grams and %d taxa off-heap: %d MB in %dms.",
+				nodes.capacity() / NODE_INTS, tokens.size(), values.size(), taxa.size(), getOffHeapBytes() >> 20, buildMillis.get("offHeap")));
+	}
+	
+	private static IntBuffer allocate(int ints) {
+		return ByteBuffer.allocateDirect(ints * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+	
+	/**
+	 * @return The number of bytes allocated outside of the Java heap.
+	 */
+	public long getOffHeapBytes() {
+		return (nodes.capacity() + edges.capacity() + valueTaxonIds.capacity() + taxonUriOffsets.capacity()) * 4L
+				+ tokens.byteSize() + values.byteSize() + taxa.byteSize() + uris.byteSize();
+	}
+	
+	/**
+	 * @return The child node of the given node for the given token or -1, if there is none.
+	 */
+	private int childOf(int node, String token) {
+		int tokenId = tokens.indexOf(token);
+		if (tokenId < 0)
+			return -1;
+		int low = nodes.get(node * NODE_INTS + FIRST_EDGE);
+		int high = low + nodes.get(node * NODE_INTS + EDGE_COUNT) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midTokenId = edges.get(mid * 2);
+			if (midTokenId < tokenId)
+				low = mid + 1;
+			else if (midTokenId > tokenId)
+				high = mid - 1;
+			else
+				return edges.get(mid * 2 + 1);
+		}
+		return -1;
+	}
+	
+	@Override
+	public ITreeNode getTree() {
+		return root;
+	}
+	
+	@Override
+	public TreeModelStats getStats() {
+		return stats;
+	}
+	
+	@Override
+	public StartTokenFilter getStartTokenFilter() {
+		return startTokenFilter;
+	}
+	
+	@Override
+	public Map<String, String> getSkipGramTaxonLookup() {
+		return skipGramTaxonLookup;
+	}
+	
+	@Override
+	public int getSkipGramTaxonId(String skipGram) {
+		int valueId = values.indexOf(skipGram);
+		return valueId < 0 ? -1 : valueTaxonIds.get(valueId);
+	}
+	
+	@Override
+	public Map<String, Long> getBuildMillis() {
+		return Collections.unmodifiableMap(buildMillis);
+	}
+	
+	@Override
+	public int getTaxonId(String taxon) {
+		return taxon == null ? -1 : taxa.indexOf(taxon);
+	}
+	
+	@Override
+	public String getTaxon(int taxonId) {
+		return taxa.get(taxonId);
+	}
+	
+	@Override
+	public int getTaxonCount() {
+		return taxa.size();
+	}
+	
+	/**
+	 * @return A new set of the URIs of the given taxon, in the order of the original model.
+	 */
+	@Override
+	public Set<URI> getTaxonUris(int taxonId) {
+		int begin = taxonUriOffsets.get(taxonId);
+		int end = taxonUriOffsets.get(taxonId + 1);
+		LinkedHashSet<URI> taxonUris = new LinkedHashSet<>(end - begin);
+		for (int i = begin; i < end; i++) {
+			taxonUris.add(URI.create(uris.get(i)));
+		}
+		return taxonUris;
+	}
+	
+	/**
+	 * A read-only view of the skip-gram to taxon mapping.
+	 */
+	private class SkipGramTaxonLookup extends AbstractMap<String, String> {
+		
+		@Override
+		public String get(Object key) {
+			if (!(key instanceof String))
+				return null;
+			int taxonId = getSkipGramTaxonId((String) key);
+			return taxonId < 0 ? null : taxa.get(taxonId);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+		
+		@Override
+		public int size() {
+			return values.size();
+		}
+		
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int valueId = 0;
+						
+						@Override
+						public boolean hasNext() {
+							return valueId < values.size();
+						}
+						
+						@Override
+						public Entry<String, String> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							int taxonId = valueTaxonIds.get(valueId);
+							Entry<String, String> entry = new SimpleImmutableEntry<>(values.get(valueId),
+									taxonId < 0 ? null : taxa.get(taxonId));
+							valueId++;
+							return entry;
+						}
+					};
+				}
+				
+				@Override
+				public int size() {
+					return values.size();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * A flyweight {@link ITreeNode} that only holds the index of its node.
+	 */
+	private class Cursor implements ITreeNode {
+		
+		private final int node;
+		
+		private Cursor(int node) {
+			this.node = node;
+		}
+		
+		private int valueId() {
+			return nodes.get(node * NODE_INTS + VALUE);
+		}
+		
+		private int edgeCount() {
+			return nodes.get(node * NODE_INTS + EDGE_COUNT);
+		}
+		
+		@Override
+		public boolean hasValue() {
+			return valueId() >= 0;
+		}
+		
+		@Override
+		public boolean isLeaf() {
+			return edgeCount() == 0;
+		}
+		
+		@Override
+		public void insert(String value) {
+			throw new UnsupportedOperationException("The off-heap model is immutable");
+		}
+		
+		@Override
+		public int size() {
+			return count(NodeCounter.ALL);
+		}
+		
+		@Override
+		public int leafs() {
+			return count(NodeCounter.LEAFS);
+		}
+		
+		@Override
+		public int nodesWithValue() {
+			return count(NodeCounter.VALUES);
+		}
+		
+		private int count(NodeCounter counter) {
+			int count = 0;
+			int[] stack = new int[16];
+			int top = 0;
+			stack[top++] = node;
+			while (top > 0) {
+				int current = stack[--top];
+				int firstEdge = nodes.get(current * NODE_INTS + FIRST_EDGE);
+				int edgeCount = nodes.get(current * NODE_INTS + EDGE_COUNT);
+				if (counter == NodeCounter.ALL
+						|| counter == NodeCounter.LEAFS && edgeCount == 0
+						|| counter == NodeCounter.VALUES && nodes.get(current * NODE_INTS + VALUE) >= 0)
+					count++;
+				if (top + edgeCount > stack.length)
+					stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + edgeCount));
+				for (int e = firstEdge; e < firstEdge + edgeCount; e++) {
+					stack[top++] = edges.get(e * 2 + 1);
+				}
+			}
+			return count;
+		}
+		
+		@Override
+		public ImmutablePair<String, Integer> traverse(@Nonnull List<String> subString) {
+			int current = node;
+			String lastValue = null;
+			int consumed = 0;
+			while (consumed < subString.size()) {
+				if (nodes.get(current * NODE_INTS + VALUE) >= 0)
+					lastValue = values.get(nodes.get(current * NODE_INTS + VALUE));
+				int child = childOf(current, subString.get(consumed));
+				if (child < 0)
+					break;
+				current = child;
+				consumed++;
+			}
+			int valueId = nodes.get(current * NODE_INTS + VALUE);
+			return ImmutablePair.of(valueId < 0 ? lastValue : values.get(valueId), consumed - 1);
+		}
+		
+		@Nullable
+		@Override
+		public ITreeNode getChild(@Nonnull String key) {
+			int child = childOf(node, key);
+			return child < 0 ? null : new Cursor(child);
+		}
+		
+		@Override
+		public void forEachChild(@Nonnull BiConsumer<String, ITreeNode> consumer) {
+			int firstEdge = nodes.get(node * NODE_INTS + FIRST_EDGE);
+			int edgeCount = edgeCount();
+			for (int e = firstEdge; e < firstEdge + edgeCount; e++) {
+				consumer.accept(tokens.get(edges.get(e * 2)), new Cursor(edges.get(e * 2 + 1)));
+			}
+		}
+		
+		@Override
+		public String getValue() {
+			int valueId = valueId();
+			return valueId < 0 ? null : values.get(valueId);
+		}
+		
+		/**
+		 * @return The number of nodes on the longest path from this node to a leaf, including this node.
+		 */
+		@Override
+		public int depth() {
+			int depth = 0;
+			ArrayDeque<int[]> stack = new ArrayDeque<>();
+			stack.push(new int[]{node, 1});
+			while (!stack.isEmpty()) {
+				int[] entry = stack.pop();
+				depth = Math.max(depth, entry[1]);
+				int firstEdge = nodes.get(entry[0] * NODE_INTS + FIRST_EDGE);
+				int edgeCount = nodes.get(entry[0] * NODE_INTS + EDGE_COUNT);
+				for (int e = firstEdge; e < firstEdge + edgeCount; e++) {
+					stack.push(new int[]{edges.get(e * 2 + 1), entry[1] + 1});
+				}
+			}
+			return depth;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("OffHeapNode[%d]", node);
+		}
+	}
+	
+	private enum NodeCounter {
+		ALL, LEAFS, VALUES
+	}
+}
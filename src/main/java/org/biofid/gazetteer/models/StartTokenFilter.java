@@ -0,0 +1,76 @@
+package org.biofid.gazetteer.models;
+
+import java.util.Collection;
+
+/**
+ * A blocked Bloom filter over the tokens that can start a match, ie. the keys of the root of the tree. Most tokens of
+ * running text can not start a taxon and are rejected with a single multiplication of their (cached)
+ * {@link String#hashCode() hash code} and one test of two bits in the same 64-bit word, before any tree lookup.
+ * <p>
+ * There are no false negatives. With the default of 16 bits per token the false positive rate is about 1-2%.
+ */
+public class StartTokenFilter {
+	
+	public static final int DEFAULT_BITS_PER_TOKEN = 16;
+	
+	private final long[] words;
+	private final int shift;
+	private final int size;
+	
+	public StartTokenFilter(Collection<String> tokens) {
+		this(tokens, DEFAULT_BITS_PER_TOKEN);
+	}
+	
+	/**
+	 * @param tokens       The normalized tokens that may start a match.
+	 * @param bitsPerToken The number of bits per token. The total number of bits is rounded up to a power of two.
+	 */
+	public StartTokenFilter(Collection<String> tokens, int bitsPerToken) {
+		long bits = Math.max(128L, (long) tokens.size() * Math.max(1, bitsPerToken));
+		int logWords = Math.min(30, 64 - Long.numberOfLeadingZeros((bits >>> 6) - 1));
+		this.words = new long[1 << logWords];
+		this.shift = 64 - logWords;
+		this.size = tokens.size();
+		for (String token : tokens) {
+			long hash = hash(token);
+			words[wordIndex(hash)] |= mask(hash);
+		}
+	}
+	
+	/**
+	 * @param token The normalized token.
+	 * @return False if no match can start with this token, true if a match might start with this token.
+	 */
+	public boolean mightContain(String token) {
+		long hash = hash(token);
+		long mask = mask(hash);
+		return (words[wordIndex(hash)] & mask) == mask;
+	}
+	
+	private static long hash(String token) {
+		long hash = token.hashCode() * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 32);
+	}
+	
+	private int wordIndex(long hash) {
+		return (int) (hash >>> shift);
+	}
+	
+	private static long mask(long hash) {
+		return (1L << hash) | (1L << (hash >>> 6));
+	}
+	
+	/**
+	 * @return The number of tokens this filter was built from.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The size of the filter in bits.
+	 */
+	public long bitSize() {
+		return (long) words.length << 6;
+	}
+}
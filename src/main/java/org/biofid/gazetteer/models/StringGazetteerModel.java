@@ -4,32 +4,24 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Streams;
-import org.apache.commons.collections4.SetUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.math3.util.Combinations;
-import org.apache.commons.math3.util.Pair;
 import org.apache.log4j.Logger;
 import org.apache.uima.util.UriUtils;
 import org.biofid.gazetteer.tree.StringTreeNode;
-import org.texttechnologylab.utilities.helper.FileUtils;
+import org.biofid.gazetteer.util.SourceCache;
 
 import java.io.*;
-import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public class StringGazetteerModel implements IGazetteerModel {
 	
@@ -48,9 +40,13 @@ public class StringGazetteerModel implements IGazetteerModel {
 	protected final HashSet<String> filterSet;
 	protected final int minWordCountForSkipGrams;
 	
-	Map<String, String> skipGramTaxonLookup;
-	Set<String> sortedSkipGramSet;
-	Map<String, HashSet<URI>> taxonUriMap;
+	HashMap<String, String> skipGramTaxonLookup;
+	ArrayList<String> taxa;
+	ArrayList<HashSet<URI>> taxonUris;
+	HashMap<String, Integer> taxonIds;
+	final LinkedHashMap<String, Long> buildMillis = new LinkedHashMap<>();
+	private int duplicateTaxa;
+	private int duplicateSkipGrams;
 	
 	/**
 	 * Create 1-skip-n-grams from each taxon in a file from a given list of files.
@@ -93,88 +89,168 @@ public class StringGazetteerModel implements IGazetteerModel {
 		
 		long startTime = System.currentTimeMillis();
 		
-		// Map: Taxon -> {URI}
-		taxonUriMap = buildTaxaUriMap();
-		
-		// Map: {Skip-Grams} -> Taxon
-		skipGramTaxonLookup = buildSkipGramTaxonLookup();
-		
-		// Set: {Skip-Gram}
-		sortedSkipGramSet = buildSortedSkipGramSet();
+		// Taxon <-> ID -> {URI} and Skip-Gram -> Taxon, in a single pass over all sources
+		loadTaxa();
+		recordBuildPhase("taxa", startTime);
 		
 		logger.info(String.format("Finished loading %d skip-grams from %d taxa in %dms.",
-				sortedSkipGramSet.size(), taxonUriMap.size(), System.currentTimeMillis() - startTime)
+				skipGramTaxonLookup.size(), taxa.size(), System.currentTimeMillis() - startTime)
 		);
 	}
 	
-	protected LinkedHashMap<String, HashSet<URI>> buildTaxaUriMap() throws IOException {
-		final AtomicInteger duplicateKeys = new AtomicInteger(0);
-		final LinkedHashMap<String, HashSet<URI>> lTaxonUriMap = new LinkedHashMap<>();
+	/**
+	 * Record the duration of a model build phase.
+	 *
+	 * @param phase     The name of the phase.
+	 * @param startTime The start time of the phase in milliseconds.
+	 * @return The current time in milliseconds, ie. the start time of the next phase.
+	 */
+	protected long recordBuildPhase(String phase, long startTime) {
+		long endTime = System.currentTimeMillis();
+		buildMillis.put(phase, endTime - startTime);
+		return endTime;
+	}
+	
+	/**
+	 * Stream the taxa of all sources line by line into the taxon tables and the skip-gram lookup. The skip-grams of a
+	 * taxon are created and added as soon as the taxon is first seen, so no intermediate collection of all taxa or
+	 * skip-grams is created. Call {@link #trimToSize()} once the model is complete.
+	 */
+	protected void loadTaxa() throws IOException {
+		taxa = new ArrayList<>();
+		taxonUris = new ArrayList<>();
+		taxonIds = new HashMap<>();
+		skipGramTaxonLookup = new HashMap<>();
 		
 		logger.info(String.format("Loading entries from %d files..", sourceLocations.size()));
 		for (int i = 0; i < sourceLocations.size(); i++) {
 			String sourceLocation = sourceLocations.get(i);
 			logger.info(String.format("[%d/%d] Loading file %s", i + 1, sourceLocations.size(), sourceLocation));
-			TreeGazetteerModel.loadTaxaMap(sourceLocation, useLowercase, language).forEach((taxon, uri) ->
-					lTaxonUriMap.merge(taxon, uri, (uUri, vUri) -> {
-						duplicateKeys.incrementAndGet();
-						return new HashSet<>(SetUtils.union(uUri, vUri));
-					}));
+			try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(sourceLocation)), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = bufferedReader.readLine()) != null) {
+					if (Strings.isNullOrEmpty(line))
+						continue;
+					String[] split = line.split("\t", 2);
+					String taxon = normalizeTaxon(split[0], useLowercase, language);
+					HashSet<URI> uris = Arrays.stream(split[1].split("[ ,]")).map(UriUtils::create).collect(Collectors.toCollection(HashSet::new));
+					addTaxon(taxon, uris, sourceLocation);
+				}
+			}
 		}
-		logger.info(String.format("Loaded %d entries from %d files.", lTaxonUriMap.size(), sourceLocations.size()));
-		
-		if (duplicateKeys.get() > 0)
-			logger.warn(String.format("Merged %d duplicate entries!", duplicateKeys.get()));
+		logger.info(String.format("Loaded %d entries from %d files.", taxa.size(), sourceLocations.size()));
 		
-		return lTaxonUriMap;
+		if (duplicateTaxa > 0)
+			logger.warn(String.format("Merged %d duplicate entries!", duplicateTaxa));
+		logger.info(String.format("Ignoring %d duplicate skip-grams!", duplicateSkipGrams));
+	}
+	
+	/**
+	 * Remove all characters that can not be part of a token from a taxon of a source file.
+	 *
+	 * @param taxon        The taxon as given in the source file.
+	 * @param useLowercase If true, lower case the taxon.
+	 * @param language     The language to be used as locale for lower casing.
+	 * @return The normalized taxon.
+	 */
+	protected static String normalizeTaxon(String taxon, boolean useLowercase, String language) {
+		taxon = nonTokenCharacterClass.matcher(taxon).replaceAll("").trim();
+		if (useLowercase)
+			taxon = taxon.toLowerCase(Locale.forLanguageTag(language));
+		return taxon;
 	}
 	
-	protected LinkedHashMap<String, String> buildSkipGramTaxonLookup() {
-		AtomicInteger duplicateKeys = new AtomicInteger(0);
-		final LinkedHashMap<String, String> lSkipGramTaxonLookup = taxonUriMap.keySet().stream()
-				.flatMap(s -> getSkipGramsFromTaxon(s, this.addAbbreviatedTaxa, this.minWordCountForSkipGrams, this.getAllSkips, this.splitHyphen)
-						.stream().map(val -> new Pair<>(s, val)))
-				.collect(Collectors.toMap(
-						Pair::getSecond,    // the skip-gram
-						Pair::getFirst,     // the corresponding taxon
-						(u, v) -> {
-							// Drop duplicate skip-grams to ensure bijective skip-gram <-> taxon mapping.
-							duplicateKeys.incrementAndGet();
-							return null;
-						},
-						LinkedHashMap::new));
-		logger.info(String.format("Ignoring %d duplicate skip-grams!", duplicateKeys.get()));
+	/**
+	 * Add a taxon and its skip-grams or merge its URIs, if the taxon was added before.
+	 *
+	 * @param taxon          The normalized taxon.
+	 * @param uris           The URIs of the taxon.
+	 * @param sourceLocation The file the taxon was loaded from.
+	 * @return The ID of the taxon.
+	 */
+	protected int addTaxon(String taxon, HashSet<URI> uris, String sourceLocation) {
+		Integer taxonId = taxonIds.get(taxon);
+		if (taxonId != null) {
+			duplicateTaxa++;
+			taxonUris.get(taxonId).addAll(uris);
+			return taxonId;
+		}
 		
-		// Ensure actual taxa are contained in lSkipGramTaxonLookup
-		taxonUriMap.keySet().forEach(tax -> lSkipGramTaxonLookup.put(tax, tax));
+		taxonId = taxa.size();
+		taxa.add(taxon);
+		taxonUris.add(uris);
+		taxonIds.put(taxon, taxonId);
 		
-		return lSkipGramTaxonLookup;
+		// Actual taxa always map to themselves, even if they are a skip-gram of another taxon
+		if (isTreeEntry(taxon))
+			skipGramTaxonLookup.put(taxon, taxon);
+		for (String skipGram : getSkipGramsFromTaxon(taxon, addAbbreviatedTaxa, minWordCountForSkipGrams, getAllSkips, splitHyphen)) {
+			addSkipGram(skipGram, taxon);
+		}
+		return taxonId;
+	}
+	
+	/**
+	 * Add a skip-gram to the lookup. Skip-grams that are a taxon themselves always map to that taxon.
+	 */
+	private void addSkipGram(String skipGram, String taxon) {
+		if (!isTreeEntry(skipGram))
+			return;
+		skipGramTaxonLookup.merge(skipGram, taxon, (previousTaxon, nextTaxon) -> {
+			if (previousTaxon.equals(skipGram))
+				return previousTaxon;
+			// Drop duplicate skip-grams to ensure bijective skip-gram <-> taxon mapping.
+			duplicateSkipGrams++;
+			return null;
+		});
+	}
+	
+	/**
+	 * @return True, if the given skip-gram is long enough and not filtered, ie. it will be inserted into the tree.
+	 */
+	protected boolean isTreeEntry(String skipGram) {
+		return isTreeEntry(skipGram, minLength, filterSet);
+	}
+	
+	protected static boolean isTreeEntry(String skipGram, double minLength, Set<String> filterSet) {
+		return !Strings.isNullOrEmpty(skipGram) && skipGram.length() >= minLength && !filterSet.contains(skipGram.toLowerCase());
 	}
 	
-	protected LinkedHashSet<String> buildSortedSkipGramSet() {
-		return skipGramTaxonLookup.keySet().stream()
-				.filter(s -> !Strings.isNullOrEmpty(s))
-				.filter(s -> s.length() >= this.minLength)
-				.sorted(Comparator.comparingInt(String::length).reversed())
-				.collect(Collectors.toCollection(LinkedHashSet::new));
+	/**
+	 * Trim the taxon tables to their final size once the model is complete. The taxon IDs and the skip-gram lookup are
+	 * kept, as {@link #getTaxonId(String)} and {@link #getSkipGramTaxonId(String)} need them. Subclasses that hold the
+	 * skip-grams in another structure drop the lookup themselves, see {@link FstGazetteerModel}.
+	 */
+	protected void trimToSize() {
+		taxa.trimToSize();
+		taxonUris.trimToSize();
 	}
 	
 	/**
 	 * Find this Skip-Grams taxon return its respective URI.
 	 *
 	 * @param skipGram the target Skip-Gram
-	 * @return taxonUriMap.get(skipGramTaxonLookup.get ( skipGram))
+	 * @return The URIs of the taxon or null, if the skip-gram is unknown.
 	 */
 	public Set<URI> getUriFromSkipGram(String skipGram) {
-		return taxonUriMap.get(skipGramTaxonLookup.get(skipGram));
+		int taxonId = getSkipGramTaxonId(skipGram);
+		return taxonId < 0 ? null : taxonUris.get(taxonId);
 	}
 	
 	protected ArrayList<String> getTaxaFiles(String[] aSourceLocations) throws IOException {
+		// Download all source locations that are valid URLs
+		return resolveTaxaFiles(downloadTaxaFiles(aSourceLocations));
+	}
+	
+	/**
+	 * Extract zip archives and list the files of directories.
+	 *
+	 * @param localLocations Local files, zip archives or directories.
+	 * @return The taxa files.
+	 */
+	protected static ArrayList<String> resolveTaxaFiles(String[] localLocations) throws IOException {
 		ArrayList<String> lSourceLocations = new ArrayList<>();
-		for (String sourceLocation : aSourceLocations) {
-			// If sourceLocation is a valid URL, download the given file
-			sourceLocation = downloadTaxaFiles(sourceLocation);
-			
+		for (String sourceLocation : localLocations) {
 			// If zipped extract taxa files to temp folder
 			if (sourceLocation.endsWith(".zip")) {
 				lSourceLocations.addAll(extractTaxaFiles(sourceLocation));
@@ -197,72 +273,34 @@ public class StringGazetteerModel implements IGazetteerModel {
 	}
 	
 	/**
-	 * Load taxa from UTF-8 file, one taxon per line.
+	 * Download all source locations that are valid URLs concurrently into the {@link SourceCache}. Unchanged sources
+	 * are not downloaded again.
 	 *
-	 * @return ArrayList of taxa.
-	 * @throws IOException if file is not found or an error occurs.
+	 * @param aSourceLocations URLs or local paths.
+	 * @return The local paths in the order of the given locations.
+	 * @throws IOException If a URL can not be downloaded and there is no cached copy.
 	 */
-	protected static LinkedHashMap<String, HashSet<URI>> loadTaxaMap(String sourceLocation, Boolean pUseLowercase, String language) throws IOException {
-		try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(sourceLocation)), StandardCharsets.UTF_8))) {
-			return bufferedReader.lines()
-					.filter(s -> !Strings.isNullOrEmpty(s))
-					.collect(Collectors.toMap(
-							s -> {
-								String taxon = nonTokenCharacterClass.matcher(s.split("\t", 2)[0]).replaceAll("").trim();
-								return pUseLowercase ? taxon.toLowerCase(Locale.forLanguageTag(language)) : taxon;
-							},
-							s -> Arrays.stream(s.split("\t", 2)[1].split("[ ,]")).map(UriUtils::create).collect(Collectors.toCollection(HashSet::new)),
-							(u, v) -> new HashSet<>(SetUtils.union(u, v)),
-							LinkedHashMap::new)
-					);
-		}
+	protected String[] downloadTaxaFiles(String[] aSourceLocations) throws IOException {
+		return getSourceCache().fetchAll(aSourceLocations);
 	}
 	
 	/**
-	 * Attempt to download the taxa files, if the location parameter is a valid URL
+	 * Extract the given zip archive into the {@link SourceCache}, unless an intact extraction of the same archive exists.
 	 *
-	 * @param sourceLocation
-	 * @return
-	 * @throws IOException
+	 * @return The extracted files.
 	 */
-	protected String downloadTaxaFiles(String sourceLocation) throws IOException {
-		try {
-			URL url = new URL(sourceLocation);
-			String taxaLocation = getTaxaLocation().toString();
-			logger.info(String.format("Downloading '%s'..", sourceLocation));
-			sourceLocation = FileUtils.downloadFile(taxaLocation, url.toString(), false).toString();
-			logger.info(String.format("Finished download of '%s'.", sourceLocation));
-		} catch (MalformedURLException ignored) {
-		}
-		return sourceLocation;
-	}
-	
 	protected static ArrayList<String> extractTaxaFiles(String sourceLocation) throws IOException {
-		logger.info(String.format("Extracting taxa files from '%s'..", sourceLocation));
-		
-		File gazetteerFolder = getTaxaLocation().toFile();
 		ArrayList<String> extractedFiles = new ArrayList<>();
-		try (ZipFile zipFile = new ZipFile(sourceLocation)) {
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				File entryDestination = new File(gazetteerFolder, entry.getName());
-				extractedFiles.add(entryDestination.toString());
-				InputStream in = zipFile.getInputStream(entry);
-				if (!entryDestination.exists()) {
-					OutputStream out = new FileOutputStream(entryDestination);
-					IOUtils.copy(in, out);
-					out.close();
-				} else {
-					logger.info(String.format("File '%s' exists, skipping extraction.", entryDestination));
-				}
-				in.close();
-			}
+		for (Path file : getSourceCache().extract(Paths.get(sourceLocation))) {
+			extractedFiles.add(file.toString());
 		}
-		logger.info(String.format("Extracted %d taxa files to '%s'.", extractedFiles.size(), sourceLocation));
 		return extractedFiles;
 	}
 	
+	protected static SourceCache getSourceCache() throws IOException {
+		return new SourceCache(getTaxaLocation());
+	}
+	
 	/**
 	 * Check the possible paths for automatic download and extraction for read/write access and create folders if
 	 * necessary.
@@ -348,7 +386,6 @@ public class StringGazetteerModel implements IGazetteerModel {
 					.map(ArrayUtils::toObject);
 			
 			return combinationsArraysStream
-					.parallel()
 					.map(combination -> {
 						ArrayList<String> strings = new ArrayList<>();
 						for (int index : combination) {
@@ -369,38 +406,82 @@ public class StringGazetteerModel implements IGazetteerModel {
 		return words;
 	}
 	
+	/**
+	 * Insert all skip-grams of the lookup into a new tree, see {@link StringTreeNode#insertAll(Collection)}. The lookup
+	 * only contains skip-grams for which {@link #isTreeEntry(String)} holds.
+	 */
 	protected StringTreeNode buildTree(Boolean bUseLowercase, String tokenBoundaryRegex) {
 		logger.info("Building tree..");
 		StringTreeNode tree = new StringTreeNode(tokenBoundaryRegex, bUseLowercase);
-		sortedSkipGramSet.stream()
-				.parallel()
-				.filter(entry -> !filterSet.contains(entry.toLowerCase()))
-				.forEach(tree::insert);
+		tree.insertAll(skipGramTaxonLookup.keySet());
 		return tree;
 	}
 	
+	@Override
+	public Map<String, String> getSkipGramTaxonLookup() {
+		return skipGramTaxonLookup;
+	}
+	
 	/**
-	 * Stream all previously created skip-grams sorted .
-	 *
-	 * @return A stream of strings by calling: this.skipGramSet.stream().
+	 * @return The estimated retained size of the taxa, their URIs and IDs and, if it is kept, the skip-gram lookup in
+	 * bytes. Strings shared by several structures are counted once.
 	 */
-	public Stream<String> stream() {
-		return this.sortedSkipGramSet.stream();
+	public long getEstimatedLookupBytes() {
+		long bytes = 16L + 4L * taxa.size() + estimateMapBytes(taxonIds.size());
+		for (String taxon : taxa) {
+			bytes += estimateStringBytes(taxon);
+		}
+		for (HashSet<URI> uris : taxonUris) {
+			bytes += 16L + estimateMapBytes(uris.size());
+			for (URI uri : uris) {
+				bytes += 80L + estimateStringBytes(uri.toString());
+			}
+		}
+		if (skipGramTaxonLookup != null) {
+			bytes += estimateMapBytes(skipGramTaxonLookup.size());
+			for (String skipGram : skipGramTaxonLookup.keySet()) {
+				if (!taxonIds.containsKey(skipGram))
+					bytes += estimateStringBytes(skipGram);
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * The {@link HashMap} itself, its table and entries.
+	 */
+	private static long estimateMapBytes(int size) {
+		int tableLength = Integer.highestOneBit(Math.max(2, (int) (size / 0.75f) + 1) - 1) << 1;
+		return 48L + 16L + 4L * tableLength + 32L * size;
+	}
+	
+	private static long estimateStringBytes(String string) {
+		return 24L + 16L + 2L * string.length();
 	}
 	
 	@Override
-	public Map<String, String> getSkipGramTaxonLookup() {
-		return skipGramTaxonLookup;
+	public Map<String, Long> getBuildMillis() {
+		return Collections.unmodifiableMap(buildMillis);
+	}
+	
+	@Override
+	public int getTaxonId(String taxon) {
+		return taxonIds.getOrDefault(taxon, -1);
+	}
+	
+	@Override
+	public String getTaxon(int taxonId) {
+		return taxa.get(taxonId);
 	}
 	
 	@Override
-	public Set<String> getSortedSkipGramSet() {
-		return sortedSkipGramSet;
+	public int getTaxonCount() {
+		return taxa.size();
 	}
 	
 	@Override
-	public Map<String, HashSet<URI>> getTaxonUriMap() {
-		return taxonUriMap;
+	public Set<URI> getTaxonUris(int taxonId) {
+		return taxonUris.get(taxonId);
 	}
 	
 }
@@ -10,6 +10,8 @@ import java.util.HashSet;
 public class TreeGazetteerModel extends StringGazetteerModel implements ITreeGazetteerModel {
 	
 	private final StringTreeNode tree;
+	private final TreeModelStats stats;
+	private final StartTokenFilter startTokenFilter;
 	
 	/**
 	 * Create 1-skip-n-grams from each taxon in a file from a given list of files.
@@ -43,14 +45,30 @@ public class TreeGazetteerModel extends StringGazetteerModel implements ITreeGaz
 		super(aSourceLocations, bUseLowercase, sLanguage, dMinLength, bAllSkips, bSplitHyphen, bAddAbbreviatedTaxa, iMinWordCountForSkipGrams, tokenBoundaryRegex, pFilterSet);
 		long startTime = System.currentTimeMillis();
 		tree = buildTree(bUseLowercase, tokenBoundaryRegex);
+		long statsStartTime = recordBuildPhase("tree", startTime);
+		stats = TreeModelStats.collect(tree);
+		startTokenFilter = new StartTokenFilter(tree.children.keySet());
+		recordBuildPhase("stats", statsStartTime);
+		trimToSize();
 		
 		logger.info(String.format("Finished building tree with %d nodes from %d skip-grams in %dms.",
-				tree.size(), sortedSkipGramSet.size(), System.currentTimeMillis() - startTime
+				stats.getNodeCount(), skipGramTaxonLookup.size(), System.currentTimeMillis() - startTime
 		));
+		logger.info(String.format("Tree statistics: %s", stats));
 	}
 	
 	@Override
 	public ITreeNode getTree() {
 		return this.tree;
 	}
+	
+	@Override
+	public TreeModelStats getStats() {
+		return this.stats;
+	}
+	
+	@Override
+	public StartTokenFilter getStartTokenFilter() {
+		return this.startTokenFilter;
+	}
 }
@@ -0,0 +1,164 @@
+package org.biofid.gazetteer.models;
+
+import org.biofid.gazetteer.tree.StringTreeNode;
+import org.biofid.gazetteer.tree.TokenFst;
+
+import java.util.*;
+
+/**
+ * Statistics of a tree model, collected once when the model is built.
+ * <p>
+ * The retained size is a rough estimate for a 64-bit JVM with compressed oops and two bytes per character. It covers
+ * the nodes, their child maps and the token keys, but not the skip-gram values, which are shared with the lookup maps
+ * of the model.
+ */
+public class TreeModelStats {
+	
+	private final int nodeCount;
+	private final int terminalCount;
+	private final int leafCount;
+	private final int maxDepth;
+	private final int tokenDictionarySize;
+	private final long estimatedRetainedBytes;
+	private final SortedMap<Integer, Integer> branchingHistogram;
+	
+	/**
+	 * @param nodeCount              The number of nodes, including the root.
+	 * @param terminalCount          The number of nodes with a value.
+	 * @param leafCount              The number of nodes without children.
+	 * @param maxDepth               The maximum number of tokens on a path from the root.
+	 * @param tokenDictionarySize    The number of distinct tokens.
+	 * @param estimatedRetainedBytes The estimated size of the tree in bytes.
+	 * @param branchingHistogram     A map from the number of children to the number of nodes with as many children.
+	 */
+	public TreeModelStats(int nodeCount, int terminalCount, int leafCount, int maxDepth, int tokenDictionarySize,
+	                      long estimatedRetainedBytes, SortedMap<Integer, Integer> branchingHistogram) {
+		this.nodeCount = nodeCount;
+		this.terminalCount = terminalCount;
+		this.leafCount = leafCount;
+		this.maxDepth = maxDepth;
+		this.tokenDictionarySize = tokenDictionarySize;
+		this.estimatedRetainedBytes = estimatedRetainedBytes;
+		this.branchingHistogram = Collections.unmodifiableSortedMap(new TreeMap<>(branchingHistogram));
+	}
+	
+	/**
+	 * Collect the statistics of the given tree in a single iterative walk.
+	 *
+	 * @param root The root of the tree.
+	 * @return The statistics of the tree.
+	 */
+	public static TreeModelStats collect(StringTreeNode root) {
+		int nodeCount = 0;
+		int terminalCount = 0;
+		int leafCount = 0;
+		int maxDepth = 0;
+		long bytes = 0L;
+		HashSet<String> tokens = new HashSet<>();
+		TreeMap<Integer, Integer> branchingHistogram = new TreeMap<>();
+		
+		ArrayDeque<StringTreeNode> nodes = new ArrayDeque<>();
+		ArrayDeque<Integer> depths = new ArrayDeque<>();
+		nodes.push(root);
+		depths.push(0);
+		while (!nodes.isEmpty()) {
+			StringTreeNode node = nodes.pop();
+			int depth = depths.pop();
+			int children = node.children.size();
+			
+			nodeCount++;
+			if (node.hasValue())
+				terminalCount++;
+			if (children == 0)
+				leafCount++;
+			maxDepth = Math.max(maxDepth, depth);
+			branchingHistogram.merge(children, 1, Integer::sum);
+			bytes += estimateNodeBytes(children);
+			
+			for (Map.Entry<String, StringTreeNode> entry : node.children.entrySet()) {
+				String token = entry.getKey();
+				tokens.add(token);
+				bytes += estimateStringBytes(token);
+				nodes.push(entry.getValue());
+				depths.push(depth + 1);
+			}
+		}
+		return new TreeModelStats(nodeCount, terminalCount, leafCount, maxDepth, tokens.size(), bytes, branchingHistogram);
+	}
+	
+	/**
+	 * Collect the statistics of the given transducer. Nodes are the states of the transducer, terminals its final
+	 * states and the branching histogram counts the arcs per state. The retained size is that of the state and arc
+	 * arrays and the token dictionary.
+	 *
+	 * @param fst The transducer.
+	 * @return The statistics of the transducer.
+	 */
+	public static TreeModelStats collect(TokenFst fst) {
+		int leafCount = 0;
+		TreeMap<Integer, Integer> branchingHistogram = new TreeMap<>();
+		for (int state = 0; state < fst.getStateCount(); state++) {
+			int arcs = fst.getArcCount(state);
+			if (arcs == 0)
+				leafCount++;
+			branchingHistogram.merge(arcs, 1, Integer::sum);
+		}
+		return new TreeModelStats(fst.getStateCount(), fst.getFinalStateCount(), leafCount, fst.getMaxLength(),
+				fst.getTokenCount(), fst.getByteSize() + fst.getTokenBytes(), branchingHistogram);
+	}
+	
+	/**
+	 * The node itself, its {@link java.util.concurrent.ConcurrentHashMap ConcurrentHashMap} of children and the
+	 * map's table and entries.
+	 */
+	private static long estimateNodeBytes(int children) {
+		long bytes = 32L + 64L;
+		if (children > 0) {
+			int tableLength = Integer.highestOneBit(Math.max(2, (int) (children / 0.75f) + 1) - 1) << 1;
+			bytes += 16L + 4L * tableLength + 32L * children;
+		}
+		return bytes;
+	}
+	
+	private static long estimateStringBytes(String string) {
+		return 24L + 16L + 2L * string.length();
+	}
+	
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	public int getTerminalCount() {
+		return terminalCount;
+	}
+	
+	public int getLeafCount() {
+		return leafCount;
+	}
+	
+	/**
+	 * @return The maximum number of tokens of a single match, ie. the look-ahead required by a matcher.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+	
+	public int getTokenDictionarySize() {
+		return tokenDictionarySize;
+	}
+	
+	public long getEstimatedRetainedBytes() {
+		return estimatedRetainedBytes;
+	}
+	
+	public SortedMap<Integer, Integer> getBranchingHistogram() {
+		return branchingHistogram;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d nodes, %d terminals, %d leafs, max depth %d, %d distinct tokens, max branching %d, ~%d MB",
+				nodeCount, terminalCount, leafCount, maxDepth, tokenDictionarySize,
+				branchingHistogram.isEmpty() ? 0 : branchingHistogram.lastKey(), estimatedRetainedBytes >> 20);
+	}
+}
@@ -0,0 +1,80 @@
+package org.biofid.gazetteer.run;
+
+import org.apache.commons.cli.*;
+import org.biofid.gazetteer.models.CompiledGazetteerModel;
+import org.biofid.gazetteer.models.ExternalModelBuilder;
+import org.biofid.gazetteer.util.ExternalSorter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Build a {@link CompiledGazetteerModel} with an {@link ExternalModelBuilder} ahead of time, eg. for the GBIF backbone.
+ * Engines with {@code pCompiledModelLocation} set to the same output location and the same model parameters load the
+ * model instead of building it again.
+ */
+public class BuildModel {
+	public static void main(String[] args) {
+		
+		Option taxaOption = new Option("t", "taxa", true, "Taxa list path.");
+		taxaOption.setArgs(Option.UNLIMITED_VALUES);
+		taxaOption.setRequired(true);
+		
+		Option outputOption = new Option("o", "output", true, "Output location of compiled models.");
+		outputOption.setRequired(true);
+		
+		Option minLen = new Option("m", "minlength", true, "Taxa minimum length. Default: 5.");
+		minLen.setRequired(false);
+		
+		Option runSizeOption = new Option("r", "runSize", true, "Optional, the number of records sorted in memory. " +
+				"Default: " + ExternalSorter.DEFAULT_RUN_SIZE + ".");
+		runSizeOption.setRequired(false);
+		
+		Option tempOption = new Option("tmp", "tempDirectory", true, "Optional, the directory for sort runs. " +
+				"Default: the output location.");
+		tempOption.setRequired(false);
+		
+		Options options = new Options();
+		options.addOption("h", "help", false, "Print this message.");
+		options.addOption(taxaOption);
+		options.addOption(outputOption);
+		options.addOption(minLen);
+		options.addOption(runSizeOption);
+		options.addOption(tempOption);
+		options.addOption("l", "lowercase", false, "Optional, if true use lowercase.");
+		options.addOption("s", "allSkips", false, "Optional, if true get all skip-grams.");
+		
+		try {
+			if (Arrays.asList(args).contains("-h") || Arrays.asList(args).contains("--help")) {
+				new HelpFormatter().printHelp("java -cp $CP org.biofid.gazetteer.run.BuildModel", options);
+				return;
+			}
+			CommandLine cmd = new DefaultParser().parse(options, args);
+			
+			String[] taxaLocations = cmd.getOptionValues("t");
+			boolean useLowerCase = cmd.hasOption("l");
+			boolean getAllSkips = cmd.hasOption("s");
+			int minLength = cmd.hasOption("m") ? Integer.parseInt(cmd.getOptionValue("m")) : 5;
+			
+			ExternalModelBuilder builder = new ExternalModelBuilder(taxaLocations, useLowerCase, "de", minLength,
+					getAllSkips, true, true, 3, "\\s+", new HashSet<>());
+			if (cmd.hasOption("r"))
+				builder.setRunSize(Integer.parseInt(cmd.getOptionValue("r")));
+			if (cmd.hasOption("tmp"))
+				builder.setTempDirectory(Paths.get(cmd.getOptionValue("tmp")));
+			Path modelDirectory = builder.build(Paths.get(cmd.getOptionValue("o")));
+			
+			CompiledGazetteerModel model = new CompiledGazetteerModel(modelDirectory, useLowerCase, "\\s+");
+			System.out.printf("%nModel: %s%n", modelDirectory);
+			System.out.printf("Taxa: %d, skip-grams: %d, collisions: %s%n", model.getTaxonCount(),
+					model.getFst().getSequenceCount(), model.getProperties().getProperty("collisions"));
+			System.out.printf("Transducer: %s%n", model.getStats());
+			System.out.printf("Build times: %s%n", model.getBuildMillis());
+		} catch (ParseException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
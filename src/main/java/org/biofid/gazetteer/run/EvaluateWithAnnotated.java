@@ -10,16 +10,14 @@ import org.apache.commons.cli.*;
 import org.apache.uima.UIMAException;
 import org.apache.uima.UIMARuntimeException;
 import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.fit.factory.AnalysisEngineFactory;
-import org.apache.uima.fit.factory.JCasFactory;
-import org.apache.uima.fit.pipeline.SimplePipeline;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.util.CasCopier;
 import org.apache.uima.util.CasIOUtils;
 import org.biofid.gazetteer.SingleClassTreeGazetteer;
-import org.biofid.gazetteer.util.XmiCasSerializerRunnable;
+import org.biofid.gazetteer.util.JCasPool;
+import org.biofid.gazetteer.util.CasSerializerRunnable;
 import org.texttechnologylab.annotation.type.Taxon;
 
 import javax.xml.parsers.FactoryConfigurationError;
@@ -28,8 +26,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -37,9 +34,8 @@ public class EvaluateWithAnnotated {
 	
 	private static PrintWriter conllWriter = null;
 	private static Path outPath;
-	private static ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
 	
-	public static void main(String[] args) throws ResourceInitializationException, FileNotFoundException, ParseException, InterruptedException {
+	public static void main(String[] args) throws UIMAException, FileNotFoundException, ParseException, InterruptedException, ExecutionException {
 		ImmutableList<String> params = ImmutableList.copyOf(args);
 		
 		Options options = new Options();
@@ -55,15 +51,11 @@ public class EvaluateWithAnnotated {
 		options.addOption("s", false, "Toggles strict IOB-evaluation. If set True, B- and I- will be included in scoring.");
 		options.addOption("p", true, "Print the results as three column conll file to the given location.");
 		options.addOption("s", "allSkips", false, "Optional, if true use lowercase.");
+		options.addOption("n", "threads", true, "Optional, the number of evaluation threads. Default: 1.");
 		
 		DefaultParser defaultParser = new DefaultParser();
 		CommandLine commandLine = defaultParser.parse(options, args);
 		
-		final AnalysisEngine analysisEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(SingleClassTreeGazetteer.class,
-				SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, commandLine.getOptionValues("t"),
-				SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
-				SingleClassTreeGazetteer.PARAM_GET_ALL_SKIPS, commandLine.hasOption("s")));
-		
 		if (commandLine.hasOption("h")) {
 			HelpFormatter formatter = new HelpFormatter();
 			formatter.printHelp("java -cp $CP org.hucompute.textimager.biofid.EvaluateWithAnnotated",
@@ -74,13 +66,17 @@ public class EvaluateWithAnnotated {
 			return;
 		}
 		
-		boolean strict = params.indexOf("-s") > -1;
-		AtomicInteger truePositivies = new AtomicInteger(0);
-		AtomicInteger falsePositivies = new AtomicInteger(0);
-		AtomicInteger trueNegatives = new AtomicInteger(0);
-		AtomicInteger falseNegatives = new AtomicInteger(0);
+		final int threads = commandLine.hasOption("n") ? Math.max(1, Integer.parseInt(commandLine.getOptionValue("n"))) : 1;
+		final AnalysisEngineDescription engineDescription = AnalysisEngineFactory.createEngineDescription(SingleClassTreeGazetteer.class,
+				SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, commandLine.getOptionValues("t"),
+				SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+				SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
+				SingleClassTreeGazetteer.PARAM_GET_ALL_SKIPS, commandLine.hasOption("s"),
+				SingleClassTreeGazetteer.PARAM_SHARE_MODEL, true);
+		
+		final boolean strict = params.indexOf("-s") > -1;
 		
-		boolean print = commandLine.hasOption("p");
+		final boolean print = commandLine.hasOption("p");
 		if (print) {
 			conllWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(commandLine.getOptionValue("p")), StandardCharsets.UTF_8));
 		}
@@ -90,107 +86,205 @@ public class EvaluateWithAnnotated {
 			outPath = Paths.get(commandLine.getOptionValue("w"));
 		}
 		
+		String input = commandLine.getOptionValue("i");
+		final List<File> files = Streams.stream(Files.fileTraverser().breadthFirst(new File(input))).filter(File::isFile).collect(Collectors.toList());
+		
+		ConfusionCounts total;
+		try {
+			total = evaluate(files, engineDescription, threads, strict);
+		} finally {
+			if (print)
+				conllWriter.close();
+		}
+		
+		System.out.printf("Files %d\t\tPrecision: %01.3f, Recall: %01.3f, F1: %01.3f\t\ttotal: %d, tp: %d, fp: %d, tn: %d, fn: %d\n",
+				files.size(), total.getPrecision(), total.getRecall(), total.getF1(), total.sum(),
+				total.truePositives, total.falsePositives, total.trueNegatives, total.falseNegatives);
+		System.out.println("Done.");
+	}
+	
+	/**
+	 * Tag and evaluate the given files in parallel. Each thread runs its own instance of the engine, the engine should
+	 * share its model between instances.
+	 *
+	 * @param files             The files to evaluate, files without gold 'Taxon' annotations are skipped.
+	 * @param engineDescription The description of the gazetteer.
+	 * @param threads           The number of evaluation threads.
+	 * @param strict            If true, B- and I- are included in scoring.
+	 * @return The token-level confusion counts of all files.
+	 */
+	public static ConfusionCounts evaluate(List<File> files, AnalysisEngineDescription engineDescription, int threads, boolean strict)
+			throws UIMAException, InterruptedException, ExecutionException {
+		final boolean print = conllWriter != null;
+		
+		// One JCas per worker, one per queued serialization and one being serialized.
+		final JCasPool jCasPool = new JCasPool(2 * threads + 1);
+		final ThreadPoolExecutor serializer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+		final ExecutorService workers = Executors.newFixedThreadPool(threads);
+		
+		final AtomicInteger nextFile = new AtomicInteger(0);
+		final AtomicInteger finishedFiles = new AtomicInteger(0);
+		final ArrayList<Future<ConfusionCounts>> results = new ArrayList<>();
+		final ConfusionCounts total = new ConfusionCounts();
+		try {
+			for (int i = 0; i < threads; i++) {
+				final AnalysisEngine analysisEngine = AnalysisEngineFactory.createEngine(engineDescription);
+				results.add(workers.submit(() -> {
+					ConfusionCounts counts = new ConfusionCounts();
+					int fileIndex;
+					while ((fileIndex = nextFile.getAndIncrement()) < files.size()) {
+						evaluateFile(files.get(fileIndex), analysisEngine, jCasPool, serializer, counts, strict, print);
+						System.out.printf("\rFile %d/%d", finishedFiles.incrementAndGet(), files.size());
+					}
+					analysisEngine.destroy();
+					return counts;
+				}));
+			}
+			for (Future<ConfusionCounts> result : results) {
+				total.add(result.get());
+			}
+		} finally {
+			workers.shutdownNow();
+			System.out.println("\nWaiting for serialization to finish..");
+			serializer.shutdown();
+			serializer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		return total;
+	}
+	
+	/**
+	 * Tag a single file and compare the result to its gold standard 'Taxon' annotations. The gold annotations are
+	 * indexed and removed before tagging, so no copy of the JCas is required.
+	 */
+	private static void evaluateFile(File file, AnalysisEngine analysisEngine, JCasPool jCasPool, ExecutorService serializer,
+	                                 ConfusionCounts counts, boolean strict, boolean print) throws InterruptedException {
+		JCas jCas = jCasPool.borrow();
+		boolean serializing = false;
 		try {
+			try (InputStream inputStream = java.nio.file.Files.newInputStream(file.toPath())) {
+				CasIOUtils.load(inputStream, null, jCas.getCas(), true);
+			}
+			if (jCas.getAnnotationIndex(Taxon.class).size() <= 0)
+				return;
+			
+			// Indexing gold annotations
+			Map<Sentence, Collection<Taxon>> aSentenceCoveredTaxa = JCasUtil.indexCovered(jCas, Sentence.class, Taxon.class);
+			Map<Token, Collection<Taxon>> aTokenCoveringTaxa = JCasUtil.indexCovering(jCas, Token.class, Taxon.class);
+			
+			jCas.removeAllIncludingSubtypes(Taxon.type);
+			analysisEngine.process(jCas);
+			
+			Map<Token, Collection<Taxon>> bTokenCoveringTaxa = JCasUtil.indexCovering(jCas, Token.class, Taxon.class);
+			Map<Sentence, Collection<Token>> sentenceCoveringToken = JCasUtil.indexCovered(jCas, Sentence.class, Token.class);
+			
+			StringBuilder conll = new StringBuilder();
 			boolean lastLineWasEmpty = true;
-			String input = commandLine.getOptionValue("i");
-			List<File> files = Streams.stream(Files.fileTraverser().breadthFirst(new File(input))).filter(File::isFile).collect(Collectors.toList());
-			for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) {
-				File file = files.get(fileIndex);
-				try {
-					JCas aJCas = JCasFactory.createJCas();
-					CasIOUtils.load(java.nio.file.Files.newInputStream(file.toPath()), null, aJCas.getCas(), true);
-					if (aJCas.getAnnotationIndex(Taxon.class).size() <= 0)
-						continue;
-					
-					JCas bJCas = JCasFactory.createJCas();
-					CasCopier.copyCas(aJCas.getCas(), bJCas.getCas(), true);
-					bJCas.removeAllIncludingSubtypes(Taxon.type);
-					
-					SimplePipeline.runPipeline(bJCas, analysisEngine);
-					
-					// Indexing
-					ArrayList<Sentence> aSentences = Lists.newArrayList(JCasUtil.select(aJCas, Sentence.class));
-					ArrayList<Sentence> bSentences = Lists.newArrayList(JCasUtil.select(bJCas, Sentence.class));
-					
-					Map<Sentence, Collection<Taxon>> aSentenceCoveredTaxa = JCasUtil.indexCovered(aJCas, Sentence.class, Taxon.class);
+			for (Sentence sentence : JCasUtil.select(jCas, Sentence.class)) {
+				if (aSentenceCoveredTaxa.getOrDefault(sentence, new ArrayList<>()).isEmpty()) {
+					continue;
+				}
+				
+				for (Token token : sentenceCoveringToken.get(sentence)) {
+					boolean a = aTokenCoveringTaxa.containsKey(token);
+					boolean b = bTokenCoveringTaxa.containsKey(token);
 					
-					Map<Token, Collection<Taxon>> aTokenCoveringTaxa = JCasUtil.indexCovering(aJCas, Token.class, Taxon.class);
-					Map<Token, Collection<Taxon>> bTokenCoveringTaxa = JCasUtil.indexCovering(bJCas, Token.class, Taxon.class);
+					boolean aBegin = true;
+					if (a) {
+						aBegin = Lists.newArrayList(aTokenCoveringTaxa.get(token)).get(0).getBegin() == token.getBegin();
+					}
 					
-					Map<Sentence, Collection<Token>> aSentenceCoveringToken = JCasUtil.indexCovered(aJCas, Sentence.class, Token.class);
-					Map<Sentence, Collection<Token>> bSentenceCoveringToken = JCasUtil.indexCovered(bJCas, Sentence.class, Token.class);
+					boolean bBegin = true;
+					if (b) {
+						bBegin = Lists.newArrayList(bTokenCoveringTaxa.get(token)).get(0).getBegin() == token.getBegin();
+					}
 					
-					for (int i = 0; i < aSentences.size(); i++) {
-						if (aSentenceCoveredTaxa.getOrDefault(aSentences.get(i), new ArrayList<>()).isEmpty()) {
-							continue;
-						}
-						
-						ArrayList<Token> aTokens = Lists.newArrayList(aSentenceCoveringToken.get(aSentences.get(i)));
-						ArrayList<Token> bTokens = Lists.newArrayList(bSentenceCoveringToken.get(bSentences.get(i)));
-						
-						for (int j = 0; j < aTokens.size(); j++) {
-							Token aToken = aTokens.get(j);
-							Token bToken = bTokens.get(j);
-							
-							boolean a = aTokenCoveringTaxa.containsKey(aToken);
-							boolean b = bTokenCoveringTaxa.containsKey(bToken);
-							
-							boolean aBegin = true;
-							if (a) {
-								aBegin = Lists.newArrayList(aTokenCoveringTaxa.get(aToken)).get(0).getBegin() == aToken.getBegin();
-							}
-							
-							boolean bBegin = true;
-							if (b) {
-								bBegin = Lists.newArrayList(bTokenCoveringTaxa.get(bToken)).get(0).getBegin() == bToken.getBegin();
-							}
-							
-							if (a && b) {
-								if (!strict || (aBegin && bBegin)) truePositivies.incrementAndGet();
-								else falseNegatives.incrementAndGet();
-							}
-							if (a && !b)
-								falseNegatives.incrementAndGet();
-							if (!a && !b)
-								trueNegatives.incrementAndGet();
-							if (!a && b)
-								falsePositivies.incrementAndGet();
-							
-							if (print && (a || b)) {
-								lastLineWasEmpty = false;
-								conllWriter.println(String.format("%s\t%s\t%s", aToken.getCoveredText(), getIOB(aBegin, a ? "TAX" : "O"), getIOB(bBegin, b ? "TAX" : "O")));
-							}
-						}
-						if (print && !lastLineWasEmpty)
-							conllWriter.println();
-						lastLineWasEmpty = true;
+					if (a && b) {
+						if (!strict || (aBegin && bBegin)) counts.truePositives++;
+						else counts.falseNegatives++;
 					}
+					if (a && !b)
+						counts.falseNegatives++;
+					if (!a && !b)
+						counts.trueNegatives++;
+					if (!a && b)
+						counts.falsePositives++;
 					
-					if (Objects.nonNull(outPath)) {
-						cachedThreadPool.submit(new XmiCasSerializerRunnable(bJCas, Paths.get(outPath.toString(), file.getName()).toFile()));
+					if (print && (a || b)) {
+						lastLineWasEmpty = false;
+						conll.append(String.format("%s\t%s\t%s%n", token.getCoveredText(), getIOB(aBegin, a ? "TAX" : "O"), getIOB(bBegin, b ? "TAX" : "O")));
 					}
-				} catch (UIMAException | UIMARuntimeException | IOException | FactoryConfigurationError e) {
-					e.printStackTrace();
 				}
 				if (print && !lastLineWasEmpty)
-					conllWriter.println();
+					conll.append(System.lineSeparator());
 				lastLineWasEmpty = true;
-				
-				float precision = truePositivies.get() / ((float) truePositivies.get() + falsePositivies.get());
-				float recall = truePositivies.get() / ((float) truePositivies.get() + falseNegatives.get());
-				float f1 = 2 * (precision * recall) / (precision + recall);
-				int sum = trueNegatives.get() + truePositivies.get() + falseNegatives.get() + falsePositivies.get();
-				System.out.printf("\rFile %d/%d\t\tPrecision: %01.3f, Recall: %01.3f, F1: %01.3f\t\ttotal: %d, tp: %d, fp: %d, tn: %d, fn: %d",
-						fileIndex + 1, files.size(), precision, recall, f1, sum, truePositivies.get(), falsePositivies.get(), trueNegatives.get(), falseNegatives.get());
 			}
+			if (print && conll.length() > 0) {
+				synchronized (conllWriter) {
+					conllWriter.print(conll);
+				}
+			}
+			
+			if (Objects.nonNull(outPath)) {
+				final JCas outJCas = jCas;
+				serializer.submit(() -> {
+					try {
+						new CasSerializerRunnable(outJCas, Paths.get(outPath.toString(), file.getName()).toFile()).run();
+					} finally {
+						jCasPool.release(outJCas);
+					}
+				});
+				serializing = true;
+			}
+		} catch (UIMAException | UIMARuntimeException | IOException | FactoryConfigurationError e) {
+			e.printStackTrace();
 		} finally {
-			System.out.println("\nWaiting for serialization to finish..");
-			cachedThreadPool.shutdown();
+			if (!serializing)
+				jCasPool.release(jCas);
 		}
-		System.out.println("Done.");
 	}
 	
 	private static String getIOB(boolean begin, String label) {
 		return begin ? "B-" + label : "I-" + label;
 	}
+	
+	/**
+	 * Token-level confusion counts of a single worker or, once merged, of all files.
+	 */
+	public static class ConfusionCounts {
+		long truePositives = 0;
+		long falsePositives = 0;
+		long trueNegatives = 0;
+		long falseNegatives = 0;
+		
+		void add(ConfusionCounts other) {
+			truePositives += other.truePositives;
+			falsePositives += other.falsePositives;
+			trueNegatives += other.trueNegatives;
+			falseNegatives += other.falseNegatives;
+		}
+		
+		public long sum() {
+			return truePositives + falsePositives + trueNegatives + falseNegatives;
+		}
+		
+		public float getPrecision() {
+			return truePositives / ((float) truePositives + falsePositives);
+		}
+		
+		public float getRecall() {
+			return truePositives / ((float) truePositives + falseNegatives);
+		}
+		
+		public float getF1() {
+			float precision = getPrecision();
+			float recall = getRecall();
+			return 2 * (precision * recall) / (precision + recall);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("tp: %d, fp: %d, tn: %d, fn: %d", truePositives, falsePositives, trueNegatives, falseNegatives);
+		}
+	}
 }
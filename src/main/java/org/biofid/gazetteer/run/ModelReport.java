@@ -0,0 +1,79 @@
+package org.biofid.gazetteer.run;
+
+import org.apache.commons.cli.*;
+import org.biofid.gazetteer.models.FstGazetteerModel;
+import org.biofid.gazetteer.models.StringGazetteerModel;
+import org.biofid.gazetteer.models.TreeGazetteerModel;
+import org.biofid.gazetteer.models.TreeModelStats;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+/**
+ * Build the tree and the transducer model from the same taxa lists and print their node, edge and byte counts side by
+ * side. The byte counts are the estimates of {@link TreeModelStats#getEstimatedRetainedBytes()}, ie. the nodes or
+ * states with their edges and the token dictionary, and of {@link StringGazetteerModel#getEstimatedLookupBytes()},
+ * ie. the taxa with their URIs and the skip-gram lookup, which only the tree keeps. Their sum is the retained size of
+ * the model.
+ */
+public class ModelReport {
+	public static void main(String[] args) {
+		
+		Option taxaOption = new Option("t", "taxa", true, "Taxa list path. Default: the BIOfid taxa lists.");
+		taxaOption.setArgs(Option.UNLIMITED_VALUES);
+		taxaOption.setRequired(false);
+		
+		Option minLen = new Option("m", "minlength", true, "Taxa minimum length. Default: 5.");
+		minLen.setRequired(false);
+		
+		Options options = new Options();
+		options.addOption("h", "help", false, "Print this message.");
+		options.addOption(taxaOption);
+		options.addOption(minLen);
+		options.addOption("l", "lowercase", false, "Optional, if true use lowercase.");
+		options.addOption("s", "allSkips", false, "Optional, if true get all skip-grams.");
+		
+		try {
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, args);
+			
+			if (cmd.hasOption("h")) {
+				new HelpFormatter().printHelp("java -cp $CP org.biofid.gazetteer.run.ModelReport", options);
+				return;
+			}
+			
+			String[] taxaLocations = cmd.hasOption("t") ? cmd.getOptionValues("t")
+					: new String[]{"https://www.texttechnologylab.org/files/BIOfidTaxa.zip"};
+			boolean useLowerCase = cmd.hasOption("l");
+			boolean getAllSkips = cmd.hasOption("s");
+			int minLength = cmd.hasOption("m") ? Integer.parseInt(cmd.getOptionValue("m")) : 5;
+			
+			TreeGazetteerModel treeModel = new TreeGazetteerModel(taxaLocations, useLowerCase, "de", minLength,
+					getAllSkips, true, true, 3, "\\s+", new HashSet<>());
+			TreeModelStats treeStats = treeModel.getStats();
+			long treeLookupBytes = treeModel.getEstimatedLookupBytes();
+			long treeMillis = treeModel.getBuildMillis().get("tree");
+			// Let the tree be collected before the transducer is built
+			treeModel = null;
+			
+			FstGazetteerModel fstModel = new FstGazetteerModel(taxaLocations, useLowerCase, "de", minLength,
+					getAllSkips, true, true, 3, "\\s+", new HashSet<>());
+			TreeModelStats fstStats = fstModel.getStats();
+			
+			long fstLookupBytes = fstModel.getEstimatedLookupBytes();
+			
+			System.out.printf("%-6s %12s %12s %12s %12s %12s %12s %8s%n", "model", "nodes", "edges", "terminals", "bytes", "lookupBytes", "totalBytes", "ms");
+			System.out.printf("%-6s %12d %12d %12d %12d %12d %12d %8d%n", "tree", treeStats.getNodeCount(),
+					treeStats.getNodeCount() - 1, treeStats.getTerminalCount(), treeStats.getEstimatedRetainedBytes(),
+					treeLookupBytes, treeStats.getEstimatedRetainedBytes() + treeLookupBytes, treeMillis);
+			System.out.printf("%-6s %12d %12d %12d %12d %12d %12d %8d%n", "fst", fstStats.getNodeCount(),
+					fstModel.getFst().getArcCount(), fstStats.getTerminalCount(), fstStats.getEstimatedRetainedBytes(),
+					fstLookupBytes, fstStats.getEstimatedRetainedBytes() + fstLookupBytes, fstModel.getBuildMillis().get("fst"));
+			System.out.printf("%nThe transducer accepts %d skip-grams with %d distinct tokens and has %.1f%% of the nodes of the tree.%n",
+					fstModel.getFst().getSequenceCount(), fstStats.getTokenDictionarySize(),
+					100.0 * fstStats.getNodeCount() / treeStats.getNodeCount());
+		} catch (ParseException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
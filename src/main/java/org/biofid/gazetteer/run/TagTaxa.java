@@ -2,16 +2,28 @@ package org.biofid.gazetteer.run;
 
 import org.apache.commons.cli.*;
 import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.fit.factory.AggregateBuilder;
 import org.apache.uima.fit.factory.AnalysisEngineFactory;
 import org.apache.uima.fit.factory.CollectionReaderFactory;
 import org.apache.uima.fit.pipeline.SimplePipeline;
 import org.biofid.gazetteer.SingleClassTreeGazetteer;
+import org.biofid.gazetteer.util.CasFormat;
+import org.biofid.gazetteer.util.ParallelCasPipeline;
+import org.dkpro.core.io.bincas.BinaryCasReader;
+import org.dkpro.core.io.bincas.BinaryCasWriter;
 import org.dkpro.core.io.xmi.XmiReader;
 import org.dkpro.core.io.xmi.XmiWriter;
+import org.texttechnologylab.annotation.type.Taxon;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 
 /**
  * Created on 18.04.2019.
@@ -29,12 +41,27 @@ public class TagTaxa {
 		Option minLen = new Option("m", "minlength", true, "Taxa minimum length. Default: 5.");
 		minLen.setRequired(false);
 		
+		Option threadsOption = new Option("n", "threads", true, "Optional, the number of tagger threads. " +
+				"If given, read, tag and write the documents in parallel using a single shared model.");
+		threadsOption.setRequired(false);
+		
+		Option inputFormatOption = new Option("if", "inputFormat", true, "Optional, the input format: xmi or binary. Default: xmi.");
+		inputFormatOption.setRequired(false);
+		
+		Option formatOption = new Option("f", "format", true, "Optional, the output format: xmi, binary or delta. Default: xmi. " +
+				"Binary writes compressed binary CASes, delta only the annotations added to the input. " +
+				"Delta output is always written by the parallel pipeline.");
+		formatOption.setRequired(false);
+		
 		Options options = new Options();
 		options.addOption("h", "help", false, "Print this message.");
 		options.addOption(inputOption);
 		options.addOption(outputOption);
 		options.addOption(taxaOption);
 		options.addOption(minLen);
+		options.addOption(threadsOption);
+		options.addOption(inputFormatOption);
+		options.addOption(formatOption);
 		options.addOption("l", "lowercase", false, "Optional, if true use lowercase.");
 		options.addOption("s", "allSkips", false, "Optional, if true use lowercase.");
 		
@@ -53,33 +80,81 @@ public class TagTaxa {
 			Boolean useLowerCase = cmd.hasOption("l");
 			Boolean getAllSkips = cmd.hasOption("s");
 			Integer minLength = cmd.hasOption("m") ? Integer.valueOf(cmd.getOptionValue("m")) : 5;
+			CasFormat inputFormat = cmd.hasOption("if") ? CasFormat.fromString(cmd.getOptionValue("if")) : CasFormat.XMI;
+			CasFormat outputFormat = cmd.hasOption("f") ? CasFormat.fromString(cmd.getOptionValue("f")) : CasFormat.XMI;
+			if (inputFormat == CasFormat.DELTA)
+				throw new ParseException("Delta CASes can not be used as input!");
+			
+			if (cmd.hasOption("n") || outputFormat == CasFormat.DELTA) {
+				int threads = cmd.hasOption("n") ? Integer.parseInt(cmd.getOptionValue("n")) : 1;
+				AnalysisEngineDescription gazetteer = AnalysisEngineFactory.createEngineDescription(SingleClassTreeGazetteer.class,
+						SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, taxaLocations,
+						SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+						SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, useLowerCase,
+						SingleClassTreeGazetteer.PARAM_MIN_LENGTH, minLength,
+						SingleClassTreeGazetteer.PARAM_GET_ALL_SKIPS, getAllSkips,
+						SingleClassTreeGazetteer.PARAM_SHARE_MODEL, true);
+				
+				File[] files = new File(inputLocation).listFiles((dir, name) -> name.endsWith(inputFormat.extension));
+				List<File> inputFiles = Objects.isNull(files) ? Collections.emptyList() : Arrays.asList(files);
+				
+				int ioThreads = Math.max(1, threads / 2);
+				new ParallelCasPipeline(gazetteer, threads, ioThreads, ioThreads)
+						.setOutputFormat(outputFormat)
+						.run(inputFiles, Paths.get(inputLocation), Paths.get(outputLocation));
+				
+				System.out.println("\nDone.");
+				return;
+			}
 			
-			CollectionReader collection = CollectionReaderFactory.createReader(
-					XmiReader.class,
-					XmiReader.PARAM_PATTERNS, "[+]*.xmi",
-					XmiReader.PARAM_SOURCE_LOCATION, inputLocation,
-					XmiReader.PARAM_LENIENT, true
+			CollectionReader collection;
+			if (inputFormat == CasFormat.BINARY) {
+				collection = CollectionReaderFactory.createReader(
+						BinaryCasReader.class,
+						BinaryCasReader.PARAM_PATTERNS, "[+]*" + CasFormat.BINARY.extension,
+						BinaryCasReader.PARAM_SOURCE_LOCATION, inputLocation
+				);
+			} else {
+				collection = CollectionReaderFactory.createReader(
+						XmiReader.class,
+						XmiReader.PARAM_PATTERNS, "[+]*.xmi",
+						XmiReader.PARAM_SOURCE_LOCATION, inputLocation,
+						XmiReader.PARAM_LENIENT, true
 //						, XmiReader.PARAM_LOG_FREQ, -1
-			);
+				);
+			}
 			
 			AggregateBuilder ab = new AggregateBuilder();
 			ab.add(AnalysisEngineFactory.createEngineDescription(
 					AnalysisEngineFactory.createEngineDescription(SingleClassTreeGazetteer.class,
 							SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, taxaLocations,
+							SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
 							SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, useLowerCase,
 							SingleClassTreeGazetteer.PARAM_MIN_LENGTH, minLength,
 							SingleClassTreeGazetteer.PARAM_GET_ALL_SKIPS, getAllSkips)
 			));
-			ab.add(AnalysisEngineFactory.createEngineDescription(XmiWriter.class,
-					XmiWriter.PARAM_TARGET_LOCATION, outputLocation,
-					XmiWriter.PARAM_OVERWRITE, true
-			));
+			if (outputFormat == CasFormat.BINARY) {
+				ab.add(AnalysisEngineFactory.createEngineDescription(BinaryCasWriter.class,
+						BinaryCasWriter.PARAM_FORMAT, "6+",
+						BinaryCasWriter.PARAM_FILENAME_EXTENSION, CasFormat.BINARY.extension,
+						BinaryCasWriter.PARAM_TARGET_LOCATION, outputLocation,
+						BinaryCasWriter.PARAM_OVERWRITE, true
+				));
+			} else {
+				ab.add(AnalysisEngineFactory.createEngineDescription(XmiWriter.class,
+						XmiWriter.PARAM_TARGET_LOCATION, outputLocation,
+						XmiWriter.PARAM_OVERWRITE, true
+				));
+			}
 			
 			SimplePipeline.runPipeline(collection, ab.createAggregate());
 
 			System.out.println("\nDone.");
 		} catch (ParseException | UIMAException | IOException e) {
 			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			e.printStackTrace();
 		}
 	}
 	
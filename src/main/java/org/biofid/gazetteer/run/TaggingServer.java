@@ -0,0 +1,436 @@
+package org.biofid.gazetteer.run;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.biofid.gazetteer.matcher.GazetteerMatcher;
+import org.biofid.gazetteer.matcher.MatchSpan;
+import org.biofid.gazetteer.metrics.LatencyHistogram;
+import org.biofid.gazetteer.models.FstGazetteerModel;
+import org.biofid.gazetteer.models.ITreeGazetteerModel;
+import org.biofid.gazetteer.models.TreeGazetteerModel;
+import org.biofid.gazetteer.util.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lightweight HTTP tagging service around a single shared {@link GazetteerMatcher}. It uses the HTTP server of the
+ * JDK and needs no network access beyond its own port.
+ * <ul>
+ * <li>{@code POST /tag} with a {@code text/plain} body tags the text. With an {@code application/json} body it accepts
+ * either {@code {"text": "..."}} or pre-tokenized input {@code {"tokens": [...], "begins": [...], "ends": [...]}}, where
+ * the offsets are optional and default to the tokens joined by single spaces. The response is
+ * {@code {"spans": [{"begin": 0, "end": 13, "taxonId": 1, "taxon": "...", "uris": ["..."]}]}}.</li>
+ * <li>{@code GET /metrics} returns the request, batch and latency counters as JSON.</li>
+ * <li>{@code GET /health} returns {@code ok}.</li>
+ * </ul>
+ * Concurrent requests are coalesced into micro-batches: a dispatcher only hands a batch to the fixed worker pool once a
+ * worker is free, and spreads the queued requests evenly over the idle workers. Only if all other workers are busy,
+ * it waits at most {@code maxBatchDelayMillis} after the first request for more requests, up to {@code maxBatchSize}.
+ * A single request on an idle server is thus not delayed, while under load the batches grow with the backlog.
+ * Identical texts within a batch are only matched once. The latency of a request is measured from its arrival to its
+ * response.
+ */
+public class TaggingServer {
+	
+	protected static final Logger logger = Logger.getLogger(TaggingServer.class);
+	
+	/**
+	 * The maximum number of queued requests, further requests are rejected with status 503.
+	 */
+	static final int MAX_QUEUED_REQUESTS = 4096;
+	
+	private final GazetteerMatcher matcher;
+	private final int workerCount;
+	private final int maxBatchSize;
+	private final long maxBatchDelayNanos;
+	private final HttpServer server;
+	private final ExecutorService httpThreads;
+	private final ExecutorService workers;
+	private final Semaphore idleWorkers;
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>(MAX_QUEUED_REQUESTS);
+	private final Thread dispatcher;
+	private volatile boolean running;
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder spans = new LongAdder();
+	private final LongAdder sharedRequests = new LongAdder();
+	private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0L);
+	private volatile long startNanos;
+	
+	/**
+	 * @param matcher             The matcher shared by all workers.
+	 * @param port                The port to listen on, 0 for any free port.
+	 * @param workers             The number of worker threads.
+	 * @param maxBatchSize        The maximum number of requests per batch.
+	 * @param maxBatchDelayMillis The maximum time to wait for more requests after the first request of a batch.
+	 */
+	public TaggingServer(GazetteerMatcher matcher, int port, int workers, int maxBatchSize, long maxBatchDelayMillis) throws IOException {
+		if (workers < 1 || maxBatchSize < 1 || maxBatchDelayMillis < 0)
+			throw new IllegalArgumentException(String.format(
+					"Invalid server settings! workers:%d, maxBatchSize:%d, maxBatchDelayMillis:%d", workers, maxBatchSize, maxBatchDelayMillis));
+		this.matcher = matcher;
+		this.workerCount = workers;
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.httpThreads = Executors.newFixedThreadPool(Math.max(2, workers));
+		this.workers = Executors.newFixedThreadPool(workers);
+		this.idleWorkers = new Semaphore(workers);
+		this.dispatcher = new Thread(this::dispatch, "tagging-dispatcher");
+		this.dispatcher.setDaemon(true);
+		
+		server.setExecutor(httpThreads);
+		server.createContext("/tag", this::handleTag);
+		server.createContext("/metrics", this::handleMetrics);
+		server.createContext("/health", exchange -> respond(exchange, 200, "text/plain", "ok"));
+	}
+	
+	public void start() {
+		running = true;
+		startNanos = System.nanoTime();
+		dispatcher.start();
+		server.start();
+		logger.info(String.format("Tagging server listening on port %d with %d workers, batches of up to %d requests and %d ms delay.",
+				getPort(), workerCount, maxBatchSize, TimeUnit.NANOSECONDS.toMillis(maxBatchDelayNanos)));
+	}
+	
+	/**
+	 * Stop accepting requests, answer all queued requests and shut down the threads.
+	 */
+	public void stop() {
+		// New requests are rejected from now on, while the queued ones are still answered over their open exchanges
+		running = false;
+		try {
+			dispatcher.join();
+			workers.shutdown();
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		server.stop(0);
+		httpThreads.shutdownNow();
+	}
+	
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	private void handleTag(HttpExchange exchange) throws IOException {
+		long receivedNanos = System.nanoTime();
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respond(exchange, 405, "text/plain", "Only POST is supported.");
+			return;
+		}
+		
+		Request request;
+		try {
+			String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			request = contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/json")
+					? Request.fromJson(exchange, receivedNanos, body)
+					: new Request(exchange, receivedNanos, body);
+		} catch (IllegalArgumentException | ClassCastException e) {
+			errors.increment();
+			respond(exchange, 400, "text/plain", "Invalid request: " + e.getMessage());
+			return;
+		}
+		
+		// A request queued while the server stops may miss the dispatcher, unless it was taken already
+		if (!running || !queue.offer(request) || !running && queue.remove(request)) {
+			rejected.increment();
+			respond(exchange, 503, "text/plain", "The server is overloaded or shutting down.");
+		}
+	}
+	
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		respond(exchange, 200, "application/json", getMetricsJson());
+	}
+	
+	private void dispatch() {
+		while (running || !queue.isEmpty()) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				// Wait for a free worker first, so the backlog grows while all workers are busy
+				idleWorkers.acquire();
+				
+				// Spread the backlog over all idle workers instead of handing it to the first one
+				int idle = idleWorkers.availablePermits() + 1;
+				int limit = Math.min(maxBatchSize, (queue.size() + idle) / idle);
+				ArrayList<Request> batch = new ArrayList<>(limit);
+				batch.add(first);
+				queue.drainTo(batch, limit - 1);
+				if (idle == 1 && idle < workerCount) {
+					// All other workers are busy, so wait for more requests to share this one
+					long deadline = first.receivedNanos + maxBatchDelayNanos;
+					while (batch.size() < maxBatchSize) {
+						long remaining = deadline - System.nanoTime();
+						Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+						if (next == null)
+							break;
+						batch.add(next);
+					}
+				}
+				workers.execute(() -> {
+					try {
+						process(batch);
+					} finally {
+						idleWorkers.release();
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Tag all requests of a batch. Identical texts, like repeated headers or boilerplate sent by several clients, are
+	 * only matched once per batch.
+	 */
+	private void process(List<Request> batch) {
+		batches.increment();
+		largestBatch.accumulate(batch.size());
+		HashMap<String, ArrayList<MatchSpan>> textMatches = new HashMap<>();
+		for (Request request : batch) {
+			try {
+				ArrayList<MatchSpan> matches;
+				if (request.text != null) {
+					matches = textMatches.get(request.text);
+					if (matches == null) {
+						matches = matcher.match(request.text);
+						textMatches.put(request.text, matches);
+					} else {
+						sharedRequests.increment();
+					}
+				} else {
+					matches = matcher.match(request.tokens, request.begins, request.ends);
+				}
+				// Count before responding, so a client that has its response sees it in the metrics
+				spans.add(matches.size());
+				requests.increment();
+				respond(request.exchange, 200, "application/json", toJson(matches));
+			} catch (IllegalArgumentException e) {
+				errors.increment();
+				respondQuietly(request.exchange, 400, "Invalid request: " + e.getMessage());
+			} catch (Exception e) {
+				errors.increment();
+				logger.error("Failed to tag a request.", e);
+				respondQuietly(request.exchange, 500, "Internal error: " + e.getMessage());
+			}
+			latency.record(System.nanoTime() - request.receivedNanos);
+		}
+	}
+	
+	/**
+	 * @return The counters of this server as a JSON object.
+	 */
+	public String getMetricsJson() {
+		long requestCount = requests.sum();
+		long batchCount = batches.sum();
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return String.format(Locale.ROOT,
+				"{\"requests\":%d,\"errors\":%d,\"rejected\":%d,\"queued\":%d,\"spans\":%d,\"sharedRequests\":%d,"
+						+ "\"batches\":%d,\"meanBatchSize\":%.2f,\"largestBatch\":%d,"
+						+ "\"requestsPerSecond\":%.2f,\"uptimeSeconds\":%.1f,"
+						+ "\"latencyMillis\":{\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}}",
+				requestCount, errors.sum(), rejected.sum(), queue.size(), spans.sum(), sharedRequests.sum(), batchCount,
+				batchCount == 0 ? 0.0 : (double) latency.getCount() / batchCount, largestBatch.get(),
+				seconds > 0 ? requestCount / seconds : 0.0, seconds,
+				latency.getMeanNanos() / 1e6, latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(90) / 1e6,
+				latency.getPercentileNanos(99) / 1e6, latency.getMaxNanos() / 1e6);
+	}
+	
+	static String toJson(List<MatchSpan> matches) {
+		StringBuilder json = new StringBuilder("{\"spans\":[");
+		for (int i = 0; i < matches.size(); i++) {
+			MatchSpan span = matches.get(i);
+			if (i > 0)
+				json.append(',');
+			json.append("{\"begin\":").append(span.begin)
+					.append(",\"end\":").append(span.end)
+					.append(",\"taxonId\":").append(span.taxonId)
+					.append(",\"taxon\":").append(Json.quote(span.taxon))
+					.append(",\"uris\":[");
+			if (span.uris != null) {
+				boolean first = true;
+				for (URI uri : span.uris) {
+					if (!first)
+						json.append(',');
+					json.append(Json.quote(uri.toString()));
+					first = false;
+				}
+			}
+			json.append("]}");
+		}
+		return json.append("]}").toString();
+	}
+	
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream outputStream = exchange.getResponseBody()) {
+			outputStream.write(bytes);
+		}
+	}
+	
+	private static void respondQuietly(HttpExchange exchange, int status, String body) {
+		try {
+			respond(exchange, status, "text/plain", body);
+		} catch (IOException | IllegalStateException e) {
+			logger.warn("Failed to send an error response.", e);
+		}
+	}
+	
+	/**
+	 * A queued request. Either {@link #text} or {@link #tokens} with their offsets is set.
+	 */
+	private static class Request {
+		final HttpExchange exchange;
+		final long receivedNanos;
+		final String text;
+		final String[] tokens;
+		final int[] begins;
+		final int[] ends;
+		
+		Request(HttpExchange exchange, long receivedNanos, String text) {
+			this(exchange, receivedNanos, text, null, null, null);
+		}
+		
+		Request(HttpExchange exchange, long receivedNanos, String text, String[] tokens, int[] begins, int[] ends) {
+			this.exchange = exchange;
+			this.receivedNanos = receivedNanos;
+			this.text = text;
+			this.tokens = tokens;
+			this.begins = begins;
+			this.ends = ends;
+		}
+		
+		@SuppressWarnings("unchecked")
+		static Request fromJson(HttpExchange exchange, long receivedNanos, String body) {
+			Object value = Json.parse(body);
+			if (!(value instanceof Map))
+				throw new IllegalArgumentException("Expected a JSON object.");
+			Map<String, Object> object = (Map<String, Object>) value;
+			if (object.get("text") instanceof String)
+				return new Request(exchange, receivedNanos, (String) object.get("text"));
+			if (!(object.get("tokens") instanceof List))
+				throw new IllegalArgumentException("Expected either \"text\" or \"tokens\".");
+			
+			List<Object> tokenList = (List<Object>) object.get("tokens");
+			String[] tokens = new String[tokenList.size()];
+			for (int i = 0; i < tokens.length; i++) {
+				tokens[i] = (String) tokenList.get(i);
+			}
+			int[] begins;
+			int[] ends;
+			if (object.containsKey("begins") || object.containsKey("ends")) {
+				begins = toIntArray((List<Object>) object.get("begins"));
+				ends = toIntArray((List<Object>) object.get("ends"));
+			} else {
+				begins = new int[tokens.length];
+				ends = new int[tokens.length];
+				int offset = 0;
+				for (int i = 0; i < tokens.length; i++) {
+					begins[i] = offset;
+					ends[i] = offset + tokens[i].length();
+					offset = ends[i] + 1;
+				}
+			}
+			return new Request(exchange, receivedNanos, null, tokens, begins, ends);
+		}
+		
+		private static int[] toIntArray(List<Object> list) {
+			if (list == null)
+				throw new IllegalArgumentException("Expected both \"begins\" and \"ends\".");
+			int[] array = new int[list.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = ((Number) list.get(i)).intValue();
+			}
+			return array;
+		}
+	}
+	
+	public static void main(String[] args) {
+		
+		Option taxaOption = new Option("t", "taxa", true, "Local taxa list paths, the server does not download any lists.");
+		taxaOption.setArgs(Option.UNLIMITED_VALUES);
+		taxaOption.setRequired(true);
+		
+		Options options = new Options();
+		options.addOption("h", "help", false, "Print this message.");
+		options.addOption(taxaOption);
+		options.addOption("m", "minlength", true, "Taxa minimum length. Default: 5.");
+		options.addOption("l", "lowercase", false, "Optional, if true use lowercase.");
+		options.addOption("s", "allSkips", false, "Optional, if true get all skip-grams.");
+		options.addOption("f", "fst", false, "Optional, if true use the transducer model instead of the tree.");
+		options.addOption("p", "port", true, "The port to listen on. Default: 8080.");
+		options.addOption("w", "workers", true, "The number of worker threads. Default: the number of processors.");
+		options.addOption("b", "batchSize", true, "The maximum number of requests per batch. Default: 32.");
+		options.addOption("d", "batchDelay", true, "The maximum delay in milliseconds to wait for a batch. Default: 2.");
+		
+		try {
+			CommandLineParser parser = new DefaultParser();
+			CommandLine cmd = parser.parse(options, args);
+			
+			if (cmd.hasOption("h")) {
+				new HelpFormatter().printHelp("java -cp $CP org.biofid.gazetteer.run.TaggingServer", options);
+				return;
+			}
+			
+			String[] taxaLocations = cmd.getOptionValues("t");
+			for (String taxaLocation : taxaLocations) {
+				if (!Files.exists(Paths.get(taxaLocation))) {
+					System.err.printf("The taxa list '%s' does not exist. The server runs offline, so the lists must be local files or directories.%n", taxaLocation);
+					return;
+				}
+			}
+			boolean useLowerCase = cmd.hasOption("l");
+			boolean getAllSkips = cmd.hasOption("s");
+			int minLength = Integer.parseInt(cmd.getOptionValue("m", "5"));
+			int port = Integer.parseInt(cmd.getOptionValue("p", "8080"));
+			int workers = Integer.parseInt(cmd.getOptionValue("w", String.valueOf(Runtime.getRuntime().availableProcessors())));
+			int batchSize = Integer.parseInt(cmd.getOptionValue("b", "32"));
+			long batchDelay = Long.parseLong(cmd.getOptionValue("d", "2"));
+			
+			ITreeGazetteerModel model = cmd.hasOption("f")
+					? new FstGazetteerModel(taxaLocations, useLowerCase, "de", minLength, getAllSkips, true, true, 3, "\\s+", new HashSet<>())
+					: new TreeGazetteerModel(taxaLocations, useLowerCase, "de", minLength, getAllSkips, true, true, 3, "\\s+", new HashSet<>());
+			
+			TaggingServer server = new TaggingServer(new GazetteerMatcher(model, useLowerCase), port, workers, batchSize, batchDelay);
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+			server.start();
+		} catch (ParseException | IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -3,7 +3,9 @@ package org.biofid.gazetteer.tree;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 public interface ITreeNode {
 	boolean hasValue();
@@ -20,6 +22,20 @@ public interface ITreeNode {
 	
 	ImmutablePair<String, Integer> traverse(@Nonnull List<String> subString);
 	
+	/**
+	 * Get the child node for the given token.
+	 *
+	 * @param key The token.
+	 * @return The child node or null, if this node has no child for the given token.
+	 */
+	@Nullable
+	ITreeNode getChild(@Nonnull String key);
+	
+	/**
+	 * Call the given consumer with the token and the node of each child of this node, in no particular order.
+	 */
+	void forEachChild(@Nonnull BiConsumer<String, ITreeNode> consumer);
+	
 	@Override
 	String toString();
 	
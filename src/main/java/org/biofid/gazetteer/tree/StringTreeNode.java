@@ -9,7 +9,11 @@ import javax.annotation.Nullable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Created on 07.02.20.
@@ -20,6 +24,8 @@ public class StringTreeNode implements ITreeNode {
 	public final ConcurrentMap<String, StringTreeNode> children;
 	
 	private String value;
+	private static final String WHITESPACE_REGEX = "\\s+";
+	
 	private final Pattern tokenBoundaryRegex;
 	private boolean toLowerCase;
 	
@@ -59,10 +65,140 @@ public class StringTreeNode implements ITreeNode {
 		if (toLowerCase)
 			value = value.toLowerCase();
 		ArrayDeque<String> arrayDeque = new ArrayDeque<>();
-		Collections.addAll(arrayDeque, tokenBoundaryRegex.split(value.trim()));
+		Collections.addAll(arrayDeque, split(tokenBoundaryRegex, value.trim()));
 		this.insert(arrayDeque, value);
 	}
 	
+	/**
+	 * Insert all values in parallel without contention. Each value is split once, the values are partitioned by their
+	 * first token and each partition is inserted into its own subtree by a single thread without any locking. The
+	 * subtrees are attached to this node in one step at the end. Must not run concurrently with other inserts.
+	 *
+	 * @param values The values to insert.
+	 */
+	public void insertAll(Collection<String> values) {
+		Map<Boolean, List<SplitValue>> splitValues = values.parallelStream()
+				.map(value -> {
+					if (toLowerCase)
+						value = value.toLowerCase();
+					return new SplitValue(value, split(tokenBoundaryRegex, value.trim()));
+				})
+				.collect(Collectors.partitioningBy(splitValue -> splitValue.tokens.length > 0));
+		
+		// Values without tokens belong to this node, the last one wins like with sequential inserts
+		List<SplitValue> emptyValues = splitValues.get(false);
+		if (!emptyValues.isEmpty())
+			this.value = emptyValues.get(emptyValues.size() - 1).value;
+		
+		Map<String, List<SplitValue>> partitions = splitValues.get(true).stream()
+				.collect(Collectors.groupingBy(splitValue -> splitValue.tokens[0]));
+		
+		// Submit the largest partitions first, so the work is spread evenly. Tasks submitted from outside the pool are
+		// taken in submission order.
+		ArrayList<Map.Entry<String, List<SplitValue>>> entries = new ArrayList<>(partitions.entrySet());
+		entries.sort(Comparator.comparingInt((Map.Entry<String, List<SplitValue>> entry) -> entry.getValue().size()).reversed());
+		ArrayList<ForkJoinTask<StringTreeNode>> tasks = new ArrayList<>(entries.size());
+		for (Map.Entry<String, List<SplitValue>> entry : entries) {
+			tasks.add(ForkJoinPool.commonPool().submit(() -> buildSubtree(entry.getKey(), entry.getValue())));
+		}
+		HashMap<String, StringTreeNode> subtrees = new HashMap<>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			subtrees.put(entries.get(i).getKey(), tasks.get(i).join());
+		}
+		this.children.putAll(subtrees);
+	}
+	
+	private StringTreeNode buildSubtree(String key, List<SplitValue> values) {
+		StringTreeNode subtree = this.children.get(key);
+		if (subtree == null)
+			subtree = new StringTreeNode(this, this.tokenBoundaryRegex);
+		for (SplitValue splitValue : values) {
+			StringTreeNode node = subtree;
+			String[] tokens = splitValue.tokens;
+			for (int i = 1; i < tokens.length; i++) {
+				StringTreeNode child = node.children.get(tokens[i]);
+				if (child == null) {
+					child = new StringTreeNode(node, this.tokenBoundaryRegex);
+					node.children.put(tokens[i], child);
+				}
+				node = child;
+			}
+			node.value = splitValue.value;
+		}
+		return subtree;
+	}
+	
+	/**
+	 * Split the given text like {@link Pattern#split(CharSequence)} does. The default token boundary {@code \s+} is
+	 * split without the regex engine.
+	 *
+	 * @param tokenBoundaryRegex The token boundary, compiled with {@link Pattern#UNICODE_CHARACTER_CLASS}.
+	 * @param text               The text.
+	 * @return The tokens.
+	 */
+	public static String[] split(Pattern tokenBoundaryRegex, String text) {
+		if (!WHITESPACE_REGEX.equals(tokenBoundaryRegex.pattern()))
+			return tokenBoundaryRegex.split(text);
+		
+		ArrayList<String> tokens = new ArrayList<>(4);
+		int length = text.length();
+		int index = 0;
+		for (int start = 0; start < length; start++) {
+			if (!isWhiteSpace(text.charAt(start)))
+				continue;
+			int end = start + 1;
+			while (end < length && isWhiteSpace(text.charAt(end)))
+				end++;
+			tokens.add(text.substring(index, start));
+			index = start = end;
+		}
+		if (tokens.isEmpty())
+			return new String[]{text};
+		tokens.add(text.substring(index));
+		
+		// Like Pattern#split, drop trailing empty tokens
+		int size = tokens.size();
+		while (size > 0 && tokens.get(size - 1).isEmpty())
+			size--;
+		return tokens.subList(0, size).toArray(new String[0]);
+	}
+	
+	/**
+	 * @return True, if the character has the Unicode White_Space property, ie. it matches {@code \s} with
+	 * {@link Pattern#UNICODE_CHARACTER_CLASS}.
+	 */
+	private static boolean isWhiteSpace(char c) {
+		switch (c) {
+			case '\t':
+			case '\n':
+			case '\u000B':
+			case '\f':
+			case '\r':
+			case ' ':
+			case '\u0085':
+			case '\u00A0':
+			case '\u1680':
+			case '\u2028':
+			case '\u2029':
+			case '\u202F':
+			case '\u205F':
+			case '\u3000':
+				return true;
+			default:
+				return c >= '\u2000' && c <= '\u200A';
+		}
+	}
+	
+	private static class SplitValue {
+		final String value;
+		final String[] tokens;
+		
+		SplitValue(String value, String[] tokens) {
+			this.value = value;
+			this.tokens = tokens;
+		}
+	}
+	
 	private void insert(ArrayDeque<String> stringDeque, final String value) {
 		if (stringDeque.isEmpty()) {
 			this.value = value;
@@ -106,21 +242,53 @@ public class StringTreeNode implements ITreeNode {
 		}
 	}
 	
+	@Nullable
+	@Override
+	public StringTreeNode getChild(@Nonnull String key) {
+		return this.children.get(key);
+	}
+	
+	@Override
+	public void forEachChild(@Nonnull BiConsumer<String, ITreeNode> consumer) {
+		this.children.forEach(consumer);
+	}
+	
 	public int size() {
-		return 1 + this.children.values().stream().mapToInt(StringTreeNode::size).sum();
+		int size = 0;
+		ArrayDeque<StringTreeNode> nodes = new ArrayDeque<>();
+		nodes.push(this);
+		while (!nodes.isEmpty()) {
+			StringTreeNode node = nodes.pop();
+			size++;
+			node.children.values().forEach(nodes::push);
+		}
+		return size;
 	}
 	
 	public int leafs() {
-		if (this.children.size() == 0) {
-			return 1;
-		} else {
-			return this.children.values().stream().mapToInt(StringTreeNode::leafs).sum();
+		int leafs = 0;
+		ArrayDeque<StringTreeNode> nodes = new ArrayDeque<>();
+		nodes.push(this);
+		while (!nodes.isEmpty()) {
+			StringTreeNode node = nodes.pop();
+			if (node.isLeaf())
+				leafs++;
+			node.children.values().forEach(nodes::push);
 		}
+		return leafs;
 	}
 	
 	public int nodesWithValue() {
-		int val = this.hasValue() ? 1 : 0;
-		return val + this.children.values().stream().mapToInt(StringTreeNode::nodesWithValue).sum();
+		int nodesWithValue = 0;
+		ArrayDeque<StringTreeNode> nodes = new ArrayDeque<>();
+		nodes.push(this);
+		while (!nodes.isEmpty()) {
+			StringTreeNode node = nodes.pop();
+			if (node.hasValue())
+				nodesWithValue++;
+			node.children.values().forEach(nodes::push);
+		}
+		return nodesWithValue;
 	}
 	
 	@Override
@@ -145,9 +313,26 @@ public class StringTreeNode implements ITreeNode {
 			return s;
 	}
 	
+	/**
+	 * @return The number of nodes on the longest path from this node to a leaf, including this node.
+	 */
 	@Override
 	public int depth() {
-		return 1 + this.children.values().stream().map(StringTreeNode::depth).max(Integer::compareTo).orElse(0);
+		int depth = 0;
+		ArrayDeque<StringTreeNode> nodes = new ArrayDeque<>();
+		ArrayDeque<Integer> depths = new ArrayDeque<>();
+		nodes.push(this);
+		depths.push(1);
+		while (!nodes.isEmpty()) {
+			StringTreeNode node = nodes.pop();
+			int nodeDepth = depths.pop();
+			depth = Math.max(depth, nodeDepth);
+			for (StringTreeNode child : node.children.values()) {
+				nodes.push(child);
+				depths.push(nodeDepth + 1);
+			}
+		}
+		return depth;
 	}
 	
 	@Override
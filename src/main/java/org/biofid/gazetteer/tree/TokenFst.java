@@ -0,0 +1,642 @@
+package org.biofid.gazetteer.tree;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A minimal acyclic finite state transducer over token sequences with non-negative integer outputs. The output of a
+ * sequence is the sum of the outputs of the arcs along its path plus the final output of its last state. Outputs are
+ * pushed towards the root, so sequences that share a suffix and the remainder of their output share the states of
+ * that suffix, which a prefix tree like {@link StringTreeNode} can not do.
+ * <p>
+ * The transducer is built incrementally from sequences in sorted order with a {@link Builder}, following Daciuk et
+ * al. and Mihov &amp; Maurel: states are frozen and deduplicated as soon as no later sequence can reach them.
+ * <p>
+ * States are numbered in the order they are frozen, so every state has a greater number than all of its successors.
+ * Instances are immutable and may be shared between threads.
+ */
+public class TokenFst {
+	
+	private static final int MAGIC = 0x54465354;
+	private static final int VERSION = 1;
+	
+	private final String[] tokens;
+	private final HashMap<String, Integer> tokenIds;
+	private final int[] finalOutputs;
+	private final int[] arcStarts;
+	private final int[] arcLabels;
+	private final int[] arcTargets;
+	private final int[] arcOutputs;
+	private final int rootState;
+	private final int sequenceCount;
+	
+	private TokenFst(Builder builder, int rootState) {
+		this.tokens = builder.tokens;
+		this.tokenIds = builder.tokenIds;
+		this.finalOutputs = Arrays.copyOf(builder.finalOutputs.values, builder.finalOutputs.size);
+		this.arcStarts = Arrays.copyOf(builder.arcStarts.values, builder.arcStarts.size + 1);
+		this.arcStarts[builder.arcStarts.size] = builder.arcLabels.size;
+		this.arcLabels = Arrays.copyOf(builder.arcLabels.values, builder.arcLabels.size);
+		this.arcTargets = Arrays.copyOf(builder.arcTargets.values, builder.arcTargets.size);
+		this.arcOutputs = Arrays.copyOf(builder.arcOutputs.values, builder.arcOutputs.size);
+		this.rootState = rootState;
+		this.sequenceCount = builder.sequenceCount;
+	}
+	
+	private TokenFst(String[] tokens, int[] finalOutputs, int[] arcStarts, int[] arcLabels, int[] arcTargets,
+	                 int[] arcOutputs, int rootState, int sequenceCount) {
+		this.tokens = tokens;
+		this.tokenIds = new HashMap<>(tokens.length * 2);
+		for (int i = 0; i < tokens.length; i++) {
+			tokenIds.put(tokens[i], i);
+		}
+		this.finalOutputs = finalOutputs;
+		this.arcStarts = arcStarts;
+		this.arcLabels = arcLabels;
+		this.arcTargets = arcTargets;
+		this.arcOutputs = arcOutputs;
+		this.rootState = rootState;
+		this.sequenceCount = sequenceCount;
+	}
+	
+	/**
+	 * Write this transducer to the given file.
+	 */
+	public void write(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(rootState);
+			out.writeInt(sequenceCount);
+			out.writeInt(tokens.length);
+			for (String token : tokens) {
+				out.writeUTF(token);
+			}
+			for (int[] array : new int[][]{finalOutputs, arcStarts, arcLabels, arcTargets, arcOutputs}) {
+				out.writeInt(array.length);
+				for (int value : array) {
+					out.writeInt(value);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read a transducer written by {@link #write(Path)}.
+	 *
+	 * @throws IOException If the file can not be read or is not a transducer file.
+	 */
+	public static TokenFst read(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(String.format("Not a transducer file: %s", file));
+			int rootState = in.readInt();
+			int sequenceCount = in.readInt();
+			String[] tokens = new String[in.readInt()];
+			for (int i = 0; i < tokens.length; i++) {
+				tokens[i] = in.readUTF();
+			}
+			int[][] arrays = new int[5][];
+			for (int a = 0; a < arrays.length; a++) {
+				arrays[a] = new int[in.readInt()];
+				for (int i = 0; i < arrays[a].length; i++) {
+					arrays[a][i] = in.readInt();
+				}
+			}
+			return new TokenFst(tokens, arrays[0], arrays[1], arrays[2], arrays[3], arrays[4], rootState, sequenceCount);
+		}
+	}
+	
+	/**
+	 * @return The output of the given token sequence or -1, if it is not accepted.
+	 */
+	public int get(List<String> sequence) {
+		int state = rootState;
+		int output = 0;
+		for (String token : sequence) {
+			int arc = findArc(state, token);
+			if (arc < 0)
+				return -1;
+			output += arcOutputs[arc];
+			state = arcTargets[arc];
+		}
+		return finalOutputs[state] < 0 ? -1 : output + finalOutputs[state];
+	}
+	
+	/**
+	 * @return The index of the arc of the given state with the given token or -1, if there is none.
+	 */
+	private int findArc(int state, String token) {
+		Integer label = tokenIds.get(token);
+		if (label == null)
+			return -1;
+		int low = arcStarts[state];
+		int high = arcStarts[state + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (arcLabels[mid] < label)
+				low = mid + 1;
+			else if (arcLabels[mid] > label)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Call the given consumer with every accepted sequence and its output, in sorted order.
+	 */
+	public void forEach(BiConsumer<List<String>, Integer> consumer) {
+		forEach(rootState, 0, new ArrayList<>(), consumer);
+	}
+	
+	private void forEach(int state, int output, ArrayList<String> path, BiConsumer<List<String>, Integer> consumer) {
+		if (finalOutputs[state] >= 0)
+			consumer.accept(path, output + finalOutputs[state]);
+		for (int arc = arcStarts[state]; arc < arcStarts[state + 1]; arc++) {
+			path.add(tokens[arcLabels[arc]]);
+			forEach(arcTargets[arc], output + arcOutputs[arc], path, consumer);
+			path.remove(path.size() - 1);
+		}
+	}
+	
+	/**
+	 * @return The root of the prefix tree this transducer is equivalent to. The value of a node is its token sequence
+	 * joined by single spaces.
+	 */
+	public Node getRoot() {
+		return new Node(rootState, 0, null, null);
+	}
+	
+	/**
+	 * @return The tokens that start an accepted sequence.
+	 */
+	public List<String> getStartTokens() {
+		ArrayList<String> startTokens = new ArrayList<>();
+		for (int arc = arcStarts[rootState]; arc < arcStarts[rootState + 1]; arc++) {
+			startTokens.add(tokens[arcLabels[arc]]);
+		}
+		return startTokens;
+	}
+	
+	public int getStateCount() {
+		return finalOutputs.length;
+	}
+	
+	public int getFinalStateCount() {
+		int count = 0;
+		for (int finalOutput : finalOutputs) {
+			if (finalOutput >= 0)
+				count++;
+		}
+		return count;
+	}
+	
+	public int getArcCount() {
+		return arcLabels.length;
+	}
+	
+	public int getArcCount(int state) {
+		return arcStarts[state + 1] - arcStarts[state];
+	}
+	
+	public int getTokenCount() {
+		return tokens.length;
+	}
+	
+	/**
+	 * @return The number of accepted sequences.
+	 */
+	public int getSequenceCount() {
+		return sequenceCount;
+	}
+	
+	/**
+	 * @return The maximum number of tokens of an accepted sequence.
+	 */
+	public int getMaxLength() {
+		// Successors have smaller state numbers
+		int[] lengths = new int[finalOutputs.length];
+		for (int state = 0; state < lengths.length; state++) {
+			for (int arc = arcStarts[state]; arc < arcStarts[state + 1]; arc++) {
+				lengths[state] = Math.max(lengths[state], lengths[arcTargets[arc]] + 1);
+			}
+		}
+		return lengths[rootState];
+	}
+	
+	/**
+	 * @return The number of bytes of the state and arc arrays, without the token dictionary.
+	 */
+	public long getByteSize() {
+		return 4L * (finalOutputs.length + arcStarts.length) + 12L * arcLabels.length;
+	}
+	
+	/**
+	 * @return The estimated number of bytes of the token dictionary.
+	 */
+	public long getTokenBytes() {
+		long bytes = 16L + 4L * tokens.length;
+		for (String token : tokens) {
+			// The token itself and its entry in the ID map
+			bytes += 24L + 16L + 2L * token.length() + 32L + 16L;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Count the nodes of the equivalent prefix tree below the given state.
+	 */
+	private long countUnfolded(int fromState, UnfoldedCounter counter) {
+		long[] counts = new long[fromState + 1];
+		for (int state = 0; state <= fromState; state++) {
+			int arcCount = getArcCount(state);
+			long count = counter == UnfoldedCounter.ALL
+					|| counter == UnfoldedCounter.LEAFS && arcCount == 0
+					|| counter == UnfoldedCounter.VALUES && finalOutputs[state] >= 0 ? 1 : 0;
+			for (int arc = arcStarts[state]; arc < arcStarts[state + 1]; arc++) {
+				count += counts[arcTargets[arc]];
+			}
+			counts[state] = count;
+		}
+		return counts[fromState];
+	}
+	
+	private enum UnfoldedCounter {
+		ALL, LEAFS, VALUES
+	}
+	
+	/**
+	 * A flyweight {@link ITreeNode} for a state of the transducer, reached by a specific path. It holds the output
+	 * accumulated along that path and a link to its parent, from which its value is created on demand.
+	 */
+	public class Node implements ITreeNode {
+		
+		private final int state;
+		private final int output;
+		private final String token;
+		private final Node parent;
+		
+		private Node(int state, int output, String token, Node parent) {
+			this.state = state;
+			this.output = output;
+			this.token = token;
+			this.parent = parent;
+		}
+		
+		/**
+		 * @return The output of the path to this node or -1, if it does not end here.
+		 */
+		public int getOutput() {
+			return finalOutputs[state] < 0 ? -1 : output + finalOutputs[state];
+		}
+		
+		@Override
+		public boolean hasValue() {
+			return finalOutputs[state] >= 0;
+		}
+		
+		@Override
+		public boolean isLeaf() {
+			return getArcCount(state) == 0;
+		}
+		
+		@Override
+		public void insert(String value) {
+			throw new UnsupportedOperationException("The transducer is immutable");
+		}
+		
+		@Override
+		public int size() {
+			return (int) Math.min(Integer.MAX_VALUE, countUnfolded(state, UnfoldedCounter.ALL));
+		}
+		
+		@Override
+		public int leafs() {
+			return (int) Math.min(Integer.MAX_VALUE, countUnfolded(state, UnfoldedCounter.LEAFS));
+		}
+		
+		@Override
+		public int nodesWithValue() {
+			return (int) Math.min(Integer.MAX_VALUE, countUnfolded(state, UnfoldedCounter.VALUES));
+		}
+		
+		@Override
+		public ImmutablePair<String, Integer> traverse(@Nonnull List<String> subString) {
+			Node current = this;
+			Node lastWithValue = null;
+			int consumed = 0;
+			while (consumed < subString.size()) {
+				if (current.hasValue())
+					lastWithValue = current;
+				Node child = current.getChild(subString.get(consumed));
+				if (child == null)
+					break;
+				current = child;
+				consumed++;
+			}
+			if (current.hasValue())
+				lastWithValue = current;
+			return ImmutablePair.of(lastWithValue == null ? null : lastWithValue.getValue(), consumed - 1);
+		}
+		
+		@Nullable
+		@Override
+		public Node getChild(@Nonnull String key) {
+			int arc = findArc(state, key);
+			return arc < 0 ? null : new Node(arcTargets[arc], output + arcOutputs[arc], key, this);
+		}
+		
+		@Override
+		public void forEachChild(@Nonnull BiConsumer<String, ITreeNode> consumer) {
+			for (int arc = arcStarts[state]; arc < arcStarts[state + 1]; arc++) {
+				String key = tokens[arcLabels[arc]];
+				consumer.accept(key, new Node(arcTargets[arc], output + arcOutputs[arc], key, this));
+			}
+		}
+		
+		/**
+		 * @return The tokens of the path to this node joined by single spaces or null, if no sequence ends here.
+		 */
+		@Override
+		public String getValue() {
+			if (!hasValue())
+				return null;
+			ArrayList<String> path = new ArrayList<>();
+			for (Node node = this; node.parent != null; node = node.parent) {
+				path.add(node.token);
+			}
+			StringBuilder value = new StringBuilder();
+			for (int i = path.size() - 1; i >= 0; i--) {
+				value.append(path.get(i));
+				if (i > 0)
+					value.append(' ');
+			}
+			return value.toString();
+		}
+		
+		/**
+		 * @return The number of states on the longest path from this node, including this node.
+		 */
+		@Override
+		public int depth() {
+			int[] depths = new int[state + 1];
+			for (int current = 0; current <= state; current++) {
+				depths[current] = 1;
+				for (int arc = arcStarts[current]; arc < arcStarts[current + 1]; arc++) {
+					depths[current] = Math.max(depths[current], depths[arcTargets[arc]] + 1);
+				}
+			}
+			return depths[state];
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("FstNode[%d]", state);
+		}
+	}
+	
+	/**
+	 * Builds a minimal {@link TokenFst} from token sequences added in sorted order. Only the states on the path of the
+	 * last sequence are kept unfrozen; every other state is stored in the final arrays once and looked up in a registry
+	 * of frozen states for deduplication.
+	 */
+	public static class Builder {
+		
+		private final String[] tokens;
+		private final HashMap<String, Integer> tokenIds;
+		private final IntList finalOutputs = new IntList();
+		private final IntList arcStarts = new IntList();
+		private final IntList arcLabels = new IntList();
+		private final IntList arcTargets = new IntList();
+		private final IntList arcOutputs = new IntList();
+		private final HashMap<StateKey, Integer> registry = new HashMap<>();
+		private final ArrayList<UnfrozenState> frontier = new ArrayList<>();
+		private int[] previous = null;
+		private int sequenceCount = 0;
+		private int duplicateCount = 0;
+		
+		/**
+		 * @param dictionary All tokens of the sequences to add. The sequences have to be added in the lexicographic order
+		 *                   of the {@link #getTokenId(String) token IDs}, which follow the sorted order of the tokens.
+		 */
+		public Builder(Iterable<String> dictionary) {
+			ArrayList<String> sortedTokens = new ArrayList<>();
+			dictionary.forEach(sortedTokens::add);
+			sortedTokens.sort(null);
+			this.tokenIds = new HashMap<>(sortedTokens.size() * 2);
+			ArrayList<String> distinctTokens = new ArrayList<>(sortedTokens.size());
+			for (String token : sortedTokens) {
+				if (tokenIds.putIfAbsent(token, distinctTokens.size()) == null)
+					distinctTokens.add(token);
+			}
+			this.tokens = distinctTokens.toArray(new String[0]);
+			frontier.add(new UnfrozenState());
+		}
+		
+		/**
+		 * @return The ID of the given token or -1, if it is not part of the dictionary.
+		 */
+		public int getTokenId(String token) {
+			return tokenIds.getOrDefault(token, -1);
+		}
+		
+		/**
+		 * Add a sequence of token IDs. Sequences equal to the previous one are ignored.
+		 *
+		 * @param sequence The token IDs, greater than or equal to the previous sequence in lexicographic order.
+		 * @param output   The non-negative output of the sequence.
+		 * @return False, if the sequence was ignored.
+		 * @throws IllegalArgumentException If the sequence is out of order, empty or the output is negative.
+		 */
+		public boolean add(int[] sequence, int output) {
+			if (sequence.length == 0 || output < 0)
+				throw new IllegalArgumentException("Sequences must not be empty and outputs must not be negative");
+			int prefixLength = 0;
+			if (previous != null) {
+				int compareLength = Math.min(previous.length, sequence.length);
+				while (prefixLength < compareLength && previous[prefixLength] == sequence[prefixLength]) {
+					prefixLength++;
+				}
+				if (prefixLength == sequence.length && previous.length == sequence.length) {
+					duplicateCount++;
+					return false;
+				}
+				if (prefixLength == sequence.length
+						|| prefixLength < compareLength && previous[prefixLength] > sequence[prefixLength])
+					throw new IllegalArgumentException("Sequences must be added in sorted order");
+				freezeTail(prefixLength);
+			}
+			
+			for (int depth = prefixLength + 1; depth <= sequence.length; depth++) {
+				UnfrozenState state = new UnfrozenState();
+				if (depth < frontier.size())
+					frontier.set(depth, state);
+				else
+					frontier.add(state);
+				frontier.get(depth - 1).addArc(sequence[depth - 1]);
+			}
+			frontier.get(sequence.length).finalOutput = 0;
+			
+			// Keep the common part of the outputs on the shared prefix and push the rest down to the next state
+			for (int depth = 1; depth <= prefixLength; depth++) {
+				UnfrozenState parent = frontier.get(depth - 1);
+				int lastOutput = parent.getLastOutput();
+				int common = Math.min(lastOutput, output);
+				parent.setLastOutput(common);
+				frontier.get(depth).prependOutput(lastOutput - common);
+				output -= common;
+			}
+			frontier.get(prefixLength).setLastOutput(output);
+			
+			previous = sequence;
+			sequenceCount++;
+			return true;
+		}
+		
+		/**
+		 * Freeze all states of the previous sequence deeper than the given depth.
+		 */
+		private void freezeTail(int depth) {
+			for (int d = previous.length; d > depth; d--) {
+				int state = freeze(frontier.get(d));
+				frontier.get(d - 1).setLastTarget(state);
+			}
+		}
+		
+		private int freeze(UnfrozenState unfrozen) {
+			StateKey key = new StateKey(unfrozen);
+			Integer state = registry.get(key);
+			if (state == null) {
+				state = finalOutputs.size;
+				finalOutputs.add(unfrozen.finalOutput);
+				arcStarts.add(arcLabels.size);
+				for (int i = 0; i < unfrozen.arcCount; i++) {
+					arcLabels.add(unfrozen.labels[i]);
+					arcTargets.add(unfrozen.targets[i]);
+					arcOutputs.add(unfrozen.outputs[i]);
+				}
+				registry.put(key, state);
+			}
+			return state;
+		}
+		
+		/**
+		 * Freeze the remaining states and create the transducer. The builder must not be used afterwards.
+		 */
+		public TokenFst build() {
+			if (previous != null)
+				freezeTail(0);
+			int rootState = freeze(frontier.get(0));
+			registry.clear();
+			frontier.clear();
+			return new TokenFst(this, rootState);
+		}
+		
+		/**
+		 * @return The number of sequences that were ignored, because they were equal to the previous one.
+		 */
+		public int getDuplicateCount() {
+			return duplicateCount;
+		}
+	}
+	
+	/**
+	 * A state on the path of the last added sequence, which may still get new arcs.
+	 */
+	private static class UnfrozenState {
+		
+		int finalOutput = -1;
+		int arcCount = 0;
+		int[] labels = new int[2];
+		int[] targets = new int[2];
+		int[] outputs = new int[2];
+		
+		void addArc(int label) {
+			if (arcCount == labels.length) {
+				labels = Arrays.copyOf(labels, arcCount * 2);
+				targets = Arrays.copyOf(targets, arcCount * 2);
+				outputs = Arrays.copyOf(outputs, arcCount * 2);
+			}
+			labels[arcCount] = label;
+			targets[arcCount] = -1;
+			outputs[arcCount] = 0;
+			arcCount++;
+		}
+		
+		int getLastOutput() {
+			return outputs[arcCount - 1];
+		}
+		
+		void setLastOutput(int output) {
+			outputs[arcCount - 1] = output;
+		}
+		
+		void setLastTarget(int target) {
+			targets[arcCount - 1] = target;
+		}
+		
+		void prependOutput(int output) {
+			if (output == 0)
+				return;
+			for (int i = 0; i < arcCount; i++) {
+				outputs[i] += output;
+			}
+			if (finalOutput >= 0)
+				finalOutput += output;
+		}
+	}
+	
+	/**
+	 * The final output and the arcs of a frozen state, used to find equivalent states.
+	 */
+	private static class StateKey {
+		
+		private final int[] values;
+		private final int hashCode;
+		
+		StateKey(UnfrozenState state) {
+			values = new int[1 + state.arcCount * 3];
+			values[0] = state.finalOutput;
+			for (int i = 0; i < state.arcCount; i++) {
+				values[1 + i * 3] = state.labels[i];
+				values[2 + i * 3] = state.targets[i];
+				values[3 + i * 3] = state.outputs[i];
+			}
+			hashCode = Arrays.hashCode(values);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof StateKey && Arrays.equals(values, ((StateKey) o).values);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+	
+	private static class IntList {
+		
+		int[] values = new int[1024];
+		int size = 0;
+		
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.uima.jcas.tcas.Annotation;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A fixed-capacity ring buffer of {@link Annotation Annotations} and their query texts, used as bounded look-ahead
+ * window when streaming over an annotation index. The window is exposed as a {@link java.util.List List} of the query
+ * texts, starting at the oldest buffered annotation.
+ */
+public class AnnotationWindow extends AbstractList<String> implements RandomAccess {
+	
+	private final Annotation[] annotations;
+	private final String[] texts;
+	private final int[] ends;
+	private int head = 0;
+	private int size = 0;
+	
+	public AnnotationWindow(int capacity) {
+		this.annotations = new Annotation[Math.max(1, capacity)];
+		this.texts = new String[Math.max(1, capacity)];
+		this.ends = new int[Math.max(1, capacity)];
+	}
+	
+	public boolean isFull() {
+		return size == annotations.length;
+	}
+	
+	/**
+	 * Append an annotation and its query text to the end of the window.
+	 *
+	 * @throws IllegalStateException if the window is full.
+	 */
+	public void append(Annotation annotation, String text) {
+		append(annotation, annotation.getEnd(), text);
+	}
+	
+	/**
+	 * Append an annotation with a different end offset, eg. the first part of a joined token, and its query text to the
+	 * end of the window.
+	 *
+	 * @throws IllegalStateException if the window is full.
+	 */
+	public void append(Annotation annotation, int end, String text) {
+		if (isFull())
+			throw new IllegalStateException("AnnotationWindow is full!");
+		int index = (head + size) % annotations.length;
+		annotations[index] = annotation;
+		texts[index] = text;
+		ends[index] = end;
+		size++;
+	}
+	
+	/**
+	 * Drop the first {@code n} elements from the window.
+	 */
+	public void advance(int n) {
+		n = Math.min(n, size);
+		for (int i = 0; i < n; i++) {
+			annotations[head] = null;
+			texts[head] = null;
+			head = (head + 1) % annotations.length;
+		}
+		size -= n;
+	}
+	
+	public Annotation getAnnotation(int index) {
+		checkIndex(index);
+		return annotations[(head + index) % annotations.length];
+	}
+	
+	/**
+	 * @return The end offset of the element at the given index.
+	 */
+	public int getEnd(int index) {
+		checkIndex(index);
+		return ends[(head + index) % ends.length];
+	}
+	
+	@Override
+	public String get(int index) {
+		checkIndex(index);
+		return texts[(head + index) % texts.length];
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, size));
+	}
+}
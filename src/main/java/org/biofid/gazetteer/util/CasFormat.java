@@ -0,0 +1,86 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.uima.UIMARuntimeException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.SerialFormat;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.cas.impl.XmiCasSerializer;
+import org.apache.uima.util.CasIOUtils;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Output formats for serialized CASes.
+ * <ul>
+ * <li>{@link #XMI}: XMI, as written by the {@link XmiCasSerializer}.</li>
+ * <li>{@link #BINARY}: compressed binary form 6 with a type system header, can be read with
+ * {@link CasIOUtils#load(InputStream, CAS)}.</li>
+ * <li>{@link #DELTA}: compressed binary form 4, containing only the feature structures that were added after the
+ * {@link Marker} was created, ie. the annotations added by the gazetteer. Can be applied to the original input with
+ * {@link #loadDelta(CAS, InputStream)}. Unlike a form 6 delta, it needs no reuse info, which would take another full
+ * serialization of each input.</li>
+ * </ul>
+ */
+public enum CasFormat {
+	XMI(".xmi"),
+	BINARY(".bcas"),
+	DELTA(".dcas");
+	
+	public final String extension;
+	
+	CasFormat(String extension) {
+		this.extension = extension;
+	}
+	
+	public static CasFormat fromString(String format) {
+		return CasFormat.valueOf(format.toUpperCase(Locale.ROOT));
+	}
+	
+	/**
+	 * Serialize the CAS in this format.
+	 *
+	 * @param cas          The CAS to serialize.
+	 * @param outputStream The output stream.
+	 * @param marker       The marker for {@link #DELTA} serialization, created right after the input was loaded.
+	 *                     Ignored for other formats.
+	 */
+	public void serialize(CAS cas, OutputStream outputStream, Marker marker) throws IOException {
+		switch (this) {
+			case XMI:
+				try {
+					XmiCasSerializer.serialize(cas, outputStream);
+				} catch (SAXException e) {
+					throw new IOException(e);
+				}
+				break;
+			case BINARY:
+				CasIOUtils.save(cas, outputStream, SerialFormat.COMPRESSED_FILTERED_TSI);
+				break;
+			case DELTA:
+				if (marker == null)
+					throw new IOException("Delta serialization requires a marker!");
+				Serialization.serializeWithCompression(cas, outputStream, marker);
+				break;
+		}
+	}
+	
+	/**
+	 * Apply a {@link #DELTA} to a CAS. The CAS must contain exactly the input that the delta was created from, eg. by
+	 * loading the same file with {@link CasIOUtils#load(InputStream, CAS)}.
+	 *
+	 * @param cas   The CAS containing the original input.
+	 * @param delta The serialized delta.
+	 */
+	public static void loadDelta(CAS cas, InputStream delta) throws IOException {
+		try {
+			Serialization.deserializeCAS(cas, delta);
+		} catch (UIMARuntimeException e) {
+			throw new IOException(e);
+		}
+	}
+}
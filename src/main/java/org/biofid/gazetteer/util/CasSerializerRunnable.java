@@ -0,0 +1,46 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.uima.cas.Marker;
+import org.apache.uima.jcas.JCas;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class CasSerializerRunnable implements Runnable {
+	
+	JCas jCas;
+	File outFile;
+	CasFormat format;
+	Marker marker;
+	
+	public CasSerializerRunnable(JCas pJcas, File pOutFile) {
+		this(pJcas, pOutFile, CasFormat.XMI);
+	}
+	
+	public CasSerializerRunnable(JCas pJcas, File pOutFile, CasFormat pFormat) {
+		this(pJcas, pOutFile, pFormat, null);
+	}
+	
+	/**
+	 * @param pJcas    The JCas to serialize.
+	 * @param pOutFile The output file.
+	 * @param pFormat  The output format.
+	 * @param pMarker  The marker, only required for {@link CasFormat#DELTA}.
+	 */
+	public CasSerializerRunnable(JCas pJcas, File pOutFile, CasFormat pFormat, Marker pMarker) {
+		jCas = pJcas;
+		outFile = pOutFile;
+		format = pFormat;
+		marker = pMarker;
+	}
+	
+	@Override
+	public void run() {
+		try (FileOutputStream fileOutputStream = new FileOutputStream(outFile)) {
+			format.serialize(jCas.getCas(), fileOutputStream, marker);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
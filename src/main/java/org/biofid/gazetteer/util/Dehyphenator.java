@@ -0,0 +1,153 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.uima.jcas.tcas.Annotation;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Joins words that are hyphenated across a line break, eg. "Quer-\ncus robur", while iterating over a token index. The
+ * hyphen may be part of the first token ("Quer-") or a token of its own ("Quer", "-"). The hyphen is dropped if the
+ * second part starts with a lower case letter and kept otherwise ("Nord-\nAmerika").
+ * <p>
+ * Each {@link JoinedToken} keeps the first annotation and the end offset of the last annotation it was joined from, so
+ * matches can be mapped back onto the characters of the original document. At most three annotations are looked
+ * ahead.
+ */
+public class Dehyphenator implements Iterator<Dehyphenator.JoinedToken> {
+	
+	/**
+	 * Hyphen-minus, soft hyphen, hyphen and the not sign, which is used as hyphenation mark in older prints.
+	 */
+	public static final String HYPHENS = "-\u00AD\u2010\u00AC";
+	
+	private final Iterator<? extends Annotation> annotations;
+	private final Function<Annotation, String> textFunction;
+	private final String documentText;
+	private final boolean enabled;
+	private final ArrayDeque<Annotation> lookAhead = new ArrayDeque<>(3);
+	private final ArrayDeque<String> lookAheadTexts = new ArrayDeque<>(3);
+	
+	/**
+	 * @param annotations  The tokens or lemmata in order.
+	 * @param textFunction Returns the query text of an annotation.
+	 * @param documentText The document text the annotations refer to.
+	 * @param enabled      If false, yield every annotation as it is.
+	 */
+	public Dehyphenator(Iterator<? extends Annotation> annotations, Function<Annotation, String> textFunction, String documentText, boolean enabled) {
+		this.annotations = annotations;
+		this.textFunction = textFunction;
+		this.documentText = documentText;
+		this.enabled = enabled;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return !lookAhead.isEmpty() || annotations.hasNext();
+	}
+	
+	@Override
+	public JoinedToken next() {
+		if (!enabled) {
+			Annotation annotation = annotations.next();
+			return new JoinedToken(annotation, annotation.getEnd(), textFunction.apply(annotation));
+		}
+		
+		fill(1);
+		if (lookAhead.isEmpty())
+			throw new NoSuchElementException();
+		Annotation first = lookAhead.poll();
+		String firstText = lookAheadTexts.poll();
+		
+		if (firstText.length() > 1 && isHyphen(firstText.charAt(firstText.length() - 1))) {
+			// "Quer-" "cus"
+			fill(1);
+			Annotation second = lookAhead.peek();
+			if (second != null && isWordEnd(first.getCoveredText(), 1) && isContinuation(first.getEnd(), second)) {
+				lookAhead.poll();
+				return join(first, firstText.substring(0, firstText.length() - 1), second, lookAheadTexts.poll());
+			}
+		} else if (firstText.length() > 0) {
+			// "Quer" "-" "cus"
+			fill(2);
+			if (lookAhead.size() == 2) {
+				Iterator<Annotation> iterator = lookAhead.iterator();
+				Annotation hyphen = iterator.next();
+				Annotation second = iterator.next();
+				String hyphenText = hyphen.getCoveredText();
+				if (hyphenText.length() == 1 && isHyphen(hyphenText.charAt(0)) && hyphen.getBegin() == first.getEnd()
+						&& isWordEnd(first.getCoveredText(), 0) && isContinuation(hyphen.getEnd(), second)) {
+					lookAhead.poll();
+					lookAheadTexts.poll();
+					lookAhead.poll();
+					return join(first, firstText, second, lookAheadTexts.poll());
+				}
+			}
+		}
+		return new JoinedToken(first, first.getEnd(), firstText);
+	}
+	
+	private void fill(int size) {
+		while (lookAhead.size() < size && annotations.hasNext()) {
+			Annotation annotation = annotations.next();
+			lookAhead.add(annotation);
+			lookAheadTexts.add(textFunction.apply(annotation));
+		}
+	}
+	
+	private static JoinedToken join(Annotation first, String firstText, Annotation second, String secondText) {
+		boolean keepHyphen = Character.isUpperCase(second.getCoveredText().charAt(0));
+		return new JoinedToken(first, second.getEnd(), firstText + (keepHyphen ? "-" : "") + secondText);
+	}
+	
+	/**
+	 * @return True, if the character before the last {@code skip} characters of the given text is a letter.
+	 */
+	private static boolean isWordEnd(String text, int skip) {
+		int index = text.length() - 1 - skip;
+		return index >= 0 && Character.isLetter(text.charAt(index));
+	}
+	
+	/**
+	 * @return True, if the given annotation starts with a letter after a gap of white space with a line break.
+	 */
+	private boolean isContinuation(int end, Annotation next) {
+		if (next.getBegin() <= end || !Character.isLetter(documentText.charAt(next.getBegin())))
+			return false;
+		boolean lineBreak = false;
+		for (int i = end; i < next.getBegin(); i++) {
+			char c = documentText.charAt(i);
+			if (!Character.isWhitespace(c))
+				return false;
+			lineBreak |= c == '\n' || c == '\r';
+		}
+		return lineBreak;
+	}
+	
+	public static boolean isHyphen(char c) {
+		return HYPHENS.indexOf(c) >= 0;
+	}
+	
+	/**
+	 * A token of the joined token stream. {@link #first} is the first annotation it was created from, {@link #end} is
+	 * the (exclusive) end offset of the last one.
+	 */
+	public static class JoinedToken {
+		
+		public final Annotation first;
+		public final int end;
+		public final String text;
+		
+		public JoinedToken(Annotation first, int end, String text) {
+			this.first = first;
+			this.end = end;
+			this.text = text;
+		}
+		
+		public boolean isJoined() {
+			return end != first.getEnd();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more string records than fit into memory. Records are collected in memory until the run size is reached, then
+ * sorted and spilled to a run file. {@link #iterator()} merges all runs in a single pass with a priority queue over the
+ * head record of each run, so at most one run and one buffered line per run file are held in memory.
+ * <p>
+ * Records are sorted in their natural {@link String#compareTo(String) order} and must not contain line breaks.
+ * Duplicates are kept. The run files are deleted when the sorter is closed.
+ */
+public class ExternalSorter implements Closeable, Iterable<String> {
+	
+	protected static final Logger logger = Logger.getLogger(ExternalSorter.class);
+	
+	public static final int DEFAULT_RUN_SIZE = 1_000_000;
+	
+	private final Path tempDirectory;
+	private final int runSize;
+	private final ArrayList<Path> runs = new ArrayList<>();
+	private final ArrayList<RunReader> readers = new ArrayList<>();
+	private ArrayList<String> records = new ArrayList<>();
+	private long size = 0L;
+	
+	/**
+	 * @param tempDirectory The directory for the run files.
+	 * @param runSize       The maximum number of records held in memory.
+	 */
+	public ExternalSorter(Path tempDirectory, int runSize) {
+		this.tempDirectory = tempDirectory;
+		this.runSize = Math.max(1, runSize);
+	}
+	
+	public void add(String record) throws IOException {
+		if (records.size() >= runSize)
+			spill();
+		records.add(record);
+		size++;
+	}
+	
+	private void spill() throws IOException {
+		Collections.sort(records);
+		Path run = Files.createTempFile(tempDirectory, "run", ".txt");
+		try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+			for (String record : records) {
+				writer.write(record);
+				writer.write('\n');
+			}
+		}
+		runs.add(run);
+		logger.debug(String.format("Spilled run %d with %d records.", runs.size(), records.size()));
+		records = new ArrayList<>(Math.min(runSize, 1 << 16));
+	}
+	
+	/**
+	 * @return The number of added records.
+	 */
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * @return The number of run files, not counting the records that are still in memory.
+	 */
+	public int getRunCount() {
+		return runs.size();
+	}
+	
+	/**
+	 * Merge all records in sorted order. The records still in memory are merged as an additional run without being
+	 * spilled. No records may be added afterwards.
+	 *
+	 * @throws UncheckedIOException If a run file can not be read.
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		Collections.sort(records);
+		PriorityQueue<PeekingRun> queue = new PriorityQueue<>(runs.size() + 1);
+		try {
+			for (Path run : runs) {
+				RunReader reader = new RunReader(Files.newBufferedReader(run, StandardCharsets.UTF_8));
+				readers.add(reader);
+				if (reader.hasNext())
+					queue.add(new PeekingRun(reader));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (!records.isEmpty())
+			queue.add(new PeekingRun(records.iterator()));
+		
+		return new Iterator<String>() {
+			@Override
+			public boolean hasNext() {
+				return !queue.isEmpty();
+			}
+			
+			@Override
+			public String next() {
+				PeekingRun run = queue.poll();
+				if (run == null)
+					throw new NoSuchElementException();
+				String record = run.head;
+				if (run.advance())
+					queue.add(run);
+				return record;
+			}
+		};
+	}
+	
+	@Override
+	public void close() throws IOException {
+		for (RunReader reader : readers) {
+			reader.reader.close();
+		}
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		readers.clear();
+		runs.clear();
+		records = new ArrayList<>();
+	}
+	
+	private static class PeekingRun implements Comparable<PeekingRun> {
+		
+		private final Iterator<String> records;
+		private String head;
+		
+		PeekingRun(Iterator<String> records) {
+			this.records = records;
+			this.head = records.next();
+		}
+		
+		boolean advance() {
+			head = records.hasNext() ? records.next() : null;
+			return head != null;
+		}
+		
+		@Override
+		public int compareTo(PeekingRun o) {
+			return head.compareTo(o.head);
+		}
+	}
+	
+	private static class RunReader implements Iterator<String> {
+		
+		private final BufferedReader reader;
+		private String next;
+		
+		RunReader(BufferedReader reader) throws IOException {
+			this.reader = reader;
+			this.next = reader.readLine();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		@Override
+		public String next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			String record = next;
+			try {
+				next = reader.readLine();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return record;
+		}
+	}
+}
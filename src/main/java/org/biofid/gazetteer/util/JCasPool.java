@@ -0,0 +1,63 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A fixed-size pool of {@link JCas JCases}. {@link #borrow()} blocks until a JCas is available, which bounds the
+ * number of documents held in memory at the same time. Released JCases are {@link JCas#reset() reset} for reuse.
+ */
+public class JCasPool {
+	
+	private final ArrayBlockingQueue<JCas> pool;
+	private final int size;
+	
+	/**
+	 * Create a pool of JCases using the type system found on the classpath.
+	 *
+	 * @param size The number of JCases in this pool.
+	 */
+	public JCasPool(int size) throws UIMAException {
+		this(size, TypeSystemDescriptionFactory.createTypeSystemDescription());
+	}
+	
+	public JCasPool(int size, TypeSystemDescription typeSystemDescription) throws UIMAException {
+		if (size < 1)
+			throw new ResourceInitializationException(new IllegalArgumentException("JCasPool size must be positive!"));
+		this.size = size;
+		this.pool = new ArrayBlockingQueue<>(size);
+		for (int i = 0; i < size; i++) {
+			pool.add(JCasFactory.createJCas(typeSystemDescription));
+		}
+	}
+	
+	/**
+	 * Take a JCas from the pool, waiting if necessary.
+	 */
+	public JCas borrow() throws InterruptedException {
+		return pool.take();
+	}
+	
+	/**
+	 * Reset the given JCas and return it to the pool.
+	 */
+	public void release(JCas jCas) {
+		jCas.reset();
+		if (!pool.offer(jCas))
+			throw new IllegalStateException("Released a JCas that does not belong to this pool!");
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public int available() {
+		return pool.size();
+	}
+}
@@ -0,0 +1,228 @@
+package org.biofid.gazetteer.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * A minimal JSON reader and string quoting for the small request and response bodies of the
+ * {@link org.biofid.gazetteer.run.TaggingServer}, so no JSON library is needed. Objects are read as
+ * {@link LinkedHashMap LinkedHashMaps}, arrays as {@link ArrayList ArrayLists}, numbers as {@link Double Doubles}.
+ */
+public class Json {
+	
+	private final String text;
+	private int position = 0;
+	
+	private Json(String text) {
+		this.text = text;
+	}
+	
+	/**
+	 * @param text A single JSON value, optionally surrounded by whitespace.
+	 * @return The value.
+	 * @throws IllegalArgumentException If the text is not valid JSON.
+	 */
+	public static Object parse(String text) {
+		Json json = new Json(text);
+		Object value = json.readValue();
+		json.skipWhitespace();
+		if (json.position < text.length())
+			throw json.error("Unexpected trailing characters");
+		return value;
+	}
+	
+	/**
+	 * @return The given string as a quoted JSON string.
+	 */
+	public static String quote(String string) {
+		StringBuilder builder = new StringBuilder(string.length() + 2);
+		builder.append('"');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+				case '"':
+					builder.append("\\\"");
+					break;
+				case '\\':
+					builder.append("\\\\");
+					break;
+				case '\n':
+					builder.append("\\n");
+					break;
+				case '\r':
+					builder.append("\\r");
+					break;
+				case '\t':
+					builder.append("\\t");
+					break;
+				default:
+					if (c < 0x20)
+						builder.append(String.format("\\u%04x", (int) c));
+					else
+						builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+	
+	private Object readValue() {
+		skipWhitespace();
+		if (position >= text.length())
+			throw error("Unexpected end of input");
+		char c = text.charAt(position);
+		switch (c) {
+			case '{':
+				return readObject();
+			case '[':
+				return readArray();
+			case '"':
+				return readString();
+			case 't':
+				return readLiteral("true", Boolean.TRUE);
+			case 'f':
+				return readLiteral("false", Boolean.FALSE);
+			case 'n':
+				return readLiteral("null", null);
+			default:
+				if (c == '-' || c >= '0' && c <= '9')
+					return readNumber();
+				throw error("Unexpected character '" + c + "'");
+		}
+	}
+	
+	private LinkedHashMap<String, Object> readObject() {
+		LinkedHashMap<String, Object> object = new LinkedHashMap<>();
+		position++;
+		skipWhitespace();
+		if (peek() == '}') {
+			position++;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"')
+				throw error("Expected a key");
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			object.put(key, readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				position++;
+			} else {
+				expect('}');
+				return object;
+			}
+		}
+	}
+	
+	private ArrayList<Object> readArray() {
+		ArrayList<Object> array = new ArrayList<>();
+		position++;
+		skipWhitespace();
+		if (peek() == ']') {
+			position++;
+			return array;
+		}
+		while (true) {
+			array.add(readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				position++;
+			} else {
+				expect(']');
+				return array;
+			}
+		}
+	}
+	
+	private String readString() {
+		StringBuilder builder = new StringBuilder();
+		position++;
+		while (true) {
+			if (position >= text.length())
+				throw error("Unterminated string");
+			char c = text.charAt(position++);
+			if (c == '"')
+				return builder.toString();
+			if (c != '\\') {
+				builder.append(c);
+				continue;
+			}
+			if (position >= text.length())
+				throw error("Unterminated escape");
+			char escape = text.charAt(position++);
+			switch (escape) {
+				case '"':
+				case '\\':
+				case '/':
+					builder.append(escape);
+					break;
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'n':
+					builder.append('\n');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'u':
+					if (position + 4 > text.length())
+						throw error("Invalid unicode escape");
+					try {
+						builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("Invalid unicode escape");
+					}
+					position += 4;
+					break;
+				default:
+					throw error("Invalid escape '\\" + escape + "'");
+			}
+		}
+	}
+	
+	private Double readNumber() {
+		int start = position;
+		while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0)
+			position++;
+		try {
+			return Double.valueOf(text.substring(start, position));
+		} catch (NumberFormatException e) {
+			throw error("Invalid number");
+		}
+	}
+	
+	private Object readLiteral(String literal, Object value) {
+		if (!text.startsWith(literal, position))
+			throw error("Invalid literal");
+		position += literal.length();
+		return value;
+	}
+	
+	private void skipWhitespace() {
+		while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+			position++;
+	}
+	
+	private char peek() {
+		return position < text.length() ? text.charAt(position) : '\0';
+	}
+	
+	private void expect(char c) {
+		if (peek() != c)
+			throw error("Expected '" + c + "'");
+		position++;
+	}
+	
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(String.format("%s at position %d.", message, position));
+	}
+}
@@ -0,0 +1,244 @@
+package org.biofid.gazetteer.util;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import org.apache.log4j.Logger;
+import org.apache.uima.UIMAException;
+import org.apache.uima.UIMARuntimeException;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.util.CasIOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs an analysis engine over a list of files with separate reader, tagger and writer stages:
+ * <ul>
+ * <li>reader threads deserialize the input files into {@link JCas JCases} taken from a {@link JCasPool},</li>
+ * <li>each tagger thread runs its own instance of the analysis engine,</li>
+ * <li>writer threads serialize the results and return the JCases to the pool.</li>
+ * </ul>
+ * The stages are connected by bounded queues and the JCas pool limits the number of documents in flight, so slow
+ * stages apply back-pressure to the faster ones. The engine should share its model between instances, ie. for a
+ * {@link org.biofid.gazetteer.BaseTreeGazetteer BaseTreeGazetteer} {@code PARAM_SHARE_MODEL} should be set.
+ */
+public class ParallelCasPipeline {
+	
+	protected static final Logger logger = Logger.getLogger(ParallelCasPipeline.class);
+	
+	private static final Document POISON = new Document(null, null, null, null);
+	
+	private final AnalysisEngineDescription engineDescription;
+	private final int taggerThreads;
+	private final int readerThreads;
+	private final int writerThreads;
+	private long reportIntervalSeconds = 10;
+	private CasFormat outputFormat = CasFormat.XMI;
+	
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	
+	/**
+	 * @param engineDescription The description of the engine to run, one instance is created per tagger thread.
+	 * @param taggerThreads     The number of tagger threads.
+	 * @param readerThreads     The number of reader threads.
+	 * @param writerThreads     The number of writer threads.
+	 */
+	public ParallelCasPipeline(AnalysisEngineDescription engineDescription, int taggerThreads, int readerThreads, int writerThreads) {
+		this.engineDescription = engineDescription;
+		this.taggerThreads = Math.max(1, taggerThreads);
+		this.readerThreads = Math.max(1, readerThreads);
+		this.writerThreads = Math.max(1, writerThreads);
+	}
+	
+	/**
+	 * @param seconds The interval of the throughput log messages. Values smaller than 1 disable reporting.
+	 */
+	public ParallelCasPipeline setReportInterval(long seconds) {
+		this.reportIntervalSeconds = seconds;
+		return this;
+	}
+	
+	/**
+	 * @param outputFormat The output format. Default: {@link CasFormat#XMI}.
+	 */
+	public ParallelCasPipeline setOutputFormat(CasFormat outputFormat) {
+		this.outputFormat = outputFormat;
+		return this;
+	}
+	
+	/**
+	 * Process all given files. The output files are written to the same path relative to {@code outputRoot} as the
+	 * input file relative to {@code inputRoot}. Unless the output format is {@link CasFormat#XMI}, the file extension is
+	 * replaced by the extension of the output format.
+	 *
+	 * @param inputFiles The files to process.
+	 * @param inputRoot  The root of all input files.
+	 * @param outputRoot The output root directory.
+	 * @throws UIMAException        If the engines or the JCas pool could not be created.
+	 * @throws InterruptedException If interrupted while waiting for the stages to finish.
+	 */
+	public void run(List<File> inputFiles, Path inputRoot, Path outputRoot) throws UIMAException, InterruptedException {
+		ArrayList<AnalysisEngine> engines = new ArrayList<>(taggerThreads);
+		for (int i = 0; i < taggerThreads; i++) {
+			engines.add(AnalysisEngineFactory.createEngine(engineDescription));
+		}
+		
+		final JCasPool jCasPool = new JCasPool(readerThreads + 2 * taggerThreads + writerThreads);
+		final ArrayBlockingQueue<Document> taggingQueue = new ArrayBlockingQueue<>(taggerThreads);
+		final ArrayBlockingQueue<Document> writingQueue = new ArrayBlockingQueue<>(writerThreads);
+		
+		ExecutorService readers = Executors.newFixedThreadPool(readerThreads);
+		ExecutorService taggers = Executors.newFixedThreadPool(taggerThreads);
+		ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		
+		final long startTime = System.currentTimeMillis();
+		if (reportIntervalSeconds > 0) {
+			reporter.scheduleAtFixedRate(() -> report(startTime, inputFiles.size()), reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+		}
+		
+		try {
+			for (AnalysisEngine engine : engines) {
+				taggers.submit(() -> tag(engine, jCasPool, taggingQueue, writingQueue));
+			}
+			for (int i = 0; i < writerThreads; i++) {
+				writers.submit(() -> write(jCasPool, writingQueue));
+			}
+			for (File file : inputFiles) {
+				Path outputFile = outputRoot.resolve(getOutputName(inputRoot.relativize(file.toPath()).toString()));
+				readers.submit(() -> read(file, outputFile.toFile(), jCasPool, taggingQueue));
+			}
+			
+			readers.shutdown();
+			readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			for (int i = 0; i < taggerThreads; i++) {
+				taggingQueue.put(POISON);
+			}
+			taggers.shutdown();
+			taggers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			for (int i = 0; i < writerThreads; i++) {
+				writingQueue.put(POISON);
+			}
+			writers.shutdown();
+			writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			readers.shutdownNow();
+			taggers.shutdownNow();
+			writers.shutdownNow();
+			reporter.shutdownNow();
+			for (AnalysisEngine engine : engines) {
+				engine.destroy();
+			}
+		}
+		report(startTime, inputFiles.size());
+	}
+	
+	private void read(File file, File outputFile, JCasPool jCasPool, BlockingQueue<Document> taggingQueue) {
+		JCas jCas = null;
+		try {
+			jCas = jCasPool.borrow();
+			try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+				CasIOUtils.load(inputStream, null, jCas.getCas(), true);
+			}
+			Marker marker = outputFormat == CasFormat.DELTA ? jCas.getCas().createMarker() : null;
+			taggingQueue.put(new Document(file, outputFile, jCas, marker));
+		} catch (IOException | UIMARuntimeException e) {
+			logger.error(String.format("Could not read '%s': %s", file, e.getMessage()));
+			failures.increment();
+			jCasPool.release(jCas);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void tag(AnalysisEngine engine, JCasPool jCasPool, BlockingQueue<Document> taggingQueue, BlockingQueue<Document> writingQueue) {
+		try {
+			Document document;
+			while ((document = taggingQueue.take()) != POISON) {
+				try {
+					engine.process(document.jCas);
+					tokens.add(document.jCas.getAnnotationIndex(Token.type).size());
+					writingQueue.put(document);
+				} catch (AnalysisEngineProcessException | RuntimeException e) {
+					logger.error(String.format("Could not process '%s': %s", document.source, e.getMessage()));
+					failures.increment();
+					jCasPool.release(document.jCas);
+				}
+			}
+			engine.collectionProcessComplete();
+		} catch (AnalysisEngineProcessException e) {
+			logger.error(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void write(JCasPool jCasPool, BlockingQueue<Document> writingQueue) {
+		try {
+			Document document;
+			while ((document = writingQueue.take()) != POISON) {
+				try {
+					document.target.getParentFile().mkdirs();
+					new CasSerializerRunnable(document.jCas, document.target, outputFormat, document.marker).run();
+					documents.increment();
+				} finally {
+					jCasPool.release(document.jCas);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private String getOutputName(String inputName) {
+		if (outputFormat == CasFormat.XMI)
+			return inputName;
+		int extensionIndex = inputName.lastIndexOf('.');
+		return (extensionIndex > 0 ? inputName.substring(0, extensionIndex) : inputName) + outputFormat.extension;
+	}
+	
+	private void report(long startTime, int total) {
+		double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+		logger.info(String.format("Processed %d/%d documents (%d failed) in %.1fs: %.2f docs/s, %.0f tokens/s",
+				documents.sum(), total, failures.sum(), seconds, documents.sum() / seconds, tokens.sum() / seconds));
+	}
+	
+	public long getDocumentCount() {
+		return documents.sum();
+	}
+	
+	public long getTokenCount() {
+		return tokens.sum();
+	}
+	
+	public long getFailureCount() {
+		return failures.sum();
+	}
+	
+	private static class Document {
+		final File source;
+		final File target;
+		final JCas jCas;
+		final Marker marker;
+		
+		Document(File source, File target, JCas jCas, Marker marker) {
+			this.source = source;
+			this.target = target;
+			this.jCas = jCas;
+			this.marker = marker;
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package org.biofid.gazetteer.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A content-addressed cache for downloaded and extracted taxa files, which is safe to use from several threads and
+ * processes at once.
+ * <ul>
+ * <li>Downloads are stored as {@code blobs/<sha256>.<extension>}. The ETag, Last-Modified date and checksum of each URL
+ * are kept in {@code sources/<sha256 of url>.properties}, so later fetches are conditional requests and unchanged
+ * sources are not downloaded again. Within the {@link #setMaxAge(long) maximum age} of the last check, the cached copy
+ * is used without any request. If the server can not be reached, the cached copy is used.</li>
+ * <li>Archives are extracted to {@code extracted/<sha256 of archive>/}, together with a {@code SHA256SUMS} manifest.
+ * Extraction happens in a temporary directory that is renamed atomically, and a cached extraction is only used if all
+ * files match the manifest.</li>
+ * <li>Each download and extraction holds a file lock in {@code locks/}, so concurrent workers wait for each other
+ * instead of racing on the same files.</li>
+ * <li>The checksums of cached and local files are kept in {@code hashes/} with their size and modification time and
+ * are only computed again if either changed.</li>
+ * </ul>
+ */
+public class SourceCache {
+	
+	protected static final Logger logger = Logger.getLogger(SourceCache.class);
+	
+	public static final String MANIFEST = "SHA256SUMS";
+	/**
+	 * The system property with the default {@link #setMaxAge(long) maximum age} in seconds.
+	 */
+	public static final String MAX_AGE_PROPERTY = "biofid.gazetteer.sourceMaxAge";
+	
+	private static final ConcurrentHashMap<Path, ReentrantLock> jvmLocks = new ConcurrentHashMap<>();
+	
+	private final Path directory;
+	private int connectTimeout = 30_000;
+	private int readTimeout = 60_000;
+	private int downloadThreads = 4;
+	private long maxAgeMillis = TimeUnit.SECONDS.toMillis(Long.getLong(MAX_AGE_PROPERTY, 0L));
+	
+	/**
+	 * @param directory The root directory of the cache, created if necessary.
+	 */
+	public SourceCache(Path directory) throws IOException {
+		this.directory = directory.toAbsolutePath();
+		for (String subdirectory : Arrays.asList("blobs", "sources", "extracted", "locks", "hashes")) {
+			Files.createDirectories(this.directory.resolve(subdirectory));
+		}
+	}
+	
+	public SourceCache setTimeouts(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		return this;
+	}
+	
+	public SourceCache setDownloadThreads(int downloadThreads) {
+		this.downloadThreads = Math.max(1, downloadThreads);
+		return this;
+	}
+	
+	/**
+	 * @param maxAgeMillis How long a cached copy is used without asking the server whether it changed, in milliseconds.
+	 *                     Values smaller than 1 revalidate on every fetch. Default: the system property
+	 *                     {@value #MAX_AGE_PROPERTY} in seconds or 0.
+	 */
+	public SourceCache setMaxAge(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+		return this;
+	}
+	
+	/**
+	 * Resolve all given locations concurrently. Locations that are URLs are {@link #fetch(URL) fetched}, all other
+	 * locations are returned as they are.
+	 *
+	 * @param locations URLs or local paths.
+	 * @return The local paths in the order of the given locations.
+	 */
+	public String[] fetchAll(String[] locations) throws IOException {
+		String[] paths = locations.clone();
+		LinkedHashMap<Integer, URL> urls = new LinkedHashMap<>();
+		for (int i = 0; i < locations.length; i++) {
+			URL url = toUrl(locations[i]);
+			if (url != null)
+				urls.put(i, url);
+		}
+		if (urls.isEmpty())
+			return paths;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(downloadThreads, urls.size()));
+		try {
+			LinkedHashMap<Integer, Future<Path>> futures = new LinkedHashMap<>();
+			urls.forEach((i, url) -> futures.put(i, executor.submit(() -> fetch(url))));
+			for (Map.Entry<Integer, Future<Path>> entry : futures.entrySet()) {
+				paths[entry.getKey()] = entry.getValue().get().toString();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while downloading sources");
+		} finally {
+			executor.shutdownNow();
+		}
+		return paths;
+	}
+	
+	/**
+	 * @return The given location as URL or null, if it is not a valid URL, eg. a local path.
+	 */
+	public static URL toUrl(String location) {
+		try {
+			URL url = new URL(location);
+			return "file".equals(url.getProtocol()) ? null : url;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Download the given URL into the cache, unless the cached copy is still up-to-date.
+	 *
+	 * @param url The URL to fetch.
+	 * @return The path of the cached file.
+	 * @throws IOException If the URL can not be fetched and there is no cached copy.
+	 */
+	public Path fetch(URL url) throws IOException {
+		String key = sha256(url.toString().getBytes(StandardCharsets.UTF_8));
+		return withLock("source-" + key, () -> {
+			Path metadataPath = directory.resolve("sources").resolve(key + ".properties");
+			Properties metadata = readProperties(metadataPath, "file", "sha256");
+			Path cached = metadata == null ? null : directory.resolve("blobs").resolve(metadata.getProperty("file"));
+			if (cached != null && !(Files.isRegularFile(cached) && metadata.getProperty("sha256").equals(trustedSha256(cached)))) {
+				logger.warn(String.format("Cached copy of '%s' is missing or corrupt, downloading again.", url));
+				cached = null;
+			}
+			long now = System.currentTimeMillis();
+			if (cached != null && maxAgeMillis > 0 && now - Long.parseLong(metadata.getProperty("checked", "0")) < maxAgeMillis) {
+				logger.info(String.format("Using cached copy of '%s', checked less than %ds ago.", url, TimeUnit.MILLISECONDS.toSeconds(maxAgeMillis)));
+				return cached;
+			}
+			
+			HttpURLConnection connection;
+			int status;
+			try {
+				URLConnection urlConnection = url.openConnection();
+				if (!(urlConnection instanceof HttpURLConnection))
+					throw new IOException(String.format("Unsupported protocol: %s", url.getProtocol()));
+				connection = (HttpURLConnection) urlConnection;
+				connection.setConnectTimeout(connectTimeout);
+				connection.setReadTimeout(readTimeout);
+				if (cached != null) {
+					if (metadata.getProperty("etag") != null)
+						connection.setRequestProperty("If-None-Match", metadata.getProperty("etag"));
+					if (metadata.getProperty("lastModified") != null)
+						connection.setRequestProperty("If-Modified-Since", metadata.getProperty("lastModified"));
+				}
+				status = connection.getResponseCode();
+			} catch (IOException e) {
+				if (cached == null)
+					throw e;
+				logger.warn(String.format("Could not reach '%s', using cached copy: %s", url, e.getMessage()));
+				return cached;
+			}
+			
+			try {
+				if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+					logger.info(String.format("'%s' is up-to-date.", url));
+					metadata.setProperty("checked", Long.toString(now));
+					writeProperties(metadataPath, metadata);
+					return cached;
+				}
+				if (status != HttpURLConnection.HTTP_OK) {
+					if (cached == null)
+						throw new IOException(String.format("Could not download '%s': HTTP %d", url, status));
+					logger.warn(String.format("Could not download '%s' (HTTP %d), using cached copy.", url, status));
+					return cached;
+				}
+				
+				logger.info(String.format("Downloading '%s'..", url));
+				String extension = FilenameUtils.getExtension(url.getPath());
+				Path blob = store(connection.getInputStream(), extension.isEmpty() ? "" : "." + extension);
+				
+				Properties newMetadata = new Properties();
+				newMetadata.setProperty("url", url.toString());
+				newMetadata.setProperty("file", blob.getFileName().toString());
+				newMetadata.setProperty("sha256", FilenameUtils.getBaseName(blob.getFileName().toString()));
+				newMetadata.setProperty("checked", Long.toString(now));
+				if (connection.getHeaderField("ETag") != null)
+					newMetadata.setProperty("etag", connection.getHeaderField("ETag"));
+				if (connection.getHeaderField("Last-Modified") != null)
+					newMetadata.setProperty("lastModified", connection.getHeaderField("Last-Modified"));
+				writeProperties(metadataPath, newMetadata);
+				logger.info(String.format("Finished download of '%s' to '%s'.", url, blob));
+				return blob;
+			} finally {
+				connection.disconnect();
+			}
+		});
+	}
+	
+	/**
+	 * Write the stream to a temporary file while computing its checksum and move it to its content address.
+	 */
+	private Path store(InputStream inputStream, String extension) throws IOException {
+		Path blobs = directory.resolve("blobs");
+		Path temp = Files.createTempFile(blobs, "download-", ".tmp");
+		try {
+			MessageDigest digest = newDigest();
+			try (InputStream in = new DigestInputStream(inputStream, digest)) {
+				Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Path blob = blobs.resolve(toHex(digest.digest()) + extension);
+			move(temp, blob);
+			return blob;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Extract the given zip archive into the cache, unless it was extracted before and all files still match the
+	 * manifest.
+	 *
+	 * @param archive The zip archive.
+	 * @return The extracted files in the order of the archive entries.
+	 */
+	public List<Path> extract(Path archive) throws IOException {
+		String key = trustedSha256(archive);
+		return withLock("extract-" + key, () -> {
+			Path target = directory.resolve("extracted").resolve(key);
+			List<Path> files = verify(target);
+			if (files != null) {
+				logger.info(String.format("Using cached extraction of '%s' in '%s'.", archive, target));
+				return files;
+			}
+			if (Files.exists(target)) {
+				logger.warn(String.format("Cached extraction '%s' is incomplete or corrupt, extracting again.", target));
+				FileUtils.deleteDirectory(target.toFile());
+			}
+			
+			logger.info(String.format("Extracting taxa files from '%s'..", archive));
+			Path temp = Files.createTempDirectory(target.getParent(), key + "-");
+			try {
+				StringBuilder manifest = new StringBuilder();
+				try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+					Enumeration<? extends ZipEntry> entries = zipFile.entries();
+					while (entries.hasMoreElements()) {
+						ZipEntry entry = entries.nextElement();
+						if (entry.isDirectory())
+							continue;
+						Path destination = temp.resolve(entry.getName()).normalize();
+						if (!destination.startsWith(temp))
+							throw new IOException(String.format("Illegal zip entry '%s' in '%s'", entry.getName(), archive));
+						Files.createDirectories(destination.getParent());
+						MessageDigest digest = newDigest();
+						try (InputStream in = new DigestInputStream(zipFile.getInputStream(entry), digest)) {
+							Files.copy(in, destination);
+						}
+						manifest.append(toHex(digest.digest())).append("  ").append(temp.relativize(destination).toString().replace(File.separatorChar, '/')).append('\n');
+					}
+				}
+				Files.write(temp.resolve(MANIFEST), manifest.toString().getBytes(StandardCharsets.UTF_8));
+				move(temp, target);
+			} finally {
+				if (Files.exists(temp))
+					FileUtils.deleteDirectory(temp.toFile());
+			}
+			files = verify(target);
+			if (files == null)
+				throw new IOException(String.format("Extraction of '%s' to '%s' failed verification", archive, target));
+			logger.info(String.format("Extracted %d taxa files to '%s'.", files.size(), target));
+			return files;
+		});
+	}
+	
+	/**
+	 * @return The files listed in the manifest of the given directory or null, if there is no manifest or any file does
+	 * not match its checksum.
+	 */
+	private List<Path> verify(Path extracted) throws IOException {
+		Path manifest = extracted.resolve(MANIFEST);
+		if (!Files.isRegularFile(manifest))
+			return null;
+		ArrayList<Path> files = new ArrayList<>();
+		for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+			if (line.isEmpty())
+				continue;
+			String[] split = line.split(" {2}", 2);
+			Path file = extracted.resolve(split[1]);
+			if (!Files.isRegularFile(file) || !split[0].equals(trustedSha256(file)))
+				return null;
+			files.add(file);
+		}
+		return files;
+	}
+	
+	/**
+	 * Run the given action while holding the lock of the given name, both in this JVM and on the file system.
+	 */
+	private <T> T withLock(String name, LockedAction<T> action) throws IOException {
+		Path lockPath = directory.resolve("locks").resolve(name + ".lock");
+		ReentrantLock jvmLock = jvmLocks.computeIfAbsent(lockPath, path -> new ReentrantLock());
+		jvmLock.lock();
+		try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		     FileLock ignored = channel.lock()) {
+			return action.run();
+		} finally {
+			jvmLock.unlock();
+		}
+	}
+	
+	/**
+	 * Move the source to the target atomically, replacing an existing file. Falls back to a regular move if the file
+	 * system does not support atomic moves.
+	 */
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * The checksum of the given file. It is only computed if the file changed since it was last computed, ie. if its
+	 * size or modification time differ from the ones stored with the checksum.
+	 */
+	private String trustedSha256(Path file) throws IOException {
+		Path hashPath = directory.resolve("hashes").resolve(sha256(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)) + ".properties");
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		String size = Long.toString(attributes.size());
+		String modified = Long.toString(attributes.lastModifiedTime().toMillis());
+		Properties hash = readProperties(hashPath, "size", "modified", "sha256");
+		if (hash != null && size.equals(hash.getProperty("size")) && modified.equals(hash.getProperty("modified")))
+			return hash.getProperty("sha256");
+		
+		String sha256 = sha256(file);
+		hash = new Properties();
+		hash.setProperty("path", file.toAbsolutePath().toString());
+		hash.setProperty("size", size);
+		hash.setProperty("modified", modified);
+		hash.setProperty("sha256", sha256);
+		writeProperties(hashPath, hash);
+		return sha256;
+	}
+	
+	/**
+	 * @return The properties or null, if the file does not exist or any of the required keys is missing.
+	 */
+	private static Properties readProperties(Path path, String... requiredKeys) throws IOException {
+		if (!Files.isRegularFile(path))
+			return null;
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		for (String key : requiredKeys) {
+			if (properties.getProperty(key) == null)
+				return null;
+		}
+		return properties;
+	}
+	
+	private static void writeProperties(Path path, Properties properties) throws IOException {
+		Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				properties.store(writer, null);
+			}
+			move(temp, path);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	public static String sha256(Path path) throws IOException {
+		MessageDigest digest = newDigest();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+			IOUtils.copy(in, NullOutputStream.NULL_OUTPUT_STREAM);
+		}
+		return toHex(digest.digest());
+	}
+	
+	public static String sha256(byte[] bytes) {
+		return toHex(newDigest().digest(bytes));
+	}
+	
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String toHex(byte[] digest) {
+		return String.format("%064x", new BigInteger(1, digest));
+	}
+	
+	public Path getDirectory() {
+		return directory;
+	}
+	
+	@FunctionalInterface
+	private interface LockedAction<T> {
+		T run() throws IOException;
+	}
+}
@@ -0,0 +1,127 @@
+package org.biofid.gazetteer.util;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import org.apache.uima.jcas.JCas;
+import org.biofid.gazetteer.tree.ITreeNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic documents for warming up an engine. The documents mix phrases of the skip-gram tree, found by
+ * random walks from its root, with random filler words and punctuation, so the matching, normalization and annotation
+ * paths are all run with realistic hit rates. The same seed always yields the same documents.
+ */
+public class WarmUpDocuments {
+	
+	private static final String[] PUNCTUATION = {".", ",", ";", "(", ")"};
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzäöüß";
+	private static final int MAX_PHRASE_LENGTH = 16;
+	
+	private final ITreeNode root;
+	private final ArrayList<String> startTokens = new ArrayList<>();
+	private final Random random;
+	
+	/**
+	 * @param root The root of the skip-gram tree.
+	 * @param seed The seed of the random generator.
+	 */
+	public WarmUpDocuments(ITreeNode root, long seed) {
+		this.root = root;
+		this.random = new Random(seed);
+		root.forEachChild((token, child) -> startTokens.add(token));
+		// The children are not ordered, so sort them for reproducible documents
+		startTokens.sort(null);
+	}
+	
+	/**
+	 * @return The tokens of a random path from the root of the tree to a node with a value, or a single filler word if
+	 * the tree is empty.
+	 */
+	public List<String> nextPhrase() {
+		ArrayList<String> phrase = new ArrayList<>();
+		if (startTokens.isEmpty()) {
+			phrase.add(nextFiller());
+			return phrase;
+		}
+		
+		String token = startTokens.get(random.nextInt(startTokens.size()));
+		ITreeNode node = root;
+		while (true) {
+			phrase.add(token);
+			node = node.getChild(token);
+			if (node == null || node.isLeaf() || phrase.size() >= MAX_PHRASE_LENGTH
+					|| node.hasValue() && random.nextInt(3) == 0)
+				return phrase;
+			
+			ArrayList<String> children = new ArrayList<>();
+			node.forEachChild((child, childNode) -> children.add(child));
+			children.sort(null);
+			token = children.get(random.nextInt(children.size()));
+		}
+	}
+	
+	/**
+	 * @return A random word of 2 to 12 letters, capitalized in one of three cases, or a punctuation mark.
+	 */
+	public String nextFiller() {
+		if (random.nextInt(8) == 0)
+			return PUNCTUATION[random.nextInt(PUNCTUATION.length)];
+		int length = 2 + random.nextInt(11);
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+		}
+		if (random.nextInt(3) == 0)
+			word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+		return word.toString();
+	}
+	
+	/**
+	 * @param tokenCount  The minimum number of tokens.
+	 * @param phraseRatio The probability of a phrase of the tree instead of a filler word.
+	 * @return The tokens of a new document.
+	 */
+	public List<String> next(int tokenCount, double phraseRatio) {
+		ArrayList<String> tokens = new ArrayList<>(tokenCount + MAX_PHRASE_LENGTH);
+		while (tokens.size() < tokenCount) {
+			if (random.nextDouble() < phraseRatio)
+				tokens.addAll(nextPhrase());
+			else
+				tokens.add(nextFiller());
+		}
+		return tokens;
+	}
+	
+	/**
+	 * Set the text of the given empty JCas to a new document and add a {@link Token} for each token, a {@link Sentence}
+	 * for each run of {@code sentenceLength} tokens and, if requested, a {@link Lemma} with the token text as value.
+	 *
+	 * @return The number of tokens.
+	 */
+	public int fill(JCas jCas, int tokenCount, double phraseRatio, int sentenceLength, boolean addLemmata) {
+		List<String> tokens = next(tokenCount, phraseRatio);
+		jCas.setDocumentText(String.join(" ", tokens));
+		
+		int begin = 0;
+		int sentenceBegin = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			int end = begin + tokens.get(i).length();
+			new Token(jCas, begin, end).addToIndexes();
+			if (addLemmata) {
+				Lemma lemma = new Lemma(jCas, begin, end);
+				lemma.setValue(tokens.get(i));
+				lemma.addToIndexes();
+			}
+			if ((i + 1) % sentenceLength == 0 || i == tokens.size() - 1) {
+				new Sentence(jCas, sentenceBegin, end).addToIndexes();
+				sentenceBegin = end + 1;
+			}
+			begin = end + 1;
+		}
+		return tokens.size();
+	}
+}
@@ -88,6 +88,26 @@ public class TestBIOfidGazetteer {
 		}
 	}
 
+	@Test
+	public void testStringGazetteerStreaming() {
+		try {
+			final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+					SingleClassTreeGazetteer.class,
+					SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, sourceLocation,
+					SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+					SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
+					SingleClassTreeGazetteer.PARAM_USE_STRING_TREE, true,
+					SingleClassTreeGazetteer.PARAM_USE_STREAMING_TAGGING, true,
+					SingleClassTreeGazetteer.PARAM_USE_LEMMATA, false
+			));
+
+			runTest(gazetterEngine);
+		} catch (UIMAException e) {
+			e.printStackTrace();
+			fail();
+		}
+	}
+
 //	@Test
 //	public void testStringGazetteerV2() {
 //		try {
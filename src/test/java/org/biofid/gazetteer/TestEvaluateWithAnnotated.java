@@ -0,0 +1,80 @@
+package org.biofid.gazetteer;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.jcas.JCas;
+import org.biofid.gazetteer.run.EvaluateWithAnnotated;
+import org.biofid.gazetteer.run.EvaluateWithAnnotated.ConfusionCounts;
+import org.biofid.gazetteer.util.CasSerializerRunnable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.texttechnologylab.annotation.type.Taxon;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestEvaluateWithAnnotated {
+	
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	public void testParallelMatchesSequential() throws UIMAException, IOException, InterruptedException, ExecutionException {
+		AnalysisEngineDescription engineDescription = AnalysisEngineFactory.createEngineDescription(
+				SingleClassTreeGazetteer.class,
+				SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TestGazetteerMatcher.TAXA_LIST,
+				SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+				SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
+				SingleClassTreeGazetteer.PARAM_SHARE_MODEL, true
+		);
+		
+		// The gold standard contains a taxon missing from the list, the list a taxon that is not annotated
+		List<String> texts = Arrays.asList(
+				"Im Wald stehen [Quercus robur] und [Abies alba] . Am Ufer wächst Quercus .",
+				"[Fagus sylvatica] ist eine Buche . [Quercus robur] ist eine Eiche .",
+				"[Quercus] und Fagus sylvatica ."
+		);
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 4 * texts.size(); i++) {
+			files.add(writeGold(texts.get(i % texts.size()), tempDir.resolve(i + ".xmi")));
+		}
+		
+		ConfusionCounts sequential = EvaluateWithAnnotated.evaluate(files, engineDescription, 1, false);
+		ConfusionCounts parallel = EvaluateWithAnnotated.evaluate(files, engineDescription, 3, false);
+		assertEquals(sequential.toString(), parallel.toString());
+		assertEquals(sequential.getPrecision(), parallel.getPrecision());
+		assertEquals(sequential.getRecall(), parallel.getRecall());
+		assertEquals(sequential.getF1(), parallel.getF1());
+		assertTrue(sequential.getPrecision() > 0 && sequential.getPrecision() < 1, sequential.toString());
+		assertTrue(sequential.getRecall() > 0 && sequential.getRecall() < 1, sequential.toString());
+		
+		assertEquals(EvaluateWithAnnotated.evaluate(files, engineDescription, 1, true).toString(),
+				EvaluateWithAnnotated.evaluate(files, engineDescription, 3, true).toString());
+	}
+	
+	/**
+	 * Write a tokenized document, the gold taxa are given in brackets.
+	 */
+	private static File writeGold(String annotatedText, Path file) throws UIMAException {
+		String text = annotatedText.replaceAll("[\\[\\]]", "");
+		JCas jCas = TokenizedDocuments.createWithSentences(text);
+		Matcher taxonMatcher = Pattern.compile("\\[([^]]+)]").matcher(annotatedText);
+		for (int removed = 0; taxonMatcher.find(); removed += 2) {
+			int begin = taxonMatcher.start() - removed;
+			jCas.addFsToIndexes(new Taxon(jCas, begin, begin + taxonMatcher.group(1).length()));
+		}
+		new CasSerializerRunnable(jCas, file.toFile()).run();
+		return file.toFile();
+	}
+}
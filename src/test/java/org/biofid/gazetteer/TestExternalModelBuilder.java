@@ -0,0 +1,101 @@
+package org.biofid.gazetteer;
+
+import org.biofid.gazetteer.matcher.GazetteerMatcher;
+import org.biofid.gazetteer.matcher.MatchSpan;
+import org.biofid.gazetteer.models.CompiledGazetteerModel;
+import org.biofid.gazetteer.models.ExternalModelBuilder;
+import org.biofid.gazetteer.models.TreeGazetteerModel;
+import org.biofid.gazetteer.util.ExternalSorter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExternalModelBuilder {
+	
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	public void testExternalSorter() throws IOException {
+		List<String> records = Arrays.asList("quercus", "fagus", "quercus robur", "abies", "fagus", "quercus\u0000", "betula", "alnus");
+		ArrayList<String> sorted = new ArrayList<>();
+		try (ExternalSorter sorter = new ExternalSorter(tempDir, 3)) {
+			for (String record : records) {
+				sorter.add(record);
+			}
+			assertEquals(2, sorter.getRunCount());
+			assertEquals(records.size(), sorter.size());
+			sorter.forEach(sorted::add);
+		}
+		
+		ArrayList<String> expected = new ArrayList<>(records);
+		Collections.sort(expected);
+		assertEquals(expected, sorted);
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertEquals(0, files.count());
+		}
+	}
+	
+	@Test
+	public void testCompiledModel() throws IOException {
+		Path taxaFile = tempDir.resolve("taxa.list");
+		Files.write(taxaFile, Arrays.asList(
+				"Quercus robur\thttps://example.org/quercus_robur",
+				"Quercus\thttps://example.org/quercus",
+				"Fagus sylvatica\thttps://example.org/fagus_sylvatica",
+				"Abies alba alpina\thttps://example.org/abies_alba_alpina",
+				"Abies alba nana\thttps://example.org/abies_alba_nana",
+				"Quercus robur\thttps://example.org/stieleiche"
+		), StandardCharsets.UTF_8);
+		String[] sources = {taxaFile.toString()};
+		ExternalModelBuilder builder = new ExternalModelBuilder(sources, true, "de", 5, false, true, true, 3, "\\s+", new HashSet<>())
+				.setRunSize(2);
+		Path modelDirectory = builder.build(tempDir.resolve("models"));
+		CompiledGazetteerModel model = new CompiledGazetteerModel(modelDirectory, true, "\\s+");
+		TreeGazetteerModel treeModel = new TreeGazetteerModel(sources, true, "de", 5, false, true, true, 3, "\\s+", new HashSet<>());
+		
+		String text = "Quercus robur und Q. robur, Fagus sylvatica, Abies alba nana und A. alpina, aber nicht Abies alba.";
+		ArrayList<MatchSpan> expected = new GazetteerMatcher(treeModel, true).match(text);
+		ArrayList<MatchSpan> actual = new GazetteerMatcher(model, true).match(text);
+		assertEquals(5, actual.size());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).begin, actual.get(i).begin);
+			assertEquals(expected.get(i).end, actual.get(i).end);
+			assertEquals(expected.get(i).taxon, actual.get(i).taxon);
+			assertEquals(expected.get(i).uris, actual.get(i).uris);
+		}
+		
+		// Duplicate taxa are merged, skip-grams of two taxa are dropped
+		assertEquals(5, model.getTaxonCount());
+		assertEquals(new HashSet<>(Arrays.asList(URI.create("https://example.org/quercus_robur"), URI.create("https://example.org/stieleiche"))),
+				model.getTaxonUris(model.getTaxonId("quercus robur")));
+		assertEquals(-1, model.getSkipGramTaxonId("abies alba"));
+		assertEquals(-1, model.getSkipGramTaxonId("a. alba"));
+		assertEquals("2", model.getProperties().getProperty("collisions"));
+		assertEquals("abies alba alpina", model.getSkipGramTaxonLookup().get("a. alpina"));
+		assertEquals(-1, model.getTaxonId("quercus rubra"));
+		for (String skipGram : model.getSkipGramTaxonLookup().keySet()) {
+			assertEquals(treeModel.getSkipGramTaxonLookup().get(skipGram), model.getSkipGramTaxonLookup().get(skipGram), skipGram);
+		}
+		
+		// The model is reused as long as the parameters and sources do not change
+		assertEquals(modelDirectory, builder.build(tempDir.resolve("models")));
+		Files.write(taxaFile, Collections.singletonList("Fagus sylvatica\thttps://example.org/fagus_sylvatica"),
+				StandardCharsets.UTF_8);
+		assertNotEquals(modelDirectory, builder.build(tempDir.resolve("models")));
+	}
+}
@@ -0,0 +1,451 @@
+package org.biofid.gazetteer;
+
+import org.biofid.gazetteer.matcher.AbbreviationResolver;
+import org.biofid.gazetteer.matcher.GazetteerMatcher;
+import org.biofid.gazetteer.matcher.Match;
+import org.biofid.gazetteer.matcher.MatchBuffer;
+import org.biofid.gazetteer.matcher.MatchCache;
+import org.biofid.gazetteer.matcher.MatchSpan;
+import org.biofid.gazetteer.matcher.OverlapPolicy;
+import org.biofid.gazetteer.models.FstGazetteerModel;
+import org.biofid.gazetteer.models.OffHeapTreeGazetteerModel;
+import org.biofid.gazetteer.models.StartTokenFilter;
+import org.biofid.gazetteer.models.TreeGazetteerModel;
+import org.biofid.gazetteer.models.TreeModelStats;
+import org.biofid.gazetteer.tree.ITreeNode;
+import org.biofid.gazetteer.tree.StringTreeNode;
+import org.biofid.gazetteer.tree.TokenFst;
+import org.biofid.gazetteer.util.WarmUpDocuments;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestGazetteerMatcher {
+	
+	static final String TAXA_LIST = "src/test/resources/taxa.list";
+	
+	private static TreeGazetteerModel model;
+	private static GazetteerMatcher matcher;
+	
+	@BeforeAll
+	public static void setUp() throws IOException {
+		model = new TreeGazetteerModel(new String[]{TAXA_LIST}, true, "de", 5, false, true, true, 3, "\\s+", new HashSet<>());
+		matcher = new GazetteerMatcher(model, true);
+	}
+	
+	@Test
+	public void testMatchText() {
+		String text = "Im Wald stehen Quercus robur und Fagus sylvatica.";
+		ArrayList<MatchSpan> spans = matcher.match(text);
+		
+		assertEquals(2, spans.size());
+		assertEquals("Quercus robur", text.substring(spans.get(0).begin, spans.get(0).end));
+		assertEquals("quercus robur", spans.get(0).taxon);
+		assertTrue(spans.get(0).uris.contains(URI.create("https://example.org/quercus_robur")));
+		assertEquals("Fagus sylvatica", text.substring(spans.get(1).begin, spans.get(1).end));
+		assertEquals("fagus sylvatica", spans.get(1).taxon);
+	}
+	
+	@Test
+	public void testMatchTokens() {
+		ArrayList<Match> matches = matcher.findAllMatches(new String[]{"Eine", "Q.", "robur"});
+		assertEquals(1, matches.size());
+		assertEquals(1, matches.get(0).start);
+		assertEquals(2, matches.get(0).end);
+		assertEquals(matcher.getModel().getTaxonId("quercus robur"), matcher.getTaxonId(matches.get(0)));
+	}
+	
+	@Test
+	public void testMatchPrefixAndLastToken() {
+		ArrayList<Match> matches = matcher.findAllMatches(new String[]{"Quercus", "rubra", "und", "Quercus"});
+		assertEquals(2, matches.size());
+		assertEquals(0, matches.get(0).end);
+		assertEquals(3, matches.get(1).start);
+		assertEquals("quercus", matches.get(1).value);
+	}
+	
+	@Test
+	public void testModelStats() {
+		TreeModelStats stats = matcher.getModel().getStats();
+		// root, quercus, robur, fagus, sylvatica, q., robur, f., sylvatica
+		assertEquals(9, stats.getNodeCount());
+		assertEquals(5, stats.getTerminalCount());
+		assertEquals(4, stats.getLeafCount());
+		assertEquals(2, stats.getMaxDepth());
+		assertEquals(6, stats.getTokenDictionarySize());
+		assertEquals(stats.getNodeCount(), matcher.getModel().getTree().size());
+		assertEquals(stats.getMaxDepth() + 1, matcher.getModel().getTree().depth());
+		assertEquals(Integer.valueOf(4), stats.getBranchingHistogram().get(0));
+		assertTrue(stats.getEstimatedRetainedBytes() > 0);
+	}
+	
+	@Test
+	public void testStartTokenFilter() {
+		StartTokenFilter filter = matcher.getModel().getStartTokenFilter();
+		for (String token : Arrays.asList("quercus", "fagus", "q.", "f.")) {
+			assertTrue(filter.mightContain(token), token);
+		}
+		
+		StartTokenFilter largeFilter = new StartTokenFilter(IntStream.range(0, 10000).mapToObj(i -> "taxon" + i).collect(Collectors.toList()));
+		long falsePositives = IntStream.range(0, 100000).mapToObj(i -> "word" + i).filter(largeFilter::mightContain).count();
+		assertTrue(falsePositives < 5000, String.valueOf(falsePositives));
+	}
+	
+	@Test
+	public void testOffHeapModel() {
+		OffHeapTreeGazetteerModel offHeapModel = new OffHeapTreeGazetteerModel(model);
+		GazetteerMatcher offHeapMatcher = new GazetteerMatcher(offHeapModel, true);
+		
+		String text = "Im Wald stehen Quercus robur, Q. robur und Fagus sylvatica, aber keine Quercus rubra.";
+		ArrayList<MatchSpan> expected = matcher.match(text);
+		ArrayList<MatchSpan> actual = offHeapMatcher.match(text);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).begin, actual.get(i).begin);
+			assertEquals(expected.get(i).end, actual.get(i).end);
+			assertEquals(expected.get(i).taxonId, actual.get(i).taxonId);
+			assertEquals(expected.get(i).taxon, actual.get(i).taxon);
+			assertEquals(expected.get(i).uris, actual.get(i).uris);
+		}
+		
+		assertEquals(new HashMap<>(model.getSkipGramTaxonLookup()), new HashMap<>(offHeapModel.getSkipGramTaxonLookup()));
+		assertEquals(model.getTree().size(), offHeapModel.getTree().size());
+		assertEquals(model.getTree().leafs(), offHeapModel.getTree().leafs());
+		assertEquals(model.getTree().nodesWithValue(), offHeapModel.getTree().nodesWithValue());
+		assertEquals(model.getTree().depth(), offHeapModel.getTree().depth());
+		assertEquals(model.getTree().traverse(Arrays.asList("quercus", "robur", "und")),
+				offHeapModel.getTree().traverse(Arrays.asList("quercus", "robur", "und")));
+		assertEquals(-1, offHeapModel.getTaxonId("quercus rubra"));
+		assertTrue(offHeapModel.getOffHeapBytes() > 0);
+	}
+	
+	@Test
+	public void testFstModel() throws IOException {
+		FstGazetteerModel fstModel = new FstGazetteerModel(new String[]{TAXA_LIST}, true, "de", 5, false, true, true, 3, "\\s+", new HashSet<>());
+		GazetteerMatcher fstMatcher = new GazetteerMatcher(fstModel, true);
+		
+		String text = "Im Wald stehen Quercus robur, Q. robur und Fagus sylvatica, aber keine Quercus rubra.";
+		ArrayList<MatchSpan> expected = matcher.match(text);
+		ArrayList<MatchSpan> actual = fstMatcher.match(text);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).begin, actual.get(i).begin);
+			assertEquals(expected.get(i).end, actual.get(i).end);
+			assertEquals(expected.get(i).taxon, actual.get(i).taxon);
+			assertEquals(expected.get(i).uris, actual.get(i).uris);
+		}
+		
+		for (String skipGram : model.getSkipGramTaxonLookup().keySet()) {
+			assertEquals(model.getTaxon(model.getSkipGramTaxonId(skipGram)), fstModel.getTaxon(fstModel.getSkipGramTaxonId(skipGram)), skipGram);
+		}
+		assertEquals(-1, fstModel.getSkipGramTaxonId("quercus rubra"));
+		// The lookup is a view of the transducer, the map it was built from is released
+		assertEquals(new HashMap<>(model.getSkipGramTaxonLookup()), new HashMap<>(fstModel.getSkipGramTaxonLookup()));
+		assertEquals(model.getUriFromSkipGram("q. robur"), fstModel.getUriFromSkipGram("q. robur"));
+		assertTrue(fstModel.getEstimatedLookupBytes() < model.getEstimatedLookupBytes());
+		assertEquals(model.getTree().size(), fstModel.getTree().size());
+		assertEquals(model.getTree().nodesWithValue(), fstModel.getTree().nodesWithValue());
+		assertEquals(model.getTree().depth(), fstModel.getTree().depth());
+		assertEquals(model.getTree().traverse(Arrays.asList("quercus", "robur", "und")),
+				fstModel.getTree().traverse(Arrays.asList("quercus", "robur", "und")));
+		
+		// The full and the abbreviated genus lead to the same states: root, quercus, q., f. and fagus, final
+		TreeModelStats stats = fstModel.getStats();
+		assertEquals(5, stats.getNodeCount());
+		assertEquals(2, stats.getMaxDepth());
+		assertTrue(stats.getNodeCount() < model.getStats().getNodeCount());
+	}
+	
+	@Test
+	public void testTokenFst() {
+		TokenFst.Builder builder = new TokenFst.Builder(Arrays.asList("a", "b", "c", "x"));
+		assertTrue(builder.add(new int[]{0, 3}, 7));
+		assertTrue(builder.add(new int[]{1}, 2));
+		assertTrue(builder.add(new int[]{1, 3}, 5));
+		assertTrue(builder.add(new int[]{2, 3}, 7));
+		assertFalse(builder.add(new int[]{2, 3}, 1));
+		assertThrows(IllegalArgumentException.class, () -> builder.add(new int[]{0}, 1));
+		TokenFst fst = builder.build();
+		
+		assertEquals(7, fst.get(Arrays.asList("a", "x")));
+		assertEquals(2, fst.get(Arrays.asList("b")));
+		assertEquals(5, fst.get(Arrays.asList("b", "x")));
+		assertEquals(7, fst.get(Arrays.asList("c", "x")));
+		assertEquals(-1, fst.get(Arrays.asList("a")));
+		assertEquals(-1, fst.get(Arrays.asList("x")));
+		assertEquals(4, fst.getSequenceCount());
+		assertEquals(1, builder.getDuplicateCount());
+		// root, the states after a, b or c, which all lead to the same final state with x
+		assertEquals(4, fst.getStateCount());
+		
+		HashMap<String, Integer> sequences = new HashMap<>();
+		fst.forEach((sequence, output) -> sequences.put(String.join(" ", sequence), output));
+		assertEquals(4, sequences.size());
+		assertEquals(Integer.valueOf(5), sequences.get("b x"));
+		assertEquals("b x", fst.getRoot().getChild("b").getChild("x").getValue());
+		assertEquals(5, ((TokenFst.Node) fst.getRoot().getChild("b").getChild("x")).getOutput());
+	}
+	
+	@Test
+	public void testMatchBuffer() {
+		MatchBuffer buffer = new MatchBuffer();
+		buffer.add(10, 20, 1, 3);
+		buffer.add(0, 8, 0, 1);
+		buffer.add(5, 25, 0, 2);
+		buffer.add(10, 20, 0, 3);
+		buffer.add(0, 8, 0, 1);
+		buffer.add(30, 35, 0, 4);
+		
+		assertEquals("[(0, 8): 0/1, (5, 25): 0/2, (10, 20): 0/3, (10, 20): 1/3, (30, 35): 0/4]", buffer.resolve(OverlapPolicy.ALL).toString());
+		assertEquals("[(0, 8): 0/1, (10, 20): 0/3, (10, 20): 1/3, (30, 35): 0/4]", buffer.resolve(OverlapPolicy.LEFTMOST).toString());
+		assertEquals("[(5, 25): 0/2, (30, 35): 0/4]", buffer.resolve(OverlapPolicy.LONGEST).toString());
+		
+		// Ties in length go to the leftmost match, regardless of insertion order
+		buffer.clear();
+		buffer.add(4, 10, 0, 2);
+		buffer.add(0, 6, 0, 1);
+		assertEquals("[(0, 6): 0/1]", buffer.resolve(OverlapPolicy.LONGEST).toString());
+	}
+	
+	@Test
+	public void testOverlappingMatches() {
+		List<String> query = Arrays.asList("im", "wald", "stehen", "quercus", "robur", "quercus", "q.", "robur", "und", "fagus", "sylvatica");
+		
+		// Every path from every offset that ends in a node with a value
+		HashSet<String> expected = new HashSet<>();
+		for (int start = 0; start < query.size(); start++) {
+			ITreeNode node = model.getTree();
+			for (int end = start; end < query.size() && (node = node.getChild(query.get(end))) != null; end++) {
+				if (node.hasValue())
+					expected.add(String.format("%d-%d:%s", start, end, node.getValue()));
+			}
+		}
+		assertTrue(expected.contains("3-3:quercus"));
+		assertTrue(expected.contains("3-4:quercus robur"));
+		
+		for (GazetteerMatcher overlappingMatcher : Arrays.asList(matcher, new GazetteerMatcher(new OffHeapTreeGazetteerModel(model), true))) {
+			ArrayList<Match> matches = overlappingMatcher.findAllOverlappingMatches(query, 0);
+			assertEquals(expected, matches.stream()
+					.map(m -> String.format("%d-%d:%s", m.start, m.end, m.value))
+					.collect(Collectors.toSet()));
+			assertEquals(expected.size(), matches.size());
+			for (int i = 1; i < matches.size(); i++) {
+				assertTrue(matches.get(i - 1).end <= matches.get(i).end);
+			}
+		}
+		
+		assertEquals(1, matcher.findAllOverlappingMatches(query, 10).stream().filter(m -> m.start == 13 && m.end == 14).count());
+		
+		// Matchers of the same model share its automaton
+		assertSame(matcher.getAutomaton(), new GazetteerMatcher(model, false).getAutomaton());
+		assertNotSame(matcher.getAutomaton(), new GazetteerMatcher(new OffHeapTreeGazetteerModel(model), true).getAutomaton());
+	}
+	
+	@Test
+	public void testOverlappingLeftmostMatches() {
+		// Resolved with LEFTMOST, the overlapping matches are the greedy matches
+		for (List<String> query : Arrays.asList(
+				Arrays.asList("im", "wald", "stehen", "quercus", "robur", "quercus", "q.", "robur", "und", "fagus", "sylvatica"),
+				Arrays.asList("quercus", "quercus", "robur", "robur", "fagus", "fagus", "sylvatica", "quercus"),
+				Arrays.asList("q.", "robur", "quercus", "q.", "fagus", "sylvatica", "sylvatica"),
+				Arrays.asList("keine", "taxa")
+		)) {
+			MatchBuffer buffer = new MatchBuffer();
+			for (Match match : matcher.findAllOverlappingMatches(query, 5)) {
+				buffer.add(match.start, match.end + 1, 0, model.getSkipGramTaxonId(match.value));
+			}
+			assertEquals(
+					matcher.findAllMatches(query, 5).stream()
+							.map(m -> String.format("(%d, %d): 0/%d", m.start, m.end + 1, model.getSkipGramTaxonId(m.value)))
+							.collect(Collectors.toList()).toString(),
+					buffer.resolve(OverlapPolicy.LEFTMOST).toString());
+		}
+	}
+	
+	@Test
+	public void testAbbreviationResolver() throws IOException {
+		TreeGazetteerModel plainModel = new TreeGazetteerModel(new String[]{"src/test/resources/taxa-abbreviations.list"}, true, "de", 5, false, true, false, 3, "\\s+", new HashSet<>());
+		GazetteerMatcher plainMatcher = new GazetteerMatcher(plainModel, true);
+		AbbreviationResolver resolver = new AbbreviationResolver(plainModel);
+		assertEquals(null, plainModel.getTree().getChild("q."));
+		assertEquals(4, resolver.getGenusCount());
+		
+		// Without a genus seen in the document, abbreviations are kept
+		List<String> query = new ArrayList<>(Arrays.asList("q.", "petraea", "und", "f.", "sylvatica"));
+		resolver.resolve(query);
+		assertEquals(Arrays.asList("q.", "petraea", "und", "f.", "sylvatica"), query);
+		
+		query = new ArrayList<>(Arrays.asList("quercus", "robur", "und", "q.", "petraea", "quaresmia", "minor", "q.", "minor", "q.", "robur"));
+		resolver.resolve(query);
+		assertEquals(Arrays.asList("quercus", "robur", "und", "quercus", "petraea", "quaresmia", "minor", "quaresmia", "minor", "quercus", "robur"), query);
+		assertEquals(Arrays.asList("0-1:quercus robur", "3-4:quercus petraea", "5-6:quaresmia minor", "7-8:quaresmia minor", "9-10:quercus robur"),
+				plainMatcher.findAllMatches(query, 0).stream()
+						.map(m -> String.format("%d-%d:%s", m.start, m.end, m.value))
+						.collect(Collectors.toList()));
+		
+		// The author "l." does not continue "larix", a lone "q." is no genus
+		query = new ArrayList<>(Arrays.asList("larix", "decidua", "und", "fagus", "sylvatica", "l.", "sowie", "l.", "decidua", "und", "q.", "."));
+		resolver.resolve(query);
+		assertEquals(Arrays.asList("larix", "decidua", "und", "fagus", "sylvatica", "l.", "sowie", "larix", "decidua", "und", "q.", "."), query);
+		assertEquals(Arrays.asList("0-1:larix decidua", "3-4:fagus sylvatica", "7-8:larix decidua"),
+				plainMatcher.findAllMatches(query, 0).stream()
+						.map(m -> String.format("%d-%d:%s", m.start, m.end, m.value))
+						.collect(Collectors.toList()));
+		
+		resolver.reset();
+		assertEquals("q.", resolver.next("q.", "quercus"));
+		assertEquals("quercus", resolver.next("quercus", "robur"));
+		assertEquals("robur", resolver.next("robur", "q."));
+		assertEquals("q.", resolver.next("q.", "und"));
+		assertEquals("q.", resolver.next("q.", null));
+		assertEquals("quercus", resolver.next("q.", "robur"));
+		
+		resolver.reset();
+		List<List<String>> lattice = Arrays.asList(
+				new ArrayList<>(Arrays.asList("quercus")),
+				new ArrayList<>(Arrays.asList("roburs", "robur")),
+				new ArrayList<>(Arrays.asList("q.", "q")),
+				new ArrayList<>(Arrays.asList("petraeae", "petraea")),
+				new ArrayList<>(Arrays.asList("q.")));
+		resolver.resolveLattice(lattice);
+		assertEquals(Arrays.asList("quercus", "q"), lattice.get(2));
+		assertEquals(Arrays.asList("q."), lattice.get(4));
+		
+		// The skip-gram "alba alpina" starts a path in the tree, but "alba" is no genus
+		TreeGazetteerModel epithetModel = new TreeGazetteerModel(new String[]{"src/test/resources/taxa-epithets.list"}, true, "de", 5, false, true, false, 3, "\\s+", new HashSet<>());
+		assertFalse(epithetModel.getTree().getChild("alba").isLeaf());
+		resolver = new AbbreviationResolver(epithetModel);
+		assertEquals(2, resolver.getGenusCount());
+		query = new ArrayList<>(Arrays.asList("alba", "alpina", "a.", "alpina", "acer", "campestre", "a.", "campestre", "a.", "alpina"));
+		resolver.resolve(query);
+		assertEquals(Arrays.asList("alba", "alpina", "a.", "alpina", "acer", "campestre", "acer", "campestre", "a.", "alpina"), query);
+	}
+	
+	@Test
+	public void testWarmUpDocuments() {
+		List<String> tokens = new WarmUpDocuments(model.getTree(), 1L).next(500, 0.5);
+		assertEquals(tokens, new WarmUpDocuments(model.getTree(), 1L).next(500, 0.5));
+		assertTrue(tokens.size() >= 500);
+		assertFalse(matcher.findAllMatches(tokens.toArray(new String[0])).isEmpty());
+		
+		WarmUpDocuments documents = new WarmUpDocuments(model.getTree(), 2L);
+		for (int i = 0; i < 20; i++) {
+			List<String> phrase = documents.nextPhrase();
+			ITreeNode node = model.getTree();
+			for (String token : phrase) {
+				node = node.getChild(token);
+			}
+			assertTrue(node.hasValue(), phrase.toString());
+		}
+	}
+	
+	@Test
+	public void testMatchCache() {
+		MatchCache cache = new MatchCache(4096);
+		List<String> heading = Arrays.asList("über", "quercus", "robur");
+		ArrayList<Match> matches = cache.findAll(heading, 10, () -> matcher.findAllMatches(heading, 10));
+		assertEquals(1, matches.size());
+		assertEquals(11, matches.get(0).start);
+		assertEquals(1, cache.getMissCount());
+		
+		// The same sentence elsewhere is not matched again and its matches are moved to the new offset
+		ArrayList<Match> cached = cache.findAll(new ArrayList<>(heading), 500, () -> {
+			throw new AssertionError("The sentence should be cached.");
+		});
+		assertEquals(1, cached.size());
+		assertEquals(501, cached.get(0).start);
+		assertEquals(502, cached.get(0).end);
+		assertEquals(matches.get(0).value, cached.get(0).value);
+		assertEquals(1, cache.getHitCount());
+		
+		for (int i = 0; i < 100; i++) {
+			List<String> sentence = Arrays.asList("seite", String.valueOf(i), "fagus", "sylvatica");
+			cache.findAll(sentence, 0, () -> matcher.findAllMatches(sentence, 0));
+		}
+		assertTrue(cache.getEvictionCount() > 0);
+		assertTrue(cache.getEstimatedBytes() <= cache.getMaxBytes());
+		
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHitCount());
+	}
+	
+	@Test
+	public void testParallelTreeBuild() {
+		Pattern whitespace = Pattern.compile("\\s+", Pattern.UNICODE_CHARACTER_CLASS);
+		for (String text : Arrays.asList("", "quercus", "quercus  robur", " quercus\trobur ", "\u00A0quercus\u2009robur\u00A0", "\u00A0 ", "a\u0085b\u001Fc")) {
+			assertEquals(Arrays.asList(whitespace.split(text)), Arrays.asList(StringTreeNode.split(whitespace, text)), text);
+		}
+		
+		List<String> values = new ArrayList<>(model.getSkipGramTaxonLookup().keySet());
+		values.addAll(Arrays.asList("Fagus", "Fagus sylvatica var. pendula", "Abies alba", "Abies  alba Mill.", "\u00A0"));
+		StringTreeNode sequential = new StringTreeNode("\\s+", true);
+		sequential.insert("abies");
+		values.forEach(sequential::insert);
+		StringTreeNode parallel = new StringTreeNode("\\s+", true);
+		parallel.insert("abies");
+		parallel.insertAll(values);
+		
+		assertEquals(sequential.size(), parallel.size());
+		assertEquals(sequential.nodesWithValue(), parallel.nodesWithValue());
+		assertEquals(sequential.depth(), parallel.depth());
+		assertEquals("\u00A0", parallel.getValue());
+		assertEquals(sequential.getValue(), parallel.getValue());
+		for (String value : values) {
+			List<String> tokens = Arrays.asList(value.toLowerCase().split("\\s+"));
+			assertEquals(sequential.traverse(tokens), parallel.traverse(tokens), value);
+		}
+		assertEquals("fagus sylvatica var. pendula", parallel.getChild("fagus").getChild("sylvatica").getChild("var.").getChild("pendula").getValue());
+		assertEquals(parallel, parallel.getChild("abies").getChild("alba").parent.parent);
+	}
+	
+	@Test
+	public void testLatticeMatches() {
+		// Surface form first, then the (wrong) lemma of the lemmatizer
+		List<List<String>> lattice = Arrays.asList(
+				Arrays.asList("die", "der"),
+				Arrays.asList("quercus", "quercu"),
+				Arrays.asList("roburs", "robur"),
+				Arrays.asList("und"),
+				Arrays.asList("fagus"),
+				Arrays.asList("sylvatica"));
+		
+		Match match = matcher.longestLatticeMatchAt(lattice, 1, 8);
+		assertEquals(1, match.start);
+		assertEquals(2, match.end);
+		assertEquals("quercus robur", match.value);
+		
+		// Only the first path is followed with a branching of one
+		List<List<String>> ambiguous = Arrays.asList(Arrays.asList("quercus", "fagus"), Arrays.asList("sylvatica"));
+		assertEquals("quercus", matcher.longestLatticeMatchAt(ambiguous, 0, 1).value);
+		assertEquals("fagus sylvatica", matcher.longestLatticeMatchAt(ambiguous, 0, 2).value);
+		
+		ArrayList<Match> matches = matcher.findAllLatticeMatches(lattice, 5, 8);
+		assertEquals(2, matches.size());
+		assertEquals(6, matches.get(0).start);
+		assertEquals(9, matches.get(1).start);
+		assertEquals(10, matches.get(1).end);
+		
+		assertEquals(new HashSet<>(Arrays.asList("1-1:quercus", "1-2:quercus robur", "4-5:fagus sylvatica")),
+				matcher.findAllOverlappingLatticeMatches(lattice, 0, 8).stream()
+						.map(m -> String.format("%d-%d:%s", m.start, m.end, m.value))
+						.collect(Collectors.toSet()));
+	}
+}
@@ -0,0 +1,49 @@
+package org.biofid.gazetteer;
+
+import org.biofid.gazetteer.metrics.GazetteerMetrics;
+import org.biofid.gazetteer.metrics.LatencyHistogram;
+import org.biofid.gazetteer.metrics.Phase;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestGazetteerMetrics {
+	
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(100_000L, histogram.getMaxNanos());
+		assertEquals(50_500.0, histogram.getMeanNanos(), 1e-6);
+		
+		// Power-of-two buckets: the percentile is within a factor of two of the exact value
+		long p50 = histogram.getPercentileNanos(50);
+		assertTrue(p50 >= 50_000L && p50 < 100_000L, String.valueOf(p50));
+		assertEquals(100_000L, histogram.getPercentileNanos(100));
+	}
+	
+	@Test
+	public void testRegisterAndDisabled() throws Exception {
+		GazetteerMetrics metrics = GazetteerMetrics.register("TestGazetteerMetrics");
+		assertTrue(metrics == GazetteerMetrics.register("TestGazetteerMetrics"));
+		
+		metrics.stop(Phase.MATCH, metrics.start());
+		metrics.recordDocument(10, 2);
+		ObjectName objectName = new ObjectName("org.biofid.gazetteer:type=GazetteerMetrics,name=\"TestGazetteerMetrics\"");
+		assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "DocumentCount"));
+		assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "MatchCount"));
+		assertEquals(1L, metrics.getHistogram(Phase.MATCH).getCount());
+		
+		GazetteerMetrics.DISABLED.stop(Phase.MATCH, GazetteerMetrics.DISABLED.start());
+		GazetteerMetrics.DISABLED.recordDocument(10, 2);
+		assertEquals(0L, GazetteerMetrics.DISABLED.getDocumentCount());
+		assertEquals(0L, GazetteerMetrics.DISABLED.getHistogram(Phase.MATCH).getCount());
+	}
+}
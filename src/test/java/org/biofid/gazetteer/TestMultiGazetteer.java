@@ -23,9 +23,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static org.biofid.gazetteer.TokenizedDocuments.getCoveredTexts;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 public class TestMultiGazetteer {
 	
 	@Test
@@ -100,6 +104,46 @@ public class TestMultiGazetteer {
 		}
 	}
 	
+	@Test
+	public void testMultiClassHomonyms() throws UIMAException {
+		// The warm-up documents are processed after the class mapping was set up
+		for (int warmUpIterations : new int[]{0, 3}) {
+			final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+					MultiClassTreeGazetteer.class,
+					MultiClassTreeGazetteer.PARAM_SOURCE_LOCATION, new String[]{"src/test/resources/homonyms-taxa.list", "src/test/resources/homonyms-habitats.list"},
+					MultiClassTreeGazetteer.PARAM_CLASS_MAPPING, new String[]{Taxon.class.getName(), Habitat.class.getName()},
+					MultiClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
+					MultiClassTreeGazetteer.PARAM_WARM_UP_ITERATIONS, warmUpIterations
+			));
+			
+			JCas jCas = TokenizedDocuments.create("Im Auwald wachsen Quercus robur und Fagus .");
+			SimplePipeline.runPipeline(jCas, gazetterEngine);
+			
+			assertEquals(Arrays.asList("Quercus robur", "Fagus"), getCoveredTexts(jCas, Taxon.class));
+			assertEquals(Arrays.asList("Auwald", "Quercus robur"), getCoveredTexts(jCas, Habitat.class));
+		}
+	}
+	
+	@Test
+	public void testCombinedGazetteer() throws UIMAException {
+		// The warm-up documents are processed after the matchers were set up
+		for (int warmUpIterations : new int[]{0, 3}) {
+			final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+					CombinedTreeGazetteer.class,
+					CombinedTreeGazetteer.PARAM_SOURCE_LOCATION, new String[]{"src/test/resources/homonyms-taxa.list", "src/test/resources/homonyms-habitats.list"},
+					CombinedTreeGazetteer.PARAM_TAGGING_TYPE_NAMES, new String[]{Taxon.class.getName(), Habitat.class.getName()},
+					CombinedTreeGazetteer.PARAM_GAZETTEER_USE_LOWERCASE, new Boolean[]{false, true},
+					CombinedTreeGazetteer.PARAM_WARM_UP_ITERATIONS, warmUpIterations
+			));
+			
+			JCas jCas = TokenizedDocuments.create("Im AUWALD wachsen Quercus robur , fagus und Fagus .");
+			SimplePipeline.runPipeline(jCas, gazetterEngine);
+			
+			assertEquals(Arrays.asList("Quercus robur", "Fagus"), getCoveredTexts(jCas, Taxon.class));
+			assertEquals(Arrays.asList("AUWALD", "Quercus robur"), getCoveredTexts(jCas, Habitat.class));
+		}
+	}
+	
 	private void runTest(AnalysisEngine gazetterEngine, Class<? extends NamedEntity> clazz) throws UIMAException {
 		String fname = "src/test/resources/text.xmi";
 		try {
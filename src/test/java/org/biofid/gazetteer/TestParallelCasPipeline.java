@@ -0,0 +1,137 @@
+package org.biofid.gazetteer;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.analysis_engine.AnalysisEngineDescription;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.pipeline.SimplePipeline;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.util.CasIOUtils;
+import org.biofid.gazetteer.util.CasFormat;
+import org.biofid.gazetteer.util.CasSerializerRunnable;
+import org.biofid.gazetteer.util.ParallelCasPipeline;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.texttechnologylab.annotation.type.Taxon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class TestParallelCasPipeline {
+	
+	/**
+	 * Each text is written several times, so the pooled JCases are reused.
+	 */
+	private static final int COPIES = 4;
+	private static final List<String> TEXTS = Arrays.asList(
+			"Im Wald stehen Quercus robur und Fagus sylvatica . Am Ufer wächst Quercus .",
+			"Fagus sylvatica ist eine Buche . Quercus robur ist eine Eiche .",
+			"Hier steht kein Baum ."
+	);
+	
+	@TempDir
+	Path tempDir;
+	
+	private Path inputRoot;
+	private List<File> inputFiles;
+	private AnalysisEngineDescription engineDescription;
+	
+	@BeforeEach
+	public void setUp() throws IOException, UIMAException {
+		engineDescription = AnalysisEngineFactory.createEngineDescription(
+				SingleClassTreeGazetteer.class,
+				SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TestGazetteerMatcher.TAXA_LIST,
+				SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+				SingleClassTreeGazetteer.PARAM_USE_SENTECE_LEVEL_TAGGING, true,
+				SingleClassTreeGazetteer.PARAM_SHARE_MODEL, true
+		);
+		
+		inputRoot = Files.createDirectory(tempDir.resolve("input"));
+		inputFiles = new ArrayList<>();
+		for (int i = 0; i < COPIES * TEXTS.size(); i++) {
+			String text = TEXTS.get(i % TEXTS.size());
+			JCas jCas = TokenizedDocuments.createWithSentences(text);
+			File file = inputRoot.resolve(i + ".xmi").toFile();
+			new CasSerializerRunnable(jCas, file).run();
+			inputFiles.add(file);
+		}
+	}
+	
+	@Test
+	public void testDeltaRoundTrip() throws UIMAException, IOException, InterruptedException {
+		Path xmiRoot = tempDir.resolve("xmi");
+		Path deltaRoot = tempDir.resolve("delta");
+		new ParallelCasPipeline(engineDescription, 2, 1, 1).setReportInterval(0).run(inputFiles, inputRoot, xmiRoot);
+		new ParallelCasPipeline(engineDescription, 2, 1, 1).setReportInterval(0).setOutputFormat(CasFormat.DELTA)
+				.run(inputFiles, inputRoot, deltaRoot);
+		
+		for (int i = 0; i < inputFiles.size(); i++) {
+			List<String> expected = getTaxa(load(xmiRoot.resolve(i + ".xmi")));
+			if (i % TEXTS.size() < 2)
+				assertFalse(expected.isEmpty());
+			
+			JCas jCas = load(inputRoot.resolve(i + ".xmi"));
+			assertEquals(0, getTaxa(jCas).size());
+			try (InputStream inputStream = Files.newInputStream(deltaRoot.resolve(i + CasFormat.DELTA.extension))) {
+				CasFormat.loadDelta(jCas.getCas(), inputStream);
+			}
+			assertEquals(expected, getTaxa(jCas));
+			assertEquals(TEXTS.get(i % TEXTS.size()).split(" ").length, JCasUtil.select(jCas, Token.class).size());
+		}
+	}
+	
+	@Test
+	public void testParallelMatchesSequential() throws UIMAException, IOException, InterruptedException {
+		ArrayList<List<String>> expected = new ArrayList<>();
+		AnalysisEngine engine = AnalysisEngineFactory.createEngine(engineDescription);
+		for (File file : inputFiles) {
+			JCas jCas = load(file.toPath());
+			SimplePipeline.runPipeline(jCas, engine);
+			expected.add(getTaxa(jCas));
+		}
+		engine.destroy();
+		
+		Path outputRoot = tempDir.resolve("parallel");
+		ParallelCasPipeline pipeline = new ParallelCasPipeline(engineDescription, 3, 2, 2).setReportInterval(0);
+		pipeline.run(inputFiles, inputRoot, outputRoot);
+		assertEquals(inputFiles.size(), pipeline.getDocumentCount());
+		assertEquals(0, pipeline.getFailureCount());
+		for (int i = 0; i < inputFiles.size(); i++) {
+			assertEquals(expected.get(i), getTaxa(load(outputRoot.resolve(i + ".xmi"))), inputFiles.get(i).getName());
+			assertEquals(expected.get(i % TEXTS.size()), expected.get(i));
+		}
+	}
+	
+	private static JCas load(Path file) throws UIMAException, IOException {
+		JCas jCas = JCasFactory.createJCas();
+		try (InputStream inputStream = Files.newInputStream(file)) {
+			CasIOUtils.load(inputStream, null, jCas.getCas(), true);
+		}
+		return jCas;
+	}
+	
+	private static List<String> getTaxa(JCas jCas) {
+		Type type = CasUtil.getType(jCas.getCas(), Taxon.class);
+		Feature value = type.getFeatureByBaseName("value");
+		return CasUtil.select(jCas.getCas(), type).stream()
+				.map(taxon -> String.format("%d-%d:%s", taxon.getBegin(), taxon.getEnd(), taxon.getFeatureValueAsString(value)))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,190 @@
+package org.biofid.gazetteer;
+
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.MetaDataStringField;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import org.apache.uima.UIMAException;
+import org.apache.uima.analysis_engine.AnalysisEngine;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.AnalysisEngineFactory;
+import org.apache.uima.fit.pipeline.SimplePipeline;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.jcas.JCas;
+import org.biofid.gazetteer.metrics.GazetteerMetrics;
+import org.junit.jupiter.api.Test;
+import org.texttechnologylab.annotation.type.Taxon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.biofid.gazetteer.TokenizedDocuments.getCoveredTexts;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the tagging modes and features of the {@link SingleClassTreeGazetteer} on small taxa lists.
+ */
+public class TestSingleClassTreeGazetteer {
+	
+	private static final String TAXA_LIST = "src/test/resources/taxa-authors.list";
+	
+	@Test
+	public void testStreamingMatchesDocumentLevel() throws UIMAException {
+		// The look-ahead window holds three tokens, the taxa start at every offset relative to it and cross its end
+		String text = "Im Wald Fagus sylvatica L . stehen Quercus robur , Fagus sylvatica und Fagus sylvatica L Quercus robur "
+				+ "Fagus Quercus robur und am Ende Fagus sylvatica L";
+		for (boolean overlapping : new boolean[]{false, true}) {
+			List<String> expected = null;
+			for (boolean streaming : new boolean[]{false, true}) {
+				final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+						SingleClassTreeGazetteer.class,
+						SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TAXA_LIST,
+						SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+						SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
+						SingleClassTreeGazetteer.PARAM_USE_STREAMING_TAGGING, streaming,
+						SingleClassTreeGazetteer.PARAM_FIND_OVERLAPPING_MATCHES, overlapping
+				));
+				
+				JCas jCas = TokenizedDocuments.create(text, "\\p{L}+|\\S");
+				SimplePipeline.runPipeline(jCas, gazetterEngine);
+				
+				Type type = CasUtil.getType(jCas.getCas(), Taxon.class);
+				Feature value = type.getFeatureByBaseName("value");
+				List<String> taxa = CasUtil.select(jCas.getCas(), type).stream()
+						.map(taxon -> String.format("%d-%d:%s", taxon.getBegin(), taxon.getEnd(), taxon.getFeatureValueAsString(value)))
+						.collect(Collectors.toList());
+				if (expected == null) {
+					expected = taxa;
+					// The last taxon ends with the document and is only complete once the stream is exhausted
+					assertTrue(taxa.contains("8-25:https://example.org/fagus"), taxa.toString());
+					assertTrue(taxa.contains(String.format("%d-%d:https://example.org/fagus", text.length() - 17, text.length())), taxa.toString());
+				} else {
+					assertEquals(expected, taxa, "overlapping: " + overlapping);
+				}
+			}
+			assertEquals(overlapping ? 13 : 7, expected.size(), expected.toString());
+		}
+	}
+	
+	@Test
+	public void testDehyphenation() throws UIMAException {
+		// "Quer-" is a single token, the hyphen after "syl" is a token of its own
+		String text = "Im Wald stehen Quer-\ncus robur und Fagus syl\u2010\n  vatica , aber keine Quer- cus .";
+		for (String mode : new String[]{"document", "streaming", "sentence"}) {
+			final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+					SingleClassTreeGazetteer.class,
+					SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TAXA_LIST,
+					SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+					SingleClassTreeGazetteer.PARAM_USE_LOWERCASE, true,
+					SingleClassTreeGazetteer.PARAM_DEHYPHENATE, true,
+					SingleClassTreeGazetteer.PARAM_USE_STREAMING_TAGGING, mode.equals("streaming"),
+					SingleClassTreeGazetteer.PARAM_USE_SENTECE_LEVEL_TAGGING, mode.equals("sentence")
+			));
+			
+			JCas jCas = TokenizedDocuments.create(text, "\\p{L}+-?|\\S");
+			int comma = text.indexOf(',');
+			jCas.addFsToIndexes(new Sentence(jCas, 0, comma));
+			jCas.addFsToIndexes(new Sentence(jCas, comma + 2, text.length()));
+			SimplePipeline.runPipeline(jCas, gazetterEngine);
+			
+			assertEquals(Arrays.asList("Quer-\ncus robur", "Fagus syl\u2010\n  vatica"), getCoveredTexts(jCas, Taxon.class), mode);
+		}
+	}
+	
+	@Test
+	public void testTokenBudget() throws UIMAException {
+		String text = "Quercus robur und Fagus sylvatica , dann Quercus robur und Fagus sylvatica .";
+		for (String mode : new String[]{"document", "streaming", "overlapping"}) {
+			for (String strategy : new String[]{"", "STOP", "FULL_NAMES"}) {
+				final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+						SingleClassTreeGazetteer.class,
+						SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TAXA_LIST,
+						SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+						SingleClassTreeGazetteer.PARAM_TOKEN_BUDGET, strategy.isEmpty() ? 0 : 6,
+						SingleClassTreeGazetteer.PARAM_BUDGET_STRATEGY, strategy.isEmpty() ? "STOP" : strategy,
+						SingleClassTreeGazetteer.PARAM_USE_STREAMING_TAGGING, mode.equals("streaming"),
+						SingleClassTreeGazetteer.PARAM_FIND_OVERLAPPING_MATCHES, mode.equals("overlapping")
+				));
+				
+				JCas jCas = TokenizedDocuments.create(text);
+				SimplePipeline.runPipeline(jCas, gazetterEngine);
+				
+				List<MetaDataStringField> fields = JCasUtil.select(jCas, MetaDataStringField.class).stream()
+						.filter(field -> BaseTreeGazetteer.BUDGET_EXCEEDED_KEY.equals(field.getKey()))
+						.collect(Collectors.toList());
+				String message = mode + " " + strategy;
+				switch (strategy) {
+					case "":
+						assertEquals(Arrays.asList("Quercus robur", "Fagus sylvatica", "Quercus robur", "Fagus sylvatica"), getCoveredTexts(jCas, Taxon.class), message);
+						assertEquals(0, fields.size(), message);
+						break;
+					case "STOP":
+						assertEquals(Arrays.asList("Quercus robur", "Fagus sylvatica"), getCoveredTexts(jCas, Taxon.class), message);
+						assertEquals(1, fields.size(), message);
+						assertTrue(fields.get(0).getValue().startsWith("reason=TOKENS strategy=STOP token=6 "), fields.get(0).getValue());
+						break;
+					default:
+						// The second "Fagus sylvatica" is a skip-gram of "Fagus sylvatica L."
+						assertEquals(Arrays.asList("Quercus robur", "Fagus sylvatica", "Quercus robur"), getCoveredTexts(jCas, Taxon.class), message);
+						assertEquals(1, fields.size(), message);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testWarmUp() throws UIMAException {
+		final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+				SingleClassTreeGazetteer.class,
+				SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TAXA_LIST,
+				SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+				SingleClassTreeGazetteer.PARAM_WARM_UP_ITERATIONS, 5,
+				SingleClassTreeGazetteer.PARAM_USE_SENTECE_LEVEL_TAGGING, true
+		));
+		
+		// Nothing of the warm-up documents is left over
+		JCas jCas = TokenizedDocuments.createWithSentences("Im Wald stehen Quercus robur und Fagus sylvatica .");
+		SimplePipeline.runPipeline(jCas, gazetterEngine);
+		
+		assertEquals(Arrays.asList("Quercus robur", "Fagus sylvatica"), getCoveredTexts(jCas, Taxon.class));
+	}
+	
+	@Test
+	public void testMatchCache() throws UIMAException {
+		GazetteerMetrics metrics = GazetteerMetrics.register(SingleClassTreeGazetteer.class.getSimpleName());
+		long hits = metrics.getMatchCacheHitCount();
+		final AnalysisEngine gazetterEngine = AnalysisEngineFactory.createEngine(AnalysisEngineFactory.createEngineDescription(
+				SingleClassTreeGazetteer.class,
+				SingleClassTreeGazetteer.PARAM_SOURCE_LOCATION, TAXA_LIST,
+				SingleClassTreeGazetteer.PARAM_TAGGING_TYPE_NAME, Taxon.class.getName(),
+				SingleClassTreeGazetteer.PARAM_USE_SENTECE_LEVEL_TAGGING, true,
+				SingleClassTreeGazetteer.PARAM_MATCH_CACHE_SIZE, 1,
+				SingleClassTreeGazetteer.PARAM_COLLECT_METRICS, true
+		));
+		
+		// The running head repeats within and across documents
+		String[] texts = {
+				"Flora von Hessen : Quercus robur . Im Wald stehen Quercus robur und Fagus sylvatica . Flora von Hessen : Quercus robur .",
+				"Flora von Hessen : Quercus robur . Fagus sylvatica am Ufer ."
+		};
+		for (String text : texts) {
+			JCas jCas = TokenizedDocuments.createWithSentences(text);
+			SimplePipeline.runPipeline(jCas, gazetterEngine);
+			
+			Matcher taxonMatcher = Pattern.compile("Quercus robur|Fagus sylvatica").matcher(text);
+			List<String> expected = new ArrayList<>();
+			while (taxonMatcher.find()) {
+				expected.add(taxonMatcher.start() + " " + taxonMatcher.group());
+			}
+			assertEquals(expected, CasUtil.select(jCas.getCas(), CasUtil.getType(jCas.getCas(), Taxon.class)).stream()
+					.map(taxon -> taxon.getBegin() + " " + taxon.getCoveredText())
+					.collect(Collectors.toList()));
+		}
+		assertEquals(2, metrics.getMatchCacheHitCount() - hits);
+	}
+}
@@ -0,0 +1,219 @@
+package org.biofid.gazetteer;
+
+import com.sun.net.httpserver.HttpServer;
+import org.biofid.gazetteer.util.SourceCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSourceCache {
+	
+	@TempDir
+	Path tempDir;
+	
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private final ConcurrentHashMap<String, byte[]> contents = new ConcurrentHashMap<>();
+	/**
+	 * Requests wait for this latch, once per request, before they are answered.
+	 */
+	private volatile CountDownLatch requestLatch = new CountDownLatch(0);
+	private final AtomicInteger downloads = new AtomicInteger();
+	private final AtomicInteger notModified = new AtomicInteger();
+	
+	@BeforeEach
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			requestLatch.countDown();
+			try {
+				if (!requestLatch.await(10, TimeUnit.SECONDS)) {
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] content = contents.get(exchange.getRequestURI().getPath());
+			if (content == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else {
+				String etag = "\"" + Arrays.hashCode(content) + "\"";
+				if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					downloads.incrementAndGet();
+					exchange.getResponseHeaders().add("ETag", etag);
+					exchange.sendResponseHeaders(200, content.length);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write(content);
+					}
+				}
+			}
+			exchange.close();
+		});
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+	}
+	
+	@AfterEach
+	public void stopServer() {
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+	
+	private URL url(String path) throws IOException {
+		return new URL(String.format("http://127.0.0.1:%d%s", server.getAddress().getPort(), path));
+	}
+	
+	private static byte[] zip(String... namesAndContents) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			for (int i = 0; i < namesAndContents.length; i += 2) {
+				zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+				zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+	
+	@Test
+	public void testConditionalFetch() throws IOException {
+		contents.put("/taxa.zip", zip("a.list", "Quercus robur\thttps://example.org/a"));
+		SourceCache cache = new SourceCache(tempDir);
+		
+		Path first = cache.fetch(url("/taxa.zip"));
+		Path second = cache.fetch(url("/taxa.zip"));
+		assertEquals(first, second);
+		assertTrue(first.toString().endsWith(".zip"));
+		assertEquals(1, downloads.get());
+		assertEquals(1, notModified.get());
+		
+		// A changed source is downloaded again and stored under its new checksum
+		contents.put("/taxa.zip", zip("a.list", "Fagus sylvatica\thttps://example.org/b"));
+		Path third = cache.fetch(url("/taxa.zip"));
+		assertNotEquals(first, third);
+		assertEquals(2, downloads.get());
+		
+		// A corrupt cached copy is downloaded unconditionally
+		Files.write(third, new byte[]{1, 2, 3});
+		assertEquals(third, cache.fetch(url("/taxa.zip")));
+		assertEquals(3, downloads.get());
+		assertEquals(SourceCache.sha256(third) + ".zip", third.getFileName().toString());
+		
+		// The cached copy is used if the server is gone
+		server.stop(0);
+		assertEquals(third, new SourceCache(tempDir).setTimeouts(1000, 1000).fetch(url("/taxa.zip")));
+	}
+	
+	@Test
+	public void testFetchAllConcurrently() throws IOException {
+		contents.put("/a.list", "Quercus robur\thttps://example.org/a".getBytes(StandardCharsets.UTF_8));
+		contents.put("/b.list", "Fagus sylvatica\thttps://example.org/b".getBytes(StandardCharsets.UTF_8));
+		String local = tempDir.resolve("local.list").toString();
+		
+		// Both requests are only answered once both are in flight
+		requestLatch = new CountDownLatch(2);
+		String[] paths = new SourceCache(tempDir).fetchAll(new String[]{url("/a.list").toString(), local, url("/b.list").toString()});
+		assertEquals(local, paths[1]);
+		assertEquals("Quercus robur\thttps://example.org/a", new String(Files.readAllBytes(Paths.get(paths[0])), StandardCharsets.UTF_8));
+		assertEquals("Fagus sylvatica\thttps://example.org/b", new String(Files.readAllBytes(Paths.get(paths[2])), StandardCharsets.UTF_8));
+		assertEquals(2, downloads.get());
+		
+		requestLatch = new CountDownLatch(0);
+		assertThrows(IOException.class, () -> new SourceCache(tempDir).fetchAll(new String[]{url("/missing.list").toString()}));
+	}
+	
+	@Test
+	public void testConcurrentFetchOfSameSource() throws Exception {
+		contents.put("/a.list", "Quercus robur\thttps://example.org/a".getBytes(StandardCharsets.UTF_8));
+		
+		// The first request is held until the second fetch has started and waits for the lock
+		requestLatch = new CountDownLatch(2);
+		ExecutorService clients = Executors.newFixedThreadPool(2);
+		try {
+			Future<Path> first = clients.submit(() -> new SourceCache(tempDir).fetch(url("/a.list")));
+			Future<Path> second = clients.submit(() -> new SourceCache(tempDir).fetch(url("/a.list")));
+			Thread.sleep(200);
+			assertEquals(1, requestLatch.getCount());
+			requestLatch.countDown();
+			assertEquals(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+		} finally {
+			clients.shutdownNow();
+		}
+		assertEquals(1, downloads.get());
+		assertEquals(1, notModified.get());
+	}
+	
+	@Test
+	public void testMaxAge() throws IOException {
+		contents.put("/a.list", "Quercus robur\thttps://example.org/a".getBytes(StandardCharsets.UTF_8));
+		Path cached = new SourceCache(tempDir).setMaxAge(60_000).fetch(url("/a.list"));
+		assertEquals(cached, new SourceCache(tempDir).setMaxAge(60_000).fetch(url("/a.list")));
+		assertEquals(1, downloads.get());
+		assertEquals(0, notModified.get());
+		
+		// Without a maximum age every fetch is revalidated
+		assertEquals(cached, new SourceCache(tempDir).setMaxAge(0).fetch(url("/a.list")));
+		assertEquals(1, notModified.get());
+		
+		// Checksums are trusted as long as size and modification time match
+		FileTime modified = Files.getLastModifiedTime(cached);
+		Files.write(cached, "Quercus rubra\thttps://example.org/a".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(cached, modified);
+		new SourceCache(tempDir).setMaxAge(0).fetch(url("/a.list"));
+		assertEquals(1, downloads.get());
+		Files.setLastModifiedTime(cached, FileTime.fromMillis(modified.toMillis() + 1000));
+		new SourceCache(tempDir).setMaxAge(0).fetch(url("/a.list"));
+		assertEquals(2, downloads.get());
+	}
+	
+	@Test
+	public void testExtract() throws IOException {
+		Path archive = tempDir.resolve("taxa.zip");
+		Files.write(archive, zip("a.list", "Quercus robur\thttps://example.org/a", "b.list", "Fagus sylvatica\thttps://example.org/b"));
+		SourceCache cache = new SourceCache(tempDir.resolve("cache"));
+		
+		List<Path> files = cache.extract(archive);
+		assertEquals(2, files.size());
+		assertEquals("a.list", files.get(0).getFileName().toString());
+		assertEquals(files, cache.extract(archive));
+		
+		// Stale or corrupt extractions are replaced
+		Files.write(files.get(1), "Quercus rubra\thttps://example.org/c".getBytes(StandardCharsets.UTF_8));
+		assertEquals(files, cache.extract(archive));
+		assertEquals("Fagus sylvatica\thttps://example.org/b", new String(Files.readAllBytes(files.get(1)), StandardCharsets.UTF_8));
+		
+		Files.write(archive, zip("../evil.list", "Quercus robur\thttps://example.org/a"));
+		assertThrows(IOException.class, () -> cache.extract(archive));
+	}
+}
@@ -0,0 +1,227 @@
+package org.biofid.gazetteer;
+
+import org.apache.commons.io.IOUtils;
+import org.biofid.gazetteer.matcher.GazetteerMatcher;
+import org.biofid.gazetteer.matcher.MatchSpan;
+import org.biofid.gazetteer.models.TreeGazetteerModel;
+import org.biofid.gazetteer.run.TaggingServer;
+import org.biofid.gazetteer.util.Json;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTaggingServer {
+	
+	private static TreeGazetteerModel model;
+	private static TaggingServer server;
+	
+	@BeforeAll
+	public static void startServer() throws IOException {
+		model = new TreeGazetteerModel(new String[]{TestGazetteerMatcher.TAXA_LIST}, true, "de", 5, false, true, true, 3, "\\s+", new HashSet<>());
+		server = new TaggingServer(new GazetteerMatcher(model, true), 0, 2, 8, 5);
+		server.start();
+	}
+	
+	@AfterAll
+	public static void stopServer() {
+		server.stop();
+	}
+	
+	@Test
+	public void testTagText() throws IOException {
+		String text = "Im Wald stehen Quercus robur und Fagus sylvatica.";
+		List<Map<String, Object>> spans = getSpans(post("text/plain", text));
+		
+		assertEquals(2, spans.size());
+		assertEquals("Quercus robur", text.substring(getInt(spans.get(0), "begin"), getInt(spans.get(0), "end")));
+		assertEquals("quercus robur", spans.get(0).get("taxon"));
+		assertEquals(Arrays.asList("https://example.org/quercus_robur"), spans.get(0).get("uris"));
+		assertEquals("fagus sylvatica", spans.get(1).get("taxon"));
+		
+		assertEquals(spans, getSpans(post("application/json", "{\"text\": " + Json.quote(text) + "}")));
+	}
+	
+	@Test
+	public void testTagTokens() throws IOException {
+		List<Map<String, Object>> spans = getSpans(post("application/json",
+				"{\"tokens\": [\"Eine\", \"Fagus\", \"sylvatica\"], \"begins\": [0, 10, 20], \"ends\": [4, 15, 29]}"));
+		assertEquals(1, spans.size());
+		assertEquals(10, getInt(spans.get(0), "begin"));
+		assertEquals(29, getInt(spans.get(0), "end"));
+		
+		// Without offsets the tokens are joined by single spaces
+		spans = getSpans(post("application/json", "{\"tokens\": [\"Eine\", \"Fagus\", \"sylvatica\"]}"));
+		assertEquals(5, getInt(spans.get(0), "begin"));
+		assertEquals(20, getInt(spans.get(0), "end"));
+		
+		assertEquals(400, open("/tag", "application/json", "{\"tokens\": [\"Eine\"], \"begins\": [0]}").getResponseCode());
+		assertEquals(400, open("/tag", "application/json", "{\"tokens\": ").getResponseCode());
+	}
+	
+	@Test
+	public void testConcurrentRequestsAndMetrics() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try {
+			ArrayList<Future<String>> responses = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				responses.add(clients.submit(() -> post(server, "text/plain", "Quercus robur")));
+			}
+			for (Future<String> response : responses) {
+				assertEquals(1, getSpans(response.get()).size());
+			}
+		} finally {
+			clients.shutdown();
+		}
+		
+		Map<String, Object> metrics = getMetrics(server);
+		assertTrue(getInt(metrics, "requests") >= 64);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> latency = (Map<String, Object>) metrics.get("latencyMillis");
+		assertTrue(((Number) latency.get("max")).doubleValue() >= ((Number) latency.get("p50")).doubleValue());
+		
+		assertEquals("ok", read(open(server, "/health", null, null)));
+	}
+	
+	@Test
+	public void testMicroBatching() throws Exception {
+		CountDownLatch busy = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		Set<String> workerThreads = ConcurrentHashMap.newKeySet();
+		AtomicInteger matchCalls = new AtomicInteger();
+		GazetteerMatcher blockingMatcher = new GazetteerMatcher(model, true) {
+			@Override
+			public ArrayList<MatchSpan> match(@Nonnull CharSequence text) {
+				workerThreads.add(Thread.currentThread().getName());
+				matchCalls.incrementAndGet();
+				if (text.toString().startsWith("block")) {
+					busy.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.match(text);
+			}
+		};
+		TaggingServer batchingServer = new TaggingServer(blockingMatcher, 0, 2, 8, 50);
+		batchingServer.start();
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try {
+			// Two requests keep both workers busy, they must not wait for each other
+			ArrayList<Future<String>> responses = new ArrayList<>();
+			responses.add(clients.submit(() -> post(batchingServer, "text/plain", "block Quercus robur")));
+			responses.add(clients.submit(() -> post(batchingServer, "text/plain", "block Fagus sylvatica")));
+			assertTrue(busy.await(10, TimeUnit.SECONDS));
+			assertEquals(2, workerThreads.size());
+			
+			// The backlog queues up meanwhile, one request is held by the dispatcher
+			for (String text : Arrays.asList("Quercus robur", "Quercus robur", "Fagus sylvatica", "eins", "zwei", "drei")) {
+				responses.add(clients.submit(() -> post(batchingServer, "text/plain", text)));
+			}
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (getInt(getMetrics(batchingServer), "queued") < 5 && System.nanoTime() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(5, getInt(getMetrics(batchingServer), "queued"));
+			
+			release.countDown();
+			for (Future<String> response : responses) {
+				response.get(10, TimeUnit.SECONDS);
+			}
+			Map<String, Object> metrics = getMetrics(batchingServer);
+			assertEquals(8, getInt(metrics, "requests"));
+			assertTrue(getInt(metrics, "largestBatch") >= 3, metrics.toString());
+			assertTrue(getInt(metrics, "batches") < 8, metrics.toString());
+			assertEquals(8 - getInt(metrics, "sharedRequests"), matchCalls.get());
+		} finally {
+			release.countDown();
+			clients.shutdown();
+			batchingServer.stop();
+		}
+	}
+	
+	@Test
+	public void testSingleWorkerDoesNotDelay() throws IOException {
+		// With a single idle worker there is no busy worker to wait for
+		TaggingServer singleWorkerServer = new TaggingServer(new GazetteerMatcher(model, true), 0, 1, 8, 10_000);
+		singleWorkerServer.start();
+		try {
+			long start = System.nanoTime();
+			assertEquals(1, getSpans(post(singleWorkerServer, "text/plain", "Quercus robur")).size());
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		} finally {
+			singleWorkerServer.stop();
+		}
+	}
+	
+	private static String post(String contentType, String body) throws IOException {
+		return post(server, contentType, body);
+	}
+	
+	private static String post(TaggingServer server, String contentType, String body) throws IOException {
+		HttpURLConnection connection = open(server, "/tag", contentType, body);
+		assertEquals(200, connection.getResponseCode());
+		return read(connection);
+	}
+	
+	private static HttpURLConnection open(String path, String contentType, String body) throws IOException {
+		return open(server, path, contentType, body);
+	}
+	
+	private static HttpURLConnection open(TaggingServer server, String path, String contentType, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+		if (body != null) {
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", contentType);
+			connection.setDoOutput(true);
+			try (OutputStream outputStream = connection.getOutputStream()) {
+				outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return connection;
+	}
+	
+	private static String read(HttpURLConnection connection) throws IOException {
+		try (InputStream inputStream = connection.getInputStream()) {
+			return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getMetrics(TaggingServer server) throws IOException {
+		return (Map<String, Object>) Json.parse(read(open(server, "/metrics", null, null)));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> getSpans(String response) {
+		return (List<Map<String, Object>>) ((Map<String, Object>) Json.parse(response)).get("spans");
+	}
+	
+	private static int getInt(Map<String, Object> object, String key) {
+		return ((Number) object.get(key)).intValue();
+	}
+}
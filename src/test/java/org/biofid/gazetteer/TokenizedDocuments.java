@@ -0,0 +1,65 @@
+package org.biofid.gazetteer;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Small tokenized German documents for the engine tests.
+ */
+final class TokenizedDocuments {
+	
+	private TokenizedDocuments() {
+	}
+	
+	/**
+	 * @return A JCas of the given text with a {@link Token} for each run of non-whitespace characters.
+	 */
+	static JCas create(String text) throws UIMAException {
+		return create(text, "\\S+");
+	}
+	
+	/**
+	 * @return A JCas of the given text with a {@link Token} for each match of the given pattern.
+	 */
+	static JCas create(String text, String tokenRegex) throws UIMAException {
+		JCas jCas = JCasFactory.createText(text, "de");
+		Matcher matcher = Pattern.compile(tokenRegex).matcher(text);
+		while (matcher.find()) {
+			jCas.addFsToIndexes(new Token(jCas, matcher.start(), matcher.end()));
+		}
+		return jCas;
+	}
+	
+	/**
+	 * @return A JCas of the given text with a {@link Token} for each run of non-whitespace characters and a
+	 * {@link Sentence} for each run of text up to a period.
+	 */
+	static JCas createWithSentences(String text) throws UIMAException {
+		JCas jCas = create(text);
+		Matcher matcher = Pattern.compile("\\S[^.]*\\.").matcher(text);
+		while (matcher.find()) {
+			jCas.addFsToIndexes(new Sentence(jCas, matcher.start(), matcher.end()));
+		}
+		return jCas;
+	}
+	
+	/**
+	 * @return The covered texts of all annotations of the given type in index order.
+	 */
+	static List<String> getCoveredTexts(JCas jCas, Class<? extends Annotation> clazz) {
+		return CasUtil.select(jCas.getCas(), CasUtil.getType(jCas.getCas(), clazz)).stream()
+				.map(AnnotationFS::getCoveredText)
+				.collect(Collectors.toList());
+	}
+}